@@ -0,0 +1,115 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.adapter;
+
+import com.exclamationlabs.connid.base.microsoft.graph.configuration.MicrosoftGraphConfiguration;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphGroup;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphLicense;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphUser;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Conversion hot paths run for every object of a reconciliation: ConnId attributes to Graph model
+ * (create/update) and Graph model to ConnId attributes (search/get). Run with {@code ./gradlew
+ * jmh}, which adds {@code -prof gc} so allocation rate per operation is reported next to
+ * throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MicrosoftGraphAdapterBenchmark {
+
+  /** Distinct synthetic objects cycled through, so values are not all identical. */
+  private static final int POOL_SIZE = 256;
+
+  private MicrosoftGraphUsersAdapter usersAdapter;
+  private MicrosoftGraphGroupsAdapter groupsAdapter;
+  private MicrosoftGraphLicensesAdapter licensesAdapter;
+
+  private Set<Attribute>[] userAttributes;
+  private Set<Attribute>[] groupAttributes;
+  private MicrosoftGraphUser[] users;
+  private MicrosoftGraphGroup[] groups;
+  private MicrosoftGraphLicense[] licenses;
+
+  private int cursor;
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setup() {
+    MicrosoftGraphConfiguration configuration = MicrosoftGraphSyntheticPayloads.configuration();
+    usersAdapter = new MicrosoftGraphUsersAdapter();
+    usersAdapter.setConfiguration(configuration);
+    groupsAdapter = new MicrosoftGraphGroupsAdapter();
+    groupsAdapter.setConfiguration(configuration);
+    licensesAdapter = new MicrosoftGraphLicensesAdapter();
+    licensesAdapter.setConfiguration(configuration);
+
+    userAttributes = new Set[POOL_SIZE];
+    groupAttributes = new Set[POOL_SIZE];
+    users = new MicrosoftGraphUser[POOL_SIZE];
+    groups = new MicrosoftGraphGroup[POOL_SIZE];
+    licenses = new MicrosoftGraphLicense[POOL_SIZE];
+    for (int index = 0; index < POOL_SIZE; index++) {
+      userAttributes[index] = MicrosoftGraphSyntheticPayloads.userAttributes(index);
+      groupAttributes[index] = MicrosoftGraphSyntheticPayloads.groupAttributes(index);
+      users[index] = MicrosoftGraphSyntheticPayloads.user(index);
+      groups[index] = MicrosoftGraphSyntheticPayloads.group(index);
+      licenses[index] = MicrosoftGraphSyntheticPayloads.license(index);
+    }
+  }
+
+  private int next() {
+    cursor = (cursor + 1) & (POOL_SIZE - 1);
+    return cursor;
+  }
+
+  @Benchmark
+  public MicrosoftGraphUser userConstructModelCreate() {
+    return usersAdapter.constructModel(userAttributes[next()], null, null, true);
+  }
+
+  @Benchmark
+  public MicrosoftGraphUser userConstructModelUpdate() {
+    return usersAdapter.constructModel(
+        userAttributes[next()], Collections.emptySet(), Collections.emptySet(), false);
+  }
+
+  @Benchmark
+  public Set<Attribute> userConstructAttributes() {
+    return usersAdapter.constructAttributes(users[next()]);
+  }
+
+  @Benchmark
+  public MicrosoftGraphGroup groupConstructModel() {
+    return groupsAdapter.constructModel(groupAttributes[next()], null, null, true);
+  }
+
+  @Benchmark
+  public Set<Attribute> groupConstructAttributes() {
+    return groupsAdapter.constructAttributes(groups[next()]);
+  }
+
+  @Benchmark
+  public Set<Attribute> licenseConstructAttributes() {
+    return licensesAdapter.constructAttributes(licenses[next()]);
+  }
+}
@@ -0,0 +1,256 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.adapter;
+
+import static com.exclamationlabs.connid.microsoft.graph.attribute.MicrosoftGraphUserAttribute.*;
+
+import com.exclamationlabs.connid.base.connector.configuration.ConfigurationNameBuilder;
+import com.exclamationlabs.connid.base.microsoft.graph.configuration.MicrosoftGraphConfiguration;
+import com.exclamationlabs.connid.microsoft.graph.attribute.MicrosoftGraphGroupAttribute;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphGroup;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphLicense;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphProperties;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphUser;
+import com.microsoft.graph.models.AssignedLicense;
+import com.microsoft.graph.models.EmployeeOrgData;
+import com.microsoft.graph.models.Group;
+import com.microsoft.graph.models.LicenseAssignmentState;
+import com.microsoft.graph.models.SubscribedSku;
+import com.microsoft.graph.models.User;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.OperationalAttributes;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Deterministic Graph objects and ConnId attribute sets shaped like a real tenant: populated
+ * organisation fields, a few dozen group memberships and a mix of direct and group-based licenses.
+ */
+final class MicrosoftGraphSyntheticPayloads {
+
+  static final String TENANT_ID = "7f3c1d2e-0000-4000-8000-00000000feed";
+
+  static final int GROUPS_PER_USER = 25;
+
+  private static final OffsetDateTime BASE_TIME =
+      OffsetDateTime.of(2021, 3, 1, 8, 30, 0, 0, ZoneOffset.UTC);
+
+  private static final String[] DEPARTMENTS = {"Finance", "Engineering", "Sales", "Support"};
+
+  private static final UUID[] SKUS = {
+    UUID.fromString("05e9a617-0261-4cee-bb44-138d3ef5d965"),
+    UUID.fromString("6fd2c87f-b296-42f0-b197-1e91e994b900"),
+    UUID.fromString("f30db892-07e9-47e9-837c-80727f46fd3d")
+  };
+
+  private MicrosoftGraphSyntheticPayloads() {}
+
+  static MicrosoftGraphConfiguration configuration() {
+    MicrosoftGraphConfiguration configuration =
+        new MicrosoftGraphConfiguration(
+            new ConfigurationNameBuilder().withConnector(() -> "MICROSOFT_GRAPH").build());
+    configuration.setTenantId(TENANT_ID);
+    configuration.setEnableDebugHttpLogging(false);
+    configuration.setForceChangePasswordOnCreate(false);
+    return configuration;
+  }
+
+  static String id(String prefix, int index) {
+    return String.format("%s-%04x-4000-8000-%012x", prefix, index & 0xffff, (long) index);
+  }
+
+  static User graphUser(int index) {
+    User user = new User();
+    user.id = id("a1b2c3d4", index);
+    user.displayName = "Synthetic User " + index;
+    user.givenName = "Synthetic";
+    user.surname = "User" + index;
+    user.mail = "synthetic.user" + index + "@example.com";
+    user.mailNickname = "synthetic.user" + index;
+    user.userPrincipalName = user.mail;
+    user.accountEnabled = true;
+    user.userType = "Member";
+    user.preferredLanguage = "en-US";
+    user.usageLocation = "US";
+    user.country = "United States";
+    user.city = "Indianapolis";
+    user.state = "IN";
+    user.postalCode = "46204";
+    user.streetAddress = index + " Monument Circle";
+    user.companyName = "Exclamation Labs";
+    user.department = DEPARTMENTS[index % DEPARTMENTS.length];
+    user.jobTitle = "Analyst";
+    user.officeLocation = "Building " + (index % 7);
+    user.employeeId = Integer.toString(100000 + index);
+    user.employeeType = "Employee";
+    user.employeeOrgData = new EmployeeOrgData();
+    user.employeeOrgData.costCenter = "CC" + (index % 40);
+    user.employeeOrgData.division = "Division " + (index % 5);
+    user.creationType = null;
+    user.createdDateTime = BASE_TIME.plusMinutes(index);
+    user.employeeHireDate = BASE_TIME.minusDays(index % 900);
+    user.lastPasswordChangeDateTime = BASE_TIME.plusDays(index % 90);
+    user.onPremisesSyncEnabled = index % 3 == 0;
+    user.onPremisesSamAccountName = index % 3 == 0 ? "suser" + index : null;
+    user.onPremisesLastSyncDateTime = index % 3 == 0 ? BASE_TIME.plusHours(index % 24) : null;
+    user.businessPhones = Collections.singletonList("+1 317 555 " + (1000 + index % 9000));
+    user.imAddresses = Collections.singletonList("sip:" + user.mail);
+    user.otherMails = new ArrayList<>();
+    user.proxyAddresses =
+        Arrays.asList(
+            "SMTP:" + user.mail,
+            "smtp:" + user.mailNickname + "@example.onmicrosoft.com",
+            "sip:" + user.mail);
+    user.responsibilities = new ArrayList<>();
+    user.skills = Arrays.asList("Excel", "SQL");
+    user.licenseAssignmentStates = new ArrayList<>();
+    for (int sku = 0; sku < SKUS.length; sku++) {
+      LicenseAssignmentState state = new LicenseAssignmentState();
+      state.skuId = SKUS[sku];
+      state.state = "Active";
+      state.assignedByGroup = sku == 2 ? id("0f0f0f0f", sku) : null;
+      user.licenseAssignmentStates.add(state);
+    }
+    return user;
+  }
+
+  /** A user as read from Graph, that is, holding the properties of its JSON form. */
+  static MicrosoftGraphUser user(int index) {
+    MicrosoftGraphUser user = new MicrosoftGraphUser(MicrosoftGraphProperties.of(graphUser(index)));
+    Set<String> memberOf = new HashSet<>();
+    for (int group = 0; group < GROUPS_PER_USER; group++) {
+      memberOf.add(id("0f0f0f0f", (index + group) % 500));
+    }
+    user.setMemberOf(memberOf);
+    return user;
+  }
+
+  /** Attributes as midPoint sends them on create of a fully mapped account. */
+  static Set<Attribute> userAttributes(int index) {
+    User source = graphUser(index);
+    Set<Attribute> attributes = new HashSet<>();
+    attributes.add(AttributeBuilder.build(Uid.NAME, source.id));
+    attributes.add(AttributeBuilder.build(Name.NAME, source.displayName));
+    attributes.add(AttributeBuilder.build(OperationalAttributes.ENABLE_NAME, true));
+    attributes.add(
+        AttributeBuilder.build(
+            OperationalAttributes.PASSWORD_NAME, new GuardedString("S3cret!pass".toCharArray())));
+    attributes.add(AttributeBuilder.build(GIVEN_NAME.name(), source.givenName));
+    attributes.add(AttributeBuilder.build(SURNAME.name(), source.surname));
+    attributes.add(AttributeBuilder.build(EMAIL.name(), source.mail));
+    attributes.add(AttributeBuilder.build(EMAIL_NICKNAME.name(), source.mailNickname));
+    attributes.add(AttributeBuilder.build(USER_PRINCIPAL_NAME.name(), source.userPrincipalName));
+    attributes.add(AttributeBuilder.build(USER_TYPE.name(), source.userType));
+    attributes.add(AttributeBuilder.build(PREFERRED_LANGUAGE.name(), source.preferredLanguage));
+    attributes.add(AttributeBuilder.build(USAGE_LOCATION.name(), source.usageLocation));
+    attributes.add(AttributeBuilder.build(COUNTRY.name(), source.country));
+    attributes.add(AttributeBuilder.build(CITY.name(), source.city));
+    attributes.add(AttributeBuilder.build(STATE.name(), source.state));
+    attributes.add(AttributeBuilder.build(POSTAL_CODE.name(), source.postalCode));
+    attributes.add(AttributeBuilder.build(STREET_ADDRESS.name(), source.streetAddress));
+    attributes.add(AttributeBuilder.build(COMPANY_NAME.name(), source.companyName));
+    attributes.add(AttributeBuilder.build(OFFICE_LOCATION.name(), source.officeLocation));
+    attributes.add(AttributeBuilder.build(EMPLOYEE_ID.name(), source.employeeId));
+    attributes.add(AttributeBuilder.build(EMPLOYEE_TYPE.name(), source.employeeType));
+    attributes.add(
+        AttributeBuilder.build(EMPLOYEE_HIRE_DATE.name(), source.employeeHireDate.toString()));
+    attributes.add(AttributeBuilder.build(COST_CENTER.name(), source.employeeOrgData.costCenter));
+    attributes.add(AttributeBuilder.build(DIVISION.name(), source.employeeOrgData.division));
+    attributes.add(AttributeBuilder.build(BUSINESS_PHONES.name(), source.businessPhones));
+    attributes.add(AttributeBuilder.build(IM_ADDRESSES.name(), source.imAddresses));
+    attributes.add(AttributeBuilder.build(SKILLS.name(), source.skills));
+    attributes.add(AttributeBuilder.build(FORCE_CHANGE_PASSWORD_NEXT_SIGN_IN.name(), true));
+    List<String> groups = new ArrayList<>();
+    for (int group = 0; group < 5; group++) {
+      groups.add(id("0f0f0f0f", (index + group) % 500));
+    }
+    attributes.add(AttributeBuilder.build(ASSIGNED_GROUPS.name(), groups));
+    attributes.add(
+        AttributeBuilder.build(
+            ASSIGNED_LICENSES.name(), Collections.singletonList(TENANT_ID + "_" + SKUS[0])));
+    return attributes;
+  }
+
+  static Group graphGroup(int index) {
+    Group group = new Group();
+    group.id = id("0f0f0f0f", index);
+    group.displayName = "Synthetic Group " + index;
+    group.description = "Synthetic group used for benchmarks";
+    group.mail = index % 2 == 0 ? "group" + index + "@example.com" : null;
+    group.mailEnabled = index % 2 == 0;
+    group.mailNickname = "group" + index;
+    group.securityEnabled = index % 2 != 0;
+    group.groupTypes =
+        index % 2 == 0 ? Collections.singletonList("Unified") : Collections.emptyList();
+    group.visibility = index % 2 == 0 ? "Private" : null;
+    group.createdDateTime = BASE_TIME.plusMinutes(index);
+    group.renewedDateTime = BASE_TIME.plusMinutes(index);
+    group.securityIdentifier = "S-1-12-1-" + index;
+    group.proxyAddresses =
+        group.mail == null
+            ? Collections.emptyList()
+            : Collections.singletonList("SMTP:" + group.mail);
+    if (index % 10 == 0) {
+      AssignedLicense license = new AssignedLicense();
+      license.skuId = SKUS[2];
+      group.assignedLicenses = Collections.singletonList(license);
+    }
+    return group;
+  }
+
+  static MicrosoftGraphGroup group(int index) {
+    MicrosoftGraphGroup group =
+        new MicrosoftGraphGroup(MicrosoftGraphProperties.of(graphGroup(index)));
+    group.setMsTeam(index % 4 == 0);
+    return group;
+  }
+
+  static Set<Attribute> groupAttributes(int index) {
+    Group source = graphGroup(index);
+    Set<Attribute> attributes = new HashSet<>();
+    attributes.add(AttributeBuilder.build(Uid.NAME, source.id));
+    attributes.add(AttributeBuilder.build(Name.NAME, source.displayName));
+    attributes.add(
+        AttributeBuilder.build(
+            MicrosoftGraphGroupAttribute.DESCRIPTION.name(), source.description));
+    attributes.add(
+        AttributeBuilder.build(
+            MicrosoftGraphGroupAttribute.EMAIL_ENABLED.name(), source.mailEnabled));
+    attributes.add(
+        AttributeBuilder.build(
+            MicrosoftGraphGroupAttribute.EMAIL_NICKNAME.name(), source.mailNickname));
+    attributes.add(
+        AttributeBuilder.build(
+            MicrosoftGraphGroupAttribute.SECURITY_ENABLED.name(), source.securityEnabled));
+    attributes.add(
+        AttributeBuilder.build(MicrosoftGraphGroupAttribute.GROUP_TYPES.name(), source.groupTypes));
+    return attributes;
+  }
+
+  static MicrosoftGraphLicense license(int index) {
+    SubscribedSku sku = new SubscribedSku();
+    sku.id = TENANT_ID + "_" + SKUS[index % SKUS.length];
+    sku.skuId = SKUS[index % SKUS.length];
+    sku.skuPartNumber = "SKU_PART_" + index;
+    sku.capabilityStatus = "Enabled";
+    sku.appliesTo = "User";
+    sku.consumedUnits = 1000 + index;
+    return new MicrosoftGraphLicense(sku);
+  }
+}
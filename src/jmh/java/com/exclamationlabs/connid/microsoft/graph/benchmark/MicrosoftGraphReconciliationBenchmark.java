@@ -0,0 +1,412 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.benchmark;
+
+import static com.exclamationlabs.connid.microsoft.graph.attribute.MicrosoftGraphUserAttribute.*;
+
+import com.exclamationlabs.connid.base.connector.configuration.ConfigurationNameBuilder;
+import com.exclamationlabs.connid.base.microsoft.graph.configuration.MicrosoftGraphConfiguration;
+import com.exclamationlabs.connid.microsoft.graph.MicrosoftGraphConnector;
+import com.exclamationlabs.connid.microsoft.graph.standin.MicrosoftGraphStandIn;
+import com.exclamationlabs.connid.microsoft.graph.standin.MicrosoftGraphStandInDirectory;
+import com.exclamationlabs.connid.microsoft.graph.standin.MicrosoftGraphStandInLatency;
+import com.google.gson.GsonBuilder;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.api.APIConfiguration;
+import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.api.ConnectorFacadeFactory;
+import org.identityconnectors.framework.common.objects.*;
+import org.identityconnectors.test.common.TestHelpers;
+
+/**
+ * End-to-end throughput harness: drives {@link MicrosoftGraphConnector} through the ConnId facade
+ * against {@link MicrosoftGraphStandIn} and sweeps dataset size, fetch page size and concurrency.
+ * For each combination it runs full user and group searches and create/update/get/delete of users,
+ * and reports objects or operations per second, p50/p99 latency per operation, peak heap and the
+ * number of Graph requests served.
+ *
+ * <p>Run with {@code ./gradlew reconciliationBenchmark}, see README "Benchmarks" for the options.
+ * The stand-in runs in the same JVM, so the heap figures include its dataset; the baseline column
+ * is the heap in use after populating it.
+ */
+public class MicrosoftGraphReconciliationBenchmark {
+
+  private static final int GROUPS_PER_USERS = 50;
+
+  private final List<Integer> sizes;
+  private final List<Integer> pageSizes;
+  private final List<Integer> concurrencies;
+  private final int operations;
+  private final MicrosoftGraphStandInLatency latency;
+  private final Path report;
+
+  private final List<Result> results = new ArrayList<>();
+
+  MicrosoftGraphReconciliationBenchmark(Map<String, String> options) {
+    sizes = integers(options.getOrDefault("sizes", "1000,10000,100000"));
+    pageSizes = integers(options.getOrDefault("pageSizes", "50,999"));
+    concurrencies = integers(options.getOrDefault("concurrency", "1,8"));
+    operations = Integer.parseInt(options.getOrDefault("operations", "200"));
+    String[] latencyMillis = options.getOrDefault("latency", "0").split(":");
+    latency =
+        latencyMillis.length == 2
+            ? MicrosoftGraphStandInLatency.logNormal(
+                Long.parseLong(latencyMillis[0]), Long.parseLong(latencyMillis[1]))
+            : MicrosoftGraphStandInLatency.fixed(Long.parseLong(latencyMillis[0]));
+    report = Paths.get(options.getOrDefault("report", "build/reports/reconciliation/results.json"));
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    for (int index = 0; index + 1 < args.length; index += 2) {
+      options.put(args[index].replaceFirst("^--", ""), args[index + 1]);
+    }
+    new MicrosoftGraphReconciliationBenchmark(options).run();
+  }
+
+  void run() throws Exception {
+    for (int size : sizes) {
+      try (MicrosoftGraphStandIn standIn =
+          MicrosoftGraphStandIn.start(
+              MicrosoftGraphStandIn.options()
+                  .users(size)
+                  .groups(Math.max(10, size / GROUPS_PER_USERS))
+                  .readLatency(latency)
+                  .writeLatency(latency)
+                  .threads(64))) {
+        for (int pageSize : pageSizes) {
+          for (int concurrency : concurrencies) {
+            runScenario(standIn, size, pageSize, concurrency);
+          }
+        }
+      }
+    }
+    writeReport();
+  }
+
+  private void runScenario(MicrosoftGraphStandIn standIn, int size, int pageSize, int concurrency)
+      throws Exception {
+    ConnectorFacade facade = facade(standIn, pageSize);
+    facade.test();
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    try {
+      Scenario scenario = new Scenario(standIn, size, pageSize, concurrency);
+
+      scenario.measure(
+          "searchUsers",
+          concurrency,
+          executor,
+          index ->
+              facade
+                  .search(new ObjectClass("user"), null, object -> true, null)
+                  .getRemainingPagedResults());
+
+      scenario.measure(
+          "searchGroups",
+          concurrency,
+          executor,
+          index ->
+              facade
+                  .search(new ObjectClass("group"), null, object -> true, null)
+                  .getRemainingPagedResults());
+
+      String[] created = new String[operations];
+      String groupId = MicrosoftGraphStandInDirectory.groupId(1);
+      scenario.measure(
+          "createUser",
+          operations,
+          executor,
+          index ->
+              created[index] =
+                  facade
+                      .create(
+                          new ObjectClass("user"),
+                          newUser(size, pageSize, concurrency, index, groupId),
+                          null)
+                      .getUidValue());
+
+      scenario.measure(
+          "updateUser",
+          operations,
+          executor,
+          index ->
+              facade.updateDelta(
+                  new ObjectClass("user"),
+                  new Uid(created[index]),
+                  new HashSet<>(
+                      Arrays.asList(
+                          AttributeDeltaBuilder.build(OFFICE_LOCATION.name(), "Benchmark " + index),
+                          new AttributeDeltaBuilder()
+                              .setName(ASSIGNED_GROUPS.name())
+                              .addValueToAdd(MicrosoftGraphStandInDirectory.groupId(2))
+                              .addValueToRemove(groupId)
+                              .build())),
+                  null));
+
+      scenario.measure(
+          "getUser",
+          operations,
+          executor,
+          index -> facade.getObject(new ObjectClass("user"), new Uid(created[index]), null));
+
+      scenario.measure(
+          "deleteUser",
+          operations,
+          executor,
+          index -> facade.delete(new ObjectClass("user"), new Uid(created[index]), null));
+    } finally {
+      executor.shutdownNow();
+      ConnectorFacadeFactory.getInstance().dispose();
+    }
+  }
+
+  private static ConnectorFacade facade(MicrosoftGraphStandIn standIn, int pageSize) {
+    MicrosoftGraphConfiguration configuration =
+        new MicrosoftGraphConfiguration(
+            new ConfigurationNameBuilder().withConnector(() -> "MICROSOFT_GRAPH").build());
+    standIn.applyTo(configuration);
+    configuration.setFetchPageSize(pageSize);
+    APIConfiguration apiConfiguration =
+        TestHelpers.createTestConfiguration(MicrosoftGraphConnector.class, configuration);
+    apiConfiguration.getResultsHandlerConfiguration().setEnableFilteredResultsHandler(false);
+    apiConfiguration.getResultsHandlerConfiguration().setEnableNormalizingResultsHandler(false);
+    apiConfiguration
+        .getResultsHandlerConfiguration()
+        .setEnableAttributesToGetSearchResultsHandler(false);
+    return ConnectorFacadeFactory.getInstance().newInstance(apiConfiguration);
+  }
+
+  private static Set<Attribute> newUser(
+      int size, int pageSize, int concurrency, int index, String groupId) {
+    String name = String.format("bench.%d.%d.%d.%d", size, pageSize, concurrency, index);
+    Set<Attribute> attributes = new HashSet<>();
+    attributes.add(AttributeBuilder.build(Name.NAME, "Benchmark " + name));
+    attributes.add(AttributeBuilder.build(GIVEN_NAME.name(), "Benchmark"));
+    attributes.add(AttributeBuilder.build(SURNAME.name(), name));
+    attributes.add(AttributeBuilder.build(EMAIL_NICKNAME.name(), name));
+    attributes.add(
+        AttributeBuilder.build(USER_PRINCIPAL_NAME.name(), name + "@standin.example.com"));
+    attributes.add(AttributeBuilder.build(USAGE_LOCATION.name(), "US"));
+    attributes.add(
+        AttributeBuilder.build(
+            OperationalAttributes.PASSWORD_NAME, new GuardedString("D8weoIru#4".toCharArray())));
+    attributes.add(AttributeBuilder.build(ASSIGNED_GROUPS.name(), groupId));
+    return attributes;
+  }
+
+  private void writeReport() throws IOException {
+    System.out.println();
+    System.out.println(
+        "| operation | size | pageSize | concurrency | count | failures | per second | p50 ms"
+            + " | p99 ms | baseline heap MB | peak heap MB | requests |");
+    System.out.println("|---|---|---|---|---|---|---|---|---|---|---|---|");
+    for (Result result : results) {
+      System.out.printf(
+          Locale.ROOT,
+          "| %s | %d | %d | %d | %d | %d | %.1f | %.2f | %.2f | %d | %d | %d |%n",
+          result.operation,
+          result.size,
+          result.pageSize,
+          result.concurrency,
+          result.count,
+          result.failures,
+          result.perSecond,
+          result.p50Millis,
+          result.p99Millis,
+          result.baselineHeapMb,
+          result.peakHeapMb,
+          result.requests);
+    }
+    if (report.getParent() != null) {
+      Files.createDirectories(report.getParent());
+    }
+    Files.write(
+        report,
+        new GsonBuilder()
+            .setPrettyPrinting()
+            .create()
+            .toJson(results)
+            .getBytes(StandardCharsets.UTF_8));
+    System.out.println("Report written to " + report.toAbsolutePath());
+  }
+
+  private static List<Integer> integers(String values) {
+    List<Integer> result = new ArrayList<>();
+    for (String value : values.split(",")) {
+      result.add(Integer.parseInt(value.trim()));
+    }
+    return result;
+  }
+
+  @FunctionalInterface
+  private interface Operation {
+    void run(int index) throws Exception;
+  }
+
+  /** Measures operations of one (size, pageSize, concurrency) combination. */
+  private class Scenario {
+    private final MicrosoftGraphStandIn standIn;
+    private final int size;
+    private final int pageSize;
+    private final int concurrency;
+
+    private Scenario(MicrosoftGraphStandIn standIn, int size, int pageSize, int concurrency) {
+      this.standIn = standIn;
+      this.size = size;
+      this.pageSize = pageSize;
+      this.concurrency = concurrency;
+    }
+
+    /**
+     * Runs count operations on the executor and records their latency. For searches the count is
+     * the number of concurrent full searches and throughput is reported in objects per second.
+     */
+    private void measure(String name, int count, ExecutorService executor, Operation operation)
+        throws Exception {
+      System.gc();
+      long baseline = usedHeap();
+      HeapSampler sampler = new HeapSampler();
+      standIn.resetCounters();
+      long[] latencies = new long[count];
+      AtomicInteger failures = new AtomicInteger();
+      List<Future<?>> futures = new ArrayList<>();
+      long start = System.nanoTime();
+      for (int index = 0; index < count; index++) {
+        int current = index;
+        futures.add(
+            executor.submit(
+                () -> {
+                  long begin = System.nanoTime();
+                  try {
+                    operation.run(current);
+                    latencies[current] = System.nanoTime() - begin;
+                  } catch (Exception e) {
+                    // Left out of the latencies, as a failure may return early or late
+                    latencies[current] = -1;
+                    failures.incrementAndGet();
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      long elapsed = System.nanoTime() - start;
+      long peak = sampler.stop();
+      if (failures.get() > 0) {
+        System.err.printf("%s: %d of %d operations failed%n", name, failures.get(), count);
+      }
+
+      Result result = new Result();
+      result.operation = name;
+      result.size = size;
+      result.pageSize = pageSize;
+      result.concurrency = concurrency;
+      result.count = count;
+      result.failures = failures.get();
+      // Only operations that succeeded count towards throughput and latency
+      long[] succeeded =
+          Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+      double units =
+          name.startsWith("search")
+              ? objectsSearched(name) * (double) succeeded.length
+              : succeeded.length;
+      result.perSecond = units / (elapsed / 1_000_000_000d);
+      result.p50Millis = percentile(succeeded, 0.50);
+      result.p99Millis = percentile(succeeded, 0.99);
+      result.baselineHeapMb = baseline >> 20;
+      result.peakHeapMb = peak >> 20;
+      result.requests = standIn.getRequestCount();
+      results.add(result);
+      System.out.printf(
+          Locale.ROOT,
+          "%s size=%d pageSize=%d concurrency=%d: %.1f/s p50=%.2fms p99=%.2fms failures=%d"
+              + " requests=%d%n",
+          name,
+          size,
+          pageSize,
+          concurrency,
+          result.perSecond,
+          result.p50Millis,
+          result.p99Millis,
+          result.failures,
+          result.requests);
+    }
+
+    private int objectsSearched(String name) {
+      return "searchUsers".equals(name)
+          ? standIn.getDirectory().userCount()
+          : standIn.getDirectory().groupCount();
+    }
+  }
+
+  private static double percentile(long[] sortedNanos, double percentile) {
+    if (sortedNanos.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+    return sortedNanos[Math.max(0, index)] / 1_000_000d;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /** Samples used heap every 10ms and keeps the maximum. */
+  private static class HeapSampler {
+    private final AtomicLong peak = new AtomicLong(usedHeap());
+    private final ScheduledExecutorService timer =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "heap-sampler");
+              thread.setDaemon(true);
+              return thread;
+            });
+
+    private HeapSampler() {
+      timer.scheduleAtFixedRate(
+          () -> peak.accumulateAndGet(usedHeap(), Math::max), 0, 10, TimeUnit.MILLISECONDS);
+    }
+
+    private long stop() {
+      timer.shutdownNow();
+      return peak.accumulateAndGet(usedHeap(), Math::max);
+    }
+  }
+
+  /** One row of the report. */
+  private static class Result {
+    private String operation;
+    private int size;
+    private int pageSize;
+    private int concurrency;
+    private int count;
+    private int failures;
+    private double perSecond;
+    private double p50Millis;
+    private double p99Millis;
+    private long baselineHeapMb;
+    private long peakHeapMb;
+    private long requests;
+  }
+}
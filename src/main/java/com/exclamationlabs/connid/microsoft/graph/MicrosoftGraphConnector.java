@@ -27,6 +27,9 @@ import com.exclamationlabs.connid.microsoft.graph.driver.sdk.MicrosoftGraphDrive
 import java.util.Arrays;
 import java.util.HashSet;
 import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.spi.ConnectorClass;
 
 @ConnectorClass(
@@ -34,10 +37,12 @@ import org.identityconnectors.framework.spi.ConnectorClass;
     configurationClass = MicrosoftGraphConfiguration.class)
 public class MicrosoftGraphConnector extends BaseFullAccessConnector<MicrosoftGraphConfiguration> {
 
+  private final MicrosoftGraphDriver driver = new MicrosoftGraphDriver();
+
   public MicrosoftGraphConnector() {
     super(MicrosoftGraphConfiguration.class);
     setAuthenticator(new MicrosoftGraphAuthenticator());
-    setDriver(new MicrosoftGraphDriver());
+    setDriver(driver);
     setAdapters(
         new MicrosoftGraphUsersAdapter(),
         new MicrosoftGraphGroupsAdapter(),
@@ -52,6 +57,20 @@ public class MicrosoftGraphConnector extends BaseFullAccessConnector<MicrosoftGr
                 MicrosoftGraphUserAttribute.USER_PRINCIPAL_NAME.name(),
                 MicrosoftGraphUserAttribute.USER_TYPE.name(),
                 MicrosoftGraphUserAttribute.GIVEN_NAME.name(),
-                MicrosoftGraphUserAttribute.SURNAME.name())));
+                MicrosoftGraphUserAttribute.SURNAME.name(),
+                MicrosoftGraphUserAttribute.TRANSITIVE_GROUPS.name(),
+                MicrosoftGraphUserAttribute.ASSIGNED_LICENSES.name())));
+  }
+
+  /** Lets the driver skip attributes not returned by default unless the search asks for them. */
+  @Override
+  public void executeQuery(
+      ObjectClass objectClass,
+      String query,
+      ResultsHandler resultsHandler,
+      OperationOptions options) {
+    driver.withAttributesToGet(
+        options == null ? null : options.getAttributesToGet(),
+        () -> super.executeQuery(objectClass, query, resultsHandler, options));
   }
 }
@@ -0,0 +1,137 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.adapter;
+
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphProperties;
+import java.time.OffsetDateTime;
+import java.util.*;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+
+/**
+ * Table of Graph properties emitted by constructAttributes, the counterpart of {@link
+ * MicrosoftGraphAttributePlan}. Only properties that were returned with a value produce an {@link
+ * Attribute}: those not in the $select of the request that read the object, or unset in Graph, are
+ * left out, which to ConnId is the same as an attribute without values. Date-times are formatted
+ * only when present.
+ */
+final class MicrosoftGraphAttributeEmitter {
+
+  private enum Kind {
+    SINGLE,
+    DATE_TIME,
+    MULTIPLE,
+    GUARDED
+  }
+
+  private final String[] names;
+  private final String[][] paths;
+  private final Kind[] kinds;
+
+  private MicrosoftGraphAttributeEmitter(Builder builder) {
+    names = builder.names.toArray(new String[0]);
+    paths = builder.paths.toArray(new String[0][]);
+    kinds = builder.kinds.toArray(new Kind[0]);
+  }
+
+  static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return a mutable set holding an attribute for every table entry with a value, so callers can
+   *     add computed attributes to it.
+   */
+  Set<Attribute> emit(MicrosoftGraphProperties properties) {
+    Set<Attribute> attributes = new HashSet<>(names.length * 2);
+    for (int index = 0; index < names.length; index++) {
+      Object value = properties.get(paths[index]);
+      if (value == null) {
+        continue;
+      }
+      switch (kinds[index]) {
+        case MULTIPLE:
+          if (value instanceof Collection && !((Collection<?>) value).isEmpty()) {
+            attributes.add(AttributeBuilder.build(names[index], (Collection<?>) value));
+          }
+          break;
+        case DATE_TIME:
+          // Same format as the OffsetDateTime the SDK would have parsed
+          attributes.add(
+              AttributeBuilder.build(
+                  names[index], OffsetDateTime.parse(value.toString()).toString()));
+          break;
+        case GUARDED:
+          attributes.add(
+              AttributeBuilder.build(
+                  names[index], new GuardedString(value.toString().toCharArray())));
+          break;
+        default:
+          attributes.add(AttributeBuilder.build(names[index], value));
+      }
+    }
+    return attributes;
+  }
+
+  static final class Builder {
+
+    private final List<String> names = new ArrayList<>();
+    private final List<String[]> paths = new ArrayList<>();
+    private final List<Kind> kinds = new ArrayList<>();
+
+    /**
+     * @param path Graph property name, or dotted path of a property of a complex property, such as
+     *     employeeOrgData.costCenter.
+     */
+    Builder single(String name, String path) {
+      return add(name, path, Kind.SINGLE);
+    }
+
+    Builder single(Enum<?> name, String path) {
+      return add(name.name(), path, Kind.SINGLE);
+    }
+
+    Builder dateTime(Enum<?> name, String path) {
+      return add(name.name(), path, Kind.DATE_TIME);
+    }
+
+    Builder multiple(Enum<?> name, String path) {
+      return add(name.name(), path, Kind.MULTIPLE);
+    }
+
+    /** A string property emitted as a GuardedString. */
+    Builder guarded(String name, String path) {
+      return add(name, path, Kind.GUARDED);
+    }
+
+    MicrosoftGraphAttributeEmitter build() {
+      return new MicrosoftGraphAttributeEmitter(this);
+    }
+
+    private Builder add(String name, String path, Kind kind) {
+      if (names.contains(name)) {
+        throw new IllegalArgumentException("Attribute " + name + " is emitted twice");
+      }
+      names.add(name);
+      String[] segments = path.split("\\.");
+      for (int index = 0; index < segments.length; index++) {
+        segments[index] = segments[index].intern();
+      }
+      paths.add(segments);
+      kinds.add(kind);
+      return this;
+    }
+  }
+}
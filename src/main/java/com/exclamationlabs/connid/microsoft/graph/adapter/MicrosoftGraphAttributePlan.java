@@ -0,0 +1,150 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.adapter;
+
+import com.exclamationlabs.connid.base.connector.adapter.AdapterValueTypeConverter;
+import java.time.OffsetDateTime;
+import java.util.*;
+import java.util.function.BiConsumer;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Precompiled mapping from ConnId attribute names to model setters, used by constructModel. The
+ * incoming attributes are walked once and each one is dispatched by name to its setter, so only the
+ * attributes actually supplied are converted, instead of scanning the whole attribute set once per
+ * schema field. Values are still converted by {@link AdapterValueTypeConverter}, applied to the
+ * single matching attribute, so conversion behaves exactly as before.
+ */
+final class MicrosoftGraphAttributePlan<M> {
+
+  @FunctionalInterface
+  interface Step<M> {
+    void apply(M model, Attribute attribute);
+  }
+
+  private final Map<String, Step<M>> steps;
+  private final Map<String, Step<M>> creationSteps;
+
+  private MicrosoftGraphAttributePlan(Builder<M> builder) {
+    steps = new HashMap<>(builder.steps);
+    creationSteps = new HashMap<>(builder.creationSteps);
+  }
+
+  static <M> Builder<M> builder() {
+    return new Builder<>();
+  }
+
+  /**
+   * Applies the setter of every supplied attribute that has one. Attributes without a setter are
+   * ignored, as are creation-only attributes when creation is false.
+   */
+  void apply(Set<Attribute> attributes, M model, boolean creation) {
+    if (attributes == null) {
+      return;
+    }
+    for (Attribute attribute : attributes) {
+      Step<M> step = step(attribute.getName(), creation);
+      if (step == null) {
+        // ConnId attribute names are case-insensitive; the schema names are upper case.
+        step = step(attribute.getName().toUpperCase(Locale.ROOT), creation);
+      }
+      if (step != null) {
+        step.apply(model, attribute);
+      }
+    }
+  }
+
+  private Step<M> step(String name, boolean creation) {
+    Step<M> step = steps.get(name);
+    if (step == null && creation) {
+      step = creationSteps.get(name);
+    }
+    return step;
+  }
+
+  static final class Builder<M> {
+
+    private final Map<String, Step<M>> steps = new LinkedHashMap<>();
+    private final Map<String, Step<M>> creationSteps = new LinkedHashMap<>();
+
+    Builder<M> uid(BiConsumer<M, String> setter) {
+      steps.put(
+          Uid.NAME,
+          (model, attribute) ->
+              setter.accept(
+                  model,
+                  AdapterValueTypeConverter.getIdentityIdAttributeValue(
+                      Collections.singleton(attribute))));
+      return this;
+    }
+
+    Builder<M> name(BiConsumer<M, String> setter) {
+      steps.put(
+          Name.NAME,
+          (model, attribute) ->
+              setter.accept(
+                  model,
+                  AdapterValueTypeConverter.getIdentityNameAttributeValue(
+                      Collections.singleton(attribute))));
+      return this;
+    }
+
+    <T> Builder<M> single(Enum<?> name, Class<T> type, BiConsumer<M, T> setter) {
+      steps.put(name.name(), singleStep(name, type, setter));
+      return this;
+    }
+
+    Builder<M> dateTime(Enum<?> name, BiConsumer<M, OffsetDateTime> setter) {
+      return single(
+          name,
+          String.class,
+          (model, value) ->
+              setter.accept(model, value == null ? null : OffsetDateTime.parse(value)));
+    }
+
+    Builder<M> multiple(Enum<?> name, BiConsumer<M, List<String>> setter) {
+      steps.put(name.name(), multipleStep(name, setter));
+      return this;
+    }
+
+    /** A multi-valued attribute that is only read on create; updates use the value deltas. */
+    Builder<M> multipleOnCreate(Enum<?> name, BiConsumer<M, List<String>> setter) {
+      creationSteps.put(name.name(), multipleStep(name, setter));
+      return this;
+    }
+
+    MicrosoftGraphAttributePlan<M> build() {
+      return new MicrosoftGraphAttributePlan<>(this);
+    }
+
+    private static <M, T> Step<M> singleStep(Enum<?> name, Class<T> type, BiConsumer<M, T> setter) {
+      return (model, attribute) ->
+          setter.accept(
+              model,
+              AdapterValueTypeConverter.getSingleAttributeValue(
+                  type, Collections.singleton(attribute), name));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <M> Step<M> multipleStep(Enum<?> name, BiConsumer<M, List<String>> setter) {
+      return (model, attribute) ->
+          setter.accept(
+              model,
+              AdapterValueTypeConverter.getMultipleAttributeValue(
+                  List.class, Collections.singleton(attribute), name));
+    }
+  }
+}
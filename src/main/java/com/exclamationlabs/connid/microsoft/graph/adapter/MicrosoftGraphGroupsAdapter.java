@@ -23,9 +23,8 @@ import com.exclamationlabs.connid.base.connector.adapter.BaseAdapter;
 import com.exclamationlabs.connid.base.connector.attribute.ConnectorAttribute;
 import com.exclamationlabs.connid.base.microsoft.graph.configuration.MicrosoftGraphConfiguration;
 import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphGroup;
-import com.microsoft.graph.models.AssignedLicense;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphProperties;
 import com.microsoft.graph.models.Group;
-import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -36,6 +35,113 @@ import org.identityconnectors.framework.common.objects.*;
 public class MicrosoftGraphGroupsAdapter
     extends BaseAdapter<MicrosoftGraphGroup, MicrosoftGraphConfiguration> {
 
+  private static final MicrosoftGraphAttributePlan<MicrosoftGraphGroup> PLAN =
+      MicrosoftGraphAttributePlan.<MicrosoftGraphGroup>builder()
+          .uid((group, value) -> group.getGraphGroup().id = value)
+          .single(
+              CLASSIFICATION,
+              String.class,
+              (group, value) -> group.getGraphGroup().classification = value)
+          .single(
+              DESCRIPTION,
+              String.class,
+              (group, value) -> group.getGraphGroup().description = value)
+          .name((group, value) -> group.getGraphGroup().displayName = value)
+          .multiple(GROUP_TYPES, (group, value) -> group.getGraphGroup().groupTypes = value)
+          .single(
+              IS_ASSIGNABLE_TO_ROLE,
+              Boolean.class,
+              (group, value) -> group.getGraphGroup().isAssignableToRole = value)
+          .single(EMAIL, String.class, (group, value) -> group.getGraphGroup().mail = value)
+          .single(
+              EMAIL_ENABLED,
+              Boolean.class,
+              (group, value) -> group.getGraphGroup().mailEnabled = value)
+          .single(
+              EMAIL_NICKNAME,
+              String.class,
+              (group, value) -> group.getGraphGroup().mailNickname = value)
+          .single(
+              MEMBERSHIP_RULE,
+              String.class,
+              (group, value) -> group.getGraphGroup().membershipRule = value)
+          .single(
+              MEMBERSHIP_RULE_PROCESSING_STATE,
+              String.class,
+              (group, value) -> group.getGraphGroup().membershipRuleProcessingState = value)
+          .single(
+              ON_PREMISES_DOMAIN_NAME,
+              String.class,
+              (group, value) -> group.getGraphGroup().onPremisesDomainName = value)
+          .dateTime(
+              ON_PREMISES_LAST_SYNC_DATETIME,
+              (group, value) -> group.getGraphGroup().onPremisesLastSyncDateTime = value)
+          .single(
+              ON_PREMISES_NET_BIOS_NAME,
+              String.class,
+              (group, value) -> group.getGraphGroup().onPremisesNetBiosName = value)
+          .single(
+              PREFERRED_DATA_LOCATION,
+              String.class,
+              (group, value) -> group.getGraphGroup().preferredDataLocation = value)
+          .single(
+              PREFERRED_LANGUAGE,
+              String.class,
+              (group, value) -> group.getGraphGroup().preferredLanguage = value)
+          .single(
+              SECURITY_ENABLED,
+              Boolean.class,
+              (group, value) -> group.getGraphGroup().securityEnabled = value)
+          .single(
+              SECURITY_IDENTIFIER,
+              String.class,
+              (group, value) -> group.getGraphGroup().securityIdentifier = value)
+          .single(THEME, String.class, (group, value) -> group.getGraphGroup().theme = value)
+          .single(
+              VISIBILITY, String.class, (group, value) -> group.getGraphGroup().visibility = value)
+          .multiple(
+              MEMBERS,
+              (group, value) ->
+                  group.setDesiredMemberIds(value == null ? new HashSet<>() : new HashSet<>(value)))
+          .multipleOnCreate(
+              OWNERS,
+              (group, value) -> {
+                if (value != null) {
+                  group.getOwnerIdsToAdd().addAll(value);
+                }
+              })
+          .build();
+
+  private static final MicrosoftGraphAttributeEmitter EMITTER =
+      MicrosoftGraphAttributeEmitter.builder()
+          .single(CLASSIFICATION, "classification")
+          .dateTime(CREATED_DATETIME, "createdDateTime")
+          .dateTime(EXPIRATION_DATETIME, "expirationDateTime")
+          .multiple(GROUP_TYPES, "groupTypes")
+          .single(IS_ASSIGNABLE_TO_ROLE, "isAssignableToRole")
+          .single(LICENSE_PROCESSING_STATE, "licenseProcessingState.state")
+          .single(EMAIL, "mail")
+          .single(EMAIL_ENABLED, "mailEnabled")
+          .single(EMAIL_NICKNAME, "mailNickname")
+          .single(MEMBERSHIP_RULE, "membershipRule")
+          .single(MEMBERSHIP_RULE_PROCESSING_STATE, "membershipRuleProcessingState")
+          .single(ON_PREMISES_DOMAIN_NAME, "onPremisesDomainName")
+          .dateTime(ON_PREMISES_LAST_SYNC_DATETIME, "onPremisesLastSyncDateTime")
+          .single(ON_PREMISES_NET_BIOS_NAME, "onPremisesNetBiosName")
+          .single(ON_PREMISES_SAM_ACCOUNT_NAME, "onPremisesSamAccountName")
+          .single(ON_PREMISES_SECURITY_IDENTIFIER, "onPremisesSecurityIdentifier")
+          .single(ON_PREMISES_SYNC_ENABLED, "onPremisesSyncEnabled")
+          .single(PREFERRED_DATA_LOCATION, "preferredDataLocation")
+          .single(PREFERRED_LANGUAGE, "preferredLanguage")
+          .multiple(PROXY_ADDRESSES, "proxyAddresses")
+          .dateTime(RENEWED_DATETIME, "renewedDateTime")
+          .single(SECURITY_ENABLED, "securityEnabled")
+          .single(SECURITY_IDENTIFIER, "securityIdentifier")
+          .single(THEME, "theme")
+          .single(VISIBILITY, "visibility")
+          .single(CREATED_ON_BEHALF_OF, "createdOnBehalfOf.id")
+          .build();
+
   @Override
   public ObjectClass getType() {
     return new ObjectClass("group");
@@ -106,6 +212,16 @@ public class MicrosoftGraphGroupsAdapter
 
     result.add(
         new ConnectorAttribute(ASSIGNED_LICENSES.name(), ASSIGNMENT_IDENTIFIER, MULTIVALUED));
+    result.add(
+        new ConnectorAttribute(
+            MEMBERS.name(), ASSIGNMENT_IDENTIFIER, MULTIVALUED, NOT_RETURNED_BY_DEFAULT));
+    result.add(
+        new ConnectorAttribute(
+            OWNERS.name(),
+            ASSIGNMENT_IDENTIFIER,
+            MULTIVALUED,
+            NOT_UPDATEABLE,
+            NOT_RETURNED_BY_DEFAULT));
 
     return result;
   }
@@ -117,197 +233,96 @@ public class MicrosoftGraphGroupsAdapter
       Set<Attribute> multiValueRemoved,
       boolean creation) {
     MicrosoftGraphGroup group = new MicrosoftGraphGroup(new Group());
-    group.getGraphGroup().id = AdapterValueTypeConverter.getIdentityIdAttributeValue(attributes);
-    group.getGraphGroup().classification =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, CLASSIFICATION);
-    group.getGraphGroup().description =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, DESCRIPTION);
-    group.getGraphGroup().displayName =
-        AdapterValueTypeConverter.getIdentityNameAttributeValue(attributes);
-    group.getGraphGroup().groupTypes =
-        AdapterValueTypeConverter.getMultipleAttributeValue(List.class, attributes, GROUP_TYPES);
-    group.getGraphGroup().isAssignableToRole =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            Boolean.class, attributes, IS_ASSIGNABLE_TO_ROLE);
-    group.getGraphGroup().mail =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, EMAIL);
-    group.getGraphGroup().mailEnabled =
-        AdapterValueTypeConverter.getSingleAttributeValue(Boolean.class, attributes, EMAIL_ENABLED);
-    group.getGraphGroup().mailNickname =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, EMAIL_NICKNAME);
-    group.getGraphGroup().membershipRule =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, MEMBERSHIP_RULE);
-    group.getGraphGroup().membershipRuleProcessingState =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, MEMBERSHIP_RULE_PROCESSING_STATE);
-
-    group.getGraphGroup().onPremisesDomainName =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, ON_PREMISES_DOMAIN_NAME);
-    group.getGraphGroup().onPremisesLastSyncDateTime =
-        parseDateTime(
-            AdapterValueTypeConverter.getSingleAttributeValue(
-                String.class, attributes, ON_PREMISES_LAST_SYNC_DATETIME));
-    group.getGraphGroup().onPremisesNetBiosName =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, ON_PREMISES_NET_BIOS_NAME);
+    PLAN.apply(attributes, group, creation);
 
-    group.getGraphGroup().preferredDataLocation =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, PREFERRED_DATA_LOCATION);
-    group.getGraphGroup().preferredLanguage =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, PREFERRED_LANGUAGE);
-    group.getGraphGroup().securityEnabled =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            Boolean.class, attributes, SECURITY_ENABLED);
-    group.getGraphGroup().securityIdentifier =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, SECURITY_IDENTIFIER);
-    group.getGraphGroup().theme =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, THEME);
-    group.getGraphGroup().visibility =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, VISIBILITY);
+    // Member adds/removes of updateDelta; a replaced member set is read by the plan
+    if (!creation) {
+      List<String> memberIds =
+          AdapterValueTypeConverter.getMultipleAttributeValue(List.class, multiValueAdded, MEMBERS);
+      if (memberIds != null) {
+        group.getMemberIdsToAdd().addAll(memberIds);
+      }
+      List<String> memberIdsToRemove =
+          AdapterValueTypeConverter.getMultipleAttributeValue(
+              List.class, multiValueRemoved, MEMBERS);
+      if (memberIdsToRemove != null) {
+        group.getMemberIdsToRemove().addAll(memberIdsToRemove);
+      }
+    }
 
     return group;
   }
 
   @Override
   protected Set<Attribute> constructAttributes(MicrosoftGraphGroup group) {
-    Set<Attribute> attributes = new HashSet<>();
-    attributes.add(
-        AttributeBuilder.build(CLASSIFICATION.name(), group.getGraphGroup().classification));
-    if (group.getGraphGroup().createdDateTime != null) {
-      attributes.add(
-          AttributeBuilder.build(
-              CREATED_DATETIME.name(), group.getGraphGroup().createdDateTime.toString()));
-    }
-    if (group.getGraphGroup().expirationDateTime != null) {
-      attributes.add(
-          AttributeBuilder.build(
-              EXPIRATION_DATETIME.name(), group.getGraphGroup().expirationDateTime.toString()));
-    }
-    attributes.add(AttributeBuilder.build(GROUP_TYPES.name(), group.getGraphGroup().groupTypes));
-    attributes.add(
-        AttributeBuilder.build(
-            IS_ASSIGNABLE_TO_ROLE.name(), group.getGraphGroup().isAssignableToRole));
-    if (group.getGraphGroup().licenseProcessingState != null) {
-      attributes.add(
-          AttributeBuilder.build(
-              LICENSE_PROCESSING_STATE.name(), group.getGraphGroup().licenseProcessingState.state));
-    }
-    attributes.add(AttributeBuilder.build(EMAIL.name(), group.getGraphGroup().mail));
-    attributes.add(AttributeBuilder.build(EMAIL_ENABLED.name(), group.getGraphGroup().mailEnabled));
-    attributes.add(
-        AttributeBuilder.build(EMAIL_NICKNAME.name(), group.getGraphGroup().mailNickname));
-    attributes.add(
-        AttributeBuilder.build(MEMBERSHIP_RULE.name(), group.getGraphGroup().membershipRule));
-    attributes.add(
-        AttributeBuilder.build(
-            MEMBERSHIP_RULE_PROCESSING_STATE.name(),
-            group.getGraphGroup().membershipRuleProcessingState));
-
-    attributes.add(
-        AttributeBuilder.build(
-            ON_PREMISES_DOMAIN_NAME.name(), group.getGraphGroup().onPremisesDomainName));
-    if (group.getGraphGroup().onPremisesLastSyncDateTime != null) {
-      attributes.add(
-          AttributeBuilder.build(
-              ON_PREMISES_LAST_SYNC_DATETIME.name(),
-              group.getGraphGroup().onPremisesLastSyncDateTime.toString()));
-    }
-    attributes.add(
-        AttributeBuilder.build(
-            ON_PREMISES_NET_BIOS_NAME.name(), group.getGraphGroup().onPremisesNetBiosName));
-    attributes.add(
-        AttributeBuilder.build(
-            ON_PREMISES_SAM_ACCOUNT_NAME.name(), group.getGraphGroup().onPremisesSamAccountName));
-    attributes.add(
-        AttributeBuilder.build(
-            ON_PREMISES_SECURITY_IDENTIFIER.name(),
-            group.getGraphGroup().onPremisesSecurityIdentifier));
-    attributes.add(
-        AttributeBuilder.build(
-            ON_PREMISES_SYNC_ENABLED.name(), group.getGraphGroup().onPremisesSyncEnabled));
-
-    attributes.add(
-        AttributeBuilder.build(
-            PREFERRED_DATA_LOCATION.name(), group.getGraphGroup().preferredDataLocation));
-    attributes.add(
-        AttributeBuilder.build(PREFERRED_LANGUAGE.name(), group.getGraphGroup().preferredLanguage));
-    attributes.add(
-        AttributeBuilder.build(PROXY_ADDRESSES.name(), group.getGraphGroup().proxyAddresses));
-    if (group.getGraphGroup().renewedDateTime != null) {
-      attributes.add(
-          AttributeBuilder.build(
-              RENEWED_DATETIME.name(), group.getGraphGroup().renewedDateTime.toString()));
-    }
-    attributes.add(
-        AttributeBuilder.build(SECURITY_ENABLED.name(), group.getGraphGroup().securityEnabled));
-    attributes.add(
-        AttributeBuilder.build(
-            SECURITY_IDENTIFIER.name(), group.getGraphGroup().securityIdentifier));
-    attributes.add(AttributeBuilder.build(THEME.name(), group.getGraphGroup().theme));
-    attributes.add(AttributeBuilder.build(VISIBILITY.name(), group.getGraphGroup().visibility));
-    if (group.getGraphGroup().createdOnBehalfOf != null) {
-      attributes.add(
-          AttributeBuilder.build(
-              CREATED_ON_BEHALF_OF.name(), group.getGraphGroup().createdOnBehalfOf.id));
-    }
+    MicrosoftGraphProperties properties = group.getProperties();
+    Set<Attribute> attributes = EMITTER.emit(properties);
 
     // read assigned licenses - read-only
-    if (group.getGraphGroup().assignedLicenses != null
-        && (!group.getGraphGroup().assignedLicenses.isEmpty())) {
-      List<String> licenses = new ArrayList<>();
-      for (AssignedLicense current : group.getGraphGroup().assignedLicenses) {
-        if (current != null && current.skuId != null) {
-          licenses.add(current.skuId.toString());
+    List<MicrosoftGraphProperties> assignedLicenses =
+        properties.getPropertiesList("assignedLicenses");
+    if (assignedLicenses != null && (!assignedLicenses.isEmpty())) {
+      List<String> licenses = new ArrayList<>(assignedLicenses.size());
+      for (MicrosoftGraphProperties current : assignedLicenses) {
+        if (current.get("skuId") != null) {
+          licenses.add(current.getString("skuId"));
         }
       }
       attributes.add(AttributeBuilder.build(ASSIGNED_LICENSES.name(), licenses));
     }
 
     // Additional group identification flags
+    List<String> groupTypes = properties.getStrings("groupTypes");
+    Boolean mailEnabled = properties.getBoolean("mailEnabled");
+    Boolean securityEnabled = properties.getBoolean("securityEnabled");
     boolean is365Group =
-        group.getGraphGroup().groupTypes != null
-            && !group.getGraphGroup().groupTypes.isEmpty()
-            && group.getGraphGroup().groupTypes.stream()
-                .anyMatch(s -> s.equalsIgnoreCase("Unified"))
-            && group.getGraphGroup().groupTypes.stream()
-                .noneMatch(s -> s.equalsIgnoreCase("DynamicMembership"))
-            && BooleanUtils.isTrue(group.getGraphGroup().mailEnabled)
+        groupTypes != null
+            && !groupTypes.isEmpty()
+            && groupTypes.stream().anyMatch(s -> s.equalsIgnoreCase("Unified"))
+            && groupTypes.stream().noneMatch(s -> s.equalsIgnoreCase("DynamicMembership"))
+            && BooleanUtils.isTrue(mailEnabled)
             && !group.getMsTeam();
     attributes.add(AttributeBuilder.build(IS_MS_365.name(), is365Group));
     boolean isDynamicMembershipGroup =
-        group.getGraphGroup().groupTypes != null
-            && !group.getGraphGroup().groupTypes.isEmpty()
-            && group.getGraphGroup().groupTypes.stream()
-                .anyMatch(s -> s.equalsIgnoreCase("DynamicMembership"));
+        groupTypes != null
+            && !groupTypes.isEmpty()
+            && groupTypes.stream().anyMatch(s -> s.equalsIgnoreCase("DynamicMembership"));
     attributes.add(AttributeBuilder.build(IS_DYNAMIC.name(), isDynamicMembershipGroup));
     boolean isSecurity =
-        (group.getGraphGroup().groupTypes == null || group.getGraphGroup().groupTypes.isEmpty())
-            && BooleanUtils.isFalse(group.getGraphGroup().mailEnabled)
-            && BooleanUtils.isTrue(group.getGraphGroup().securityEnabled);
+        (groupTypes == null || groupTypes.isEmpty())
+            && BooleanUtils.isFalse(mailEnabled)
+            && BooleanUtils.isTrue(securityEnabled);
     attributes.add(AttributeBuilder.build(IS_SECURITY_GROUP.name(), isSecurity));
     boolean isMailSecurityGroup =
-        (group.getGraphGroup().groupTypes == null || group.getGraphGroup().groupTypes.isEmpty())
-            && BooleanUtils.isTrue(group.getGraphGroup().mailEnabled)
-            && BooleanUtils.isTrue(group.getGraphGroup().securityEnabled);
+        (groupTypes == null || groupTypes.isEmpty())
+            && BooleanUtils.isTrue(mailEnabled)
+            && BooleanUtils.isTrue(securityEnabled);
     attributes.add(
         AttributeBuilder.build(IS_MAIL_ENABLED_SECURITY_GROUP.name(), isMailSecurityGroup));
     boolean isDistributionGroup =
-        (group.getGraphGroup().groupTypes == null || group.getGraphGroup().groupTypes.isEmpty())
-            && BooleanUtils.isTrue(group.getGraphGroup().mailEnabled)
-            && BooleanUtils.isFalse(group.getGraphGroup().securityEnabled);
+        (groupTypes == null || groupTypes.isEmpty())
+            && BooleanUtils.isTrue(mailEnabled)
+            && BooleanUtils.isFalse(securityEnabled);
     attributes.add(AttributeBuilder.build(IS_DISTRIBUTION_GROUP.name(), isDistributionGroup));
 
     attributes.add(AttributeBuilder.build(IS_MS_TEAM.name(), group.getMsTeam()));
 
+    // read members and owners, only for a single group and when asked for
+    addIds(attributes, MEMBERS.name(), group.getMembers());
+    addIds(attributes, OWNERS.name(), group.getOwners());
+
     return attributes;
   }
 
-  private static OffsetDateTime parseDateTime(String input) {
-    return (input == null) ? null : OffsetDateTime.parse(input);
+  /** Adds the ids as their pages are read, so only the attribute itself holds all of them. */
+  private static void addIds(Set<Attribute> attributes, String name, Iterable<String> ids) {
+    if (ids == null) {
+      return;
+    }
+    AttributeBuilder builder = new AttributeBuilder().setName(name);
+    for (String id : ids) {
+      builder.addValue(id);
+    }
+    attributes.add(builder.build());
   }
 }
@@ -55,6 +55,14 @@ public class MicrosoftGraphLicensesAdapter
         new ConnectorAttribute(Name.NAME, SKU_ID.name(), STRING, NOT_UPDATEABLE, NOT_CREATABLE));
     result.add(
         new ConnectorAttribute(SKU_PART_NUMBER.name(), STRING, NOT_UPDATEABLE, NOT_CREATABLE));
+    result.add(
+        new ConnectorAttribute(
+            HOLDERS.name(),
+            ASSIGNMENT_IDENTIFIER,
+            MULTIVALUED,
+            NOT_UPDATEABLE,
+            NOT_CREATABLE,
+            NOT_RETURNED_BY_DEFAULT));
 
     return result;
   }
@@ -77,6 +85,12 @@ public class MicrosoftGraphLicensesAdapter
         AttributeBuilder.build(CONSUMED_UNITS.name(), license.getGraphLicense().consumedUnits));
     attributes.add(
         AttributeBuilder.build(SKU_PART_NUMBER.name(), license.getGraphLicense().skuPartNumber));
+    if (license.getHolders() != null) {
+      // Added as their pages are read, so only the attribute itself holds all of them
+      AttributeBuilder holders = new AttributeBuilder().setName(HOLDERS.name());
+      license.getHolders().forEach(holders::addValue);
+      attributes.add(holders.build());
+    }
 
     return attributes;
   }
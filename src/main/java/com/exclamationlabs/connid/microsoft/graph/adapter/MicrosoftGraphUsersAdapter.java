@@ -24,19 +24,258 @@ import com.exclamationlabs.connid.base.connector.attribute.ConnectorAttribute;
 import com.exclamationlabs.connid.base.connector.logging.Logger;
 import com.exclamationlabs.connid.base.connector.util.GuardedStringUtil;
 import com.exclamationlabs.connid.base.microsoft.graph.configuration.MicrosoftGraphConfiguration;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphCanonicalValues;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphProperties;
 import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphUser;
 import com.microsoft.graph.models.*;
-import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.common.objects.*;
 
 public class MicrosoftGraphUsersAdapter
     extends BaseAdapter<MicrosoftGraphUser, MicrosoftGraphConfiguration> {
 
+  /**
+   * employeeOrgData and passwordProfile are only created when one of their attributes has a value,
+   * see constructModel.
+   */
+  private static final MicrosoftGraphAttributePlan<MicrosoftGraphUser> PLAN =
+      MicrosoftGraphAttributePlan.<MicrosoftGraphUser>builder()
+          .uid((user, value) -> user.getGraphUser().id = value)
+          .name((user, value) -> user.getGraphUser().displayName = value)
+          .single(GIVEN_NAME, String.class, (user, value) -> user.getGraphUser().givenName = value)
+          .single(SURNAME, String.class, (user, value) -> user.getGraphUser().surname = value)
+          .single(EMAIL, String.class, (user, value) -> user.getGraphUser().mail = value)
+          .single(
+              PREFERRED_LANGUAGE,
+              String.class,
+              (user, value) -> user.getGraphUser().preferredLanguage = value)
+          .single(
+              USER_PRINCIPAL_NAME,
+              String.class,
+              (user, value) -> user.getGraphUser().userPrincipalName = value)
+          .single(
+              __PASSWORD__,
+              GuardedString.class,
+              (user, value) -> {
+                String password = GuardedStringUtil.read(value);
+                if (password != null) {
+                  passwordProfile(user).password = password;
+                }
+              })
+          .single(
+              FORCE_CHANGE_PASSWORD_NEXT_SIGN_IN,
+              Boolean.class,
+              (user, value) -> {
+                if (value != null) {
+                  passwordProfile(user).forceChangePasswordNextSignIn = value;
+                }
+              })
+          .single(
+              FORCE_CHANGE_PASSWORD_NEXT_SIGN_IN_WITH_MFA,
+              Boolean.class,
+              (user, value) -> {
+                if (value != null) {
+                  passwordProfile(user).forceChangePasswordNextSignInWithMfa = value;
+                }
+              })
+          .single(
+              __ENABLE__,
+              Boolean.class,
+              (user, value) -> user.getGraphUser().accountEnabled = value)
+          .single(
+              EMAIL_NICKNAME,
+              String.class,
+              (user, value) -> user.getGraphUser().mailNickname = value)
+          .single(AGE_GROUP, String.class, (user, value) -> user.getGraphUser().ageGroup = value)
+          .multiple(BUSINESS_PHONES, (user, value) -> user.getGraphUser().businessPhones = value)
+          .single(CITY, String.class, (user, value) -> user.getGraphUser().city = value)
+          .single(
+              COMPANY_NAME, String.class, (user, value) -> user.getGraphUser().companyName = value)
+          .single(COUNTRY, String.class, (user, value) -> user.getGraphUser().country = value)
+          .dateTime(CREATED_DATETIME, (user, value) -> user.getGraphUser().createdDateTime = value)
+          .single(
+              CREATION_TYPE,
+              String.class,
+              (user, value) -> user.getGraphUser().creationType = value)
+          .dateTime(
+              EMPLOYEE_HIRE_DATE, (user, value) -> user.getGraphUser().employeeHireDate = value)
+          .single(
+              EMPLOYEE_ID, String.class, (user, value) -> user.getGraphUser().employeeId = value)
+          .single(
+              COST_CENTER,
+              String.class,
+              (user, value) -> {
+                if (value != null) {
+                  employeeOrgData(user).costCenter = value;
+                }
+              })
+          .single(
+              DIVISION,
+              String.class,
+              (user, value) -> {
+                if (value != null) {
+                  employeeOrgData(user).division = value;
+                }
+              })
+          .single(
+              EMPLOYEE_TYPE,
+              String.class,
+              (user, value) -> user.getGraphUser().employeeType = value)
+          .single(
+              EXTERNAL_USER_STATE,
+              String.class,
+              (user, value) -> user.getGraphUser().externalUserState = value)
+          .dateTime(
+              EXTERNAL_USER_STATE_CHANGE_DATETIME,
+              (user, value) -> user.getGraphUser().externalUserStateChangeDateTime = value)
+          .multiple(IM_ADDRESSES, (user, value) -> user.getGraphUser().imAddresses = value)
+          .dateTime(
+              LAST_PASSWORD_CHANGE_DATETIME,
+              (user, value) -> user.getGraphUser().lastPasswordChangeDateTime = value)
+          .single(
+              OFFICE_LOCATION,
+              String.class,
+              (user, value) -> user.getGraphUser().officeLocation = value)
+          .single(
+              ON_PREMISES_DISTINGUISHED_NAME,
+              String.class,
+              (user, value) -> user.getGraphUser().onPremisesDistinguishedName = value)
+          .single(
+              ON_PREMISES_DOMAIN_NAME,
+              String.class,
+              (user, value) -> user.getGraphUser().onPremisesDomainName = value)
+          .single(
+              ON_PREMISES_IMMUTABLE_ID,
+              String.class,
+              (user, value) -> user.getGraphUser().onPremisesImmutableId = value)
+          .dateTime(
+              ON_PREMISES_LAST_SYNC_DATETIME,
+              (user, value) -> user.getGraphUser().onPremisesLastSyncDateTime = value)
+          .single(
+              ON_PREMISES_SAM_ACCOUNT_NAME,
+              String.class,
+              (user, value) -> user.getGraphUser().onPremisesSamAccountName = value)
+          .single(
+              ON_PREMISES_SECURITY_IDENTIFIER,
+              String.class,
+              (user, value) -> user.getGraphUser().onPremisesSecurityIdentifier = value)
+          .single(
+              ON_PREMISES_SYNC_ENABLED,
+              Boolean.class,
+              (user, value) -> user.getGraphUser().onPremisesSyncEnabled = value)
+          .single(
+              ON_PREMISES_USER_PRINCIPAL_NAME,
+              String.class,
+              (user, value) -> user.getGraphUser().onPremisesUserPrincipalName = value)
+          .multiple(OTHER_EMAILS, (user, value) -> user.getGraphUser().otherMails = value)
+          .single(
+              PASSWORD_POLICIES,
+              String.class,
+              (user, value) -> user.getGraphUser().passwordPolicies = value)
+          .single(
+              POSTAL_CODE, String.class, (user, value) -> user.getGraphUser().postalCode = value)
+          .single(
+              PREFERRED_DATA_LOCATION,
+              String.class,
+              (user, value) -> user.getGraphUser().preferredDataLocation = value)
+          .multiple(PROXY_ADDRESSES, (user, value) -> user.getGraphUser().proxyAddresses = value)
+          .single(
+              SECURITY_IDENTIFIER,
+              String.class,
+              (user, value) -> user.getGraphUser().securityIdentifier = value)
+          .single(STATE, String.class, (user, value) -> user.getGraphUser().state = value)
+          .single(
+              STREET_ADDRESS,
+              String.class,
+              (user, value) -> user.getGraphUser().streetAddress = value)
+          .single(
+              USAGE_LOCATION,
+              String.class,
+              (user, value) -> user.getGraphUser().usageLocation = value)
+          .single(USER_TYPE, String.class, (user, value) -> user.getGraphUser().userType = value)
+          .dateTime(HIRE_DATE, (user, value) -> user.getGraphUser().hireDate = value)
+          .multiple(RESPONSIBILITIES, (user, value) -> user.getGraphUser().responsibilities = value)
+          .multiple(SKILLS, (user, value) -> user.getGraphUser().skills = value)
+          .multipleOnCreate(
+              ASSIGNED_GROUPS,
+              (user, value) -> {
+                if (value != null) {
+                  user.getGroupIdsToAdd().addAll(value);
+                }
+              })
+          .multipleOnCreate(
+              ASSIGNED_LICENSES,
+              (user, value) -> {
+                if (value != null) {
+                  user.getLicenseIdsToAdd().addAll(value);
+                }
+              })
+          .build();
+
+  private static final MicrosoftGraphAttributeEmitter EMITTER =
+      MicrosoftGraphAttributeEmitter.builder()
+          .single(OperationalAttributes.ENABLE_NAME, "accountEnabled")
+          .single(GIVEN_NAME, "givenName")
+          .single(SURNAME, "surname")
+          .single(EMAIL, "mail")
+          .single(EMAIL_NICKNAME, "mailNickname")
+          .single(PREFERRED_LANGUAGE, "preferredLanguage")
+          .single(USER_PRINCIPAL_NAME, "userPrincipalName")
+          .guarded(OperationalAttributes.PASSWORD_NAME, "passwordProfile.password")
+          .single(
+              FORCE_CHANGE_PASSWORD_NEXT_SIGN_IN, "passwordProfile.forceChangePasswordNextSignIn")
+          .single(
+              FORCE_CHANGE_PASSWORD_NEXT_SIGN_IN_WITH_MFA,
+              "passwordProfile.forceChangePasswordNextSignInWithMfa")
+          .multiple(BUSINESS_PHONES, "businessPhones")
+          .single(AGE_GROUP, "ageGroup")
+          .single(CITY, "city")
+          .single(COMPANY_NAME, "companyName")
+          .single(COUNTRY, "country")
+          .dateTime(CREATED_DATETIME, "createdDateTime")
+          .single(CREATION_TYPE, "creationType")
+          .dateTime(EMPLOYEE_HIRE_DATE, "employeeHireDate")
+          .single(EMPLOYEE_ID, "employeeId")
+          .single(COST_CENTER, "employeeOrgData.costCenter")
+          .single(DIVISION, "employeeOrgData.division")
+          .single(EMPLOYEE_TYPE, "employeeType")
+          .single(EXTERNAL_USER_STATE, "externalUserState")
+          .dateTime(EXTERNAL_USER_STATE_CHANGE_DATETIME, "externalUserStateChangeDateTime")
+          .multiple(IM_ADDRESSES, "imAddresses")
+          .dateTime(LAST_PASSWORD_CHANGE_DATETIME, "lastPasswordChangeDateTime")
+          .single(OFFICE_LOCATION, "officeLocation")
+          .single(ON_PREMISES_DISTINGUISHED_NAME, "onPremisesDistinguishedName")
+          .single(ON_PREMISES_DOMAIN_NAME, "onPremisesDomainName")
+          .single(ON_PREMISES_IMMUTABLE_ID, "onPremisesImmutableId")
+          .dateTime(ON_PREMISES_LAST_SYNC_DATETIME, "onPremisesLastSyncDateTime")
+          .single(ON_PREMISES_SAM_ACCOUNT_NAME, "onPremisesSamAccountName")
+          .single(ON_PREMISES_SECURITY_IDENTIFIER, "onPremisesSecurityIdentifier")
+          .single(ON_PREMISES_SYNC_ENABLED, "onPremisesSyncEnabled")
+          .single(ON_PREMISES_USER_PRINCIPAL_NAME, "onPremisesUserPrincipalName")
+          .multiple(OTHER_EMAILS, "otherMails")
+          .single(PASSWORD_POLICIES, "passwordPolicies")
+          .single(POSTAL_CODE, "postalCode")
+          .single(PREFERRED_DATA_LOCATION, "preferredDataLocation")
+          .multiple(PROXY_ADDRESSES, "proxyAddresses")
+          .single(SECURITY_IDENTIFIER, "securityIdentifier")
+          .single(STATE, "state")
+          .single(STREET_ADDRESS, "streetAddress")
+          .single(USAGE_LOCATION, "usageLocation")
+          .single(USER_TYPE, "userType")
+          .dateTime(HIRE_DATE, "hireDate")
+          .multiple(RESPONSIBILITIES, "responsibilities")
+          .multiple(SKILLS, "skills")
+          .build();
+
+  private final Map<String, String> licenseIds = new ConcurrentHashMap<>();
+
   @Override
   public ObjectClass getType() {
     return new ObjectClass("user");
@@ -124,8 +363,33 @@ public class MicrosoftGraphUsersAdapter
     result.add(new ConnectorAttribute(FORCE_CHANGE_PASSWORD_NEXT_SIGN_IN_WITH_MFA.name(), BOOLEAN));
 
     result.add(new ConnectorAttribute(ASSIGNED_GROUPS.name(), ASSIGNMENT_IDENTIFIER, MULTIVALUED));
+    result.add(
+        new ConnectorAttribute(
+            TRANSITIVE_GROUPS.name(),
+            ASSIGNMENT_IDENTIFIER,
+            MULTIVALUED,
+            NOT_CREATABLE,
+            NOT_UPDATEABLE,
+            NOT_RETURNED_BY_DEFAULT));
+    result.add(
+        new ConnectorAttribute(
+            ASSIGNED_GROUP_NAMES.name(), STRING, MULTIVALUED, NOT_CREATABLE, NOT_UPDATEABLE));
     result.add(
         new ConnectorAttribute(ASSIGNED_LICENSES.name(), ASSIGNMENT_IDENTIFIER, MULTIVALUED));
+    result.add(
+        new ConnectorAttribute(
+            INHERITED_LICENSES.name(),
+            ASSIGNMENT_IDENTIFIER,
+            MULTIVALUED,
+            NOT_CREATABLE,
+            NOT_UPDATEABLE));
+    result.add(
+        new ConnectorAttribute(
+            INHERITED_LICENSE_GROUPS.name(),
+            ASSIGNMENT_IDENTIFIER,
+            MULTIVALUED,
+            NOT_CREATABLE,
+            NOT_UPDATEABLE));
 
     return result;
   }
@@ -173,184 +437,18 @@ public class MicrosoftGraphUsersAdapter
       boolean creation) {
     logConstructModel(attributes);
     MicrosoftGraphUser user = new MicrosoftGraphUser(new User());
-    /*MG: comment creating these new objects
-    user.getGraphUser().employeeOrgData = new EmployeeOrgData();
-    user.getGraphUser().passwordProfile = new PasswordProfile();
-    */
-    user.getGraphUser().id = AdapterValueTypeConverter.getIdentityIdAttributeValue(attributes);
-    user.getGraphUser().displayName =
-        AdapterValueTypeConverter.getIdentityNameAttributeValue(attributes);
-    user.getGraphUser().givenName =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, GIVEN_NAME);
-    user.getGraphUser().surname =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, SURNAME);
-    user.getGraphUser().mail =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, EMAIL);
-
-    user.getGraphUser().preferredLanguage =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, PREFERRED_LANGUAGE);
-    user.getGraphUser().userPrincipalName =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, USER_PRINCIPAL_NAME);
-
-    // MG: do not create password profile unless values exist
-
-    var tempPasswordProfile = new PasswordProfile();
-    tempPasswordProfile.password =
-        GuardedStringUtil.read(
-            AdapterValueTypeConverter.getSingleAttributeValue(
-                GuardedString.class, attributes, __PASSWORD__));
-    tempPasswordProfile.forceChangePasswordNextSignIn =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            Boolean.class, attributes, FORCE_CHANGE_PASSWORD_NEXT_SIGN_IN);
-
-    tempPasswordProfile.forceChangePasswordNextSignInWithMfa =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            Boolean.class, attributes, FORCE_CHANGE_PASSWORD_NEXT_SIGN_IN_WITH_MFA);
-    if (tempPasswordProfile.forceChangePasswordNextSignInWithMfa != null
-        || tempPasswordProfile.forceChangePasswordNextSignIn != null
-        || tempPasswordProfile.password != null) {
-      if (creation && tempPasswordProfile.forceChangePasswordNextSignIn == null) {
-        tempPasswordProfile.forceChangePasswordNextSignIn =
-            configuration.getForceChangePasswordOnCreate();
-      }
-      user.getGraphUser().passwordProfile = tempPasswordProfile;
-    }
-    user.getGraphUser().accountEnabled =
-        AdapterValueTypeConverter.getSingleAttributeValue(Boolean.class, attributes, __ENABLE__);
-    user.getGraphUser().mailNickname =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, EMAIL_NICKNAME);
-
-    user.getGraphUser().ageGroup =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, AGE_GROUP);
-    user.getGraphUser().businessPhones =
-        AdapterValueTypeConverter.getMultipleAttributeValue(
-            List.class, attributes, BUSINESS_PHONES);
-    user.getGraphUser().city =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, CITY);
-    user.getGraphUser().companyName =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, COMPANY_NAME);
-    user.getGraphUser().country =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, COUNTRY);
-    user.getGraphUser().createdDateTime =
-        parseDateTime(
-            AdapterValueTypeConverter.getSingleAttributeValue(
-                String.class, attributes, CREATED_DATETIME));
-    user.getGraphUser().creationType =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, CREATION_TYPE);
-
-    user.getGraphUser().employeeHireDate =
-        parseDateTime(
-            AdapterValueTypeConverter.getSingleAttributeValue(
-                String.class, attributes, EMPLOYEE_HIRE_DATE));
-    user.getGraphUser().employeeId =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, EMPLOYEE_ID);
-
-    // MG: do not create Employee Org data unless it exists
-    var tempEmployeeOrgData = new EmployeeOrgData();
-    tempEmployeeOrgData.costCenter =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, COST_CENTER);
-    tempEmployeeOrgData.division =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, DIVISION);
-    if (tempEmployeeOrgData.costCenter != null || tempEmployeeOrgData.division != null) {
-      user.getGraphUser().employeeOrgData = tempEmployeeOrgData;
+    PLAN.apply(attributes, user, creation);
+
+    PasswordProfile passwordProfile = user.getGraphUser().passwordProfile;
+    if (creation
+        && passwordProfile != null
+        && passwordProfile.forceChangePasswordNextSignIn == null) {
+      passwordProfile.forceChangePasswordNextSignIn =
+          configuration.getForceChangePasswordOnCreate();
     }
 
-    user.getGraphUser().employeeType =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, EMPLOYEE_TYPE);
-    user.getGraphUser().externalUserState =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, EXTERNAL_USER_STATE);
-    user.getGraphUser().externalUserStateChangeDateTime =
-        parseDateTime(
-            AdapterValueTypeConverter.getSingleAttributeValue(
-                String.class, attributes, EXTERNAL_USER_STATE_CHANGE_DATETIME));
-    user.getGraphUser().imAddresses =
-        AdapterValueTypeConverter.getMultipleAttributeValue(List.class, attributes, IM_ADDRESSES);
-    user.getGraphUser().lastPasswordChangeDateTime =
-        parseDateTime(
-            AdapterValueTypeConverter.getSingleAttributeValue(
-                String.class, attributes, LAST_PASSWORD_CHANGE_DATETIME));
-    user.getGraphUser().officeLocation =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, OFFICE_LOCATION);
-    user.getGraphUser().onPremisesDistinguishedName =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, ON_PREMISES_DISTINGUISHED_NAME);
-    user.getGraphUser().onPremisesDomainName =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, ON_PREMISES_DOMAIN_NAME);
-    user.getGraphUser().onPremisesImmutableId =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, ON_PREMISES_IMMUTABLE_ID);
-    user.getGraphUser().onPremisesLastSyncDateTime =
-        parseDateTime(
-            AdapterValueTypeConverter.getSingleAttributeValue(
-                String.class, attributes, ON_PREMISES_LAST_SYNC_DATETIME));
-    user.getGraphUser().onPremisesSamAccountName =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, ON_PREMISES_SAM_ACCOUNT_NAME);
-    user.getGraphUser().onPremisesSecurityIdentifier =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, ON_PREMISES_SECURITY_IDENTIFIER);
-    user.getGraphUser().onPremisesSyncEnabled =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            Boolean.class, attributes, ON_PREMISES_SYNC_ENABLED);
-    user.getGraphUser().onPremisesUserPrincipalName =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, ON_PREMISES_USER_PRINCIPAL_NAME);
-    user.getGraphUser().otherMails =
-        AdapterValueTypeConverter.getMultipleAttributeValue(List.class, attributes, OTHER_EMAILS);
-    user.getGraphUser().passwordPolicies =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, PASSWORD_POLICIES);
-    user.getGraphUser().postalCode =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, POSTAL_CODE);
-    user.getGraphUser().preferredDataLocation =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, PREFERRED_DATA_LOCATION);
-    user.getGraphUser().preferredLanguage =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, PREFERRED_LANGUAGE);
-    user.getGraphUser().proxyAddresses =
-        AdapterValueTypeConverter.getMultipleAttributeValue(
-            List.class, attributes, PROXY_ADDRESSES);
-    user.getGraphUser().securityIdentifier =
-        AdapterValueTypeConverter.getSingleAttributeValue(
-            String.class, attributes, SECURITY_IDENTIFIER);
-    user.getGraphUser().state =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, STATE);
-    user.getGraphUser().streetAddress =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, STREET_ADDRESS);
-    user.getGraphUser().usageLocation =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, USAGE_LOCATION);
-    user.getGraphUser().userType =
-        AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, USER_TYPE);
-    user.getGraphUser().hireDate =
-        parseDateTime(
-            AdapterValueTypeConverter.getSingleAttributeValue(String.class, attributes, HIRE_DATE));
-    user.getGraphUser().responsibilities =
-        AdapterValueTypeConverter.getMultipleAttributeValue(
-            List.class, attributes, RESPONSIBILITIES);
-    user.getGraphUser().skills =
-        AdapterValueTypeConverter.getMultipleAttributeValue(List.class, attributes, SKILLS);
-
-    // Prepare group/license associations
-    if (creation) {
-      List<String> groupIds =
-          AdapterValueTypeConverter.getMultipleAttributeValue(
-              List.class, attributes, ASSIGNED_GROUPS);
-      if (groupIds != null) {
-        user.getGroupIdsToAdd().addAll(groupIds);
-      }
-      List<String> licenseIds =
-          AdapterValueTypeConverter.getMultipleAttributeValue(
-              List.class, attributes, ASSIGNED_LICENSES);
-      if (licenseIds != null) {
-        user.getLicenseIdsToAdd().addAll(licenseIds);
-      }
-    } else {
+    // Prepare group/license associations; on create they are read by the plan
+    if (!creation) {
       List<String> groupIds =
           AdapterValueTypeConverter.getMultipleAttributeValue(
               List.class, multiValueAdded, ASSIGNED_GROUPS);
@@ -383,162 +481,65 @@ public class MicrosoftGraphUsersAdapter
 
   @Override
   protected Set<Attribute> constructAttributes(MicrosoftGraphUser user) {
-    Set<Attribute> attributes = new HashSet<>();
-    attributes.add(
-        AttributeBuilder.build(
-            OperationalAttributes.ENABLE_NAME, user.getGraphUser().accountEnabled));
-    attributes.add(AttributeBuilder.build(GIVEN_NAME.name(), user.getGraphUser().givenName));
-    attributes.add(AttributeBuilder.build(SURNAME.name(), user.getGraphUser().surname));
-    attributes.add(AttributeBuilder.build(EMAIL.name(), user.getGraphUser().mail));
-    attributes.add(AttributeBuilder.build(EMAIL_NICKNAME.name(), user.getGraphUser().mailNickname));
-
-    attributes.add(
-        AttributeBuilder.build(PREFERRED_LANGUAGE.name(), user.getGraphUser().preferredLanguage));
-    attributes.add(
-        AttributeBuilder.build(USER_PRINCIPAL_NAME.name(), user.getGraphUser().userPrincipalName));
-
-    if (user.getGraphUser().passwordProfile != null) {
-      if (user.getGraphUser().passwordProfile.password != null) {
-        attributes.add(
-            AttributeBuilder.build(
-                OperationalAttributes.PASSWORD_NAME,
-                new GuardedString(user.getGraphUser().passwordProfile.password.toCharArray())));
+    MicrosoftGraphProperties properties = user.getProperties();
+    Set<Attribute> attributes = EMITTER.emit(properties);
+
+    // read assigned licenses; those assigned through a group name the group, so inherited
+    // licenses need no group reads
+    List<MicrosoftGraphProperties> states = properties.getPropertiesList("licenseAssignmentStates");
+    if (states != null && !states.isEmpty()) {
+      List<String> licenses = new ArrayList<>(states.size());
+      Set<String> inheritedLicenses = new LinkedHashSet<>();
+      Set<String> licenseGroups = new LinkedHashSet<>();
+      for (MicrosoftGraphProperties assignmentState : states) {
+        String skuId = assignmentState.getString("skuId");
+        String groupId = assignmentState.getString("assignedByGroup");
+        if (skuId == null) {
+          continue;
+        }
+        if (groupId == null) {
+          licenses.add(licenseId(skuId));
+        } else {
+          inheritedLicenses.add(licenseId(skuId));
+          licenseGroups.add(MicrosoftGraphCanonicalValues.canonical(groupId));
+        }
       }
-      attributes.add(
-          AttributeBuilder.build(
-              FORCE_CHANGE_PASSWORD_NEXT_SIGN_IN.name(),
-              user.getGraphUser().passwordProfile.forceChangePasswordNextSignIn));
-      attributes.add(
-          AttributeBuilder.build(
-              FORCE_CHANGE_PASSWORD_NEXT_SIGN_IN_WITH_MFA.name(),
-              user.getGraphUser().passwordProfile.forceChangePasswordNextSignInWithMfa));
+      attributes.add(AttributeBuilder.build(ASSIGNED_LICENSES.name(), licenses));
+      attributes.add(AttributeBuilder.build(INHERITED_LICENSES.name(), inheritedLicenses));
+      attributes.add(AttributeBuilder.build(INHERITED_LICENSE_GROUPS.name(), licenseGroups));
     }
 
-    attributes.add(
-        AttributeBuilder.build(BUSINESS_PHONES.name(), user.getGraphUser().businessPhones));
-
-    attributes.add(AttributeBuilder.build(AGE_GROUP.name(), user.getGraphUser().ageGroup));
-    attributes.add(AttributeBuilder.build(CITY.name(), user.getGraphUser().city));
-    attributes.add(AttributeBuilder.build(COMPANY_NAME.name(), user.getGraphUser().companyName));
-    attributes.add(AttributeBuilder.build(COUNTRY.name(), user.getGraphUser().country));
-    if (user.getGraphUser().createdDateTime != null) {
-      attributes.add(
-          AttributeBuilder.build(
-              CREATED_DATETIME.name(), user.getGraphUser().createdDateTime.toString()));
-    }
-    attributes.add(AttributeBuilder.build(CREATION_TYPE.name(), user.getGraphUser().creationType));
-    if (user.getGraphUser().employeeHireDate != null) {
-      attributes.add(
-          AttributeBuilder.build(
-              EMPLOYEE_HIRE_DATE.name(), user.getGraphUser().employeeHireDate.toString()));
+    // read assigned groups; an empty list is kept, it means the user is in no group
+    if (user.getMemberOf() != null) {
+      attributes.add(AttributeBuilder.build(ASSIGNED_GROUPS.name(), user.getMemberOf()));
     }
-    attributes.add(AttributeBuilder.build(EMPLOYEE_ID.name(), user.getGraphUser().employeeId));
-    if (user.getGraphUser().employeeOrgData != null) {
+    if (user.getTransitiveMemberOf() != null) {
       attributes.add(
-          AttributeBuilder.build(
-              COST_CENTER.name(), user.getGraphUser().employeeOrgData.costCenter));
-      attributes.add(
-          AttributeBuilder.build(DIVISION.name(), user.getGraphUser().employeeOrgData.division));
+          AttributeBuilder.build(TRANSITIVE_GROUPS.name(), user.getTransitiveMemberOf()));
     }
-    attributes.add(AttributeBuilder.build(EMPLOYEE_TYPE.name(), user.getGraphUser().employeeType));
-    attributes.add(
-        AttributeBuilder.build(EXTERNAL_USER_STATE.name(), user.getGraphUser().externalUserState));
-
-    if (user.getGraphUser().externalUserStateChangeDateTime != null) {
-      attributes.add(
-          AttributeBuilder.build(
-              EXTERNAL_USER_STATE_CHANGE_DATETIME.name(),
-              user.getGraphUser().externalUserStateChangeDateTime.toString()));
+    if (user.getMemberOfNames() != null) {
+      attributes.add(AttributeBuilder.build(ASSIGNED_GROUP_NAMES.name(), user.getMemberOfNames()));
     }
-    attributes.add(AttributeBuilder.build(IM_ADDRESSES.name(), user.getGraphUser().imAddresses));
 
-    if (user.getGraphUser().lastPasswordChangeDateTime != null) {
-      attributes.add(
-          AttributeBuilder.build(
-              LAST_PASSWORD_CHANGE_DATETIME.name(),
-              user.getGraphUser().lastPasswordChangeDateTime.toString()));
-    }
-    attributes.add(
-        AttributeBuilder.build(OFFICE_LOCATION.name(), user.getGraphUser().officeLocation));
-    attributes.add(
-        AttributeBuilder.build(
-            ON_PREMISES_DISTINGUISHED_NAME.name(),
-            user.getGraphUser().onPremisesDistinguishedName));
-    attributes.add(
-        AttributeBuilder.build(
-            ON_PREMISES_DOMAIN_NAME.name(), user.getGraphUser().onPremisesDomainName));
-    attributes.add(
-        AttributeBuilder.build(
-            ON_PREMISES_IMMUTABLE_ID.name(), user.getGraphUser().onPremisesImmutableId));
-    if (user.getGraphUser().onPremisesLastSyncDateTime != null) {
-      attributes.add(
-          AttributeBuilder.build(
-              ON_PREMISES_LAST_SYNC_DATETIME.name(),
-              user.getGraphUser().onPremisesLastSyncDateTime.toString()));
-    }
-    attributes.add(
-        AttributeBuilder.build(
-            ON_PREMISES_SAM_ACCOUNT_NAME.name(), user.getGraphUser().onPremisesSamAccountName));
-    attributes.add(
-        AttributeBuilder.build(
-            ON_PREMISES_SECURITY_IDENTIFIER.name(),
-            user.getGraphUser().onPremisesSecurityIdentifier));
-    attributes.add(
-        AttributeBuilder.build(
-            ON_PREMISES_SYNC_ENABLED.name(), user.getGraphUser().onPremisesSyncEnabled));
-    attributes.add(
-        AttributeBuilder.build(
-            ON_PREMISES_USER_PRINCIPAL_NAME.name(),
-            user.getGraphUser().onPremisesUserPrincipalName));
+    return attributes;
+  }
 
-    attributes.add(AttributeBuilder.build(OTHER_EMAILS.name(), user.getGraphUser().otherMails));
-    attributes.add(
-        AttributeBuilder.build(PASSWORD_POLICIES.name(), user.getGraphUser().passwordPolicies));
-    attributes.add(AttributeBuilder.build(POSTAL_CODE.name(), user.getGraphUser().postalCode));
-    attributes.add(
-        AttributeBuilder.build(
-            PREFERRED_DATA_LOCATION.name(), user.getGraphUser().preferredDataLocation));
-    attributes.add(
-        AttributeBuilder.build(PREFERRED_LANGUAGE.name(), user.getGraphUser().preferredLanguage));
-    attributes.add(
-        AttributeBuilder.build(PROXY_ADDRESSES.name(), user.getGraphUser().proxyAddresses));
-    attributes.add(
-        AttributeBuilder.build(SECURITY_IDENTIFIER.name(), user.getGraphUser().securityIdentifier));
-    attributes.add(AttributeBuilder.build(STATE.name(), user.getGraphUser().state));
-    attributes.add(
-        AttributeBuilder.build(STREET_ADDRESS.name(), user.getGraphUser().streetAddress));
-    attributes.add(
-        AttributeBuilder.build(USAGE_LOCATION.name(), user.getGraphUser().usageLocation));
-    attributes.add(AttributeBuilder.build(USER_TYPE.name(), user.getGraphUser().userType));
-    if (user.getGraphUser().hireDate != null) {
-      attributes.add(
-          AttributeBuilder.build(HIRE_DATE.name(), user.getGraphUser().hireDate.toString()));
-    }
-    attributes.add(
-        AttributeBuilder.build(RESPONSIBILITIES.name(), user.getGraphUser().responsibilities));
-    attributes.add(AttributeBuilder.build(SKILLS.name(), user.getGraphUser().skills));
-    attributes.add(
-        AttributeBuilder.build(USAGE_LOCATION.name(), user.getGraphUser().usageLocation));
+  /** License ids are the tenant id and the SKU id, formatted once per SKU. */
+  private String licenseId(String skuId) {
+    return licenseIds.computeIfAbsent(skuId, id -> configuration.getTenantId() + "_" + id);
+  }
 
-    // read assigned licenses
-    if (user.getGraphUser().licenseAssignmentStates != null
-        && (!user.getGraphUser().licenseAssignmentStates.isEmpty())) {
-      List<String> licenses = new ArrayList<>();
-      for (LicenseAssignmentState assignmentState : user.getGraphUser().licenseAssignmentStates) {
-        if (assignmentState.assignedByGroup == null && assignmentState.skuId != null) {
-          licenses.add(configuration.getTenantId() + "_" + assignmentState.skuId.toString());
-        }
-      }
-      attributes.add(AttributeBuilder.build(ASSIGNED_LICENSES.name(), licenses));
+  private static PasswordProfile passwordProfile(MicrosoftGraphUser user) {
+    if (user.getGraphUser().passwordProfile == null) {
+      user.getGraphUser().passwordProfile = new PasswordProfile();
     }
-
-    // read assigned groups
-    attributes.add(AttributeBuilder.build(ASSIGNED_GROUPS.name(), user.getMemberOf()));
-
-    return attributes;
+    return user.getGraphUser().passwordProfile;
   }
 
-  private static OffsetDateTime parseDateTime(String input) {
-    return (input == null) ? null : OffsetDateTime.parse(input);
+  private static EmployeeOrgData employeeOrgData(MicrosoftGraphUser user) {
+    if (user.getGraphUser().employeeOrgData == null) {
+      user.getGraphUser().employeeOrgData = new EmployeeOrgData();
+    }
+    return user.getGraphUser().employeeOrgData;
   }
 }
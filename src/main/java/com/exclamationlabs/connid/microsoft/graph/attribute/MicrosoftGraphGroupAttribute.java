@@ -51,6 +51,9 @@ public enum MicrosoftGraphGroupAttribute {
 
   ASSIGNED_LICENSES, // read-only
 
+  MEMBERS, // ids of direct members
+  OWNERS, // ids of owners, set on create only
+
   IS_DYNAMIC,
   IS_MS_365,
   IS_MS_TEAM,
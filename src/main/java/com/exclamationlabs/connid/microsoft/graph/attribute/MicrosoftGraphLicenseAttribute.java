@@ -22,5 +22,6 @@ public enum MicrosoftGraphLicenseAttribute {
   CAPABILITY_STATUS, // One of (Enabled, Warning, Suspended, Deleted, LockedOut)
   CONSUMED_UNITS,
   SKU_ID, // Java UUID type
-  SKU_PART_NUMBER
+  SKU_PART_NUMBER,
+  HOLDERS // read-only, ids of the users holding the license, on single reads only
 }
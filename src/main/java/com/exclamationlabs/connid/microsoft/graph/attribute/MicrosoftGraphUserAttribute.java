@@ -26,7 +26,11 @@ public enum MicrosoftGraphUserAttribute {
   AGE_GROUP,
 
   ASSIGNED_LICENSES, // identity assignment
+  INHERITED_LICENSES, // read-only, licenses assigned through group-based licensing
+  INHERITED_LICENSE_GROUPS, // read-only, ids of the groups granting INHERITED_LICENSES
   ASSIGNED_GROUPS, // identity assignment
+  TRANSITIVE_GROUPS, // read-only, direct and nested group memberships
+  ASSIGNED_GROUP_NAMES, // read-only, display names of ASSIGNED_GROUPS, needs the group directory
   // LICENSE_ASSIGNMENT_STATES, // complex
 
   BUSINESS_PHONES, // String, multiple
@@ -22,37 +22,81 @@ import com.exclamationlabs.connid.base.connector.authenticator.Authenticator;
 import com.exclamationlabs.connid.base.connector.configuration.TrustStoreConfiguration;
 import com.exclamationlabs.connid.base.connector.util.GuardedStringUtil;
 import com.exclamationlabs.connid.base.microsoft.graph.configuration.MicrosoftGraphConfiguration;
+import com.exclamationlabs.connid.microsoft.graph.metrics.MicrosoftGraphMetrics;
+import com.exclamationlabs.connid.microsoft.graph.metrics.MicrosoftGraphMetricsInterceptor;
+import com.exclamationlabs.connid.microsoft.graph.tracing.MicrosoftGraphTracing;
+import com.exclamationlabs.connid.microsoft.graph.tracing.MicrosoftGraphTracingInterceptor;
 import com.microsoft.graph.authentication.TokenCredentialAuthProvider;
 import com.microsoft.graph.http.CoreHttpProvider;
+import com.microsoft.graph.httpcore.HttpClients;
 import com.microsoft.graph.logger.LoggerLevel;
 import com.microsoft.graph.requests.GraphServiceClient;
 import java.util.Collections;
+import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.identityconnectors.framework.common.exceptions.ConnectorSecurityException;
 
 public class MicrosoftGraphAuthenticator implements Authenticator<MicrosoftGraphConfiguration> {
 
   private GraphServiceClient<Request> authenticatedClient;
 
+  private MicrosoftGraphMetrics metrics;
+
+  private MicrosoftGraphTracing tracing;
+
   @Override
   public String authenticate(MicrosoftGraphConfiguration configuration)
       throws ConnectorSecurityException {
     TrustStoreConfiguration.clearJdkProperties();
-    final ClientSecretCredential clientSecretCredential =
+    ClientSecretCredentialBuilder credentialBuilder =
         new ClientSecretCredentialBuilder()
             .clientId(configuration.getClientId())
             .clientSecret(GuardedStringUtil.read(configuration.getClientSecret()))
-            .tenantId(configuration.getTenantId())
-            .build();
+            .tenantId(configuration.getTenantId());
+    if (StringUtils.isNotBlank(configuration.getAuthorityHost())) {
+      // National clouds sign in elsewhere; the scope must name the same cloud's Graph host
+      credentialBuilder.authorityHost(configuration.getAuthorityHost().trim());
+    }
+    final ClientSecretCredential clientSecretCredential = credentialBuilder.build();
 
     final TokenCredentialAuthProvider tokenCredentialAuthProvider =
         new TokenCredentialAuthProvider(
             Collections.singletonList(configuration.getScope()), clientSecretCredential);
 
-    authenticatedClient =
-        GraphServiceClient.builder()
-            .authenticationProvider(tokenCredentialAuthProvider)
-            .buildClient();
+    metrics =
+        BooleanUtils.isTrue(configuration.getEnableMetrics())
+            ? MicrosoftGraphMetrics.forTenant(configuration.getTenantId())
+            : null;
+    tracing =
+        BooleanUtils.isTrue(configuration.getEnableTracing())
+            ? new MicrosoftGraphTracing(configuration.getTenantId())
+            : null;
+    if (metrics != null || tracing != null) {
+      // Added after the SDK's retry handler, so every attempt is seen.
+      OkHttpClient.Builder httpClient =
+          HttpClients.createDefault(tokenCredentialAuthProvider).newBuilder();
+      if (tracing != null) {
+        httpClient.addInterceptor(new MicrosoftGraphTracingInterceptor(tracing));
+      }
+      if (metrics != null) {
+        httpClient.addInterceptor(new MicrosoftGraphMetricsInterceptor(metrics));
+      }
+      authenticatedClient =
+          GraphServiceClient.builder().httpClient(httpClient.build()).buildClient();
+    } else {
+      authenticatedClient =
+          GraphServiceClient.builder()
+              .authenticationProvider(tokenCredentialAuthProvider)
+              .buildClient();
+    }
+    if (StringUtils.isNotBlank(configuration.getGraphServiceUrl())) {
+      // National clouds or a local stand-in. Tokens are only attached for known Graph hosts,
+      // which include the national clouds' ones.
+      authenticatedClient.setServiceRoot(
+          StringUtils.removeEnd(configuration.getGraphServiceUrl().trim(), "/"));
+    }
     if (configuration.getEnableDebugHttpLogging()) {
       authenticatedClient.getLogger().setLoggingLevel(LoggerLevel.DEBUG);
       try {
@@ -69,4 +113,14 @@ public class MicrosoftGraphAuthenticator implements Authenticator<MicrosoftGraph
   public GraphServiceClient<Request> getAuthenticatedClient() {
     return authenticatedClient;
   }
+
+  /** @return the tenant's metrics, or null when enableMetrics is false. */
+  public MicrosoftGraphMetrics getMetrics() {
+    return metrics;
+  }
+
+  /** @return the tracing support, or null when enableTracing is false. */
+  public MicrosoftGraphTracing getTracing() {
+    return tracing;
+  }
 }
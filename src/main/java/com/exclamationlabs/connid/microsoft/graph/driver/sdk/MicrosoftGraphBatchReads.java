@@ -0,0 +1,133 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphCanonicalValues;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.microsoft.graph.content.BatchRequestContent;
+import com.microsoft.graph.content.BatchResponseContent;
+import com.microsoft.graph.content.BatchResponseStep;
+import com.microsoft.graph.core.CustomRequestBuilder;
+import com.microsoft.graph.http.GraphServiceException;
+import com.microsoft.graph.http.HttpMethod;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.http.HttpStatus;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Sends many GETs through $batch, {@value MicrosoftGraphMemberChanges#MAX_BATCH_REQUESTS} per
+ * request, for the details read about each object of a bulk read. As with member removals, steps
+ * that were throttled or failed on the server side are sent again as single requests, which the
+ * Graph client retries.
+ */
+final class MicrosoftGraphBatchReads {
+
+  private MicrosoftGraphBatchReads() {}
+
+  /**
+   * @param paths resource paths with their query, such as /teams/{id}?$select=id.
+   * @return the response body of each path, in the same order; null where Graph answered 404.
+   */
+  static List<JsonObject> get(MicrosoftGraphDriver driver, List<String> paths) {
+    JsonObject[] bodies = new JsonObject[paths.size()];
+    for (int start = 0;
+        start < paths.size();
+        start += MicrosoftGraphMemberChanges.MAX_BATCH_REQUESTS) {
+      BatchRequestContent batch = new BatchRequestContent();
+      Map<String, Integer> indexByStep = new HashMap<>();
+      int end = Math.min(paths.size(), start + MicrosoftGraphMemberChanges.MAX_BATCH_REQUESTS);
+      for (int index = start; index < end; index++) {
+        indexByStep.put(
+            batch.addBatchRequestStep(
+                driver.getGraphClient().customRequest(paths.get(index)).buildRequest(),
+                HttpMethod.GET),
+            index);
+      }
+      BatchResponseContent responses = driver.getGraphClient().batch().buildRequest().post(batch);
+      List<Integer> retries = new ArrayList<>();
+      for (BatchResponseStep<JsonElement> response : responses.responses) {
+        Integer index = indexByStep.remove(response.id);
+        if (index == null || response.status == HttpStatus.SC_NOT_FOUND) {
+          continue;
+        }
+        if (response.status >= 200 && response.status < 300) {
+          bodies[index] =
+              response.body != null && response.body.isJsonObject()
+                  ? response.body.getAsJsonObject()
+                  : new JsonObject();
+        } else if (response.status == 429
+            || response.status >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+          retries.add(index);
+        } else {
+          throw new ConnectorException(
+              String.format(
+                  "Reading %s failed with status %d: %s",
+                  paths.get(index), response.status, response.body));
+        }
+      }
+      // Steps missing from the response are retried as well
+      retries.addAll(indexByStep.values());
+      for (Integer index : retries) {
+        try {
+          bodies[index] =
+              driver
+                  .getGraphClient()
+                  .customRequest(paths.get(index), JsonObject.class)
+                  .buildRequest()
+                  .get();
+        } catch (GraphServiceException gse) {
+          if (gse.getResponseCode() != HttpStatus.SC_NOT_FOUND) {
+            throw gse;
+          }
+        }
+      }
+    }
+    return Arrays.asList(bodies);
+  }
+
+  /**
+   * @return the canonical ids of the objects of a collection page read by {@link #get}, and of the
+   *     pages that follow it.
+   */
+  static Set<String> ids(MicrosoftGraphDriver driver, JsonObject page) {
+    Set<String> ids = new HashSet<>();
+    while (page != null) {
+      JsonElement value = page.get("value");
+      if (value != null && value.isJsonArray()) {
+        for (JsonElement object : value.getAsJsonArray()) {
+          JsonElement id = object.isJsonObject() ? object.getAsJsonObject().get("id") : null;
+          if (id != null && id.isJsonPrimitive()) {
+            ids.add(MicrosoftGraphCanonicalValues.canonical(id.getAsString()));
+          }
+        }
+      }
+      JsonElement nextLink = page.get(MicrosoftGraphJsonReads.NEXT_LINK);
+      page =
+          nextLink == null || nextLink.isJsonNull()
+              ? null
+              : new CustomRequestBuilder<>(
+                      nextLink.getAsString(), driver.getGraphClient(), null, JsonObject.class)
+                  .buildRequest()
+                  .get();
+    }
+    return ids;
+  }
+}
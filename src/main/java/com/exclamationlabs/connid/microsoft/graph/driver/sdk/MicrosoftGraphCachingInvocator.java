@@ -0,0 +1,137 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import com.exclamationlabs.connid.base.connector.driver.DriverInvocator;
+import com.exclamationlabs.connid.base.connector.model.IdentityModel;
+import com.exclamationlabs.connid.base.connector.results.ResultsFilter;
+import com.exclamationlabs.connid.base.connector.results.ResultsPaginator;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Wraps an invocator so that reads by id go through the driver's object cache of its object class,
+ * when enabled. Creating, updating or deleting an object invalidates its entry, and clears the
+ * caches of the object classes whose objects the write can change, such as the memberships of users
+ * when a group's members change.
+ */
+class MicrosoftGraphCachingInvocator<T extends IdentityModel>
+    implements DriverInvocator<MicrosoftGraphDriver, T> {
+
+  private final String objectClass;
+  private final DriverInvocator<MicrosoftGraphDriver, T> delegate;
+  private final BiPredicate<MicrosoftGraphDriver, T> complete;
+  private final List<String> dependentClasses;
+
+  /** @param dependentClasses object classes whose cached objects a write may change. */
+  MicrosoftGraphCachingInvocator(
+      String objectClass,
+      DriverInvocator<MicrosoftGraphDriver, T> delegate,
+      String... dependentClasses) {
+    this(objectClass, delegate, (driver, model) -> true, dependentClasses);
+  }
+
+  /**
+   * @param complete whether a cached object holds every attribute the current search asked for; one
+   *     that does not is read again.
+   * @param dependentClasses object classes whose cached objects a write may change.
+   */
+  MicrosoftGraphCachingInvocator(
+      String objectClass,
+      DriverInvocator<MicrosoftGraphDriver, T> delegate,
+      BiPredicate<MicrosoftGraphDriver, T> complete,
+      String... dependentClasses) {
+    this.objectClass = objectClass;
+    this.delegate = delegate;
+    this.complete = complete;
+    this.dependentClasses = Arrays.asList(dependentClasses);
+  }
+
+  @Override
+  public String create(MicrosoftGraphDriver driver, T model) throws ConnectorException {
+    try {
+      return delegate.create(driver, model);
+    } finally {
+      invalidate(driver, null);
+    }
+  }
+
+  @Override
+  public void update(MicrosoftGraphDriver driver, String id, T model) throws ConnectorException {
+    try {
+      delegate.update(driver, id, model);
+    } finally {
+      invalidate(driver, id);
+    }
+  }
+
+  @Override
+  public void delete(MicrosoftGraphDriver driver, String id) throws ConnectorException {
+    try {
+      delegate.delete(driver, id);
+    } finally {
+      invalidate(driver, id);
+    }
+  }
+
+  @Override
+  public Set<T> getAll(
+      MicrosoftGraphDriver driver,
+      ResultsFilter resultsFilter,
+      ResultsPaginator resultsPaginator,
+      Integer integer)
+      throws ConnectorException {
+    return delegate.getAll(driver, resultsFilter, resultsPaginator, integer);
+  }
+
+  @Override
+  public T getOne(MicrosoftGraphDriver driver, String id, Map<String, Object> map)
+      throws ConnectorException {
+    MicrosoftGraphObjectCache<T> cache = driver.getObjectCache(objectClass);
+    if (cache == null) {
+      return delegate.getOne(driver, id, map);
+    }
+    MicrosoftGraphObjectCache.Entry<T> entry = cache.get(id);
+    if (entry != null && (entry.getValue() == null || complete.test(driver, entry.getValue()))) {
+      return entry.getValue();
+    }
+    long readToken = cache.startRead();
+    T model = delegate.getOne(driver, id, map);
+    cache.put(id, model, readToken);
+    return model;
+  }
+
+  @Override
+  public T getOneByName(MicrosoftGraphDriver driver, String nameValue) throws ConnectorException {
+    return delegate.getOneByName(driver, nameValue);
+  }
+
+  /** @param id the object written, or null for a new object. */
+  private void invalidate(MicrosoftGraphDriver driver, String id) {
+    MicrosoftGraphObjectCache<T> cache = driver.getObjectCache(objectClass);
+    if (cache != null && id != null) {
+      cache.invalidate(id);
+    }
+    for (String dependentClass : dependentClasses) {
+      MicrosoftGraphObjectCache<?> dependents = driver.getObjectCache(dependentClass);
+      if (dependents != null) {
+        dependents.clear();
+      }
+    }
+  }
+}
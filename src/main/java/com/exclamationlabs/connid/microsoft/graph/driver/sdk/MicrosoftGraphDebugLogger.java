@@ -0,0 +1,172 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import com.exclamationlabs.connid.base.connector.logging.Logger;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.microsoft.graph.serializer.ISerializer;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Debug payload logging for enableDebugHttpLogging. A payload takes a slot in a bounded buffer
+ * first; when the buffer is full it is dropped before any work is done, and the number of dropped
+ * entries is reported with the next written entry. A Graph model may still change once the request
+ * is sent, so it is serialized on the request thread; parsing, redacting and writing are left to a
+ * single background thread.
+ */
+class MicrosoftGraphDebugLogger {
+
+  static final int BUFFER_CAPACITY = 1024;
+
+  static final String REDACTED = "***";
+
+  private static final Set<String> SECRET_PROPERTIES =
+      new HashSet<>(Arrays.asList("password", "clientsecret", "secrettext", "accesstoken"));
+
+  private final ISerializer serializer;
+  private final Semaphore slots = new Semaphore(BUFFER_CAPACITY);
+  private final BlockingQueue<Entry> buffer = new ArrayBlockingQueue<>(BUFFER_CAPACITY);
+  private final AtomicLong dropped = new AtomicLong();
+  private final Thread writer;
+  private volatile boolean running = true;
+
+  MicrosoftGraphDebugLogger(ISerializer serializer) {
+    this.serializer = serializer;
+    writer = new Thread(this::drain, "msgraph-debug-logger");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  void log(Object source, String method, Object data) {
+    if (!slots.tryAcquire()) {
+      dropped.incrementAndGet();
+      return;
+    }
+    boolean queued = false;
+    try {
+      queued = buffer.offer(snapshot(source, method, data));
+    } finally {
+      if (!queued) {
+        slots.release();
+      }
+    }
+  }
+
+  /**
+   * @return an entry holding the payload as Graph receives it, detached from the caller's objects.
+   */
+  private Entry snapshot(Object source, String method, Object data) {
+    if (data == null || data instanceof String) {
+      return new Entry(
+          source, method, data == null ? null : new JsonPrimitive((String) data), null);
+    }
+    if (data instanceof JsonElement) {
+      return new Entry(source, method, ((JsonElement) data).deepCopy(), null);
+    }
+    String json = serializer.serializeObject(data);
+    return json == null
+        ? new Entry(source, method, new JsonPrimitive("(not serializable)"), null)
+        : new Entry(source, method, null, json);
+  }
+
+  void close() {
+    running = false;
+    writer.interrupt();
+  }
+
+  private void drain() {
+    while (running || !buffer.isEmpty()) {
+      try {
+        Entry entry = buffer.poll(1, TimeUnit.SECONDS);
+        if (entry != null) {
+          slots.release();
+          write(entry);
+        }
+      } catch (InterruptedException e) {
+        // close() requested; write what is left without waiting
+        running = false;
+        Entry entry;
+        while ((entry = buffer.poll()) != null) {
+          slots.release();
+          write(entry);
+        }
+      }
+    }
+  }
+
+  private void write(Entry entry) {
+    long droppedCount = dropped.getAndSet(0);
+    String droppedNote =
+        droppedCount == 0 ? "" : String.format(" (%d debug entries dropped)", droppedCount);
+    try {
+      JsonElement tree = entry.json == null ? entry.tree : JsonParser.parseString(entry.json);
+      Logger.info(
+          entry.source,
+          "Debug payload, Method: "
+              + entry.method
+              + " data: "
+              + (tree == null ? "null" : redact(tree).toString())
+              + droppedNote);
+    } catch (Exception e) {
+      Logger.info(
+          entry.source,
+          "Debug payload, Method: "
+              + entry.method
+              + " data could not be serialized: "
+              + e.getMessage()
+              + droppedNote);
+    }
+  }
+
+  /** Replaces the values of secret properties, in place. */
+  static JsonElement redact(JsonElement element) {
+    if (element.isJsonObject()) {
+      for (Map.Entry<String, JsonElement> field : ((JsonObject) element).entrySet()) {
+        if (SECRET_PROPERTIES.contains(field.getKey().toLowerCase(Locale.ROOT))
+            && !field.getValue().isJsonNull()) {
+          field.setValue(new JsonPrimitive(REDACTED));
+        } else {
+          redact(field.getValue());
+        }
+      }
+    } else if (element.isJsonArray()) {
+      ((JsonArray) element).forEach(MicrosoftGraphDebugLogger::redact);
+    }
+    return element;
+  }
+
+  private static class Entry {
+    private final Object source;
+    private final String method;
+    // The payload as a tree, or as JSON to be parsed on the writer thread
+    private final JsonElement tree;
+    private final String json;
+
+    private Entry(Object source, String method, JsonElement tree, String json) {
+      this.source = source;
+      this.method = method;
+      this.tree = tree;
+      this.json = json;
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Builds PATCH payloads that only contain the properties whose requested value differs from the
+ * current value held by Graph. Used when differential updates are enabled so that recomputes which
+ * change nothing do not send any request at all.
+ */
+final class MicrosoftGraphDifferentialPatch {
+
+  /** Never part of a PATCH body. */
+  private static final Set<String> IGNORED_PROPERTIES =
+      new HashSet<>(Arrays.asList("id", "@odata.type"));
+
+  /** Write-only properties that Graph never returns, so they are always sent when requested. */
+  private static final Set<String> WRITE_ONLY_PROPERTIES =
+      new HashSet<>(Collections.singletonList("passwordProfile"));
+
+  private MicrosoftGraphDifferentialPatch() {}
+
+  /**
+   * PATCHes only the properties of graphObject that differ from the current state of the resource.
+   *
+   * @param driver Driver holding the Graph client.
+   * @param resourcePath Graph path of the object, e.g. /users/{id}.
+   * @param graphObject Requested state as built by the adapter.
+   * @return false if nothing changed and no PATCH was sent.
+   */
+  static boolean patch(MicrosoftGraphDriver driver, String resourcePath, Object graphObject) {
+    JsonObject requested = requestedProperties(driver, graphObject);
+    if (requested.size() == 0) {
+      return false;
+    }
+    JsonObject current = null;
+    String select = selectFor(requested);
+    if (!select.isEmpty()) {
+      current =
+          driver
+              .getGraphClient()
+              .customRequest(resourcePath, JsonObject.class)
+              .buildRequest()
+              .select(select)
+              .get();
+    }
+    JsonObject changes = difference(requested, current);
+    if (changes.size() == 0) {
+      return false;
+    }
+    driver.logTransactionPayload(MicrosoftGraphDifferentialPatch.class, "patch", changes);
+    driver
+        .getGraphClient()
+        .customRequest(resourcePath, JsonObject.class)
+        .buildRequest()
+        .patch(changes);
+    return true;
+  }
+
+  /**
+   * Serializes a Graph SDK model the same way the SDK would for a PATCH, which leaves out every
+   * null (unchanged) property.
+   */
+  static JsonObject requestedProperties(MicrosoftGraphDriver driver, Object graphObject) {
+    JsonObject requested =
+        JsonParser.parseString(driver.getGraphClient().getSerializer().serializeObject(graphObject))
+            .getAsJsonObject();
+    IGNORED_PROPERTIES.forEach(requested::remove);
+    return requested;
+  }
+
+  /** $select value needed to read back the current state of the requested properties. */
+  static String selectFor(JsonObject requested) {
+    List<String> fields = new ArrayList<>();
+    for (String name : requested.keySet()) {
+      if (!WRITE_ONLY_PROPERTIES.contains(name)) {
+        fields.add(name);
+      }
+    }
+    return String.join(",", fields);
+  }
+
+  static JsonObject difference(JsonObject requested, JsonObject current) {
+    JsonObject changes = new JsonObject();
+    for (Map.Entry<String, JsonElement> entry : requested.entrySet()) {
+      String name = entry.getKey();
+      if (WRITE_ONLY_PROPERTIES.contains(name)
+          || current == null
+          || !sameValue(entry.getValue(), current.get(name))) {
+        changes.add(name, entry.getValue());
+      }
+    }
+    return changes;
+  }
+
+  private static boolean sameValue(JsonElement requested, JsonElement current) {
+    if (current == null || current.isJsonNull()) {
+      return requested == null || requested.isJsonNull() || isEmptyArray(requested);
+    }
+    if (requested.isJsonObject() && current.isJsonObject()) {
+      // Complex values are replaced as a whole, so only skip them when every requested
+      // sub-property already matches.
+      JsonObject currentObject = current.getAsJsonObject();
+      for (Map.Entry<String, JsonElement> entry : requested.getAsJsonObject().entrySet()) {
+        if (!entry.getKey().startsWith("@odata")
+            && !sameValue(entry.getValue(), currentObject.get(entry.getKey()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (requested.isJsonArray() && current.isJsonArray()) {
+      // Multi-valued Graph strings (phones, addresses, skills) have no meaningful order.
+      return asMultiset(requested.getAsJsonArray()).equals(asMultiset(current.getAsJsonArray()));
+    }
+    if (requested.isJsonPrimitive() && current.isJsonPrimitive()) {
+      if (requested.equals(current)) {
+        return true;
+      }
+      return sameInstant(requested.getAsString(), current.getAsString());
+    }
+    return false;
+  }
+
+  private static boolean isEmptyArray(JsonElement element) {
+    return element.isJsonArray() && element.getAsJsonArray().size() == 0;
+  }
+
+  private static Map<JsonElement, Integer> asMultiset(JsonArray array) {
+    Map<JsonElement, Integer> counts = new HashMap<>();
+    array.forEach(element -> counts.merge(element, 1, Integer::sum));
+    return counts;
+  }
+
+  private static boolean sameInstant(String requested, String current) {
+    try {
+      return OffsetDateTime.parse(requested).isEqual(OffsetDateTime.parse(current));
+    } catch (DateTimeParseException notADate) {
+      return false;
+    }
+  }
+}
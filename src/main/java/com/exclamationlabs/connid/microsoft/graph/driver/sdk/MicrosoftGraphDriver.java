@@ -19,15 +19,24 @@ import com.exclamationlabs.connid.base.connector.logging.Logger;
 import com.exclamationlabs.connid.base.connector.model.IdentityModel;
 import com.exclamationlabs.connid.base.microsoft.graph.configuration.MicrosoftGraphConfiguration;
 import com.exclamationlabs.connid.microsoft.graph.authenticator.MicrosoftGraphAuthenticator;
+import com.exclamationlabs.connid.microsoft.graph.metrics.MicrosoftGraphMetrics;
 import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphGroup;
 import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphLicense;
 import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphUser;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.exclamationlabs.connid.microsoft.graph.tracing.MicrosoftGraphTracing;
 import com.microsoft.graph.core.ClientException;
 import com.microsoft.graph.http.GraphServiceException;
 import com.microsoft.graph.models.Admin;
 import com.microsoft.graph.requests.GraphServiceClient;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 import okhttp3.Request;
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpStatus;
 import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
@@ -37,8 +46,26 @@ import org.identityconnectors.framework.common.exceptions.ConnectorSecurityExcep
 public class MicrosoftGraphDriver extends BaseDriver<MicrosoftGraphConfiguration> {
 
   static final int SDK_FETCH_COUNT = 50;
+  static final int MAX_FETCH_COUNT = 999;
+  static final int DEFAULT_RESULT_BUFFER_MAX_OBJECTS = 50000;
+  static final int DEFAULT_RESULT_BUFFER_MAX_MEGABYTES = 64;
+  static final int DEFAULT_OBJECT_CACHE_MAX_ENTRIES = 10000;
   private MicrosoftGraphConfiguration configuration;
   private GraphServiceClient<Request> graphClient;
+  private final MicrosoftGraphUsersInvocator usersInvocator;
+  private final MicrosoftGraphGroupsInvocator groupsInvocator;
+  private MicrosoftGraphWriteCoalescer writeCoalescer;
+  private MicrosoftGraphReadCoalescer<MicrosoftGraphUser> userReads;
+  private MicrosoftGraphReadCoalescer<MicrosoftGraphGroup> groupReads;
+  private MicrosoftGraphMembershipCache membershipCache;
+  private final Map<String, MicrosoftGraphObjectCache<?>> objectCaches = new HashMap<>();
+  private MicrosoftGraphDebugLogger debugLogger;
+  private MicrosoftGraphMetrics metrics;
+  private MicrosoftGraphTracing tracing;
+  private volatile MicrosoftGraphGroupNesting groupNesting;
+  private final Object groupNestingLock = new Object();
+  private volatile MicrosoftGraphGroupDirectory groupDirectory;
+  private final ThreadLocal<Set<String>> attributesToGet = new ThreadLocal<>();
 
   public MicrosoftGraphConfiguration getConfiguration() {
     return configuration;
@@ -46,9 +73,27 @@ public class MicrosoftGraphDriver extends BaseDriver<MicrosoftGraphConfiguration
 
   public MicrosoftGraphDriver() {
     super();
-    addInvocator(MicrosoftGraphUser.class, new MicrosoftGraphUsersInvocator());
-    addInvocator(MicrosoftGraphGroup.class, new MicrosoftGraphGroupsInvocator());
-    addInvocator(MicrosoftGraphLicense.class, new MicrosoftGraphLicensesInvocator());
+    usersInvocator = new MicrosoftGraphUsersInvocator();
+    groupsInvocator = new MicrosoftGraphGroupsInvocator();
+    MicrosoftGraphLicensesInvocator licensesInvocator = new MicrosoftGraphLicensesInvocator();
+    addInvocator(
+        MicrosoftGraphUser.class,
+        new MicrosoftGraphMeteredInvocator<>(
+            "user",
+            new MicrosoftGraphCachingInvocator<>(
+                "user", usersInvocator, usersInvocator::hasRequestedAttributes, "license")));
+    addInvocator(
+        MicrosoftGraphGroup.class,
+        new MicrosoftGraphMeteredInvocator<>(
+            "group",
+            new MicrosoftGraphCachingInvocator<>(
+                "group", groupsInvocator, groupsInvocator::hasRequestedAttributes, "user")));
+    addInvocator(
+        MicrosoftGraphLicense.class,
+        new MicrosoftGraphMeteredInvocator<>(
+            "license",
+            new MicrosoftGraphCachingInvocator<>(
+                "license", licensesInvocator, licensesInvocator::hasRequestedAttributes)));
   }
 
   @Override
@@ -59,10 +104,70 @@ public class MicrosoftGraphDriver extends BaseDriver<MicrosoftGraphConfiguration
     this.configuration = configuration;
     authenticator.authenticate(configuration);
     graphClient = ((MicrosoftGraphAuthenticator) authenticator).getAuthenticatedClient();
+    metrics = ((MicrosoftGraphAuthenticator) authenticator).getMetrics();
+    tracing = ((MicrosoftGraphAuthenticator) authenticator).getTracing();
+    if (BooleanUtils.isTrue(configuration.getEnableDebugHttpLogging())) {
+      debugLogger = new MicrosoftGraphDebugLogger(graphClient.getSerializer());
+    }
+    if (configuration.getWriteCoalescingWindowMillis() != null
+        && configuration.getWriteCoalescingWindowMillis() > 0) {
+      writeCoalescer =
+          new MicrosoftGraphWriteCoalescer(
+              this, usersInvocator, configuration.getWriteCoalescingWindowMillis());
+    }
+    if (configuration.getReadCoalescingWindowMillis() != null
+        && configuration.getReadCoalescingWindowMillis() > 0) {
+      userReads =
+          new MicrosoftGraphReadCoalescer<>(
+              "user",
+              configuration.getReadCoalescingWindowMillis(),
+              MicrosoftGraphJsonReads.MAX_GET_BY_IDS,
+              ids -> usersInvocator.getByIds(this, ids));
+      groupReads =
+          new MicrosoftGraphReadCoalescer<>(
+              "group",
+              configuration.getReadCoalescingWindowMillis(),
+              MicrosoftGraphJsonReads.MAX_GET_BY_IDS,
+              ids -> groupsInvocator.getByIds(this, ids));
+    }
+    if (configuration.getMembershipCacheTtlSeconds() != null
+        && configuration.getMembershipCacheTtlSeconds() > 0) {
+      membershipCache =
+          new MicrosoftGraphMembershipCache(configuration.getMembershipCacheTtlSeconds() * 1000L);
+    }
+    if (configuration.getGroupDirectoryRefreshSeconds() != null
+        && configuration.getGroupDirectoryRefreshSeconds() > 0) {
+      groupDirectory = new MicrosoftGraphGroupDirectory();
+    }
+    objectCaches.clear();
+    if (configuration.getObjectCacheTtlSeconds() != null
+        && configuration.getObjectCacheTtlSeconds() > 0) {
+      int maxEntries =
+          configuration.getObjectCacheMaxEntries() != null
+                  && configuration.getObjectCacheMaxEntries() > 0
+              ? configuration.getObjectCacheMaxEntries()
+              : DEFAULT_OBJECT_CACHE_MAX_ENTRIES;
+      for (String objectClass : new String[] {"user", "group", "license"}) {
+        objectCaches.put(
+            objectClass,
+            new MicrosoftGraphObjectCache<>(
+                configuration.getObjectCacheTtlSeconds() * 1000L, maxEntries));
+      }
+    }
   }
 
   @Override
   public void test() throws ConnectorException {
+    observed(
+        "connector",
+        "test",
+        () -> {
+          testAdminInfo();
+          return null;
+        });
+  }
+
+  private void testAdminInfo() throws ConnectorException {
     try {
       Admin admin = graphClient.admin().buildRequest().get();
       if (admin == null) {
@@ -77,13 +182,210 @@ public class MicrosoftGraphDriver extends BaseDriver<MicrosoftGraphConfiguration
     }
   }
 
+  /**
+   * Runs a connector operation so that the Graph requests it makes are attributed to it in the
+   * metrics and traced as children of its span, and records its overall duration.
+   */
+  <R> R observed(String objectClass, String operation, Supplier<R> call) {
+    long start = System.nanoTime();
+    MicrosoftGraphTracing.Operation trace =
+        tracing == null ? null : tracing.startOperation(objectClass, operation);
+    boolean failed = true;
+    try (MicrosoftGraphMetrics.Scope scope = MicrosoftGraphMetrics.enter(objectClass, operation)) {
+      R result = call.get();
+      failed = false;
+      return result;
+    } catch (RuntimeException e) {
+      if (trace != null) {
+        trace.recordFailure(e);
+      }
+      throw e;
+    } finally {
+      if (metrics != null) {
+        metrics.recordOperation(objectClass, operation, System.nanoTime() - start, failed);
+      }
+      if (trace != null) {
+        trace.end();
+      }
+    }
+  }
+
   @Override
-  public void close() {}
+  public void close() {
+    if (writeCoalescer != null) {
+      writeCoalescer.close();
+      writeCoalescer = null;
+    }
+    if (membershipCache != null) {
+      membershipCache.clear();
+    }
+    objectCaches.values().forEach(MicrosoftGraphObjectCache::clear);
+    groupNesting = null;
+    groupDirectory = null;
+    if (debugLogger != null) {
+      debugLogger.close();
+      debugLogger = null;
+    }
+    if (metrics != null) {
+      MicrosoftGraphMetrics.release(configuration.getTenantId());
+      metrics = null;
+    }
+  }
 
   public GraphServiceClient<Request> getGraphClient() {
     return graphClient;
   }
 
+  /** @return the tenant's request metrics, or null when enableMetrics is false. */
+  public MicrosoftGraphMetrics getMetrics() {
+    return metrics;
+  }
+
+  /** $top used when listing users and groups; Graph accepts at most 999. */
+  int getFetchPageSize() {
+    Integer configured = configuration.getFetchPageSize();
+    if (configured == null || configured <= 0) {
+      return SDK_FETCH_COUNT;
+    }
+    return Math.min(configured, MAX_FETCH_COUNT);
+  }
+
+  /** Whether listing pages are parsed from the response stream; see MicrosoftGraphJsonReads. */
+  boolean isStreamingReads() {
+    return BooleanUtils.isTrue(configuration.getEnableStreamingReads());
+  }
+
+  /** @return an empty buffer for getAll results, spilling to disk past the configured limits. */
+  <M> MicrosoftGraphResultBuffer<M> newResultBuffer(MicrosoftGraphResultBuffer.Codec<M> codec) {
+    Integer maxObjects = configuration.getResultBufferMaxObjects();
+    Integer maxMegabytes = configuration.getResultBufferMaxMegabytes();
+    return new MicrosoftGraphResultBuffer<>(
+        codec,
+        maxObjects == null ? DEFAULT_RESULT_BUFFER_MAX_OBJECTS : Math.max(maxObjects, 0),
+        (maxMegabytes == null ? DEFAULT_RESULT_BUFFER_MAX_MEGABYTES : Math.max(maxMegabytes, 0))
+            * 1024L
+            * 1024L);
+  }
+
+  /**
+   * Runs a search knowing which attributes it asked for, so that reads can leave out the attributes
+   * that are costly to compute and not returned by default.
+   *
+   * @param names the attributes to get, or null for those returned by default.
+   */
+  public void withAttributesToGet(String[] names, Runnable search) {
+    Set<String> previous = attributesToGet.get();
+    attributesToGet.set(
+        names == null ? Collections.emptySet() : new HashSet<>(Arrays.asList(names)));
+    try {
+      search.run();
+    } finally {
+      if (previous == null) {
+        attributesToGet.remove();
+      } else {
+        attributesToGet.set(previous);
+      }
+    }
+  }
+
+  /** @return whether the search running on this thread asked for the attribute. */
+  boolean isRequested(String name) {
+    Set<String> names = attributesToGet.get();
+    return names != null && names.contains(name);
+  }
+
+  /**
+   * @return the tenant's group nesting, loaded when missing or older than
+   *     groupNestingCacheTtlSeconds, or null when that is 0.
+   */
+  MicrosoftGraphGroupNesting getGroupNesting() {
+    Integer configured = configuration.getGroupNestingCacheTtlSeconds();
+    if (configured == null || configured <= 0) {
+      return null;
+    }
+    long ttlMillis = configured * 1000L;
+    MicrosoftGraphGroupNesting current = groupNesting;
+    if (current != null && !current.isExpired(ttlMillis)) {
+      return current;
+    }
+    synchronized (groupNestingLock) {
+      current = groupNesting;
+      if (current == null || current.isExpired(ttlMillis)) {
+        current = MicrosoftGraphGroupNesting.load(this);
+        groupNesting = current;
+        Logger.info(this, String.format("Loaded group nesting, %d nested groups", current.size()));
+      }
+      return current;
+    }
+  }
+
+  /** Drops a group from the group directory, when enabled, without syncing the directory. */
+  void forgetGroup(String groupId) {
+    MicrosoftGraphGroupDirectory current = groupDirectory;
+    if (current != null) {
+      current.remove(groupId);
+    }
+  }
+
+  /**
+   * @return the tenant's group directory, synced first when older than
+   *     groupDirectoryRefreshSeconds, or null when that is 0.
+   */
+  MicrosoftGraphGroupDirectory getGroupDirectory() {
+    MicrosoftGraphGroupDirectory current = groupDirectory;
+    if (current == null) {
+      return null;
+    }
+    long refreshMillis = configuration.getGroupDirectoryRefreshSeconds() * 1000L;
+    if (current.isStale(refreshMillis)) {
+      synchronized (current) {
+        if (current.isStale(refreshMillis)) {
+          current.sync(this);
+        }
+      }
+    }
+    return current;
+  }
+
+  MicrosoftGraphWriteCoalescer getWriteCoalescer() {
+    return writeCoalescer;
+  }
+
+  /** @return the coalescer of single user reads, or null when readCoalescingWindowMillis is 0. */
+  MicrosoftGraphReadCoalescer<MicrosoftGraphUser> getUserReads() {
+    return userReads;
+  }
+
+  /** @return the coalescer of single group reads, or null when readCoalescingWindowMillis is 0. */
+  MicrosoftGraphReadCoalescer<MicrosoftGraphGroup> getGroupReads() {
+    return groupReads;
+  }
+
+  /**
+   * @param objectClass user, group or license.
+   * @return the cache of objects of the class read by id, or null when objectCacheTtlSeconds is 0.
+   */
+  @SuppressWarnings("unchecked")
+  <T> MicrosoftGraphObjectCache<T> getObjectCache(String objectClass) {
+    return (MicrosoftGraphObjectCache<T>) objectCaches.get(objectClass);
+  }
+
+  MicrosoftGraphMembershipCache getMembershipCache() {
+    return membershipCache;
+  }
+
+  void flushPendingWrites(String id) {
+    if (writeCoalescer != null) {
+      writeCoalescer.flush(id);
+    }
+  }
+
+  void flushPendingWrites() {
+    if (writeCoalescer != null) {
+      writeCoalescer.flushAll();
+    }
+  }
+
   @Override
   public IdentityModel getOneByName(
       Class<? extends IdentityModel> identityModelClass, String nameValue)
@@ -160,15 +462,8 @@ public class MicrosoftGraphDriver extends BaseDriver<MicrosoftGraphConfiguration
   }
 
   public void logTransactionPayload(Object clazz, String method, Object data) {
-    if (this.configuration.getEnableDebugHttpLogging()) {
-      ObjectMapper mapper = new ObjectMapper();
-      try {
-        Logger.info(
-            clazz,
-            "Debug payload, Method: " + method + " data: " + mapper.writeValueAsString(data));
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
+    if (debugLogger != null) {
+      debugLogger.log(clazz, method, data);
     }
   }
 }
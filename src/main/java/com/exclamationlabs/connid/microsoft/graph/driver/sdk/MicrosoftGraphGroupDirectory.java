@@ -0,0 +1,232 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import com.exclamationlabs.connid.base.connector.logging.Logger;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphCanonicalValues;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphProperties;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.microsoft.graph.http.GraphServiceException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * The display name, mail, types and Teams flag of every group of the tenant by id, so group ids
+ * found in memberships can be described without reading each group. It is filled by a sweep of
+ * /groups/delta and kept current by following the delta link of the previous sweep once it is older
+ * than groupDirectoryRefreshSeconds. Groups read by the connector in between are recorded as they
+ * are read, and groups not known yet are read together with directoryObjects/getByIds.
+ */
+final class MicrosoftGraphGroupDirectory {
+
+  static final String SELECT =
+      "id,displayName,mail,groupTypes,securityEnabled,resourceProvisioningOptions";
+
+  private static final String DELTA_LINK = "@odata.deltaLink";
+
+  private final Map<String, Entry> groups = new ConcurrentHashMap<>();
+
+  // Only used by sync, which the driver never runs concurrently
+  private String deltaLink;
+
+  private volatile long syncedAt;
+
+  /**
+   * Reads the changes since the last sync, or every group on the first sync and when Graph no
+   * longer knows the delta link.
+   */
+  void sync(MicrosoftGraphDriver driver) {
+    String[] nextDeltaLink = new String[1];
+    Set<String> seen = new HashSet<>();
+    Consumer<JsonObject> pages =
+        page -> {
+          JsonElement value = page.get("value");
+          if (value != null && value.isJsonArray()) {
+            for (JsonElement element : value.getAsJsonArray()) {
+              JsonObject group = element.getAsJsonObject();
+              String id = MicrosoftGraphCanonicalValues.canonical(group.get("id").getAsString());
+              seen.add(id);
+              if (group.has("@removed")) {
+                groups.remove(id);
+              } else {
+                groups.merge(
+                    id, Entry.of(MicrosoftGraphProperties.of(group), null), Entry::updatedWith);
+              }
+            }
+          }
+          JsonElement link = page.get(DELTA_LINK);
+          if (link != null && link.isJsonPrimitive()) {
+            nextDeltaLink[0] = link.getAsString();
+          }
+        };
+    boolean full = deltaLink == null;
+    if (!full) {
+      try {
+        MicrosoftGraphJsonReads.readPages(driver, deltaLink, pages);
+      } catch (GraphServiceException gse) {
+        if (gse.getResponseCode() != 410) {
+          throw gse;
+        }
+        Logger.info(this, "Group directory delta link expired, reading all groups again");
+        full = true;
+      }
+    }
+    if (full) {
+      seen.clear();
+      MicrosoftGraphJsonReads.readPages(
+          driver,
+          "/groups/delta",
+          MicrosoftGraphJsonReads.options(SELECT, null, null),
+          true,
+          pages);
+      // Groups deleted while no delta link was held
+      groups.keySet().retainAll(seen);
+    }
+    deltaLink = nextDeltaLink[0];
+    syncedAt = System.currentTimeMillis();
+    Logger.info(
+        this,
+        String.format(
+            "Synced group directory, %d groups %s, %d known",
+            seen.size(), full ? "read" : "changed", groups.size()));
+  }
+
+  boolean isStale(long refreshMillis) {
+    return System.currentTimeMillis() - syncedAt > refreshMillis;
+  }
+
+  /**
+   * Records a group read by the connector.
+   *
+   * @param team whether the group has a team, or null if not known.
+   */
+  void record(MicrosoftGraphProperties group, Boolean team) {
+    String id = group.getString("id");
+    if (id != null) {
+      groups.merge(
+          MicrosoftGraphCanonicalValues.canonical(id), Entry.of(group, team), Entry::updatedWith);
+    }
+  }
+
+  void remove(String groupId) {
+    groups.remove(MicrosoftGraphCanonicalValues.canonical(groupId));
+  }
+
+  /** @return the group, or null if it is not known. */
+  Entry get(String groupId) {
+    return groups.get(MicrosoftGraphCanonicalValues.canonical(groupId));
+  }
+
+  /**
+   * Describes groups, reading those not known yet in one directoryObjects/getByIds request per
+   * {@value MicrosoftGraphJsonReads#MAX_GET_BY_IDS} groups.
+   *
+   * @return the groups found, by id; ids of deleted groups are left out.
+   */
+  Map<String, Entry> resolve(MicrosoftGraphDriver driver, Collection<String> groupIds) {
+    Map<String, Entry> result = new LinkedHashMap<>();
+    List<String> unknown = new ArrayList<>();
+    for (String groupId : groupIds) {
+      Entry entry = get(groupId);
+      if (entry != null) {
+        result.put(groupId, entry);
+      } else {
+        unknown.add(groupId);
+      }
+    }
+    if (!unknown.isEmpty()) {
+      for (MicrosoftGraphProperties group :
+          MicrosoftGraphJsonReads.getByIds(driver, unknown, "group", SELECT)) {
+        record(group, null);
+      }
+      for (String groupId : unknown) {
+        Entry entry = get(groupId);
+        if (entry != null) {
+          result.put(groupId, entry);
+        }
+      }
+    }
+    return result;
+  }
+
+  int size() {
+    return groups.size();
+  }
+
+  /** What is known of one group. Immutable, a change replaces the entry. */
+  static final class Entry {
+
+    private final String displayName;
+    private final String mail;
+    private final List<String> groupTypes;
+    private final Boolean securityEnabled;
+    private final Boolean team;
+
+    private Entry(
+        String displayName,
+        String mail,
+        List<String> groupTypes,
+        Boolean securityEnabled,
+        Boolean team) {
+      this.displayName = displayName;
+      this.mail = mail;
+      this.groupTypes = groupTypes;
+      this.securityEnabled = securityEnabled;
+      this.team = team;
+    }
+
+    private static Entry of(MicrosoftGraphProperties group, Boolean team) {
+      List<String> options = group.getStrings("resourceProvisioningOptions");
+      return new Entry(
+          group.getString("displayName"),
+          group.getString("mail"),
+          group.getStrings("groupTypes"),
+          group.getBoolean("securityEnabled"),
+          team != null || options == null ? team : options.contains("Team"));
+    }
+
+    /** Delta changes and reads may carry only some of the properties; others are kept. */
+    private static Entry updatedWith(Entry current, Entry changes) {
+      return new Entry(
+          changes.displayName != null ? changes.displayName : current.displayName,
+          changes.mail != null ? changes.mail : current.mail,
+          changes.groupTypes != null ? changes.groupTypes : current.groupTypes,
+          changes.securityEnabled != null ? changes.securityEnabled : current.securityEnabled,
+          changes.team != null ? changes.team : current.team);
+    }
+
+    String getDisplayName() {
+      return displayName;
+    }
+
+    String getMail() {
+      return mail;
+    }
+
+    List<String> getGroupTypes() {
+      return groupTypes;
+    }
+
+    Boolean getSecurityEnabled() {
+      return securityEnabled;
+    }
+
+    /** @return whether the group has a team, or null if not known. */
+    Boolean getTeam() {
+      return team;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphCanonicalValues;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.util.*;
+
+/**
+ * Which groups are direct members of which other groups, for the whole tenant. It is read in one
+ * sweep of /groups/delta selecting members, then the transitive groups of a user are expanded from
+ * its direct groups without any further request. Only group-in-group memberships are kept; user
+ * members seen during the sweep are dropped as they are read.
+ *
+ * <p>A loaded nesting is immutable. The driver replaces it once it is older than
+ * groupNestingCacheTtlSeconds, so nesting changed in the meantime is seen from then on. The
+ * connector itself never nests groups.
+ */
+final class MicrosoftGraphGroupNesting {
+
+  static final String MEMBERS_DELTA = "members@delta";
+
+  private static final String GROUP_TYPE = "#microsoft.graph.group";
+
+  /** Group id to the ids of the groups it is a direct member of. */
+  private final Map<String, String[]> parents;
+
+  private final long loadedAt = System.currentTimeMillis();
+
+  private MicrosoftGraphGroupNesting(Map<String, String[]> parents) {
+    this.parents = parents;
+  }
+
+  static MicrosoftGraphGroupNesting load(MicrosoftGraphDriver driver) {
+    Map<String, Set<String>> parents = new HashMap<>();
+    MicrosoftGraphJsonReads.readPages(
+        driver,
+        "/groups/delta",
+        MicrosoftGraphJsonReads.options("id,members", null, null),
+        true,
+        page -> {
+          JsonElement value = page.get("value");
+          if (value == null || !value.isJsonArray()) {
+            return;
+          }
+          for (JsonElement element : value.getAsJsonArray()) {
+            // A large group may be listed on several pages, each with part of its members
+            JsonObject group = element.getAsJsonObject();
+            JsonElement members = group.get(MEMBERS_DELTA);
+            if (members == null || !members.isJsonArray()) {
+              continue;
+            }
+            String groupId = MicrosoftGraphCanonicalValues.canonical(group.get("id").getAsString());
+            for (JsonElement member : members.getAsJsonArray()) {
+              JsonObject reference = member.getAsJsonObject();
+              JsonElement type = reference.get("@odata.type");
+              if (type != null
+                  && GROUP_TYPE.equals(type.getAsString())
+                  && !reference.has("@removed")) {
+                parents
+                    .computeIfAbsent(
+                        MicrosoftGraphCanonicalValues.canonical(reference.get("id").getAsString()),
+                        id -> new HashSet<>(4))
+                    .add(groupId);
+              }
+            }
+          }
+        });
+    Map<String, String[]> result = new HashMap<>(parents.size() * 2);
+    parents.forEach((groupId, groupIds) -> result.put(groupId, groupIds.toArray(new String[0])));
+    return new MicrosoftGraphGroupNesting(result);
+  }
+
+  boolean isExpired(long ttlMillis) {
+    return System.currentTimeMillis() - loadedAt > ttlMillis;
+  }
+
+  /** @return the groups given and every group they are nested in, at any depth. */
+  Set<String> expand(Collection<String> groupIds) {
+    Set<String> result = new HashSet<>(groupIds);
+    Deque<String> pending = new ArrayDeque<>(groupIds);
+    while (!pending.isEmpty()) {
+      String[] direct = parents.get(pending.pop());
+      if (direct == null) {
+        continue;
+      }
+      for (String groupId : direct) {
+        if (result.add(groupId)) {
+          pending.push(groupId);
+        }
+      }
+    }
+    return result;
+  }
+
+  /** @return the number of groups that are a member of at least one other group. */
+  int size() {
+    return parents.size();
+  }
+}
@@ -17,14 +17,19 @@ import com.exclamationlabs.connid.base.connector.driver.DriverInvocator;
 import com.exclamationlabs.connid.base.connector.logging.Logger;
 import com.exclamationlabs.connid.base.connector.results.ResultsFilter;
 import com.exclamationlabs.connid.base.connector.results.ResultsPaginator;
+import com.exclamationlabs.connid.microsoft.graph.attribute.MicrosoftGraphGroupAttribute;
 import com.exclamationlabs.connid.microsoft.graph.attribute.MicrosoftGraphUserAttribute;
 import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphGroup;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphProperties;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.microsoft.graph.http.GraphServiceException;
 import com.microsoft.graph.models.Group;
 import com.microsoft.graph.models.Team;
-import com.microsoft.graph.requests.GroupCollectionPage;
-import com.microsoft.graph.requests.GroupCollectionRequestBuilder;
+import java.io.IOException;
 import java.util.*;
+import org.apache.commons.lang3.BooleanUtils;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.Name;
 
@@ -37,6 +42,42 @@ public class MicrosoftGraphGroupsInvocator
 
   private static final Map<String, String> filterAttributeToFieldMap;
 
+  private static final MicrosoftGraphResultBuffer.Codec<MicrosoftGraphGroup> RESULT_CODEC =
+      new MicrosoftGraphResultBuffer.Codec<>() {
+        @Override
+        public long estimatedSize(MicrosoftGraphGroup group) {
+          return group.getProperties().estimatedSize();
+        }
+
+        @Override
+        public void write(MicrosoftGraphGroup group, JsonWriter writer) throws IOException {
+          writer.beginObject();
+          writer.name("msTeam").value(BooleanUtils.isTrue(group.getMsTeam()));
+          writer.name("properties");
+          group.getProperties().write(writer);
+          writer.endObject();
+        }
+
+        @Override
+        public MicrosoftGraphGroup read(JsonReader reader) throws IOException {
+          boolean msTeam = false;
+          MicrosoftGraphProperties properties = null;
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("msTeam".equals(name)) {
+              msTeam = reader.nextBoolean();
+            } else {
+              properties = MicrosoftGraphProperties.read(reader);
+            }
+          }
+          reader.endObject();
+          MicrosoftGraphGroup group = new MicrosoftGraphGroup(properties);
+          group.setMsTeam(msTeam);
+          return group;
+        }
+      };
+
   static {
     filterAttributeToFieldMap = new HashMap<>();
     filterAttributeToFieldMap.put(Name.NAME, "displayName");
@@ -87,16 +128,34 @@ public class MicrosoftGraphGroupsInvocator
   @Override
   public String create(MicrosoftGraphDriver driver, MicrosoftGraphGroup newGroup)
       throws ConnectorException {
-    if (driver.getConfiguration().getEnableDebugHttpLogging()) {
-      try {
-        driver.logTransactionPayload(this, "post", newGroup.getGraphGroup());
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
-    }
+    // Initial owners and members are bound in the create request as far as Graph allows, owners
+    // first; the rest follow in PATCHes of the new group.
+    List<String> owners = new ArrayList<>(newGroup.getOwnerIdsToAdd());
+    List<String> members =
+        newGroup.getDesiredMemberIds() == null
+            ? Collections.emptyList()
+            : new ArrayList<>(newGroup.getDesiredMemberIds());
+    int boundOwners = Math.min(owners.size(), MicrosoftGraphMemberChanges.MAX_BIND_REFERENCES);
+    int boundMembers =
+        Math.min(members.size(), MicrosoftGraphMemberChanges.MAX_BIND_REFERENCES - boundOwners);
+    bind(driver, newGroup.getGraphGroup(), MicrosoftGraphMemberChanges.OWNERS, owners, boundOwners);
+    bind(
+        driver,
+        newGroup.getGraphGroup(),
+        MicrosoftGraphMemberChanges.MEMBERS,
+        members,
+        boundMembers);
+    driver.logTransactionPayload(this, "post", newGroup.getGraphGroup());
     try {
       final Group createdGroup =
           driver.getGraphClient().groups().buildRequest().post(newGroup.getGraphGroup());
+      MicrosoftGraphMemberChanges.addOwners(
+          driver, createdGroup.id, owners.subList(boundOwners, owners.size()));
+      MicrosoftGraphMemberChanges.addMembers(
+          driver, createdGroup.id, members.subList(boundMembers, members.size()));
+      if (driver.getMembershipCache() != null) {
+        driver.getMembershipCache().recordMembers(createdGroup.id, members);
+      }
       return createdGroup.id;
     } catch (GraphServiceException gse) {
       driver.handleGraphServiceException(gse);
@@ -113,19 +172,30 @@ public class MicrosoftGraphGroupsInvocator
   @Override
   public void update(MicrosoftGraphDriver driver, String id, MicrosoftGraphGroup modifiedGroup)
       throws ConnectorException {
-    if (driver.getConfiguration().getEnableDebugHttpLogging()) {
-      try {
-        driver.logTransactionPayload(this, "patch", modifiedGroup.getGraphGroup());
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
-    }
+    // Deferred user updates may change memberships of this group
+    driver.flushPendingWrites();
+    driver.logTransactionPayload(this, "patch", modifiedGroup.getGraphGroup());
     try {
-      Objects.requireNonNull(
-              driver.getGraphClient().groups().byId(id),
-              String.format("MSGraph group byId %s produced null result", id))
-          .buildRequest()
-          .patch(modifiedGroup.getGraphGroup());
+      boolean propertiesChanged = modifiedGroup.getProperties().size() > 0;
+      if (propertiesChanged) {
+        // Described again from Graph when next needed
+        driver.forgetGroup(id);
+      }
+      if (BooleanUtils.isTrue(driver.getConfiguration().getEnableDifferentialUpdates())) {
+        MicrosoftGraphDifferentialPatch.patch(
+            driver, "/groups/" + id, modifiedGroup.getGraphGroup());
+      } else if (propertiesChanged) {
+        Objects.requireNonNull(
+                driver.getGraphClient().groups().byId(id),
+                String.format("MSGraph group byId %s produced null result", id))
+            .buildRequest()
+            .patch(modifiedGroup.getGraphGroup());
+      }
+      if (modifiedGroup.getDesiredMemberIds() != null) {
+        syncMembers(driver, id, modifiedGroup.getDesiredMemberIds());
+      }
+      MicrosoftGraphMemberChanges.addMembers(driver, id, modifiedGroup.getMemberIdsToAdd());
+      MicrosoftGraphMemberChanges.removeMembers(driver, id, modifiedGroup.getMemberIdsToRemove());
     } catch (GraphServiceException gse) {
       driver.handleGraphServiceException(gse);
       if (gse.toString() != null && driver.getConfiguration().getEnableDebugHttpLogging()) {
@@ -138,6 +208,46 @@ public class MicrosoftGraphGroupsInvocator
     }
   }
 
+  private static void bind(
+      MicrosoftGraphDriver driver, Group group, String relation, List<String> ids, int count) {
+    if (count > 0) {
+      group
+          .additionalDataManager()
+          .put(
+              relation + "@odata.bind",
+              MicrosoftGraphMemberChanges.references(driver, ids.subList(0, count)));
+    }
+  }
+
+  /**
+   * Makes the direct members of a group exactly the given ones. The current members are read as ids
+   * only and compared with the desired set, and just the difference is sent: adds as
+   * members@odata.bind PATCHes and removes as batched $ref DELETEs, 20 per request each.
+   */
+  public void syncMembers(MicrosoftGraphDriver driver, String groupId, Set<String> desiredMemberIds)
+      throws ConnectorException {
+    driver.flushPendingWrites();
+    Set<String> toRemove = new HashSet<>();
+    new MicrosoftGraphRelatedIds(driver, groupId, MicrosoftGraphMemberChanges.MEMBERS)
+        .forEach(toRemove::add);
+    List<String> toAdd = new ArrayList<>();
+    for (String id : desiredMemberIds) {
+      if (!toRemove.remove(id)) {
+        toAdd.add(id);
+      }
+    }
+    Logger.info(
+        this,
+        String.format(
+            "Syncing members of group %s: %d to add, %d to remove",
+            groupId, toAdd.size(), toRemove.size()));
+    MicrosoftGraphMemberChanges.addMembers(driver, groupId, toAdd);
+    MicrosoftGraphMemberChanges.removeMembers(driver, groupId, toRemove);
+    if (driver.getMembershipCache() != null) {
+      driver.getMembershipCache().recordMembers(groupId, desiredMemberIds);
+    }
+  }
+
   @Override
   public void delete(MicrosoftGraphDriver driver, String id) throws ConnectorException {
     throw new UnsupportedOperationException("Delete not supported for MS Graph groups");
@@ -150,77 +260,101 @@ public class MicrosoftGraphGroupsInvocator
       ResultsPaginator resultsPaginator,
       Integer integer)
       throws ConnectorException {
-    Set<MicrosoftGraphGroup> response = new HashSet<>();
-    List<Group> groupList = new ArrayList<>();
-    try {
-      GroupCollectionPage page;
+    return search(driver, resultsFilter);
+  }
 
+  /** getAll, returning the buffer so callers that stop early can close it. */
+  private MicrosoftGraphResultBuffer<MicrosoftGraphGroup> search(
+      MicrosoftGraphDriver driver, ResultsFilter resultsFilter) throws ConnectorException {
+    driver.flushPendingWrites();
+    MicrosoftGraphResultBuffer<MicrosoftGraphGroup> response = driver.newResultBuffer(RESULT_CODEC);
+    boolean complete = false;
+    try {
       String modelFieldName =
           resultsFilter.hasFilter()
               ? filterAttributeToFieldMap.get(resultsFilter.getAttribute())
               : null;
+      boolean found;
       if (modelFieldName != null) {
-        page =
-            driver
-                .getGraphClient()
-                .groups()
-                .buildRequest()
-                .select(String.join(",", summaryFields))
-                .filter(modelFieldName + " eq '" + resultsFilter.getValue() + "'")
-                .get();
+        found =
+            MicrosoftGraphJsonReads.list(
+                driver,
+                "/groups",
+                MicrosoftGraphJsonReads.options(
+                    String.join(",", summaryFields),
+                    modelFieldName + " eq '" + resultsFilter.getValue() + "'",
+                    null),
+                false,
+                page -> addGroups(driver, page, response));
       } else {
-        page =
-            driver
-                .getGraphClient()
-                .groups()
-                .buildRequest()
-                .select(String.join(",", summaryFields))
-                .top(MicrosoftGraphDriver.SDK_FETCH_COUNT)
-                .get();
-        while (page != null) {
-          groupList.addAll(page.getCurrentPage());
-
-          final GroupCollectionRequestBuilder nextPage = page.getNextPage();
-          if (nextPage == null) {
-            break;
-          } else {
-            page = nextPage.buildRequest().get();
-          }
-        }
+        found =
+            MicrosoftGraphJsonReads.list(
+                driver,
+                "/groups",
+                MicrosoftGraphJsonReads.options(
+                    String.join(",", summaryFields), null, driver.getFetchPageSize()),
+                true,
+                page -> addGroups(driver, page, response));
       }
-      driver.getGraphClient().groups().buildRequest().select(String.join(",", summaryFields)).get();
-      if (page == null) {
+      if (!found) {
         throw new ConnectorException("Failure retrieving page of users.");
       }
-
-      for (Group current : groupList) {
-        MicrosoftGraphGroup currentGroup = new MicrosoftGraphGroup(current);
-        currentGroup.setMsTeam(checkMsTeamType(driver, currentGroup.getIdentityIdValue()));
-        response.add(currentGroup);
-      }
+      complete = true;
     } catch (GraphServiceException gse) {
       if (gse.toString() != null && driver.getConfiguration().getEnableDebugHttpLogging()) {
         Logger.error(this, String.format("Exception in groups.getAll %s", gse.toString()), gse);
       }
       driver.handleGraphServiceException(gse);
+    } finally {
+      if (!complete) {
+        response.close();
+      }
     }
     return response;
   }
 
+  private void addGroups(
+      MicrosoftGraphDriver driver,
+      List<MicrosoftGraphProperties> page,
+      Set<MicrosoftGraphGroup> response) {
+    MicrosoftGraphGroupDirectory directory = driver.getGroupDirectory();
+    for (MicrosoftGraphProperties current : page) {
+      MicrosoftGraphGroup currentGroup = new MicrosoftGraphGroup(current);
+      MicrosoftGraphGroupDirectory.Entry known =
+          directory == null ? null : directory.get(currentGroup.getIdentityIdValue());
+      if (known != null && known.getTeam() != null) {
+        currentGroup.setMsTeam(known.getTeam());
+      } else {
+        currentGroup.setMsTeam(checkMsTeamType(driver, currentGroup.getIdentityIdValue()));
+      }
+      if (directory != null) {
+        directory.record(current, currentGroup.getMsTeam());
+      }
+      response.add(currentGroup);
+    }
+  }
+
   @Override
   public MicrosoftGraphGroup getOne(MicrosoftGraphDriver driver, String id, Map<String, Object> map)
       throws ConnectorException {
+    driver.flushPendingWrites();
+    if (driver.getGroupReads() != null) {
+      MicrosoftGraphGroup coalesced = driver.getGroupReads().get(id);
+      if (coalesced != null) {
+        setRequestedRelatedIds(driver, id, coalesced);
+        return coalesced;
+      }
+    }
     try {
-      Group matchingGroup =
-          Objects.requireNonNull(
-                  driver.getGraphClient().groups().byId(id),
-                  String.format("MSGraph group byId %s produced null result", id))
-              .buildRequest()
-              .select(String.join(",", detailFields))
-              .get();
+      MicrosoftGraphProperties matchingGroup =
+          MicrosoftGraphJsonReads.get(driver, "/groups/" + id, String.join(",", detailFields));
 
       MicrosoftGraphGroup returnGroup = new MicrosoftGraphGroup(matchingGroup);
       returnGroup.setMsTeam(checkMsTeamType(driver, id));
+      if (driver.getGroupDirectory() != null) {
+        driver.getGroupDirectory().record(matchingGroup, returnGroup.getMsTeam());
+      }
+      setRequestedRelatedIds(driver, id, returnGroup);
       return returnGroup;
     } catch (GraphServiceException gse) {
       if (gse.toString() != null && driver.getConfiguration().getEnableDebugHttpLogging()) {
@@ -231,12 +365,69 @@ public class MicrosoftGraphGroupsInvocator
     return null;
   }
 
+  /**
+   * Reads many groups by id as getOne does: their properties with directoryObjects/getByIds and
+   * their Teams checks through $batch. Ids without a group are left out.
+   *
+   * @return the groups found, by id.
+   */
+  public Map<String, MicrosoftGraphGroup> getByIds(
+      MicrosoftGraphDriver driver, Collection<String> ids) throws ConnectorException {
+    driver.flushPendingWrites();
+    Map<String, MicrosoftGraphGroup> groups = new LinkedHashMap<>();
+    try {
+      for (MicrosoftGraphProperties properties :
+          MicrosoftGraphJsonReads.getByIds(driver, ids, "group", String.join(",", detailFields))) {
+        groups.put(properties.getString("id"), new MicrosoftGraphGroup(properties));
+      }
+      List<String> paths = new ArrayList<>();
+      groups.keySet().forEach(id -> paths.add("/teams/" + id + "?$select=id"));
+      Iterator<JsonObject> teams = MicrosoftGraphBatchReads.get(driver, paths).iterator();
+      for (Map.Entry<String, MicrosoftGraphGroup> group : groups.entrySet()) {
+        group.getValue().setMsTeam(teams.next() != null);
+        setRequestedRelatedIds(driver, group.getKey(), group.getValue());
+      }
+    } catch (GraphServiceException gse) {
+      if (gse.toString() != null && driver.getConfiguration().getEnableDebugHttpLogging()) {
+        Logger.error(this, String.format("Exception in groups.getByIds %s", gse.toString()), gse);
+      }
+      driver.handleGraphServiceException(gse);
+      throw new ConnectorException(
+          "Unexpected GraphServiceException occurred during group getByIds:", gse);
+    }
+    return groups;
+  }
+
+  /**
+   * Gives the group the members and owners the search running on this thread asked for. They are
+   * read page by page only as their attributes are built.
+   */
+  private static void setRequestedRelatedIds(
+      MicrosoftGraphDriver driver, String id, MicrosoftGraphGroup group) {
+    group.setMembers(
+        driver.isRequested(MicrosoftGraphGroupAttribute.MEMBERS.name())
+            ? new MicrosoftGraphRelatedIds(driver, id, MicrosoftGraphMemberChanges.MEMBERS)
+            : null);
+    group.setOwners(
+        driver.isRequested(MicrosoftGraphGroupAttribute.OWNERS.name())
+            ? new MicrosoftGraphRelatedIds(driver, id, MicrosoftGraphMemberChanges.OWNERS)
+            : null);
+  }
+
+  /** @return whether the group has the members and owners the current search asks for, no more. */
+  boolean hasRequestedAttributes(MicrosoftGraphDriver driver, MicrosoftGraphGroup group) {
+    return (group.getMembers() != null)
+            == driver.isRequested(MicrosoftGraphGroupAttribute.MEMBERS.name())
+        && (group.getOwners() != null)
+            == driver.isRequested(MicrosoftGraphGroupAttribute.OWNERS.name());
+  }
+
   @Override
   public MicrosoftGraphGroup getOneByName(MicrosoftGraphDriver driver, String nameValue) {
-    Set<MicrosoftGraphGroup> groups =
-        getAll(driver, new ResultsFilter(Name.NAME, nameValue), new ResultsPaginator(), null);
-    Optional<MicrosoftGraphGroup> groupGet = groups.stream().findFirst();
-    return groupGet.orElse(null);
+    try (MicrosoftGraphResultBuffer<MicrosoftGraphGroup> groups =
+        search(driver, new ResultsFilter(Name.NAME, nameValue))) {
+      return groups.stream().findFirst().orElse(null);
+    }
   }
 
   protected Boolean checkMsTeamType(MicrosoftGraphDriver driver, String groupId) {
@@ -0,0 +1,336 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphProperties;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.microsoft.graph.core.CustomRequestBuilder;
+import com.microsoft.graph.http.CustomRequest;
+import com.microsoft.graph.http.GraphServiceException;
+import com.microsoft.graph.http.HttpMethod;
+import com.microsoft.graph.http.IHttpRequest;
+import com.microsoft.graph.http.IStatefulResponseHandler;
+import com.microsoft.graph.logger.ILogger;
+import com.microsoft.graph.options.HeaderOption;
+import com.microsoft.graph.options.Option;
+import com.microsoft.graph.options.QueryOption;
+import com.microsoft.graph.serializer.ISerializer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Reads users and groups as JSON and converts each object straight to {@link
+ * MicrosoftGraphProperties}, so listings never build SDK models. Each page is dropped as soon as
+ * its objects are converted. Requests go through the same Graph client, so retries, throttling,
+ * metrics and tracing apply as for SDK requests.
+ *
+ * <p>With enableStreamingReads, listing pages are not parsed into a JSON tree either: the response
+ * body is read incrementally and each element of the value array is converted as soon as it has
+ * been read, so neither the page text nor its tree is ever held in memory.
+ */
+final class MicrosoftGraphJsonReads {
+
+  static final String NEXT_LINK = "@odata.nextLink";
+
+  /** Graph resolves at most this many ids per directoryObjects/getByIds request. */
+  static final int MAX_GET_BY_IDS = 1000;
+
+  private MicrosoftGraphJsonReads() {}
+
+  /**
+   * @param path collection path, such as /users.
+   * @param options query options of the first page; later pages use the next link as returned.
+   * @param allPages false to only read the first page.
+   * @param pages receives the objects of each page once the page has been read, so callers may make
+   *     further requests for them.
+   * @return false if Graph returned no page at all.
+   */
+  static boolean list(
+      MicrosoftGraphDriver driver,
+      String path,
+      List<Option> options,
+      boolean allPages,
+      Consumer<List<MicrosoftGraphProperties>> pages) {
+    Page page = first(driver, path, options);
+    if (page == null) {
+      return false;
+    }
+    while (page != null) {
+      pages.accept(page.objects);
+      if (!allPages) {
+        break;
+      }
+      page = next(driver, page);
+    }
+    return true;
+  }
+
+  /**
+   * Reads the first page of a collection, for callers that fetch further pages only as they need
+   * them.
+   *
+   * @return the page, or null if Graph returned none.
+   */
+  static Page first(MicrosoftGraphDriver driver, String path, List<Option> options) {
+    Page page;
+    if (driver.isStreamingReads()) {
+      page =
+          PageReader.send(
+              driver, driver.getGraphClient().customRequest(path).buildRequest(options));
+    } else {
+      page =
+          Page.of(
+              driver
+                  .getGraphClient()
+                  .customRequest(path, JsonObject.class)
+                  .buildRequest(options)
+                  .get());
+    }
+    if (page != null) {
+      for (Option option : options) {
+        if (option instanceof HeaderOption) {
+          page.headers.add(option);
+        }
+      }
+    }
+    return page;
+  }
+
+  /** @return the page after the given one, or null if it was the last. */
+  static Page next(MicrosoftGraphDriver driver, Page page) {
+    if (page.nextLink == null) {
+      return null;
+    }
+    Page next;
+    if (driver.isStreamingReads()) {
+      next =
+          PageReader.send(
+              driver,
+              new CustomRequestBuilder<>(
+                      page.nextLink, driver.getGraphClient(), null, JsonElement.class)
+                  .buildRequest(page.headers));
+    } else {
+      next =
+          Page.of(
+              new CustomRequestBuilder<>(
+                      page.nextLink, driver.getGraphClient(), null, JsonObject.class)
+                  .buildRequest(page.headers)
+                  .get());
+    }
+    if (next != null) {
+      next.headers.addAll(page.headers);
+    }
+    return next;
+  }
+
+  /**
+   * Reads the pages of a collection as JSON trees, for callers that need more of a response than
+   * the properties of its objects, such as annotations.
+   *
+   * @return false if Graph returned no page at all.
+   */
+  static boolean readPages(
+      MicrosoftGraphDriver driver,
+      String path,
+      List<Option> options,
+      boolean allPages,
+      Consumer<JsonObject> pages) {
+    return readPages(
+        driver,
+        driver.getGraphClient().customRequest(path, JsonObject.class).buildRequest(options).get(),
+        allPages,
+        pages);
+  }
+
+  /**
+   * Reads the pages of a collection as JSON trees starting from a link returned by Graph, such as a
+   * delta link.
+   *
+   * @return false if Graph returned no page at all.
+   */
+  static boolean readPages(MicrosoftGraphDriver driver, String link, Consumer<JsonObject> pages) {
+    return readPages(driver, getLink(driver, link), true, pages);
+  }
+
+  private static boolean readPages(
+      MicrosoftGraphDriver driver, JsonObject page, boolean allPages, Consumer<JsonObject> pages) {
+    if (page == null) {
+      return false;
+    }
+    while (page != null) {
+      pages.accept(page);
+      JsonElement nextLink = page.get(NEXT_LINK);
+      if (!allPages || nextLink == null || nextLink.isJsonNull()) {
+        break;
+      }
+      page = getLink(driver, nextLink.getAsString());
+    }
+    return true;
+  }
+
+  private static JsonObject getLink(MicrosoftGraphDriver driver, String link) {
+    return new CustomRequestBuilder<>(link, driver.getGraphClient(), null, JsonObject.class)
+        .buildRequest()
+        .get();
+  }
+
+  /** @return the selected properties of a single object, such as /users/{id}. */
+  static MicrosoftGraphProperties get(MicrosoftGraphDriver driver, String path, String select) {
+    JsonObject json =
+        driver
+            .getGraphClient()
+            .customRequest(path, JsonObject.class)
+            .buildRequest()
+            .select(select)
+            .get();
+    return json == null ? null : MicrosoftGraphProperties.of(json);
+  }
+
+  /**
+   * Reads objects of one type by id with directoryObjects/getByIds, {@value #MAX_GET_BY_IDS} ids
+   * per request. Ids that do not exist, or are of another type, are left out.
+   *
+   * @param type user or group.
+   */
+  static List<MicrosoftGraphProperties> getByIds(
+      MicrosoftGraphDriver driver, Collection<String> ids, String type, String select) {
+    List<MicrosoftGraphProperties> objects = new ArrayList<>(ids.size());
+    List<String> all = new ArrayList<>(ids);
+    for (int start = 0; start < all.size(); start += MAX_GET_BY_IDS) {
+      JsonObject body = new JsonObject();
+      JsonArray chunk = new JsonArray();
+      all.subList(start, Math.min(all.size(), start + MAX_GET_BY_IDS)).forEach(chunk::add);
+      body.add("ids", chunk);
+      JsonArray types = new JsonArray();
+      types.add(type);
+      body.add("types", types);
+      JsonObject page =
+          driver
+              .getGraphClient()
+              .customRequest("/directoryObjects/getByIds", JsonObject.class)
+              .buildRequest(options(select, null, null))
+              .post(body);
+      JsonElement value = page == null ? null : page.get("value");
+      if (value != null && value.isJsonArray()) {
+        objects.addAll(MicrosoftGraphProperties.of(value.getAsJsonArray()));
+      }
+    }
+    return objects;
+  }
+
+  /**
+   * Marks a collection read as an advanced query, which Graph requires for some filters on
+   * directory objects. The header is sent again with each next page.
+   */
+  static List<Option> advancedQuery(List<Option> options) {
+    options.add(new HeaderOption("ConsistencyLevel", "eventual"));
+    options.add(new QueryOption("$count", "true"));
+    return options;
+  }
+
+  static List<Option> options(String select, String filter, Integer top) {
+    List<Option> options = new ArrayList<>();
+    options.add(new QueryOption("$select", select));
+    if (filter != null) {
+      options.add(new QueryOption("$filter", filter));
+    }
+    if (top != null) {
+      options.add(new QueryOption("$top", top));
+    }
+    return options;
+  }
+
+  /**
+   * One page of a collection: the properties of its objects, the link to the next page and the
+   * headers to send with it.
+   */
+  static final class Page {
+
+    final List<MicrosoftGraphProperties> objects = new ArrayList<>();
+    String nextLink;
+    private final List<Option> headers = new ArrayList<>();
+
+    private static Page of(JsonObject json) {
+      if (json == null) {
+        return null;
+      }
+      Page page = new Page();
+      JsonElement value = json.get("value");
+      if (value != null && value.isJsonArray()) {
+        page.objects.addAll(MicrosoftGraphProperties.of(value.getAsJsonArray()));
+      }
+      JsonElement nextLink = json.get(NEXT_LINK);
+      if (nextLink != null && nextLink.isJsonPrimitive()) {
+        page.nextLink = nextLink.getAsString();
+      }
+      return page;
+    }
+  }
+
+  /**
+   * Response handler reading one collection page from the body stream. The SDK hands over the
+   * response before checking its status, so errors are turned into the GraphServiceException the
+   * SDK would have thrown.
+   */
+  private static final class PageReader implements IStatefulResponseHandler<Page, Void> {
+
+    /** @return the page read, or null if the response had no body. */
+    static Page send(MicrosoftGraphDriver driver, CustomRequest<JsonElement> request) {
+      request.setHttpMethod(HttpMethod.GET);
+      return driver
+          .getGraphClient()
+          .getHttpProvider()
+          .send(request, Page.class, null, new PageReader());
+    }
+
+    @Override
+    public <ResponseType> Page generateResult(
+        IHttpRequest request, ResponseType response, ISerializer serializer, ILogger logger)
+        throws Exception {
+      Response httpResponse = (Response) response;
+      if (!httpResponse.isSuccessful()) {
+        throw GraphServiceException.createFromResponse(
+            request, null, serializer, httpResponse, logger);
+      }
+      ResponseBody body = httpResponse.body();
+      if (body == null || body.contentLength() == 0) {
+        return null;
+      }
+      Page page = new Page();
+      try (JsonReader reader = new JsonReader(body.charStream())) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String name = reader.nextName();
+          if ("value".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+            MicrosoftGraphProperties.read(reader, page.objects);
+          } else if (NEXT_LINK.equals(name) && reader.peek() == JsonToken.STRING) {
+            page.nextLink = reader.nextString();
+          } else {
+            reader.skipValue();
+          }
+        }
+        reader.endObject();
+      }
+      return page;
+    }
+  }
+}
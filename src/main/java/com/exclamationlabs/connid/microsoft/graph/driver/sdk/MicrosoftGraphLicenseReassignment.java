@@ -0,0 +1,398 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import com.exclamationlabs.connid.base.connector.logging.Logger;
+import com.exclamationlabs.connid.microsoft.graph.metrics.MicrosoftGraphMetrics;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphCanonicalValues;
+import com.google.gson.JsonElement;
+import com.microsoft.graph.content.BatchRequestContent;
+import com.microsoft.graph.content.BatchResponseContent;
+import com.microsoft.graph.content.BatchResponseStep;
+import com.microsoft.graph.http.GraphServiceException;
+import com.microsoft.graph.http.HttpMethod;
+import com.microsoft.graph.models.AssignedLicense;
+import com.microsoft.graph.models.SubscribedSku;
+import com.microsoft.graph.models.UserAssignLicenseParameterSet;
+import com.microsoft.graph.requests.SubscribedSkuCollectionPage;
+import io.opentelemetry.context.Context;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpStatus;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Assigns and removes the same licenses for many users, as when moving users from one SKU to
+ * another, with $batch requests of up to {@value MicrosoftGraphMemberChanges#MAX_BATCH_REQUESTS}
+ * assignLicense steps instead of one update per user.
+ *
+ * <p>Before anything is changed, the SKUs to add are checked against the subscriptions of the
+ * tenant: when the users not holding a SKU yet need more units than are left, the reassignment
+ * fails without changing any license.
+ *
+ * <p>Batches are sent in rounds of concurrent requests. After a round without throttling, one more
+ * batch is sent per round, up to maxConcurrency; after a throttled round, half as many, and the
+ * throttled steps are sent again once their Retry-After has passed. Steps that failed on the server
+ * side are sent up to {@value #MAX_ATTEMPTS} times.
+ *
+ * <p>With a checkpoint file, the ids of the users whose licenses were changed are appended to it
+ * after each round. Running the reassignment again with the same file skips those users, so an
+ * interrupted migration resumes where it stopped. A checkpoint file belongs to one reassignment.
+ */
+public final class MicrosoftGraphLicenseReassignment {
+
+  /** What happened to the licenses of one user. */
+  public enum Outcome {
+    /** The licenses were assigned and removed. */
+    ASSIGNED,
+    /** Listed in the checkpoint file, so not sent again. */
+    CHECKPOINTED,
+    /** The user does not exist. */
+    NOT_FOUND,
+    /** Graph rejected the change, see {@link #getError}. */
+    FAILED
+  }
+
+  static final int DEFAULT_MAX_CONCURRENCY = 4;
+
+  static final int MAX_ATTEMPTS = 5;
+
+  private static final String LICENSE = "license";
+  private static final String REASSIGN = "reassign";
+  private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+
+  private final MicrosoftGraphDriver driver;
+  private final List<UUID> skusToAdd = new ArrayList<>();
+  private final List<UUID> skusToRemove = new ArrayList<>();
+  private final Map<String, String> errors = new HashMap<>();
+  private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+  private Path checkpoint;
+
+  /**
+   * @param licenseIdsToAdd license ids as in ASSIGNED_LICENSES, or SKU ids.
+   * @param licenseIdsToRemove license ids as in ASSIGNED_LICENSES, or SKU ids.
+   */
+  public MicrosoftGraphLicenseReassignment(
+      MicrosoftGraphDriver driver,
+      Collection<String> licenseIdsToAdd,
+      Collection<String> licenseIdsToRemove) {
+    this.driver = driver;
+    licenseIdsToAdd.forEach(id -> skusToAdd.add(MicrosoftGraphLicensesInvocator.skuId(id)));
+    licenseIdsToRemove.forEach(id -> skusToRemove.add(MicrosoftGraphLicensesInvocator.skuId(id)));
+  }
+
+  /** @param maxConcurrency most $batch requests in flight at once, defaults to 4. */
+  public MicrosoftGraphLicenseReassignment maxConcurrency(int maxConcurrency) {
+    this.maxConcurrency = Math.max(1, maxConcurrency);
+    return this;
+  }
+
+  /** @param checkpoint file listing the users done, created if missing. */
+  public MicrosoftGraphLicenseReassignment checkpoint(Path checkpoint) {
+    this.checkpoint = checkpoint;
+    return this;
+  }
+
+  /** @return the outcome for each user, in the order given. */
+  public Map<String, Outcome> run(Collection<String> userIds) throws ConnectorException {
+    return driver.observed(LICENSE, REASSIGN, () -> reassign(userIds));
+  }
+
+  /** @return the error Graph returned for a user whose outcome is FAILED, or null. */
+  public String getError(String userId) {
+    return errors.get(MicrosoftGraphCanonicalValues.canonical(userId));
+  }
+
+  private Map<String, Outcome> reassign(Collection<String> userIds) {
+    driver.flushPendingWrites();
+    Set<String> checkpointed = readCheckpoint();
+    Map<String, Outcome> outcomes = new LinkedHashMap<>();
+    Deque<String> pending = new ArrayDeque<>();
+    for (String userId : userIds) {
+      String id = MicrosoftGraphCanonicalValues.canonical(userId);
+      if (outcomes.containsKey(id)) {
+        continue;
+      }
+      if (checkpointed.contains(id)) {
+        outcomes.put(id, Outcome.CHECKPOINTED);
+      } else {
+        // Keeps the order given; filled in once the user is done
+        outcomes.put(id, null);
+        pending.add(id);
+      }
+    }
+    checkCapacity(pending);
+    Logger.info(
+        this,
+        String.format(
+            "Reassigning licenses of %d users, %d done before",
+            pending.size(), outcomes.size() - pending.size()));
+
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            maxConcurrency,
+            runnable -> {
+              Thread thread = new Thread(runnable, "msgraph-license-reassignment");
+              thread.setDaemon(true);
+              return thread;
+            });
+    try {
+      Map<String, Integer> attempts = new HashMap<>();
+      int concurrency = 1;
+      int total = pending.size();
+      int done = 0;
+      while (!pending.isEmpty()) {
+        List<List<String>> batches = new ArrayList<>();
+        while (batches.size() < concurrency && !pending.isEmpty()) {
+          List<String> batch = new ArrayList<>(MicrosoftGraphMemberChanges.MAX_BATCH_REQUESTS);
+          while (batch.size() < MicrosoftGraphMemberChanges.MAX_BATCH_REQUESTS
+              && !pending.isEmpty()) {
+            batch.add(pending.poll());
+          }
+          batches.add(batch);
+        }
+        // Requests made on the executor are measured and traced as part of this operation
+        Context context = Context.current();
+        List<Future<Map<String, BatchResponseStep<JsonElement>>>> sent = new ArrayList<>();
+        for (List<String> batch : batches) {
+          sent.add(
+              executor.submit(context.wrap(MicrosoftGraphMetrics.propagate(() -> send(batch)))));
+        }
+
+        long retryAfterMillis = 0;
+        List<String> assigned = new ArrayList<>();
+        for (int index = 0; index < batches.size(); index++) {
+          Map<String, BatchResponseStep<JsonElement>> responses = responses(sent.get(index));
+          for (String userId : batches.get(index)) {
+            // Missing when the whole batch or its step got no answer
+            BatchResponseStep<JsonElement> response =
+                responses == null ? null : responses.get(userId);
+            int status = response == null ? 0 : response.status;
+            if (status >= 200 && status < 300) {
+              outcomes.put(userId, Outcome.ASSIGNED);
+              assigned.add(userId);
+            } else if (status == HttpStatus.SC_NOT_FOUND) {
+              outcomes.put(userId, Outcome.NOT_FOUND);
+            } else if (status == 429) {
+              retryAfterMillis = Math.max(retryAfterMillis, retryAfterMillis(response));
+              pending.add(userId);
+            } else if ((status == 0 || status >= HttpStatus.SC_INTERNAL_SERVER_ERROR)
+                && attempts.merge(userId, 1, Integer::sum) < MAX_ATTEMPTS) {
+              pending.add(userId);
+            } else {
+              outcomes.put(userId, Outcome.FAILED);
+              errors.put(
+                  userId,
+                  response == null
+                      ? "No response from Graph"
+                      : String.format("Status %d: %s", status, response.body));
+            }
+          }
+        }
+        appendCheckpoint(assigned);
+        MicrosoftGraphObjectCache<?> users = driver.getObjectCache("user");
+        if (users != null) {
+          assigned.forEach(users::invalidate);
+        }
+
+        done = total - pending.size();
+        concurrency =
+            retryAfterMillis > 0
+                ? Math.max(1, concurrency / 2)
+                : Math.min(maxConcurrency, concurrency + 1);
+        Logger.info(
+            this,
+            String.format(
+                "Reassigned licenses of %d of %d users, %d batches per round next",
+                done, total, concurrency));
+        if (retryAfterMillis > 0) {
+          TimeUnit.MILLISECONDS.sleep(retryAfterMillis);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ConnectorException("License reassignment interrupted", e);
+    } finally {
+      executor.shutdownNow();
+      MicrosoftGraphObjectCache<?> licenses = driver.getObjectCache(LICENSE);
+      if (licenses != null) {
+        licenses.clear();
+      }
+    }
+    return outcomes;
+  }
+
+  /** @return the responses by user id, or null when the batch as a whole got no answer. */
+  private Map<String, BatchResponseStep<JsonElement>> responses(
+      Future<Map<String, BatchResponseStep<JsonElement>>> sent) throws InterruptedException {
+    try {
+      return sent.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof GraphServiceException) {
+        // Throws when retrying cannot help, such as for a missing permission
+        driver.handleGraphServiceException((GraphServiceException) e.getCause());
+      }
+      Logger.error(
+          this, "License reassignment batch failed, its users are sent again", e.getCause());
+      return null;
+    }
+  }
+
+  private Map<String, BatchResponseStep<JsonElement>> send(List<String> userIds) {
+    List<AssignedLicense> addLicenses = new ArrayList<>();
+    for (UUID skuId : skusToAdd) {
+      AssignedLicense license = new AssignedLicense();
+      license.skuId = skuId;
+      license.disabledPlans = new ArrayList<>();
+      addLicenses.add(license);
+    }
+    UserAssignLicenseParameterSet parameters =
+        UserAssignLicenseParameterSet.newBuilder()
+            .withAddLicenses(addLicenses)
+            .withRemoveLicenses(skusToRemove)
+            .build();
+    BatchRequestContent batch = new BatchRequestContent();
+    Map<String, String> userByStep = new HashMap<>();
+    for (String userId : userIds) {
+      userByStep.put(
+          batch.addBatchRequestStep(
+              driver.getGraphClient().users(userId).assignLicense(parameters).buildRequest(),
+              HttpMethod.POST,
+              parameters),
+          userId);
+    }
+    driver.logTransactionPayload(
+        MicrosoftGraphLicenseReassignment.class, "post", "/users/{id}/assignLicense " + userIds);
+    BatchResponseContent content = driver.getGraphClient().batch().buildRequest().post(batch);
+    Map<String, BatchResponseStep<JsonElement>> responses = new HashMap<>();
+    if (content != null && content.responses != null) {
+      for (BatchResponseStep<JsonElement> response : content.responses) {
+        String userId = userByStep.get(response.id);
+        if (userId != null) {
+          responses.put(userId, response);
+        }
+      }
+    }
+    return responses;
+  }
+
+  private static long retryAfterMillis(BatchResponseStep<JsonElement> response) {
+    String retryAfter = response.headers == null ? null : response.headers.get("Retry-After");
+    try {
+      return retryAfter == null
+          ? DEFAULT_RETRY_AFTER_MILLIS
+          : TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+    } catch (NumberFormatException e) {
+      return DEFAULT_RETRY_AFTER_MILLIS;
+    }
+  }
+
+  /**
+   * Fails when a SKU to add has fewer units left than the users not holding it yet, directly or
+   * through a group, would consume.
+   */
+  private void checkCapacity(Collection<String> userIds) {
+    if (skusToAdd.isEmpty() || userIds.isEmpty()) {
+      return;
+    }
+    try {
+      Map<UUID, SubscribedSku> subscriptions = new HashMap<>();
+      SubscribedSkuCollectionPage page =
+          driver.getGraphClient().subscribedSkus().buildRequest().get();
+      while (page != null) {
+        page.getCurrentPage().forEach(sku -> subscriptions.put(sku.skuId, sku));
+        page = page.getNextPage() == null ? null : page.getNextPage().buildRequest().get();
+      }
+      Set<String> users = new HashSet<>(userIds);
+      for (UUID skuId : skusToAdd) {
+        SubscribedSku sku = subscriptions.get(skuId);
+        if (sku == null) {
+          throw new ConnectorException(
+              String.format(
+                  "License %s is not subscribed by the tenant; no license was changed", skuId));
+        }
+        int holding = 0;
+        for (String holder : MicrosoftGraphRelatedIds.licenseHolders(driver, skuId.toString())) {
+          if (users.contains(holder)) {
+            holding++;
+          }
+        }
+        long needed = users.size() - holding;
+        long left =
+            (sku.prepaidUnits == null || sku.prepaidUnits.enabled == null
+                    ? 0
+                    : sku.prepaidUnits.enabled)
+                - (sku.consumedUnits == null ? 0 : sku.consumedUnits);
+        if (needed > left) {
+          throw new ConnectorException(
+              String.format(
+                  "License %s (%s) has %d units left but %d users need one; no license was changed",
+                  sku.skuPartNumber, skuId, left, needed));
+        }
+      }
+    } catch (GraphServiceException gse) {
+      driver.handleGraphServiceException(gse);
+      throw new ConnectorException(
+          "Unexpected GraphServiceException occurred during license capacity check:", gse);
+    }
+  }
+
+  private Set<String> readCheckpoint() {
+    Set<String> userIds = new HashSet<>();
+    if (checkpoint == null || !Files.exists(checkpoint)) {
+      return userIds;
+    }
+    try {
+      for (String line : Files.readAllLines(checkpoint, StandardCharsets.UTF_8)) {
+        if (!line.isBlank()) {
+          userIds.add(MicrosoftGraphCanonicalValues.canonical(line.trim()));
+        }
+      }
+    } catch (IOException e) {
+      throw new ConnectorException(
+          "Failed to read license reassignment checkpoint " + checkpoint, e);
+    }
+    return userIds;
+  }
+
+  private void appendCheckpoint(List<String> userIds) {
+    if (checkpoint == null || userIds.isEmpty()) {
+      return;
+    }
+    try (Writer writer =
+        Files.newBufferedWriter(
+            checkpoint,
+            StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND)) {
+      for (String userId : userIds) {
+        writer.write(userId);
+        writer.write('\n');
+      }
+    } catch (IOException e) {
+      throw new ConnectorException(
+          "Failed to write license reassignment checkpoint " + checkpoint, e);
+    }
+  }
+}
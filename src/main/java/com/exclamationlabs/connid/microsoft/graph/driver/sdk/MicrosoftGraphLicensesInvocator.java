@@ -17,6 +17,7 @@ import com.exclamationlabs.connid.base.connector.driver.DriverInvocator;
 import com.exclamationlabs.connid.base.connector.logging.Logger;
 import com.exclamationlabs.connid.base.connector.results.ResultsFilter;
 import com.exclamationlabs.connid.base.connector.results.ResultsPaginator;
+import com.exclamationlabs.connid.microsoft.graph.attribute.MicrosoftGraphLicenseAttribute;
 import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphLicense;
 import com.microsoft.graph.http.GraphServiceException;
 import com.microsoft.graph.models.SubscribedSku;
@@ -80,7 +81,14 @@ public class MicrosoftGraphLicensesInvocator
                   String.format("MSGraph license byId produced null result for license %s", id))
               .buildRequest()
               .get();
-      return new MicrosoftGraphLicense(matchingLicense);
+      MicrosoftGraphLicense license = new MicrosoftGraphLicense(matchingLicense);
+      if (matchingLicense != null
+          && matchingLicense.skuId != null
+          && driver.isRequested(MicrosoftGraphLicenseAttribute.HOLDERS.name())) {
+        license.setHolders(
+            MicrosoftGraphRelatedIds.licenseHolders(driver, matchingLicense.skuId.toString()));
+      }
+      return license;
     } catch (GraphServiceException gse) {
       if (gse.toString() != null && driver.getConfiguration().getEnableDebugHttpLogging()) {
         Logger.error(this, String.format("Exception in license.getOne %s", gse.toString()), gse);
@@ -89,4 +97,28 @@ public class MicrosoftGraphLicensesInvocator
     }
     return null;
   }
+
+  /** @return whether the license has its holders exactly when the current search asks for them. */
+  boolean hasRequestedAttributes(MicrosoftGraphDriver driver, MicrosoftGraphLicense license) {
+    return (license.getHolders() != null)
+        == driver.isRequested(MicrosoftGraphLicenseAttribute.HOLDERS.name());
+  }
+
+  /**
+   * @param license a SKU id, or a license id made of the tenant id and the SKU id.
+   * @return the $filter matching users that hold the SKU, directly or through a group.
+   */
+  static String holdersFilter(String license) {
+    // Only a well-formed id goes into the filter
+    return "assignedLicenses/any(x:x/skuId eq " + skuId(license) + ")";
+  }
+
+  /** @param license a SKU id, or a license id made of the tenant id and the SKU id. */
+  static UUID skuId(String license) {
+    try {
+      return UUID.fromString(license.substring(license.lastIndexOf('_') + 1));
+    } catch (IllegalArgumentException e) {
+      throw new ConnectorException("Invalid license id " + license, e);
+    }
+  }
 }
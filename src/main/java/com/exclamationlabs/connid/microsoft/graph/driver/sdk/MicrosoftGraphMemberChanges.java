@@ -0,0 +1,266 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import com.exclamationlabs.connid.base.connector.logging.Logger;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.microsoft.graph.content.BatchRequestContent;
+import com.microsoft.graph.content.BatchResponseContent;
+import com.microsoft.graph.content.BatchResponseStep;
+import com.microsoft.graph.http.GraphServiceException;
+import com.microsoft.graph.http.HttpMethod;
+import com.microsoft.graph.models.DirectoryObject;
+import com.microsoft.graph.requests.GroupRequestBuilder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpStatus;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Adds and removes many members of one group in few requests. Members and owners are added with
+ * PATCHes of the group carrying up to {@value #MAX_BIND_REFERENCES} members@odata.bind or
+ * owners@odata.bind references, and members are removed with $batch requests of up to {@value
+ * #MAX_BATCH_REQUESTS} member $ref DELETEs.
+ *
+ * <p>A PATCH fails as a whole when one of its objects is already present; its objects are then
+ * added one $ref POST at a time. Batch steps are not retried by the Graph client, so steps that
+ * were throttled or failed on the server side are sent again as single requests, which are.
+ */
+final class MicrosoftGraphMemberChanges {
+
+  static final String MEMBERS = "members";
+  static final String OWNERS = "owners";
+
+  /** Graph accepts at most this many members and owners references in one request. */
+  static final int MAX_BIND_REFERENCES = 20;
+
+  static final int MAX_BATCH_REQUESTS = 20;
+
+  private MicrosoftGraphMemberChanges() {}
+
+  static void addMembers(MicrosoftGraphDriver driver, String groupId, Collection<String> ids) {
+    add(driver, groupId, MEMBERS, ids);
+  }
+
+  static void addOwners(MicrosoftGraphDriver driver, String groupId, Collection<String> ids) {
+    add(driver, groupId, OWNERS, ids);
+  }
+
+  /** @return the relation@odata.bind references of the given objects. */
+  static JsonArray references(MicrosoftGraphDriver driver, Collection<String> ids) {
+    JsonArray references = new JsonArray();
+    String serviceRoot = driver.getGraphClient().getServiceRoot();
+    ids.forEach(id -> references.add(serviceRoot + "/directoryObjects/" + id));
+    return references;
+  }
+
+  private static void add(
+      MicrosoftGraphDriver driver, String groupId, String relation, Collection<String> ids) {
+    for (List<String> chunk : chunks(ids, MAX_BIND_REFERENCES)) {
+      JsonObject body = new JsonObject();
+      body.add(relation + "@odata.bind", references(driver, chunk));
+      driver.logTransactionPayload(MicrosoftGraphMemberChanges.class, "patch", body);
+      try {
+        driver
+            .getGraphClient()
+            .customRequest("/groups/" + groupId, JsonObject.class)
+            .buildRequest()
+            .patch(body);
+      } catch (GraphServiceException gse) {
+        if (!isAlreadyMember(gse)) {
+          throw failure(driver, "add " + relation, gse);
+        }
+        chunk.forEach(id -> addReference(driver, groupId, relation, id));
+      }
+      if (MEMBERS.equals(relation)) {
+        memberAdded(driver, groupId, chunk);
+      }
+    }
+  }
+
+  static void removeMembers(MicrosoftGraphDriver driver, String groupId, Collection<String> ids) {
+    for (List<String> chunk : chunks(ids, MAX_BATCH_REQUESTS)) {
+      BatchRequestContent batch = new BatchRequestContent();
+      Map<String, String> memberByStep = new HashMap<>();
+      for (String id : chunk) {
+        memberByStep.put(
+            batch.addBatchRequestStep(
+                driver.getGraphClient().groups(groupId).members(id).reference().buildRequest(),
+                HttpMethod.DELETE),
+            id);
+      }
+      driver.logTransactionPayload(
+          MicrosoftGraphMemberChanges.class,
+          "delete",
+          "/groups/" + groupId + "/members/{id}/$ref " + chunk);
+      BatchResponseContent responses;
+      try {
+        responses = driver.getGraphClient().batch().buildRequest().post(batch);
+      } catch (GraphServiceException gse) {
+        throw failure(driver, "remove members", gse);
+      }
+      List<String> retries = new ArrayList<>();
+      for (BatchResponseStep<JsonElement> response : responses.responses) {
+        String id = memberByStep.remove(response.id);
+        if (id == null
+            || isRemoved(response.status)
+            || isNotMember(response.status, errorMessage(response.body), groupId, id)) {
+          continue;
+        }
+        // A 404 that does not name the member, such as for a missing group, is sent again as a
+        // single request so that it fails like any other request
+        if (response.status == 429
+            || response.status == HttpStatus.SC_NOT_FOUND
+            || response.status >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+          retries.add(id);
+        } else {
+          throw new ConnectorException(
+              String.format(
+                  "Removing member %s from group %s failed with status %d: %s",
+                  id, groupId, response.status, response.body));
+        }
+      }
+      // Steps missing from the response are retried as well
+      retries.addAll(memberByStep.values());
+      retries.forEach(id -> removeMember(driver, groupId, id));
+      if (driver.getMembershipCache() != null) {
+        chunk.forEach(id -> driver.getMembershipCache().memberRemoved(id, groupId));
+      }
+    }
+  }
+
+  /** Graph rejects a member $ref POST with 400 when the reference is already present. */
+  static boolean isAlreadyMember(GraphServiceException gse) {
+    return gse.getResponseCode() == HttpStatus.SC_BAD_REQUEST
+        && gse.getError() != null
+        && gse.getError().error != null
+        && StringUtils.containsIgnoreCase(
+            gse.getError().error.message, "added object references already exist");
+  }
+
+  /**
+   * Graph answers a member $ref DELETE with 404 both when the object is not a member and when the
+   * group does not exist; only the former names the member rather than the group.
+   */
+  static boolean isNotMember(GraphServiceException gse, String groupId, String memberId) {
+    return isNotMember(
+        gse.getResponseCode(),
+        gse.getError() == null || gse.getError().error == null
+            ? null
+            : gse.getError().error.message,
+        groupId,
+        memberId);
+  }
+
+  static boolean isNotMember(int status, String message, String groupId, String memberId) {
+    return status == HttpStatus.SC_NOT_FOUND
+        && StringUtils.containsIgnoreCase(message, memberId)
+        && !StringUtils.containsIgnoreCase(message, groupId);
+  }
+
+  /** @return the error message of a batch step's response body, or null. */
+  static String errorMessage(JsonElement body) {
+    if (body == null || !body.isJsonObject()) {
+      return null;
+    }
+    JsonElement error = body.getAsJsonObject().get("error");
+    if (error == null || !error.isJsonObject()) {
+      return null;
+    }
+    JsonElement message = error.getAsJsonObject().get("message");
+    return message == null || !message.isJsonPrimitive() ? null : message.getAsString();
+  }
+
+  private static void addReference(
+      MicrosoftGraphDriver driver, String groupId, String relation, String id) {
+    driver.logTransactionPayload(
+        MicrosoftGraphMemberChanges.class,
+        "post",
+        "/groups/" + groupId + "/" + relation + "/$ref " + id);
+    try {
+      DirectoryObject directoryObject = new DirectoryObject();
+      directoryObject.id = id;
+      GroupRequestBuilder group = driver.getGraphClient().groups(groupId);
+      (MEMBERS.equals(relation) ? group.members().references() : group.owners().references())
+          .buildRequest()
+          .post(directoryObject);
+    } catch (GraphServiceException gse) {
+      if (!isAlreadyMember(gse)) {
+        throw failure(driver, "add " + relation, gse);
+      }
+    }
+  }
+
+  private static void removeMember(MicrosoftGraphDriver driver, String groupId, String id) {
+    driver.logTransactionPayload(
+        MicrosoftGraphMemberChanges.class,
+        "delete",
+        "/groups/" + groupId + "/members/" + id + "/$ref");
+    try {
+      driver.getGraphClient().groups(groupId).members(id).reference().buildRequest().delete();
+    } catch (GraphServiceException gse) {
+      if (!isNotMember(gse, groupId, id)) {
+        throw failure(driver, "remove members", gse);
+      }
+    }
+  }
+
+  private static boolean isRemoved(int status) {
+    return status >= 200 && status < 300;
+  }
+
+  private static void memberAdded(MicrosoftGraphDriver driver, String groupId, List<String> ids) {
+    if (driver.getMembershipCache() != null) {
+      ids.forEach(id -> driver.getMembershipCache().memberAdded(id, groupId));
+    }
+  }
+
+  private static List<List<String>> chunks(Collection<String> ids, int size) {
+    List<List<String>> chunks = new ArrayList<>();
+    List<String> chunk = new ArrayList<>(size);
+    for (String id : ids) {
+      if (chunk.size() == size) {
+        chunks.add(chunk);
+        chunk = new ArrayList<>(size);
+      }
+      chunk.add(id);
+    }
+    if (!chunk.isEmpty()) {
+      chunks.add(chunk);
+    }
+    return chunks;
+  }
+
+  private static ConnectorException failure(
+      MicrosoftGraphDriver driver, String operation, GraphServiceException gse) {
+    Logger.error(
+        MicrosoftGraphMemberChanges.class,
+        String.format("Graph exception occurred during %s", operation),
+        gse);
+    driver.handleGraphServiceException(gse);
+    if (gse.toString() != null && driver.getConfiguration().getEnableDebugHttpLogging()) {
+      return new ConnectorException(
+          "Unexpected GraphServiceException occurred during " + operation + ":" + gse.toString(),
+          gse);
+    }
+    return new ConnectorException(
+        "Unexpected GraphServiceException occurred during " + operation + ":", gse);
+  }
+}
@@ -0,0 +1,136 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphCanonicalValues;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Short-lived record of known group memberships, used to skip member $ref POSTs for users that are
+ * already members and $ref DELETEs for users that are not. Membership is known either from a user's
+ * complete memberOf listing or from a group's complete member listing; anything else is reported as
+ * unknown and the request is sent as before.
+ *
+ * <p>The same group and user ids appear in many entries, so ids are held as their {@link
+ * MicrosoftGraphCanonicalValues canonical} instances.
+ */
+class MicrosoftGraphMembershipCache {
+
+  static final int MAX_ENTRIES = 10000;
+
+  private final long ttlMillis;
+
+  private final Map<String, Entry> groupsByUser = new BoundedMap<>();
+  private final Map<String, Entry> membersByGroup = new BoundedMap<>();
+
+  MicrosoftGraphMembershipCache(long ttlMillis) {
+    this.ttlMillis = ttlMillis;
+  }
+
+  synchronized void recordMemberOf(String userId, Collection<String> groupIds) {
+    groupsByUser.put(userId, new Entry(groupIds));
+  }
+
+  synchronized void recordMembers(String groupId, Collection<String> memberIds) {
+    membersByGroup.put(groupId, new Entry(memberIds));
+  }
+
+  /**
+   * @return TRUE or FALSE when membership is known from a complete listing that has not expired,
+   *     null when it is unknown.
+   */
+  synchronized Boolean isMember(String userId, String groupId) {
+    Entry userEntry = current(groupsByUser, userId);
+    if (userEntry != null) {
+      return userEntry.ids.contains(groupId);
+    }
+    Entry groupEntry = current(membersByGroup, groupId);
+    if (groupEntry != null) {
+      return groupEntry.ids.contains(userId);
+    }
+    return null;
+  }
+
+  synchronized void memberAdded(String userId, String groupId) {
+    Entry userEntry = groupsByUser.get(userId);
+    if (userEntry != null) {
+      userEntry.ids.add(MicrosoftGraphCanonicalValues.canonical(groupId));
+    }
+    Entry groupEntry = membersByGroup.get(groupId);
+    if (groupEntry != null) {
+      groupEntry.ids.add(MicrosoftGraphCanonicalValues.canonical(userId));
+    }
+  }
+
+  synchronized void memberRemoved(String userId, String groupId) {
+    Entry userEntry = groupsByUser.get(userId);
+    if (userEntry != null) {
+      userEntry.ids.remove(groupId);
+    }
+    Entry groupEntry = membersByGroup.get(groupId);
+    if (groupEntry != null) {
+      groupEntry.ids.remove(userId);
+    }
+  }
+
+  synchronized void invalidateUser(String userId) {
+    groupsByUser.remove(userId);
+  }
+
+  synchronized void invalidateGroup(String groupId) {
+    membersByGroup.remove(groupId);
+  }
+
+  synchronized void clear() {
+    groupsByUser.clear();
+    membersByGroup.clear();
+  }
+
+  private Entry current(Map<String, Entry> entries, String key) {
+    Entry entry = entries.get(key);
+    if (entry != null && System.currentTimeMillis() - entry.loadedAt > ttlMillis) {
+      entries.remove(key);
+      return null;
+    }
+    return entry;
+  }
+
+  private static class Entry {
+    private final Set<String> ids;
+    private final long loadedAt;
+
+    private Entry(Collection<String> ids) {
+      this.ids = new HashSet<>(ids.size() * 2);
+      for (String id : ids) {
+        this.ids.add(MicrosoftGraphCanonicalValues.canonical(id));
+      }
+      this.loadedAt = System.currentTimeMillis();
+    }
+  }
+
+  private static class BoundedMap<K, V> extends LinkedHashMap<K, V> {
+    private BoundedMap() {
+      super(16, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  }
+}
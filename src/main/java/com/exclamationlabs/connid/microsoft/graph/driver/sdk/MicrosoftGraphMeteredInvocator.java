@@ -0,0 +1,98 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import com.exclamationlabs.connid.base.connector.driver.DriverInvocator;
+import com.exclamationlabs.connid.base.connector.model.IdentityModel;
+import com.exclamationlabs.connid.base.connector.results.ResultsFilter;
+import com.exclamationlabs.connid.base.connector.results.ResultsPaginator;
+import java.util.Map;
+import java.util.Set;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Wraps an invocator so that the Graph requests it makes are attributed to its object class and the
+ * connector operation being performed, and the operation as a whole is timed and traced.
+ */
+class MicrosoftGraphMeteredInvocator<T extends IdentityModel>
+    implements DriverInvocator<MicrosoftGraphDriver, T> {
+
+  static final String CREATE = "create";
+  static final String UPDATE = "update";
+  static final String DELETE = "delete";
+  static final String SEARCH = "search";
+  static final String GET = "get";
+  static final String GET_BY_NAME = "getByName";
+
+  private final String objectClass;
+  private final DriverInvocator<MicrosoftGraphDriver, T> delegate;
+
+  MicrosoftGraphMeteredInvocator(
+      String objectClass, DriverInvocator<MicrosoftGraphDriver, T> delegate) {
+    this.objectClass = objectClass;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String create(MicrosoftGraphDriver driver, T model) throws ConnectorException {
+    return driver.observed(objectClass, CREATE, () -> delegate.create(driver, model));
+  }
+
+  @Override
+  public void update(MicrosoftGraphDriver driver, String id, T model) throws ConnectorException {
+    driver.observed(
+        objectClass,
+        UPDATE,
+        () -> {
+          delegate.update(driver, id, model);
+          return null;
+        });
+  }
+
+  @Override
+  public void delete(MicrosoftGraphDriver driver, String id) throws ConnectorException {
+    driver.observed(
+        objectClass,
+        DELETE,
+        () -> {
+          delegate.delete(driver, id);
+          return null;
+        });
+  }
+
+  @Override
+  public Set<T> getAll(
+      MicrosoftGraphDriver driver,
+      ResultsFilter resultsFilter,
+      ResultsPaginator resultsPaginator,
+      Integer integer)
+      throws ConnectorException {
+    return driver.observed(
+        objectClass,
+        SEARCH,
+        () -> delegate.getAll(driver, resultsFilter, resultsPaginator, integer));
+  }
+
+  @Override
+  public T getOne(MicrosoftGraphDriver driver, String id, Map<String, Object> map)
+      throws ConnectorException {
+    return driver.observed(objectClass, GET, () -> delegate.getOne(driver, id, map));
+  }
+
+  @Override
+  public T getOneByName(MicrosoftGraphDriver driver, String nameValue) throws ConnectorException {
+    return driver.observed(
+        objectClass, GET_BY_NAME, () -> delegate.getOneByName(driver, nameValue));
+  }
+}
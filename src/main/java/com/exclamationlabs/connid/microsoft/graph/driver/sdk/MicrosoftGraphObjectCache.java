@@ -0,0 +1,90 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Short-lived, size-bounded record of objects of one class read by id, so that repeated reads of
+ * the same object within a provisioning operation are answered locally. Objects that were not found
+ * are recorded too. The least recently read entries are evicted first.
+ *
+ * <p>A read that was running while an entry was invalidated may return what Graph held before the
+ * change, so {@link #put} ignores results of reads that started before the last invalidation.
+ */
+class MicrosoftGraphObjectCache<T> {
+
+  private final long ttlMillis;
+  private final Map<String, Entry<T>> entries;
+  private long invalidations;
+
+  MicrosoftGraphObjectCache(long ttlMillis, int maxEntries) {
+    this.ttlMillis = ttlMillis;
+    this.entries =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Entry<T>> eldest) {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  /** @return the entry of a read that has not expired, or null. */
+  synchronized Entry<T> get(String id) {
+    Entry<T> entry = entries.get(id);
+    if (entry != null && System.currentTimeMillis() - entry.loadedAt > ttlMillis) {
+      entries.remove(id);
+      return null;
+    }
+    return entry;
+  }
+
+  /** @return a token to pass to {@link #put} with the result of a read started now. */
+  synchronized long startRead() {
+    return invalidations;
+  }
+
+  /** @param value the object read, or null when it was not found. */
+  synchronized void put(String id, T value, long readToken) {
+    if (readToken == invalidations) {
+      entries.put(id, new Entry<>(value));
+    }
+  }
+
+  synchronized void invalidate(String id) {
+    invalidations++;
+    entries.remove(id);
+  }
+
+  synchronized void clear() {
+    invalidations++;
+    entries.clear();
+  }
+
+  static final class Entry<T> {
+    private final T value;
+    private final long loadedAt;
+
+    private Entry(T value) {
+      this.value = value;
+      this.loadedAt = System.currentTimeMillis();
+    }
+
+    /** @return the object, or null when it was not found. */
+    T getValue() {
+      return value;
+    }
+  }
+}
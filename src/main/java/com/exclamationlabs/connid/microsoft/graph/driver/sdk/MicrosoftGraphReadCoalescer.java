@@ -0,0 +1,106 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import com.exclamationlabs.connid.base.connector.logging.Logger;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Collects reads of single objects by id that arrive within a short window, such as midPoint
+ * resolving shadows on several threads, and resolves them with one bulk read. The first caller of a
+ * window waits for the window to pass, or for the batch to fill up, then reads the whole batch on
+ * its own thread while the other callers wait for their object.
+ *
+ * <p>An id the bulk read did not return, and every id of a bulk read that failed, is answered with
+ * null, and the caller reads that object on its own, so not-found and other errors are reported as
+ * for any single read.
+ */
+class MicrosoftGraphReadCoalescer<M> {
+
+  private final String objectClass;
+  private final long windowMillis;
+  private final int maxBatch;
+  private final Function<Collection<String>, Map<String, M>> bulkRead;
+
+  private Batch<M> open;
+
+  /** @param bulkRead reads the given ids, returning the objects found by id. */
+  MicrosoftGraphReadCoalescer(
+      String objectClass,
+      long windowMillis,
+      int maxBatch,
+      Function<Collection<String>, Map<String, M>> bulkRead) {
+    this.objectClass = objectClass;
+    this.windowMillis = windowMillis;
+    this.maxBatch = maxBatch;
+    this.bulkRead = bulkRead;
+  }
+
+  /** @return the object, or null when it has to be read on its own. */
+  M get(String id) {
+    Batch<M> batch;
+    boolean first;
+    CompletableFuture<M> result;
+    synchronized (this) {
+      first = open == null;
+      if (first) {
+        open = new Batch<>();
+      }
+      batch = open;
+      result = batch.reads.computeIfAbsent(id, key -> new CompletableFuture<>());
+      if (batch.reads.size() >= maxBatch) {
+        open = null;
+        batch.full.countDown();
+      }
+    }
+    if (first) {
+      read(batch);
+    }
+    return result.join();
+  }
+
+  private void read(Batch<M> batch) {
+    try {
+      batch.full.await(windowMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      if (open == batch) {
+        open = null;
+      }
+    }
+    Map<String, M> found = null;
+    try {
+      found = bulkRead.apply(batch.reads.keySet());
+    } catch (RuntimeException e) {
+      Logger.error(
+          this, String.format("Bulk read of %d %ss failed", batch.reads.size(), objectClass), e);
+    }
+    for (Map.Entry<String, CompletableFuture<M>> read : batch.reads.entrySet()) {
+      read.getValue().complete(found == null ? null : found.get(read.getKey()));
+    }
+  }
+
+  private static final class Batch<M> {
+    private final Map<String, CompletableFuture<M>> reads = new LinkedHashMap<>();
+    private final CountDownLatch full = new CountDownLatch(1);
+  }
+}
@@ -0,0 +1,148 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphCanonicalValues;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphProperties;
+import com.microsoft.graph.http.GraphServiceException;
+import com.microsoft.graph.options.Option;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Ids of the objects related to a group, such as its members or owners, or of the users holding a
+ * license, read one page of up to {@value MicrosoftGraphDriver#MAX_FETCH_COUNT} ids at a time as
+ * they are iterated. Like a ranged attribute, a group with a very large membership is never held in
+ * full by the connector: only the current page is kept, and each iteration starts over from the
+ * first page.
+ *
+ * <p>A member listing that fits in one page is also recorded in the membership cache, if enabled.
+ */
+final class MicrosoftGraphRelatedIds implements Iterable<String> {
+
+  private final MicrosoftGraphDriver driver;
+  private final String path;
+  private final List<Option> options;
+  private final String groupId;
+  private final String relation;
+
+  /** @param relation navigation property of the group, members or owners. */
+  MicrosoftGraphRelatedIds(MicrosoftGraphDriver driver, String groupId, String relation) {
+    this(
+        driver,
+        "/groups/" + groupId + "/" + relation,
+        MicrosoftGraphJsonReads.options("id", null, MicrosoftGraphDriver.MAX_FETCH_COUNT),
+        groupId,
+        relation);
+  }
+
+  private MicrosoftGraphRelatedIds(
+      MicrosoftGraphDriver driver,
+      String path,
+      List<Option> options,
+      String groupId,
+      String relation) {
+    this.driver = driver;
+    this.path = path;
+    this.options = options;
+    this.groupId = groupId;
+    this.relation = relation;
+  }
+
+  /** Users with the SKU assigned directly or through a group, found by Graph with $filter. */
+  static MicrosoftGraphRelatedIds licenseHolders(MicrosoftGraphDriver driver, String skuId) {
+    return new MicrosoftGraphRelatedIds(
+        driver,
+        "/users",
+        MicrosoftGraphJsonReads.advancedQuery(
+            MicrosoftGraphJsonReads.options(
+                "id",
+                MicrosoftGraphLicensesInvocator.holdersFilter(skuId),
+                MicrosoftGraphDriver.MAX_FETCH_COUNT)),
+        null,
+        "holders");
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return new Iterator<>() {
+      private MicrosoftGraphJsonReads.Page page;
+      private Iterator<MicrosoftGraphProperties> objects;
+      private String next;
+
+      @Override
+      public boolean hasNext() {
+        while (next == null) {
+          if (objects != null && objects.hasNext()) {
+            next = objects.next().getString("id");
+            continue;
+          }
+          if (objects != null && page == null) {
+            return false;
+          }
+          page = read(page);
+          if (page == null) {
+            objects = Collections.emptyIterator();
+            return false;
+          }
+          objects = page.objects.iterator();
+        }
+        return true;
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        String id = MicrosoftGraphCanonicalValues.canonical(next);
+        next = null;
+        return id;
+      }
+    };
+  }
+
+  /** @return the page after the given one, or the first page if none is given. */
+  private MicrosoftGraphJsonReads.Page read(MicrosoftGraphJsonReads.Page previous) {
+    try {
+      if (previous != null) {
+        return MicrosoftGraphJsonReads.next(driver, previous);
+      }
+      // Each iteration reads Graph afresh, after any deferred user updates
+      driver.flushPendingWrites();
+      MicrosoftGraphJsonReads.Page first = MicrosoftGraphJsonReads.first(driver, path, options);
+      if (first != null
+          && first.nextLink == null
+          && MicrosoftGraphMemberChanges.MEMBERS.equals(relation)
+          && driver.getMembershipCache() != null) {
+        List<String> ids = new ArrayList<>(first.objects.size());
+        first.objects.forEach(object -> ids.add(object.getString("id")));
+        driver.getMembershipCache().recordMembers(groupId, ids);
+      }
+      return first;
+    } catch (GraphServiceException gse) {
+      driver.handleGraphServiceException(gse);
+      throw new ConnectorException(
+          "Unexpected GraphServiceException occurred during "
+              + (groupId != null ? "group " : "license ")
+              + relation
+              + " read:",
+          gse);
+    }
+  }
+}
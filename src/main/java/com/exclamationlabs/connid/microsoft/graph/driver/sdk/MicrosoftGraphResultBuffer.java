@@ -0,0 +1,210 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Results of getAll, handed to connector-base as the Set it expects. Objects are held in memory up
+ * to a number of objects or an estimated size; once either limit is passed, all of them are written
+ * to a temporary file as JSON and later objects are appended to it. Iterating reads them back in
+ * the order they were added, so a very large search costs disk I/O instead of heap.
+ *
+ * <p>Graph returns each object once, so add does not look for duplicates. Objects cannot be added
+ * while iterating. A spilled buffer can be iterated any number of times, each iteration reading the
+ * file from the start, so it also works as a Set for contains, equals and the like. Its file is
+ * deleted by {@link #close()}, or once the buffer is no longer reachable.
+ */
+class MicrosoftGraphResultBuffer<M> extends AbstractSet<M> implements Closeable {
+
+  /** How a model is weighed in memory and written to and read back from the file. */
+  interface Codec<M> {
+    long estimatedSize(M model);
+
+    void write(M model, JsonWriter writer) throws IOException;
+
+    M read(JsonReader reader) throws IOException;
+  }
+
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  private final Codec<M> codec;
+  private final int maxObjects;
+  private final long maxBytes;
+
+  private final List<M> memory = new ArrayList<>();
+  private long bytes;
+  private int size;
+
+  private Spill spill;
+  private Cleaner.Cleanable cleanable;
+
+  /**
+   * @param maxObjects objects held in memory before spilling, 0 for no limit.
+   * @param maxBytes estimated bytes held in memory before spilling, 0 for no limit.
+   */
+  MicrosoftGraphResultBuffer(Codec<M> codec, int maxObjects, long maxBytes) {
+    this.codec = codec;
+    this.maxObjects = maxObjects;
+    this.maxBytes = maxBytes;
+  }
+
+  @Override
+  public boolean add(M model) {
+    if (spill == null) {
+      memory.add(model);
+      bytes += codec.estimatedSize(model);
+      if ((maxObjects > 0 && memory.size() > maxObjects) || (maxBytes > 0 && bytes > maxBytes)) {
+        spill();
+      }
+    } else {
+      try {
+        codec.write(model, spill.writer);
+      } catch (IOException e) {
+        throw new ConnectorException("Failure writing search results to " + spill.file, e);
+      }
+    }
+    size++;
+    return true;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /** @return whether the results have been written to a file. */
+  boolean isSpilled() {
+    return spill != null;
+  }
+
+  @Override
+  public Iterator<M> iterator() {
+    if (spill == null) {
+      return Collections.unmodifiableList(memory).iterator();
+    }
+    if (spill.deleted) {
+      throw new ConnectorException("Search results spilled to " + spill.file + " were closed");
+    }
+    try {
+      spill.writer.flush();
+      JsonReader reader =
+          new JsonReader(Files.newBufferedReader(spill.file, StandardCharsets.UTF_8));
+      reader.setLenient(true);
+      spill.streams.add(reader);
+      return new SpillIterator(reader, size);
+    } catch (IOException e) {
+      throw new ConnectorException("Failure reading search results from " + spill.file, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (cleanable != null) {
+      cleanable.clean();
+    }
+  }
+
+  private void spill() {
+    try {
+      Path file = Files.createTempFile("msgraph-results-", ".json");
+      spill = new Spill(file);
+      cleanable = CLEANER.register(this, spill);
+      for (M model : memory) {
+        codec.write(model, spill.writer);
+      }
+    } catch (IOException e) {
+      throw new ConnectorException("Failure writing search results to a temporary file", e);
+    }
+    memory.clear();
+    bytes = 0;
+  }
+
+  private final class SpillIterator implements Iterator<M> {
+
+    private final JsonReader reader;
+    private int remaining;
+
+    private SpillIterator(JsonReader reader, int remaining) {
+      this.reader = reader;
+      this.remaining = remaining;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    @Override
+    public M next() {
+      if (remaining == 0) {
+        throw new NoSuchElementException();
+      }
+      try {
+        M model = codec.read(reader);
+        if (--remaining == 0) {
+          // Only this iteration is done; the file stays for the next one
+          spill.streams.remove(reader);
+          reader.close();
+        }
+        return model;
+      } catch (IOException e) {
+        throw new ConnectorException("Failure reading search results from " + spill.file, e);
+      }
+    }
+  }
+
+  /** The file and its open streams; must not refer to the buffer, so the buffer can be cleaned. */
+  private static final class Spill implements Runnable {
+
+    private final Path file;
+    private final JsonWriter writer;
+    private final List<Closeable> streams = new ArrayList<>();
+    private volatile boolean deleted;
+
+    private Spill(Path file) throws IOException {
+      this.file = file;
+      writer = new JsonWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+      // One top-level value per object
+      writer.setLenient(true);
+      streams.add(writer);
+    }
+
+    @Override
+    public void run() {
+      deleted = true;
+      for (Closeable stream : streams) {
+        try {
+          stream.close();
+        } catch (IOException e) {
+          // Being discarded; the file is deleted below either way
+        }
+      }
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        file.toFile().deleteOnExit();
+      }
+    }
+  }
+}
@@ -18,13 +18,20 @@ import com.exclamationlabs.connid.base.connector.logging.Logger;
 import com.exclamationlabs.connid.base.connector.results.ResultsFilter;
 import com.exclamationlabs.connid.base.connector.results.ResultsPaginator;
 import com.exclamationlabs.connid.microsoft.graph.attribute.MicrosoftGraphUserAttribute;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphCanonicalValues;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphProperties;
 import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphUser;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.microsoft.graph.http.GraphServiceException;
 import com.microsoft.graph.models.*;
 import com.microsoft.graph.requests.*;
+import java.io.IOException;
 import java.util.*;
 import java.util.List;
 import java.util.stream.Collectors;
+import org.apache.commons.lang3.BooleanUtils;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.Name;
 
@@ -37,6 +44,25 @@ public class MicrosoftGraphUsersInvocator
 
   private static final Map<String, String> filterAttributeToFieldMap;
 
+  /** Listed users only carry the properties read from Graph. */
+  private static final MicrosoftGraphResultBuffer.Codec<MicrosoftGraphUser> RESULT_CODEC =
+      new MicrosoftGraphResultBuffer.Codec<>() {
+        @Override
+        public long estimatedSize(MicrosoftGraphUser user) {
+          return user.getProperties().estimatedSize();
+        }
+
+        @Override
+        public void write(MicrosoftGraphUser user, JsonWriter writer) throws IOException {
+          user.getProperties().write(writer);
+        }
+
+        @Override
+        public MicrosoftGraphUser read(JsonReader reader) throws IOException {
+          return new MicrosoftGraphUser(MicrosoftGraphProperties.read(reader));
+        }
+      };
+
   static {
     filterAttributeToFieldMap = new HashMap<>();
     filterAttributeToFieldMap.put(Name.NAME, "displayName");
@@ -64,6 +90,7 @@ public class MicrosoftGraphUsersInvocator
                 "employeeType",
                 "givenName",
                 "jobTitle",
+                "licenseAssignmentStates",
                 "mail",
                 "mailNickname",
                 "officeLocation",
@@ -91,7 +118,6 @@ public class MicrosoftGraphUsersInvocator
             "externalUserStateChangeDateTime",
             "imAddresses",
             "lastPasswordChangeDateTime",
-            "licenseAssignmentStates",
             "onPremisesDomainName",
             "onPremisesImmutableId",
             "onPremisesLastSyncDateTime",
@@ -115,17 +141,14 @@ public class MicrosoftGraphUsersInvocator
   @Override
   public String create(MicrosoftGraphDriver driver, MicrosoftGraphUser newUser)
       throws ConnectorException {
-    if (driver.getConfiguration().getEnableDebugHttpLogging()) {
-      try {
-        driver.logTransactionPayload(this, "post", newUser.getGraphUser());
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
-    }
+    driver.logTransactionPayload(this, "post", newUser.getGraphUser());
 
     try {
       final User createdUser =
           driver.getGraphClient().users().buildRequest().post(newUser.getGraphUser());
+      if (driver.getMembershipCache() != null) {
+        driver.getMembershipCache().recordMemberOf(createdUser.id, Collections.emptySet());
+      }
 
       newUser
           .getGroupIdsToAdd()
@@ -149,19 +172,27 @@ public class MicrosoftGraphUsersInvocator
   @Override
   public void update(MicrosoftGraphDriver driver, String id, MicrosoftGraphUser modifiedUser)
       throws ConnectorException {
-    if (driver.getConfiguration().getEnableDebugHttpLogging()) {
-      try {
-        driver.logTransactionPayload(this, "patch", modifiedUser.getGraphUser());
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
+    MicrosoftGraphWriteCoalescer coalescer = driver.getWriteCoalescer();
+    if (coalescer != null) {
+      coalescer.submit(id, modifiedUser);
+    } else {
+      applyUpdate(driver, id, modifiedUser);
     }
+  }
+
+  void applyUpdate(MicrosoftGraphDriver driver, String id, MicrosoftGraphUser modifiedUser)
+      throws ConnectorException {
+    driver.logTransactionPayload(this, "patch", modifiedUser.getGraphUser());
     try {
-      Objects.requireNonNull(
-              driver.getGraphClient().users().byId(id),
-              String.format("MSGraph user byId %s produced null result", id))
-          .buildRequest()
-          .patch(modifiedUser.getGraphUser());
+      if (BooleanUtils.isTrue(driver.getConfiguration().getEnableDifferentialUpdates())) {
+        MicrosoftGraphDifferentialPatch.patch(driver, "/users/" + id, modifiedUser.getGraphUser());
+      } else {
+        Objects.requireNonNull(
+                driver.getGraphClient().users().byId(id),
+                String.format("MSGraph user byId %s produced null result", id))
+            .buildRequest()
+            .patch(modifiedUser.getGraphUser());
+      }
       modifiedUser.getGroupIdsToAdd().forEach(groupId -> addGroupToUser(groupId, id, driver));
       modifiedUser
           .getGroupIdsToRemove()
@@ -183,19 +214,17 @@ public class MicrosoftGraphUsersInvocator
 
   @Override
   public void delete(MicrosoftGraphDriver driver, String id) throws ConnectorException {
-    if (driver.getConfiguration().getEnableDebugHttpLogging()) {
-      try {
-        driver.logTransactionPayload(this, "delete", driver.getGraphClient().users().byId(id));
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
-    }
+    driver.flushPendingWrites(id);
+    driver.logTransactionPayload(this, "delete", "/users/" + id);
     try {
       Objects.requireNonNull(
               driver.getGraphClient().users().byId(id),
               String.format("MSGraph user byId %s produced null result", id))
           .buildRequest()
           .delete();
+      if (driver.getMembershipCache() != null) {
+        driver.getMembershipCache().invalidateUser(id);
+      }
     } catch (GraphServiceException gse) {
       driver.handleGraphServiceException(gse);
       if (gse.toString() != null && driver.getConfiguration().getEnableDebugHttpLogging()) {
@@ -215,56 +244,93 @@ public class MicrosoftGraphUsersInvocator
       ResultsPaginator resultsPaginator,
       Integer integer)
       throws ConnectorException {
-    List<User> usersList = new ArrayList<>();
-    Set<MicrosoftGraphUser> response = new HashSet<>();
-    UserCollectionPage usersPage;
+    return search(driver, resultsFilter);
+  }
+
+  /** getAll, returning the buffer so callers that stop early can close it. */
+  private MicrosoftGraphResultBuffer<MicrosoftGraphUser> search(
+      MicrosoftGraphDriver driver, ResultsFilter resultsFilter) throws ConnectorException {
+    driver.flushPendingWrites();
+    MicrosoftGraphResultBuffer<MicrosoftGraphUser> response = driver.newResultBuffer(RESULT_CODEC);
+    boolean complete = false;
     try {
 
       String modelFieldName =
           resultsFilter.hasFilter()
               ? filterAttributeToFieldMap.get(resultsFilter.getAttribute())
               : null;
-      if (modelFieldName != null) {
-        usersPage =
-            driver
-                .getGraphClient()
-                .users()
-                .buildRequest()
-                .select(String.join(",", detailFields))
-                .filter(modelFieldName + " eq '" + resultsFilter.getValue() + "'")
-                .get();
-        usersList = usersPage.getCurrentPage();
+      boolean found;
+      if (resultsFilter.hasFilter()
+          && MicrosoftGraphUserAttribute.TRANSITIVE_GROUPS
+              .name()
+              .equals(resultsFilter.getAttribute())) {
+        // Users that are members of the group, directly or through nested groups
+        found =
+            MicrosoftGraphJsonReads.list(
+                driver,
+                "/groups/"
+                    + groupId(resultsFilter.getValue())
+                    + "/transitiveMembers/microsoft.graph.user",
+                MicrosoftGraphJsonReads.options(
+                    String.join(",", summaryFields), null, driver.getFetchPageSize()),
+                true,
+                page -> page.forEach(it -> response.add(new MicrosoftGraphUser(it))));
+      } else if (resultsFilter.hasFilter()
+          && MicrosoftGraphUserAttribute.ASSIGNED_LICENSES
+              .name()
+              .equals(resultsFilter.getAttribute())) {
+        // Users holding the license, directly or through a group, found by Graph; only those
+        // holding it directly have it in ASSIGNED_LICENSES
+        String skuId = MicrosoftGraphLicensesInvocator.skuId(resultsFilter.getValue()).toString();
+        found =
+            MicrosoftGraphJsonReads.list(
+                driver,
+                "/users",
+                MicrosoftGraphJsonReads.advancedQuery(
+                    MicrosoftGraphJsonReads.options(
+                        String.join(",", summaryFields),
+                        MicrosoftGraphLicensesInvocator.holdersFilter(resultsFilter.getValue()),
+                        driver.getFetchPageSize())),
+                true,
+                page ->
+                    page.stream()
+                        .filter(it -> isAssignedDirectly(it, skuId))
+                        .forEach(it -> response.add(new MicrosoftGraphUser(it))));
+      } else if (modelFieldName != null) {
+        found =
+            MicrosoftGraphJsonReads.list(
+                driver,
+                "/users",
+                MicrosoftGraphJsonReads.options(
+                    String.join(",", detailFields),
+                    modelFieldName + " eq '" + resultsFilter.getValue() + "'",
+                    null),
+                false,
+                page -> page.forEach(it -> response.add(new MicrosoftGraphUser(it))));
       } else {
-        usersPage =
-            driver
-                .getGraphClient()
-                .users()
-                .buildRequest()
-                .select(String.join(",", summaryFields))
-                .top(MicrosoftGraphDriver.SDK_FETCH_COUNT)
-                .get();
-        while (usersPage != null) {
-          usersList.addAll(usersPage.getCurrentPage());
-
-          final UserCollectionRequestBuilder nextPage = usersPage.getNextPage();
-          if (nextPage == null) {
-            break;
-          } else {
-            usersPage = nextPage.buildRequest().get();
-          }
-        }
+        found =
+            MicrosoftGraphJsonReads.list(
+                driver,
+                "/users",
+                MicrosoftGraphJsonReads.options(
+                    String.join(",", summaryFields), null, driver.getFetchPageSize()),
+                true,
+                page -> page.forEach(it -> response.add(new MicrosoftGraphUser(it))));
       }
 
-      if (usersPage == null) {
+      if (!found) {
         throw new ConnectorException("Failure retrieving page of users.");
       }
-
-      usersList.forEach(it -> response.add(new MicrosoftGraphUser(it)));
+      complete = true;
     } catch (GraphServiceException gse) {
       if (gse.toString() != null && driver.getConfiguration().getEnableDebugHttpLogging()) {
         Logger.error(this, String.format("Exception in user.getAll %s", gse.toString()), gse);
       }
       driver.handleGraphServiceException(gse);
+    } finally {
+      if (!complete) {
+        response.close();
+      }
     }
     return response;
   }
@@ -272,14 +338,19 @@ public class MicrosoftGraphUsersInvocator
   @Override
   public MicrosoftGraphUser getOne(MicrosoftGraphDriver driver, String id, Map<String, Object> map)
       throws ConnectorException {
+    driver.flushPendingWrites(id);
+    if (driver.getUserReads() != null) {
+      MicrosoftGraphUser coalesced = driver.getUserReads().get(id);
+      if (coalesced != null) {
+        if (isTransitiveGroupsMissing(driver, coalesced)) {
+          coalesced.setTransitiveMemberOf(transitiveGroups(driver, id, coalesced.getMemberOf()));
+        }
+        return coalesced;
+      }
+    }
     try {
-      User matchingUser =
-          Objects.requireNonNull(
-                  driver.getGraphClient().users().byId(id),
-                  String.format("MSGraph user byId %s produced null result", id))
-              .buildRequest()
-              .select(String.join(",", detailFields))
-              .get();
+      MicrosoftGraphProperties matchingUser =
+          MicrosoftGraphJsonReads.get(driver, "/users/" + id, String.join(",", detailFields));
       GroupCollectionPage memberPage =
           Objects.requireNonNull(
                   driver.getGraphClient().users().byId(id).memberOfAsGroup(),
@@ -290,7 +361,7 @@ public class MicrosoftGraphUsersInvocator
       while (memberPage != null) {
         groupList.addAll(
             memberPage.getCurrentPage().stream()
-                .map(group -> group.id)
+                .map(group -> MicrosoftGraphCanonicalValues.canonical(group.id))
                 .collect(Collectors.toList()));
         final GroupCollectionRequestBuilder nextPage = memberPage.getNextPage();
         if (nextPage == null) {
@@ -299,8 +370,15 @@ public class MicrosoftGraphUsersInvocator
           memberPage = nextPage.buildRequest().get();
         }
       }
+      if (driver.getMembershipCache() != null) {
+        driver.getMembershipCache().recordMemberOf(id, groupList);
+      }
       MicrosoftGraphUser microsoftGraphUser = new MicrosoftGraphUser(matchingUser);
       microsoftGraphUser.setMemberOf(groupList);
+      if (isTransitiveGroupsMissing(driver, microsoftGraphUser)) {
+        microsoftGraphUser.setTransitiveMemberOf(transitiveGroups(driver, id, groupList));
+      }
+      nameGroups(driver, Collections.singletonList(microsoftGraphUser));
       return microsoftGraphUser;
     } catch (GraphServiceException gse) {
       if (gse.toString() != null && driver.getConfiguration().getEnableDebugHttpLogging()) {
@@ -311,12 +389,154 @@ public class MicrosoftGraphUsersInvocator
     return null;
   }
 
+  /**
+   * Reads many users by id as getOne does: their properties with directoryObjects/getByIds and
+   * their group memberships through $batch. Ids without a user are left out.
+   *
+   * @return the users found, by id.
+   */
+  public Map<String, MicrosoftGraphUser> getByIds(
+      MicrosoftGraphDriver driver, Collection<String> ids) throws ConnectorException {
+    Map<String, MicrosoftGraphUser> users = new LinkedHashMap<>();
+    try {
+      for (MicrosoftGraphProperties properties :
+          MicrosoftGraphJsonReads.getByIds(driver, ids, "user", String.join(",", detailFields))) {
+        users.put(properties.getString("id"), new MicrosoftGraphUser(properties));
+      }
+      boolean transitive = driver.isRequested(MicrosoftGraphUserAttribute.TRANSITIVE_GROUPS.name());
+      MicrosoftGraphGroupNesting nesting = transitive ? driver.getGroupNesting() : null;
+      boolean readTransitive = transitive && nesting == null;
+      String query =
+          "/microsoft.graph.group?$select=id&$top=" + MicrosoftGraphDriver.MAX_FETCH_COUNT;
+      List<String> paths = new ArrayList<>();
+      for (String id : users.keySet()) {
+        paths.add("/users/" + id + "/memberOf" + query);
+        if (readTransitive) {
+          paths.add("/users/" + id + "/transitiveMemberOf" + query);
+        }
+      }
+      Iterator<JsonObject> pages = MicrosoftGraphBatchReads.get(driver, paths).iterator();
+      for (Iterator<MicrosoftGraphUser> found = users.values().iterator(); found.hasNext(); ) {
+        MicrosoftGraphUser user = found.next();
+        JsonObject memberOf = pages.next();
+        JsonObject transitiveMemberOf = readTransitive ? pages.next() : null;
+        if (memberOf == null) {
+          // Deleted since it was read
+          found.remove();
+          continue;
+        }
+        Set<String> groupList = MicrosoftGraphBatchReads.ids(driver, memberOf);
+        if (driver.getMembershipCache() != null) {
+          driver.getMembershipCache().recordMemberOf(user.getIdentityIdValue(), groupList);
+        }
+        user.setMemberOf(groupList);
+        if (nesting != null) {
+          user.setTransitiveMemberOf(nesting.expand(groupList));
+        } else if (readTransitive) {
+          user.setTransitiveMemberOf(MicrosoftGraphBatchReads.ids(driver, transitiveMemberOf));
+        }
+      }
+      nameGroups(driver, users.values());
+    } catch (GraphServiceException gse) {
+      if (gse.toString() != null && driver.getConfiguration().getEnableDebugHttpLogging()) {
+        Logger.error(this, String.format("Exception in user.getByIds %s", gse.toString()), gse);
+      }
+      driver.handleGraphServiceException(gse);
+      throw new ConnectorException(
+          "Unexpected GraphServiceException occurred during user getByIds:", gse);
+    }
+    return users;
+  }
+
+  /** Sets the display names of the users' direct groups from the group directory, when enabled. */
+  private static void nameGroups(
+      MicrosoftGraphDriver driver, Collection<MicrosoftGraphUser> users) {
+    MicrosoftGraphGroupDirectory directory = driver.getGroupDirectory();
+    if (directory == null) {
+      return;
+    }
+    Set<String> groupIds = new HashSet<>();
+    users.forEach(user -> groupIds.addAll(user.getMemberOf()));
+    Map<String, MicrosoftGraphGroupDirectory.Entry> groups = directory.resolve(driver, groupIds);
+    for (MicrosoftGraphUser user : users) {
+      List<String> names = new ArrayList<>(user.getMemberOf().size());
+      for (String groupId : user.getMemberOf()) {
+        MicrosoftGraphGroupDirectory.Entry group = groups.get(groupId);
+        if (group != null && group.getDisplayName() != null) {
+          names.add(group.getDisplayName());
+        }
+      }
+      user.setMemberOfNames(names);
+    }
+  }
+
+  /** @return the group id, only a well-formed one going into the request path. */
+  static UUID groupId(String value) {
+    try {
+      return UUID.fromString(value);
+    } catch (IllegalArgumentException | NullPointerException e) {
+      throw new ConnectorException("Invalid group id " + value, e);
+    }
+  }
+
+  /** @return whether the user was assigned the SKU directly, not only through a group. */
+  static boolean isAssignedDirectly(MicrosoftGraphProperties user, String skuId) {
+    List<MicrosoftGraphProperties> states = user.getPropertiesList("licenseAssignmentStates");
+    if (states == null) {
+      return false;
+    }
+    for (MicrosoftGraphProperties state : states) {
+      if (skuId.equalsIgnoreCase(state.getString("skuId"))
+          && state.getString("assignedByGroup") == null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return false when the search running on this thread asked for TRANSITIVE_GROUPS and the user
+   *     was read without them.
+   */
+  boolean hasRequestedAttributes(MicrosoftGraphDriver driver, MicrosoftGraphUser user) {
+    return !isTransitiveGroupsMissing(driver, user);
+  }
+
+  private static boolean isTransitiveGroupsMissing(
+      MicrosoftGraphDriver driver, MicrosoftGraphUser user) {
+    return user.getTransitiveMemberOf() == null
+        && driver.isRequested(MicrosoftGraphUserAttribute.TRANSITIVE_GROUPS.name());
+  }
+
+  /**
+   * Expands the user's direct groups through the cached group nesting, or reads transitiveMemberOf
+   * when the nesting cache is disabled.
+   */
+  private Set<String> transitiveGroups(
+      MicrosoftGraphDriver driver, String id, Set<String> directGroups) {
+    MicrosoftGraphGroupNesting nesting = driver.getGroupNesting();
+    if (nesting != null) {
+      return nesting.expand(directGroups);
+    }
+    Set<String> groups = new HashSet<>();
+    MicrosoftGraphJsonReads.list(
+        driver,
+        "/users/" + id + "/transitiveMemberOf/microsoft.graph.group",
+        MicrosoftGraphJsonReads.options("id", null, MicrosoftGraphDriver.MAX_FETCH_COUNT),
+        true,
+        page ->
+            page.forEach(
+                group ->
+                    groups.add(MicrosoftGraphCanonicalValues.canonical(group.getString("id")))));
+    return groups;
+  }
+
   @Override
   public MicrosoftGraphUser getOneByName(MicrosoftGraphDriver driver, String nameValue) {
-    Set<MicrosoftGraphUser> users =
-        getAll(driver, new ResultsFilter(Name.NAME, nameValue), new ResultsPaginator(), null);
-    Optional<MicrosoftGraphUser> userGet = users.stream().findFirst();
-    return userGet.orElse(null);
+    try (MicrosoftGraphResultBuffer<MicrosoftGraphUser> users =
+        search(driver, new ResultsFilter(Name.NAME, nameValue))) {
+      return users.stream().findFirst().orElse(null);
+    }
   }
 
   private void updateUserLicenseAssignments(
@@ -383,14 +603,11 @@ public class MicrosoftGraphUsersInvocator
 
   private void addGroupToUser(String groupId, String userId, MicrosoftGraphDriver driver)
       throws GraphServiceException {
-    if (driver.getConfiguration().getEnableDebugHttpLogging()) {
-      try {
-        driver.logTransactionPayload(
-            this, "post", driver.getGraphClient().groups(groupId).members().references());
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
+    MicrosoftGraphMembershipCache membershipCache = driver.getMembershipCache();
+    if (membershipCache != null && Boolean.TRUE.equals(membershipCache.isMember(userId, groupId))) {
+      return;
     }
+    driver.logTransactionPayload(this, "post", "/groups/" + groupId + "/members/$ref " + userId);
     try {
       DirectoryObject directoryObject = new DirectoryObject();
       directoryObject.id = userId;
@@ -400,8 +617,17 @@ public class MicrosoftGraphUsersInvocator
                   "MSGraph user to groupId member check produced null result for user %s", userId))
           .buildRequest()
           .post(directoryObject);
+      if (membershipCache != null) {
+        membershipCache.memberAdded(userId, groupId);
+      }
 
     } catch (GraphServiceException gse) {
+      if (MicrosoftGraphMemberChanges.isAlreadyMember(gse)) {
+        if (membershipCache != null) {
+          membershipCache.memberAdded(userId, groupId);
+        }
+        return;
+      }
       Logger.error(
           this,
           String.format(
@@ -421,14 +647,13 @@ public class MicrosoftGraphUsersInvocator
 
   private void removeGroupFromUser(String groupId, String userId, MicrosoftGraphDriver driver)
       throws GraphServiceException {
-    if (driver.getConfiguration().getEnableDebugHttpLogging()) {
-      try {
-        driver.logTransactionPayload(
-            this, "delete", driver.getGraphClient().groups(groupId).members().references());
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
+    MicrosoftGraphMembershipCache membershipCache = driver.getMembershipCache();
+    if (membershipCache != null
+        && Boolean.FALSE.equals(membershipCache.isMember(userId, groupId))) {
+      return;
     }
+    driver.logTransactionPayload(
+        this, "delete", "/groups/" + groupId + "/members/" + userId + "/$ref");
     try {
       Objects.requireNonNull(
               driver.getGraphClient().groups(groupId).members(userId).reference(),
@@ -436,7 +661,17 @@ public class MicrosoftGraphUsersInvocator
                   "MSGraph user to groupId member check produced null result for user %s", userId))
           .buildRequest()
           .delete();
+      if (membershipCache != null) {
+        membershipCache.memberRemoved(userId, groupId);
+      }
     } catch (GraphServiceException gse) {
+      if (MicrosoftGraphMemberChanges.isNotMember(gse, groupId, userId)) {
+        // Not a member (anymore); nothing to remove.
+        if (membershipCache != null) {
+          membershipCache.memberRemoved(userId, groupId);
+        }
+        return;
+      }
       Logger.error(
           this,
           String.format(
@@ -0,0 +1,191 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import com.exclamationlabs.connid.base.connector.logging.Logger;
+import com.exclamationlabs.connid.microsoft.graph.metrics.MicrosoftGraphMetrics;
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphUser;
+import com.google.gson.annotations.SerializedName;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Holds user updates for a short window so that several updates for the same user (attributes, then
+ * groups, then licenses during a midPoint recompute) are sent to Graph as a single change set.
+ * Changes for one user are always applied in the order they were received, and a pending change set
+ * is flushed before that user is read or deleted.
+ *
+ * <p>A change set that fails when its window ends has already been reported as done, so the failure
+ * is kept and thrown by the next update, read or delete of that user.
+ */
+class MicrosoftGraphWriteCoalescer {
+
+  private final MicrosoftGraphDriver driver;
+  private final MicrosoftGraphUsersInvocator invocator;
+  private final long windowMillis;
+  private final ScheduledExecutorService scheduler;
+
+  private final Map<String, MicrosoftGraphUser> pending = new LinkedHashMap<>();
+  private final Map<String, RuntimeException> failures = new HashMap<>();
+  private final Object applyLock = new Object();
+
+  MicrosoftGraphWriteCoalescer(
+      MicrosoftGraphDriver driver, MicrosoftGraphUsersInvocator invocator, long windowMillis) {
+    this.driver = driver;
+    this.invocator = invocator;
+    this.windowMillis = windowMillis;
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "msgraph-write-coalescer");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  void submit(String id, MicrosoftGraphUser change) {
+    synchronized (pending) {
+      throwFailure(id);
+      MicrosoftGraphUser existing = pending.get(id);
+      if (existing == null) {
+        pending.put(id, change);
+        scheduler.schedule(() -> flushQuietly(id), windowMillis, TimeUnit.MILLISECONDS);
+      } else {
+        merge(existing, change);
+      }
+    }
+  }
+
+  void flush(String id) {
+    synchronized (applyLock) {
+      MicrosoftGraphUser change;
+      synchronized (pending) {
+        throwFailure(id);
+        change = pending.remove(id);
+      }
+      if (change != null) {
+        invocator.applyUpdate(driver, id, change);
+      }
+    }
+  }
+
+  void flushAll() {
+    List<String> ids;
+    synchronized (pending) {
+      ids = new ArrayList<>(pending.keySet());
+    }
+    ids.forEach(this::flushQuietly);
+  }
+
+  void close() {
+    scheduler.shutdownNow();
+    flushAll();
+  }
+
+  private void flushQuietly(String id) {
+    try (MicrosoftGraphMetrics.Scope scope = MicrosoftGraphMetrics.enter("user", "update")) {
+      flush(id);
+    } catch (RuntimeException e) {
+      Logger.error(this, String.format("Deferred update for user %s failed", id), e);
+      synchronized (pending) {
+        failures.put(id, e);
+      }
+    }
+  }
+
+  /** Throws, once, the failure of an earlier deferred update of the user. */
+  private void throwFailure(String id) {
+    RuntimeException failure = failures.remove(id);
+    if (failure != null) {
+      throw new ConnectorException(
+          String.format("Deferred update for user %s failed", id), failure);
+    }
+  }
+
+  static void merge(MicrosoftGraphUser target, MicrosoftGraphUser source) {
+    mergeProperties(target.getGraphUser(), source.getGraphUser());
+    netOut(
+        target.getGroupIdsToAdd(),
+        target.getGroupIdsToRemove(),
+        source.getGroupIdsToAdd(),
+        source.getGroupIdsToRemove());
+    netOut(
+        target.getLicenseIdsToAdd(),
+        target.getLicenseIdsToRemove(),
+        source.getLicenseIdsToAdd(),
+        source.getLicenseIdsToRemove());
+  }
+
+  /**
+   * The last change of an id wins: an add replaces a pending remove of the same id and the reverse.
+   * Dropping both would lose the add when the user was not a member to begin with.
+   */
+  static void netOut(
+      Set<String> pendingAdds,
+      Set<String> pendingRemoves,
+      Set<String> nextAdds,
+      Set<String> nextRemoves) {
+    for (String id : nextAdds) {
+      pendingRemoves.remove(id);
+      pendingAdds.add(id);
+    }
+    for (String id : nextRemoves) {
+      pendingAdds.remove(id);
+      pendingRemoves.add(id);
+    }
+  }
+
+  /** Later non-null Graph properties win; nested complex types are merged field by field. */
+  static void mergeProperties(Object target, Object source) {
+    if (target == null || source == null) {
+      return;
+    }
+    for (Field field : source.getClass().getFields()) {
+      if (Modifier.isStatic(field.getModifiers())
+          || field.getAnnotation(SerializedName.class) == null) {
+        continue;
+      }
+      try {
+        Object value = field.get(source);
+        if (value == null) {
+          continue;
+        }
+        Object current = field.get(target);
+        if (current != null
+            && current.getClass() == value.getClass()
+            && !value.getClass().isEnum()
+            && value.getClass().getPackage().getName().startsWith("com.microsoft.graph.models")) {
+          mergeProperties(current, value);
+        } else {
+          field.set(target, value);
+        }
+      } catch (IllegalAccessException e) {
+        Logger.error(
+            MicrosoftGraphWriteCoalescer.class,
+            String.format("Unable to merge Graph property %s", field.getName()),
+            e);
+      }
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.metrics;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * Point-in-time snapshot of the metrics for one (object class, operation, endpoint). The endpoint
+ * {@value MicrosoftGraphMetrics#OPERATION_ENDPOINT} holds the duration of the connector operation
+ * as a whole.
+ */
+public class MicrosoftGraphEndpointMetrics {
+
+  private final String objectClass;
+  private final String operation;
+  private final String endpoint;
+  private final long requests;
+  private final long retries;
+  private final long clientErrors;
+  private final long serverErrors;
+  private final long throttled;
+  private final long failures;
+  private final double meanMillis;
+  private final double p50Millis;
+  private final double p99Millis;
+  private final double maxMillis;
+
+  @ConstructorParameters({
+    "objectClass",
+    "operation",
+    "endpoint",
+    "requests",
+    "retries",
+    "clientErrors",
+    "serverErrors",
+    "throttled",
+    "failures",
+    "meanMillis",
+    "p50Millis",
+    "p99Millis",
+    "maxMillis"
+  })
+  public MicrosoftGraphEndpointMetrics(
+      String objectClass,
+      String operation,
+      String endpoint,
+      long requests,
+      long retries,
+      long clientErrors,
+      long serverErrors,
+      long throttled,
+      long failures,
+      double meanMillis,
+      double p50Millis,
+      double p99Millis,
+      double maxMillis) {
+    this.objectClass = objectClass;
+    this.operation = operation;
+    this.endpoint = endpoint;
+    this.requests = requests;
+    this.retries = retries;
+    this.clientErrors = clientErrors;
+    this.serverErrors = serverErrors;
+    this.throttled = throttled;
+    this.failures = failures;
+    this.meanMillis = meanMillis;
+    this.p50Millis = p50Millis;
+    this.p99Millis = p99Millis;
+    this.maxMillis = maxMillis;
+  }
+
+  public String getObjectClass() {
+    return objectClass;
+  }
+
+  public String getOperation() {
+    return operation;
+  }
+
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  public long getRequests() {
+    return requests;
+  }
+
+  public long getRetries() {
+    return retries;
+  }
+
+  public long getClientErrors() {
+    return clientErrors;
+  }
+
+  public long getServerErrors() {
+    return serverErrors;
+  }
+
+  public long getThrottled() {
+    return throttled;
+  }
+
+  /** Connector operations that failed; only counted for the operation endpoint. */
+  public long getFailures() {
+    return failures;
+  }
+
+  public double getMeanMillis() {
+    return meanMillis;
+  }
+
+  public double getP50Millis() {
+    return p50Millis;
+  }
+
+  public double getP99Millis() {
+    return p99Millis;
+  }
+
+  public double getMaxMillis() {
+    return maxMillis;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s %s %s: requests=%d retries=%d 4xx=%d 5xx=%d 429=%d failures=%d mean=%.1fms p50=%.1fms p99=%.1fms max=%.1fms",
+        objectClass,
+        operation,
+        endpoint,
+        requests,
+        retries,
+        clientErrors,
+        serverErrors,
+        throttled,
+        failures,
+        meanMillis,
+        p50Millis,
+        p99Millis,
+        maxMillis);
+  }
+}
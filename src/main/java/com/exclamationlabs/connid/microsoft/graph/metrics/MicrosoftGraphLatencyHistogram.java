@@ -0,0 +1,123 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with HDR-style log-linear buckets: values are recorded in
+ * microseconds, exactly below 16us and with 4 significant bits (at most 6.25% error) above. Memory
+ * is fixed (about 5KB) regardless of the number of values recorded, and recording is one atomic
+ * increment per value plus a max update, so it can stay on for every Graph request.
+ */
+public final class MicrosoftGraphLatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /** Values above 2^40us (about 12 days) are recorded in the last bucket. */
+  private static final int MAX_MAGNITUDE = 40;
+
+  private static final int BUCKETS =
+      SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sumMicros = new LongAdder();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  public void record(long durationNanos) {
+    long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(durationNanos));
+    counts.incrementAndGet(index(micros));
+    count.increment();
+    sumMicros.add(micros);
+    long max = maxMicros.get();
+    while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+      max = maxMicros.get();
+    }
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getMaxMicros() {
+    return maxMicros.get();
+  }
+
+  public double getMeanMicros() {
+    long total = count.sum();
+    return total == 0 ? 0 : (double) sumMicros.sum() / total;
+  }
+
+  /**
+   * @param percentile 0 to 100.
+   * @return the highest value equivalent to the value at the given percentile, or 0 when nothing
+   *     has been recorded. Never more than the recorded maximum.
+   */
+  public long getPercentileMicros(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int index = 0; index < BUCKETS; index++) {
+      snapshot[index] = counts.get(index);
+      total += snapshot[index];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * total));
+    long seen = 0;
+    for (int index = 0; index < BUCKETS; index++) {
+      seen += snapshot[index];
+      if (seen >= rank) {
+        return Math.min(highestEquivalent(index), maxMicros.get());
+      }
+    }
+    return maxMicros.get();
+  }
+
+  public void reset() {
+    for (int index = 0; index < BUCKETS; index++) {
+      counts.set(index, 0);
+    }
+    count.reset();
+    sumMicros.reset();
+    maxMicros.set(0);
+  }
+
+  static int index(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int magnitude = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_MAGNITUDE);
+    int shift = magnitude - SUB_BUCKET_BITS;
+    int subBucket = (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+    if (magnitude == MAX_MAGNITUDE && (micros >>> (MAX_MAGNITUDE + 1)) != 0) {
+      subBucket = SUB_BUCKETS - 1;
+    }
+    return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+  }
+
+  static long highestEquivalent(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+    int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+    return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+  }
+}
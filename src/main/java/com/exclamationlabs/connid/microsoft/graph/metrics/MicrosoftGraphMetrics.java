@@ -0,0 +1,360 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.metrics;
+
+import com.exclamationlabs.connid.base.connector.logging.Logger;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Request and operation metrics for one tenant, shared by every connector instance (and so every
+ * pooled instance) configured for that tenant. HTTP attempts are recorded by {@link
+ * MicrosoftGraphMetricsInterceptor} and attributed to the object class and operation of the
+ * enclosing {@link #enter} scope on the calling thread, so a search can be broken down into the
+ * Graph calls it made. Scopes are per thread: work handed to another thread is attributed through
+ * {@link #propagate}, or by entering a scope on that thread, and is recorded as unscoped otherwise.
+ */
+public final class MicrosoftGraphMetrics implements MicrosoftGraphMetricsMXBean {
+
+  /** Endpoint under which whole connector operations are recorded. */
+  public static final String OPERATION_ENDPOINT = "*";
+
+  static final String UNSCOPED = "unscoped";
+
+  /** Bounds memory if endpoint templating ever lets ids through. */
+  static final int MAX_ENDPOINTS = 1000;
+
+  static final String OVERFLOW_ENDPOINT = "other";
+
+  private static final ConcurrentMap<String, MicrosoftGraphMetrics> BY_TENANT =
+      new ConcurrentHashMap<>();
+
+  private static final List<MicrosoftGraphMetricsRegistry> REGISTRIES =
+      new CopyOnWriteArrayList<>(loadRegistries());
+
+  private static final ThreadLocal<Scope> CURRENT_SCOPE = new ThreadLocal<>();
+
+  private static final Scope NESTED_SCOPE = new Scope(null, null, null);
+
+  private final String tenantId;
+  private final ConcurrentMap<String, Stats> statsByKey = new ConcurrentHashMap<>();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder clientErrors = new LongAdder();
+  private final LongAdder serverErrors = new LongAdder();
+  private final LongAdder throttled = new LongAdder();
+
+  /** Holders of this instance; only changed while BY_TENANT holds the tenant's entry lock. */
+  private int holders;
+
+  private MicrosoftGraphMetrics(String tenantId) {
+    this.tenantId = tenantId;
+  }
+
+  /**
+   * Returns the tenant's metrics, registering them with JMX on first use. Every call must be
+   * balanced by a {@link #release} once the caller is done with them.
+   */
+  public static MicrosoftGraphMetrics forTenant(String tenantId) {
+    String key = Objects.toString(tenantId, "");
+    return BY_TENANT.compute(
+        key,
+        (id, metrics) -> {
+          if (metrics == null) {
+            metrics = new MicrosoftGraphMetrics(id);
+            metrics.register();
+          }
+          metrics.holders++;
+          return metrics;
+        });
+  }
+
+  /**
+   * Gives up a reference taken by {@link #forTenant}. When the last one is released the tenant's
+   * metrics are dropped and their JMX bean unregistered, so a reloaded connector bundle does not
+   * find the previous bundle's bean still registered.
+   */
+  public static void release(String tenantId) {
+    String key = Objects.toString(tenantId, "");
+    BY_TENANT.computeIfPresent(
+        key,
+        (id, metrics) -> {
+          if (--metrics.holders > 0) {
+            return metrics;
+          }
+          metrics.unregister();
+          return null;
+        });
+  }
+
+  public static void addRegistry(MicrosoftGraphMetricsRegistry registry) {
+    REGISTRIES.add(registry);
+  }
+
+  public static void removeRegistry(MicrosoftGraphMetricsRegistry registry) {
+    REGISTRIES.remove(registry);
+  }
+
+  /**
+   * Attributes Graph requests made on this thread to the given object class and operation until the
+   * returned scope is closed. Inside an existing scope this is a no-op, so requests stay attributed
+   * to the outermost connector operation.
+   */
+  public static Scope enter(String objectClass, String operation) {
+    Scope current = CURRENT_SCOPE.get();
+    if (current != null) {
+      return NESTED_SCOPE;
+    }
+    Scope scope = new Scope(objectClass, operation, CURRENT_SCOPE);
+    CURRENT_SCOPE.set(scope);
+    return scope;
+  }
+
+  /**
+   * Wraps a task run on another thread so that its Graph requests are attributed to the scope of
+   * the calling thread.
+   */
+  public static <T> Callable<T> propagate(Callable<T> task) {
+    Scope scope = CURRENT_SCOPE.get();
+    if (scope == null || scope == NESTED_SCOPE) {
+      return task;
+    }
+    return () -> {
+      try (Scope inner = enter(scope.objectClass, scope.operation)) {
+        return task.call();
+      }
+    };
+  }
+
+  void recordRequest(String endpoint, int status, boolean retry, long durationNanos) {
+    Scope scope = CURRENT_SCOPE.get();
+    String objectClass = scope == null ? UNSCOPED : scope.objectClass;
+    String operation = scope == null ? UNSCOPED : scope.operation;
+    Stats stats = stats(objectClass, operation, endpoint);
+    stats.latency.record(durationNanos);
+    stats.requests.increment();
+    requests.increment();
+    if (retry) {
+      stats.retries.increment();
+      retries.increment();
+    }
+    if (status == 429) {
+      stats.throttled.increment();
+      throttled.increment();
+    }
+    if (status >= 400 && status < 500) {
+      stats.clientErrors.increment();
+      clientErrors.increment();
+    } else if (status >= 500) {
+      stats.serverErrors.increment();
+      serverErrors.increment();
+    }
+    for (MicrosoftGraphMetricsRegistry registry : REGISTRIES) {
+      registry.recordRequest(
+          tenantId, objectClass, operation, endpoint, status, retry, durationNanos);
+    }
+  }
+
+  public void recordOperation(
+      String objectClass, String operation, long durationNanos, boolean failed) {
+    Stats stats = stats(objectClass, operation, OPERATION_ENDPOINT);
+    stats.latency.record(durationNanos);
+    stats.requests.increment();
+    if (failed) {
+      stats.failures.increment();
+    }
+    for (MicrosoftGraphMetricsRegistry registry : REGISTRIES) {
+      registry.recordOperation(tenantId, objectClass, operation, durationNanos, failed);
+    }
+  }
+
+  private Stats stats(String objectClass, String operation, String endpoint) {
+    String key = objectClass + '|' + operation + '|' + endpoint;
+    Stats stats = statsByKey.get(key);
+    if (stats != null) {
+      return stats;
+    }
+    String recordedEndpoint = endpoint;
+    if (statsByKey.size() >= MAX_ENDPOINTS) {
+      recordedEndpoint = OVERFLOW_ENDPOINT;
+      key = objectClass + '|' + operation + '|' + recordedEndpoint;
+    }
+    String finalEndpoint = recordedEndpoint;
+    return statsByKey.computeIfAbsent(key, k -> new Stats(objectClass, operation, finalEndpoint));
+  }
+
+  @Override
+  public String getTenantId() {
+    return tenantId;
+  }
+
+  @Override
+  public long getRequestCount() {
+    return requests.sum();
+  }
+
+  @Override
+  public long getRetryCount() {
+    return retries.sum();
+  }
+
+  @Override
+  public long getClientErrorCount() {
+    return clientErrors.sum();
+  }
+
+  @Override
+  public long getServerErrorCount() {
+    return serverErrors.sum();
+  }
+
+  @Override
+  public long getThrottledCount() {
+    return throttled.sum();
+  }
+
+  @Override
+  public List<MicrosoftGraphEndpointMetrics> getEndpoints() {
+    List<MicrosoftGraphEndpointMetrics> endpoints = new ArrayList<>();
+    for (Stats stats : statsByKey.values()) {
+      endpoints.add(stats.snapshot());
+    }
+    endpoints.sort(
+        Comparator.comparing(MicrosoftGraphEndpointMetrics::getObjectClass)
+            .thenComparing(MicrosoftGraphEndpointMetrics::getOperation)
+            .thenComparing(MicrosoftGraphEndpointMetrics::getEndpoint));
+    return endpoints;
+  }
+
+  @Override
+  public void reset() {
+    statsByKey.clear();
+    requests.reset();
+    retries.reset();
+    clientErrors.reset();
+    serverErrors.reset();
+    throttled.reset();
+  }
+
+  private void register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = objectName();
+      if (!server.isRegistered(name)) {
+        server.registerMBean(this, name);
+      }
+    } catch (Exception e) {
+      Logger.error(this, "Unable to register Microsoft Graph metrics with JMX", e);
+    }
+  }
+
+  private void unregister() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = objectName();
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    } catch (Exception e) {
+      Logger.error(this, "Unable to unregister Microsoft Graph metrics from JMX", e);
+    }
+  }
+
+  ObjectName objectName() throws MalformedObjectNameException {
+    return new ObjectName(
+        "com.exclamationlabs.connid.microsoft.graph:type=Metrics,tenant="
+            + ObjectName.quote(tenantId));
+  }
+
+  private static List<MicrosoftGraphMetricsRegistry> loadRegistries() {
+    List<MicrosoftGraphMetricsRegistry> registries = new ArrayList<>();
+    try {
+      for (MicrosoftGraphMetricsRegistry registry :
+          ServiceLoader.load(
+              MicrosoftGraphMetricsRegistry.class, MicrosoftGraphMetrics.class.getClassLoader())) {
+        registries.add(registry);
+      }
+    } catch (ServiceConfigurationError e) {
+      Logger.error(
+          MicrosoftGraphMetrics.class, "Unable to load Microsoft Graph metrics registry", e);
+    }
+    return registries;
+  }
+
+  /** Closing restores the thread to no scope; closing a nested scope does nothing. */
+  public static final class Scope implements AutoCloseable {
+
+    private final String objectClass;
+    private final String operation;
+    private final ThreadLocal<Scope> owner;
+
+    private Scope(String objectClass, String operation, ThreadLocal<Scope> owner) {
+      this.objectClass = objectClass;
+      this.operation = operation;
+      this.owner = owner;
+    }
+
+    @Override
+    public void close() {
+      if (owner != null) {
+        owner.remove();
+      }
+    }
+  }
+
+  private static final class Stats {
+
+    private final String objectClass;
+    private final String operation;
+    private final String endpoint;
+    private final MicrosoftGraphLatencyHistogram latency = new MicrosoftGraphLatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder clientErrors = new LongAdder();
+    private final LongAdder serverErrors = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    private Stats(String objectClass, String operation, String endpoint) {
+      this.objectClass = objectClass;
+      this.operation = operation;
+      this.endpoint = endpoint;
+    }
+
+    private MicrosoftGraphEndpointMetrics snapshot() {
+      return new MicrosoftGraphEndpointMetrics(
+          objectClass,
+          operation,
+          endpoint,
+          requests.sum(),
+          retries.sum(),
+          clientErrors.sum(),
+          serverErrors.sum(),
+          throttled.sum(),
+          failures.sum(),
+          latency.getMeanMicros() / 1000,
+          latency.getPercentileMicros(50) / 1000.0,
+          latency.getPercentileMicros(99) / 1000.0,
+          latency.getMaxMicros() / 1000.0);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.metrics;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Pattern;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Records every HTTP attempt made by the Graph client. It is added after the SDK's retry handler,
+ * so each retry is seen (and counted, via the Retry-Attempt header the handler sets) as its own
+ * attempt with its own latency.
+ */
+public class MicrosoftGraphMetricsInterceptor implements Interceptor {
+
+  static final String RETRY_ATTEMPT_HEADER = "Retry-Attempt";
+
+  static final String ID = "{id}";
+
+  /** Collections whose next path segment is an object id. */
+  private static final Set<String> ID_COLLECTIONS =
+      new HashSet<>(
+          Arrays.asList(
+              "users",
+              "groups",
+              "members",
+              "owners",
+              "memberOf",
+              "transitiveMemberOf",
+              "transitiveMembers",
+              "directoryObjects",
+              "subscribedSkus",
+              "licenseDetails",
+              "teams"));
+
+  private static final Pattern GUID =
+      Pattern.compile(
+          "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+  private static final Pattern VERSION = Pattern.compile("v\\d+(\\.\\d+)?|beta");
+
+  private final MicrosoftGraphMetrics metrics;
+
+  public MicrosoftGraphMetricsInterceptor(MicrosoftGraphMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    String endpoint = endpoint(request.method(), request.url());
+    boolean retry = request.header(RETRY_ATTEMPT_HEADER) != null;
+    long start = System.nanoTime();
+    try {
+      Response response = chain.proceed(request);
+      metrics.recordRequest(endpoint, response.code(), retry, System.nanoTime() - start);
+      return response;
+    } catch (IOException | RuntimeException e) {
+      metrics.recordRequest(endpoint, 0, retry, System.nanoTime() - start);
+      throw e;
+    }
+  }
+
+  /**
+   * @return the method and the path with the version segment dropped and ids replaced by {@value
+   *     #ID}, for example {@code POST /users/{id}/microsoft.graph.assignLicense}.
+   */
+  public static String endpoint(String method, HttpUrl url) {
+    StringBuilder endpoint = new StringBuilder(method).append(' ');
+    List<String> segments = url.pathSegments();
+    String previous = null;
+    for (int index = 0; index < segments.size(); index++) {
+      String segment = segments.get(index);
+      if (segment.isEmpty() || (index == 0 && VERSION.matcher(segment).matches())) {
+        continue;
+      }
+      endpoint.append('/').append(isId(previous, segment) ? ID : segment);
+      previous = segment;
+    }
+    if (previous == null) {
+      endpoint.append('/');
+    }
+    return endpoint.toString();
+  }
+
+  private static boolean isId(String previous, String segment) {
+    if (GUID.matcher(segment).matches()) {
+      return true;
+    }
+    return previous != null
+        && ID_COLLECTIONS.contains(previous)
+        && !segment.startsWith("$")
+        && !segment.startsWith("microsoft.graph.")
+        && !segment.equals("delta");
+  }
+}
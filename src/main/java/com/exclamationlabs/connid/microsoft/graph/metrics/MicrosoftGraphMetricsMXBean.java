@@ -0,0 +1,40 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.metrics;
+
+import java.util.List;
+
+/**
+ * JMX view of {@link MicrosoftGraphMetrics}, registered once per tenant as {@code
+ * com.exclamationlabs.connid.microsoft.graph:type=Metrics,tenant=<tenantId>}.
+ */
+public interface MicrosoftGraphMetricsMXBean {
+
+  String getTenantId();
+
+  long getRequestCount();
+
+  long getRetryCount();
+
+  long getClientErrorCount();
+
+  long getServerErrorCount();
+
+  long getThrottledCount();
+
+  /** Counters and latency percentiles per object class, operation and endpoint. */
+  List<MicrosoftGraphEndpointMetrics> getEndpoints();
+
+  void reset();
+}
@@ -0,0 +1,44 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.metrics;
+
+/**
+ * Receives every metric recorded by {@link MicrosoftGraphMetrics}, for forwarding to an external
+ * metrics system (Micrometer, Prometheus, StatsD, ...). Implementations are discovered with {@link
+ * java.util.ServiceLoader} from the connector's class loader, or added with {@link
+ * MicrosoftGraphMetrics#addRegistry}. Methods are called on the request thread and must be cheap
+ * and must not throw.
+ */
+public interface MicrosoftGraphMetricsRegistry {
+
+  /**
+   * One HTTP attempt against Graph.
+   *
+   * @param endpoint method and templated path, for example {@code GET /users/{id}/memberOf}.
+   * @param status HTTP status, or 0 when no response was received.
+   * @param retry true when the SDK retry handler re-sent the request, e.g. after a 429.
+   */
+  void recordRequest(
+      String tenantId,
+      String objectClass,
+      String operation,
+      String endpoint,
+      int status,
+      boolean retry,
+      long durationNanos);
+
+  /** One connector operation (create, update, delete, get, search, ...) including all requests. */
+  default void recordOperation(
+      String tenantId, String objectClass, String operation, long durationNanos, boolean failed) {}
+}
@@ -0,0 +1,50 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.model;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded table returning one shared instance for strings that repeat across many objects of a
+ * tenant, such as departments, countries, user types and group ids. Unlike {@link String#intern()}
+ * it never grows: each value maps to one slot of a fixed table, and a value whose slot holds a
+ * different string takes the slot over. Values that are rarely seen are pushed out by frequent
+ * ones, and a value is never corrupted, only possibly held twice.
+ */
+public final class MicrosoftGraphCanonicalValues {
+
+  static final int SLOTS = 1 << 13;
+
+  /** Longer values are rarely repeated; they are returned as is and never take a slot. */
+  static final int MAX_LENGTH = 64;
+
+  private static final AtomicReferenceArray<String> TABLE = new AtomicReferenceArray<>(SLOTS);
+
+  private MicrosoftGraphCanonicalValues() {}
+
+  /** @return the shared instance equal to value, or value itself once it has been recorded. */
+  public static String canonical(String value) {
+    if (value == null || value.length() > MAX_LENGTH) {
+      return value;
+    }
+    int hash = value.hashCode();
+    int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+    String current = TABLE.get(slot);
+    if (current != null && current.hashCode() == hash && current.equals(value)) {
+      return current;
+    }
+    TABLE.lazySet(slot, value);
+    return value;
+  }
+}
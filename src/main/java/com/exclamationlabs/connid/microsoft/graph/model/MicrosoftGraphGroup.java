@@ -15,26 +15,47 @@ package com.exclamationlabs.connid.microsoft.graph.model;
 
 import com.exclamationlabs.connid.base.connector.model.IdentityModel;
 import com.microsoft.graph.models.Group;
+import java.util.HashSet;
+import java.util.Set;
 
+/**
+ * A group as built by the adapter for create and update, wrapping the SDK {@link Group} that is
+ * sent to Graph, or a group read from Graph, holding only the {@link MicrosoftGraphProperties}
+ * returned.
+ */
 public class MicrosoftGraphGroup implements IdentityModel {
 
   private Group graphGroup;
+  private MicrosoftGraphProperties properties;
   private Boolean msTeam = false;
+  private Iterable<String> members;
+  private Iterable<String> owners;
+  private Set<String> desiredMemberIds;
+  private Set<String> memberIdsToAdd;
+  private Set<String> memberIdsToRemove;
+  private Set<String> ownerIdsToAdd;
 
   public MicrosoftGraphGroup(Group group) {
     setGraphGroup(group);
   }
 
+  public MicrosoftGraphGroup(MicrosoftGraphProperties properties) {
+    this.properties = properties;
+  }
+
   @Override
   public String getIdentityIdValue() {
-    return getGraphGroup().id;
+    return graphGroup != null ? graphGroup.id : properties.getString("id");
   }
 
   @Override
   public String getIdentityNameValue() {
-    return String.format("%s (%s)", getGraphGroup().displayName, getGraphGroup().id);
+    return graphGroup != null
+        ? String.format("%s (%s)", graphGroup.displayName, graphGroup.id)
+        : String.format("%s (%s)", properties.getString("displayName"), properties.getString("id"));
   }
 
+  /** @return the SDK group to send to Graph, or null for a group read from Graph. */
   public Group getGraphGroup() {
     return graphGroup;
   }
@@ -43,6 +64,17 @@ public class MicrosoftGraphGroup implements IdentityModel {
     this.graphGroup = graphGroup;
   }
 
+  /**
+   * @return the properties read from Graph or, for a group built by the adapter, a snapshot of its
+   *     SDK group.
+   */
+  public MicrosoftGraphProperties getProperties() {
+    if (properties == null && graphGroup != null) {
+      return MicrosoftGraphProperties.of(graphGroup);
+    }
+    return properties;
+  }
+
   public Boolean getMsTeam() {
     return msTeam;
   }
@@ -50,4 +82,59 @@ public class MicrosoftGraphGroup implements IdentityModel {
   public void setMsTeam(Boolean msTeam) {
     this.msTeam = msTeam;
   }
+
+  /**
+   * @return ids of the direct members, read from Graph page by page as they are iterated, or null
+   *     when members were not read.
+   */
+  public Iterable<String> getMembers() {
+    return members;
+  }
+
+  public void setMembers(Iterable<String> members) {
+    this.members = members;
+  }
+
+  /** @return ids of the owners, read like {@link #getMembers()}, or null when not read. */
+  public Iterable<String> getOwners() {
+    return owners;
+  }
+
+  public void setOwners(Iterable<String> owners) {
+    this.owners = owners;
+  }
+
+  /**
+   * @return the complete member set an update should leave the group with, or null when the members
+   *     were not replaced.
+   */
+  public Set<String> getDesiredMemberIds() {
+    return desiredMemberIds;
+  }
+
+  public void setDesiredMemberIds(Set<String> desiredMemberIds) {
+    this.desiredMemberIds = desiredMemberIds;
+  }
+
+  public Set<String> getMemberIdsToAdd() {
+    if (memberIdsToAdd == null) {
+      memberIdsToAdd = new HashSet<>();
+    }
+    return memberIdsToAdd;
+  }
+
+  public Set<String> getMemberIdsToRemove() {
+    if (memberIdsToRemove == null) {
+      memberIdsToRemove = new HashSet<>();
+    }
+    return memberIdsToRemove;
+  }
+
+  /** @return the owners of a group to create. */
+  public Set<String> getOwnerIdsToAdd() {
+    if (ownerIdsToAdd == null) {
+      ownerIdsToAdd = new HashSet<>();
+    }
+    return ownerIdsToAdd;
+  }
 }
@@ -20,6 +20,8 @@ public class MicrosoftGraphLicense implements IdentityModel {
 
   private SubscribedSku graphLicense;
 
+  private Iterable<String> holders;
+
   public MicrosoftGraphLicense(SubscribedSku license) {
     setGraphLicense(license);
   }
@@ -41,4 +43,16 @@ public class MicrosoftGraphLicense implements IdentityModel {
   public void setGraphLicense(SubscribedSku license) {
     this.graphLicense = license;
   }
+
+  /**
+   * @return the ids of the users holding the license, read page by page as iterated, or null for a
+   *     license from a listing.
+   */
+  public Iterable<String> getHolders() {
+    return holders;
+  }
+
+  public void setHolders(Iterable<String> holders) {
+    this.holders = holders;
+  }
 }
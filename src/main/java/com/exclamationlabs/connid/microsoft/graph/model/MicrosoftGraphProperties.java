@@ -0,0 +1,428 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.model;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.internal.LazilyParsedNumber;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.microsoft.graph.logger.DefaultLogger;
+import com.microsoft.graph.serializer.DefaultSerializer;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Compact, read-only view of a Graph object as returned by a request: only the properties present
+ * in the response (that is, selected and not null) are held, as two parallel arrays. Values are
+ * String, Boolean or Number, nested objects are MicrosoftGraphProperties and collections are
+ * unmodifiable lists of those. Objects read from one page usually share the same property layout,
+ * in which case they also share the names array.
+ *
+ * <p>Values of properties that are shared by many objects of a tenant, such as department or the
+ * skuId of a license, are canonicalized through {@link MicrosoftGraphCanonicalValues}.
+ *
+ * <p>An SDK User or Group declares a field for every property of the Graph schema, plus an
+ * additional data map, whichever properties were selected. Listings hold on to every object read
+ * until the results are handed over, so the read side uses this instead.
+ */
+public final class MicrosoftGraphProperties {
+
+  private static final String[] NO_NAMES = new String[0];
+  private static final Object[] NO_VALUES = new Object[0];
+
+  /** Properties whose values repeat across objects; other values are mostly unique. */
+  private static final Set<String> REPEATED =
+      new HashSet<>(
+          Arrays.asList(
+              "ageGroup",
+              "assignedByGroup",
+              "city",
+              "classification",
+              "companyName",
+              "consentProvidedForMinor",
+              "costCenter",
+              "country",
+              "creationType",
+              "department",
+              "disabledPlans",
+              "division",
+              "employeeType",
+              "error",
+              "externalUserState",
+              "groupTypes",
+              "jobTitle",
+              "officeLocation",
+              "preferredLanguage",
+              "skuId",
+              "state",
+              "usageLocation",
+              "userType",
+              "visibility"));
+
+  private static final DefaultSerializer SERIALIZER = new DefaultSerializer(new DefaultLogger());
+
+  private final String[] names;
+  private final Object[] values;
+
+  private MicrosoftGraphProperties(String[] names, Object[] values) {
+    this.names = names;
+    this.values = values;
+  }
+
+  public static MicrosoftGraphProperties of(JsonObject json) {
+    return of(json, null);
+  }
+
+  /** Converts the objects of a collection page, typically the value array of a response. */
+  public static List<MicrosoftGraphProperties> of(JsonArray page) {
+    List<MicrosoftGraphProperties> result = new ArrayList<>(page.size());
+    String[] layout = null;
+    for (JsonElement element : page) {
+      if (element.isJsonObject()) {
+        MicrosoftGraphProperties properties = of(element.getAsJsonObject(), layout);
+        layout = properties.names;
+        result.add(properties);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Converts an SDK model through its JSON form, for code that built one itself. Reads from Graph
+   * should use {@link #of(JsonObject)} on the response instead.
+   */
+  public static MicrosoftGraphProperties of(Object graphModel) {
+    return of(JsonParser.parseString(SERIALIZER.serializeObject(graphModel)).getAsJsonObject());
+  }
+
+  /**
+   * Reads a JSON array from a streaming reader positioned at its start, converting each object as
+   * {@link #of(JsonArray)} would, without building a JSON tree of the array or of its objects.
+   */
+  public static void read(JsonReader reader, Collection<? super MicrosoftGraphProperties> into)
+      throws IOException {
+    String[] layout = null;
+    reader.beginArray();
+    while (reader.hasNext()) {
+      if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+        reader.skipValue();
+        continue;
+      }
+      MicrosoftGraphProperties properties = readObject(reader, layout);
+      layout = properties.names;
+      into.add(properties);
+    }
+    reader.endArray();
+  }
+
+  /** Reads one object written by {@link #write(JsonWriter)}. */
+  public static MicrosoftGraphProperties read(JsonReader reader) throws IOException {
+    return readObject(reader, null);
+  }
+
+  /**
+   * @param layout names of a previous object, reused when this object has exactly the same
+   *     properties in the same order.
+   */
+  private static MicrosoftGraphProperties of(JsonObject json, String[] layout) {
+    Collector collector = new Collector(layout, json.size());
+    for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
+      String name = entry.getKey();
+      if (name.startsWith("@odata")) {
+        continue;
+      }
+      Object value = value(entry.getValue(), REPEATED.contains(name));
+      if (value != null) {
+        collector.add(name, value);
+      }
+    }
+    return collector.build();
+  }
+
+  private static MicrosoftGraphProperties readObject(JsonReader reader, String[] layout)
+      throws IOException {
+    Collector collector = new Collector(layout, layout == null ? 16 : layout.length);
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.startsWith("@odata")) {
+        reader.skipValue();
+        continue;
+      }
+      Object value = value(reader, REPEATED.contains(name));
+      if (value != null) {
+        collector.add(name, value);
+      }
+    }
+    reader.endObject();
+    return collector.build();
+  }
+
+  private static Object value(JsonElement element, boolean repeated) {
+    if (element == null || element.isJsonNull()) {
+      return null;
+    }
+    if (element.isJsonPrimitive()) {
+      JsonPrimitive primitive = element.getAsJsonPrimitive();
+      if (primitive.isBoolean()) {
+        return primitive.getAsBoolean();
+      }
+      if (primitive.isNumber()) {
+        return primitive.getAsNumber();
+      }
+      return repeated
+          ? MicrosoftGraphCanonicalValues.canonical(primitive.getAsString())
+          : primitive.getAsString();
+    }
+    if (element.isJsonObject()) {
+      return of(element.getAsJsonObject(), null);
+    }
+    JsonArray array = element.getAsJsonArray();
+    if (array.size() == 0) {
+      return Collections.emptyList();
+    }
+    List<Object> list = new ArrayList<>(array.size());
+    for (JsonElement item : array) {
+      Object value = value(item, repeated);
+      if (value != null) {
+        list.add(value);
+      }
+    }
+    return Collections.unmodifiableList(list);
+  }
+
+  private static Object value(JsonReader reader, boolean repeated) throws IOException {
+    switch (reader.peek()) {
+      case BOOLEAN:
+        return reader.nextBoolean();
+      case NUMBER:
+        // What JsonParser holds for a number, so both paths return the same values
+        return new LazilyParsedNumber(reader.nextString());
+      case STRING:
+        return repeated
+            ? MicrosoftGraphCanonicalValues.canonical(reader.nextString())
+            : reader.nextString();
+      case BEGIN_OBJECT:
+        return readObject(reader, null);
+      case BEGIN_ARRAY:
+        List<Object> list = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          Object value = value(reader, repeated);
+          if (value != null) {
+            list.add(value);
+          }
+        }
+        reader.endArray();
+        return list.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(list);
+      default:
+        reader.skipValue();
+        return null;
+    }
+  }
+
+  /** @return the value of the property, or null if it was not in the response. */
+  public Object get(String name) {
+    for (int index = 0; index < names.length; index++) {
+      if (names[index] == name || names[index].equals(name)) {
+        return values[index];
+      }
+    }
+    return null;
+  }
+
+  /** @return the value at the end of a path of nested property names, or null. */
+  public Object get(String... path) {
+    Object value = this;
+    for (String name : path) {
+      if (!(value instanceof MicrosoftGraphProperties)) {
+        return null;
+      }
+      value = ((MicrosoftGraphProperties) value).get(name);
+    }
+    return value;
+  }
+
+  public String getString(String name) {
+    Object value = get(name);
+    return value == null ? null : value.toString();
+  }
+
+  public Boolean getBoolean(String name) {
+    Object value = get(name);
+    return value instanceof Boolean ? (Boolean) value : null;
+  }
+
+  public MicrosoftGraphProperties getProperties(String name) {
+    Object value = get(name);
+    return value instanceof MicrosoftGraphProperties ? (MicrosoftGraphProperties) value : null;
+  }
+
+  /** @return the string values of a collection property, or null if it was not returned. */
+  public List<String> getStrings(String name) {
+    Object value = get(name);
+    if (!(value instanceof List)) {
+      return null;
+    }
+    List<?> list = (List<?>) value;
+    List<String> result = new ArrayList<>(list.size());
+    for (Object item : list) {
+      result.add(item.toString());
+    }
+    return result;
+  }
+
+  /** @return the complex values of a collection property, or null if it was not returned. */
+  public List<MicrosoftGraphProperties> getPropertiesList(String name) {
+    Object value = get(name);
+    if (!(value instanceof List)) {
+      return null;
+    }
+    List<MicrosoftGraphProperties> result = new ArrayList<>(((List<?>) value).size());
+    for (Object item : (List<?>) value) {
+      if (item instanceof MicrosoftGraphProperties) {
+        result.add((MicrosoftGraphProperties) item);
+      }
+    }
+    return result;
+  }
+
+  /** Writes this object as JSON, in the form it was read from. */
+  public void write(JsonWriter writer) throws IOException {
+    writer.beginObject();
+    for (int index = 0; index < names.length; index++) {
+      writer.name(names[index]);
+      write(writer, values[index]);
+    }
+    writer.endObject();
+  }
+
+  private static void write(JsonWriter writer, Object value) throws IOException {
+    if (value instanceof MicrosoftGraphProperties) {
+      ((MicrosoftGraphProperties) value).write(writer);
+    } else if (value instanceof List) {
+      writer.beginArray();
+      for (Object item : (List<?>) value) {
+        write(writer, item);
+      }
+      writer.endArray();
+    } else if (value instanceof Boolean) {
+      writer.value((Boolean) value);
+    } else if (value instanceof Number) {
+      writer.value((Number) value);
+    } else {
+      writer.value(value.toString());
+    }
+  }
+
+  /**
+   * @return a rough estimate of the heap, in bytes, held by this object and its values. Names are
+   *     shared between objects and not counted.
+   */
+  public long estimatedSize() {
+    long size = 32 + 8L * values.length;
+    for (Object value : values) {
+      size += estimatedSize(value);
+    }
+    return size;
+  }
+
+  private static long estimatedSize(Object value) {
+    if (value instanceof String) {
+      return 40 + ((String) value).length();
+    }
+    if (value instanceof MicrosoftGraphProperties) {
+      return ((MicrosoftGraphProperties) value).estimatedSize();
+    }
+    if (value instanceof List) {
+      long size = 32 + 8L * ((List<?>) value).size();
+      for (Object item : (List<?>) value) {
+        size += estimatedSize(item);
+      }
+      return size;
+    }
+    return value instanceof Boolean ? 0 : 16;
+  }
+
+  public int size() {
+    return names.length;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("{");
+    for (int index = 0; index < names.length; index++) {
+      if (index > 0) {
+        builder.append(", ");
+      }
+      builder.append(names[index]).append('=').append(values[index]);
+    }
+    return builder.append('}').toString();
+  }
+
+  /** Accumulates the properties of one object, sharing the names of the previous one if it can. */
+  private static final class Collector {
+
+    private final String[] layout;
+    private String[] names;
+    private Object[] values;
+    private int size;
+
+    Collector(String[] layout, int capacity) {
+      this.layout = layout;
+      values = new Object[Math.max(capacity, 1)];
+    }
+
+    void add(String name, Object value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+        if (names != null) {
+          names = Arrays.copyOf(names, size * 2);
+        }
+      }
+      if (names == null
+          && (layout == null || size >= layout.length || !layout[size].equals(name))) {
+        names = new String[values.length];
+        if (size > 0) {
+          System.arraycopy(layout, 0, names, 0, size);
+        }
+      }
+      if (names != null) {
+        // Property names come from a small fixed vocabulary, one copy of each is enough.
+        names[size] = name.intern();
+      }
+      values[size++] = value;
+    }
+
+    MicrosoftGraphProperties build() {
+      if (size == 0) {
+        return new MicrosoftGraphProperties(NO_NAMES, NO_VALUES);
+      }
+      if (names == null && layout.length == size) {
+        names = layout;
+      } else if (names == null) {
+        names = Arrays.copyOf(layout, size);
+      } else if (names.length != size) {
+        names = Arrays.copyOf(names, size);
+      }
+      return new MicrosoftGraphProperties(
+          names, values.length == size ? values : Arrays.copyOf(values, size));
+    }
+  }
+}
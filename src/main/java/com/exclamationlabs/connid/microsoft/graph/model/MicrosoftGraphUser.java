@@ -16,14 +16,26 @@ package com.exclamationlabs.connid.microsoft.graph.model;
 import com.exclamationlabs.connid.base.connector.model.IdentityModel;
 import com.microsoft.graph.models.User;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+/**
+ * A user as built by the adapter for create and update, wrapping the SDK {@link User} that is sent
+ * to Graph, or a user read from Graph, holding only the {@link MicrosoftGraphProperties} returned.
+ */
 public class MicrosoftGraphUser implements IdentityModel {
 
   private User graphUser;
 
+  private MicrosoftGraphProperties properties;
+
   private Set<String> memberOf;
 
+  private Set<String> transitiveMemberOf;
+
+  private List<String> memberOfNames;
+
+  // Only used by create and update, so only allocated when something is added
   private Set<String> licenseIdsToAdd;
   private Set<String> licenseIdsToRemove;
 
@@ -32,22 +44,23 @@ public class MicrosoftGraphUser implements IdentityModel {
 
   public MicrosoftGraphUser(User userData) {
     setGraphUser(userData);
-    setGroupIdsToAdd(new HashSet<>());
-    setGroupIdsToRemove(new HashSet<>());
-    setLicenseIdsToAdd(new HashSet<>());
-    setLicenseIdsToRemove(new HashSet<>());
+  }
+
+  public MicrosoftGraphUser(MicrosoftGraphProperties properties) {
+    this.properties = properties;
   }
 
   @Override
   public String getIdentityIdValue() {
-    return getGraphUser().id;
+    return graphUser != null ? graphUser.id : properties.getString("id");
   }
 
   @Override
   public String getIdentityNameValue() {
-    return getGraphUser().displayName;
+    return graphUser != null ? graphUser.displayName : properties.getString("displayName");
   }
 
+  /** @return the SDK user to send to Graph, or null for a user read from Graph. */
   public User getGraphUser() {
     return graphUser;
   }
@@ -56,6 +69,17 @@ public class MicrosoftGraphUser implements IdentityModel {
     this.graphUser = graphUser;
   }
 
+  /**
+   * @return the properties read from Graph or, for a user built by the adapter, a snapshot of its
+   *     SDK user.
+   */
+  public MicrosoftGraphProperties getProperties() {
+    if (properties == null && graphUser != null) {
+      return MicrosoftGraphProperties.of(graphUser);
+    }
+    return properties;
+  }
+
   public Set<String> getMemberOf() {
     return memberOf;
   }
@@ -64,7 +88,27 @@ public class MicrosoftGraphUser implements IdentityModel {
     this.memberOf = memberOf;
   }
 
+  /** @return the display names of the groups in memberOf, or null if they were not resolved. */
+  public List<String> getMemberOfNames() {
+    return memberOfNames;
+  }
+
+  public void setMemberOfNames(List<String> memberOfNames) {
+    this.memberOfNames = memberOfNames;
+  }
+
+  public Set<String> getTransitiveMemberOf() {
+    return transitiveMemberOf;
+  }
+
+  public void setTransitiveMemberOf(Set<String> transitiveMemberOf) {
+    this.transitiveMemberOf = transitiveMemberOf;
+  }
+
   public Set<String> getLicenseIdsToAdd() {
+    if (licenseIdsToAdd == null) {
+      licenseIdsToAdd = new HashSet<>();
+    }
     return licenseIdsToAdd;
   }
 
@@ -73,6 +117,9 @@ public class MicrosoftGraphUser implements IdentityModel {
   }
 
   public Set<String> getLicenseIdsToRemove() {
+    if (licenseIdsToRemove == null) {
+      licenseIdsToRemove = new HashSet<>();
+    }
     return licenseIdsToRemove;
   }
 
@@ -81,6 +128,9 @@ public class MicrosoftGraphUser implements IdentityModel {
   }
 
   public Set<String> getGroupIdsToAdd() {
+    if (groupIdsToAdd == null) {
+      groupIdsToAdd = new HashSet<>();
+    }
     return groupIdsToAdd;
   }
 
@@ -89,6 +139,9 @@ public class MicrosoftGraphUser implements IdentityModel {
   }
 
   public Set<String> getGroupIdsToRemove() {
+    if (groupIdsToRemove == null) {
+      groupIdsToRemove = new HashSet<>();
+    }
     return groupIdsToRemove;
   }
 
@@ -0,0 +1,119 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.tracing;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * OpenTelemetry spans for connector operations, with a child span per Graph request made while the
+ * operation is current (see {@link MicrosoftGraphTracingInterceptor}). Spans go to whatever
+ * OpenTelemetry SDK or agent is installed globally; without one they are no-ops. Only created when
+ * enableTracing is true, so there is no cost at all otherwise.
+ */
+public class MicrosoftGraphTracing {
+
+  static final String INSTRUMENTATION_NAME = "com.exclamationlabs.connid.microsoft.graph";
+
+  static final AttributeKey<String> OBJECT_CLASS = AttributeKey.stringKey("connid.object_class");
+  static final AttributeKey<String> OPERATION = AttributeKey.stringKey("connid.operation");
+  static final AttributeKey<String> TENANT_ID = AttributeKey.stringKey("graph.tenant_id");
+
+  /** Per thread, the number of requests made to each endpoint by the current operation. */
+  private static final ThreadLocal<Map<String, Integer>> PAGES = new ThreadLocal<>();
+
+  private final Tracer tracer;
+  private final String tenantId;
+
+  public MicrosoftGraphTracing(String tenantId) {
+    this(GlobalOpenTelemetry.get(), tenantId);
+  }
+
+  public MicrosoftGraphTracing(OpenTelemetry openTelemetry, String tenantId) {
+    this.tracer = openTelemetry.getTracer(INSTRUMENTATION_NAME);
+    this.tenantId = tenantId;
+  }
+
+  Tracer getTracer() {
+    return tracer;
+  }
+
+  /**
+   * Starts a span for a connector operation and makes it current on this thread until {@link
+   * Operation#end()}. Operations started while another is current on the thread become its
+   * children.
+   */
+  public Operation startOperation(String objectClass, String operation) {
+    Span span =
+        tracer
+            .spanBuilder(objectClass + " " + operation)
+            .setSpanKind(SpanKind.INTERNAL)
+            .setAttribute(OBJECT_CLASS, objectClass)
+            .setAttribute(OPERATION, operation)
+            .setAttribute(TENANT_ID, tenantId)
+            .startSpan();
+    boolean outermost = PAGES.get() == null;
+    if (outermost) {
+      PAGES.set(new HashMap<>());
+    }
+    return new Operation(span, span.makeCurrent(), outermost);
+  }
+
+  /**
+   * @return 1 for the first request the current operation made to the endpoint, 2 for the second
+   *     (usually the next page) and so on, or 0 outside an operation. A retry gets the number of
+   *     the request it repeats.
+   */
+  static int page(String endpoint, boolean retry) {
+    Map<String, Integer> pages = PAGES.get();
+    if (pages == null) {
+      return 0;
+    }
+    return retry ? pages.getOrDefault(endpoint, 0) : pages.merge(endpoint, 1, Integer::sum);
+  }
+
+  public static final class Operation {
+
+    private final Span span;
+    private final Scope scope;
+    private final boolean outermost;
+
+    private Operation(Span span, Scope scope, boolean outermost) {
+      this.span = span;
+      this.scope = scope;
+      this.outermost = outermost;
+    }
+
+    public void recordFailure(Throwable failure) {
+      span.recordException(failure);
+      span.setStatus(StatusCode.ERROR, failure.getClass().getSimpleName());
+    }
+
+    public void end() {
+      scope.close();
+      if (outermost) {
+        PAGES.remove();
+      }
+      span.end();
+    }
+  }
+}
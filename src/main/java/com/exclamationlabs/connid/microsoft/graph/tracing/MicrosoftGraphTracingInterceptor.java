@@ -0,0 +1,114 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.tracing;
+
+import com.exclamationlabs.connid.microsoft.graph.metrics.MicrosoftGraphMetricsInterceptor;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Scope;
+import java.io.IOException;
+import java.util.UUID;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Creates a client span for every HTTP attempt made by the Graph client, as a child of the current
+ * operation span. The span records the client-request-id sent to Graph (set here if the SDK has not
+ * already set one) and the request-id Graph returns, which is what Microsoft support asks for when
+ * investigating a slow or failed request.
+ */
+public class MicrosoftGraphTracingInterceptor implements Interceptor {
+
+  static final String CLIENT_REQUEST_ID_HEADER = "client-request-id";
+  static final String REQUEST_ID_HEADER = "request-id";
+  static final String RETRY_ATTEMPT_HEADER = "Retry-Attempt";
+
+  static final AttributeKey<String> METHOD = AttributeKey.stringKey("http.request.method");
+  static final AttributeKey<String> URL_TEMPLATE = AttributeKey.stringKey("url.template");
+  static final AttributeKey<String> SERVER_ADDRESS = AttributeKey.stringKey("server.address");
+  static final AttributeKey<Long> STATUS_CODE = AttributeKey.longKey("http.response.status_code");
+  static final AttributeKey<Long> RESEND_COUNT = AttributeKey.longKey("http.request.resend_count");
+  static final AttributeKey<Long> PAGE_NUMBER = AttributeKey.longKey("graph.page_number");
+  static final AttributeKey<String> CLIENT_REQUEST_ID =
+      AttributeKey.stringKey("graph.client_request_id");
+  static final AttributeKey<String> REQUEST_ID = AttributeKey.stringKey("graph.request_id");
+
+  private final MicrosoftGraphTracing tracing;
+
+  public MicrosoftGraphTracingInterceptor(MicrosoftGraphTracing tracing) {
+    this.tracing = tracing;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    String clientRequestId = request.header(CLIENT_REQUEST_ID_HEADER);
+    if (clientRequestId == null) {
+      clientRequestId = UUID.randomUUID().toString();
+      request = request.newBuilder().header(CLIENT_REQUEST_ID_HEADER, clientRequestId).build();
+    }
+    String template = MicrosoftGraphMetricsInterceptor.endpoint(request.method(), request.url());
+    long resendCount = parseLong(request.header(RETRY_ATTEMPT_HEADER));
+
+    Span span =
+        tracing
+            .getTracer()
+            .spanBuilder(template)
+            .setSpanKind(SpanKind.CLIENT)
+            .setAttribute(METHOD, request.method())
+            .setAttribute(URL_TEMPLATE, template)
+            .setAttribute(SERVER_ADDRESS, request.url().host())
+            .setAttribute(CLIENT_REQUEST_ID, clientRequestId)
+            .startSpan();
+    if (resendCount > 0) {
+      span.setAttribute(RESEND_COUNT, resendCount);
+    }
+    int page = MicrosoftGraphTracing.page(template, resendCount > 0);
+    if (page > 0) {
+      span.setAttribute(PAGE_NUMBER, (long) page);
+    }
+    try (Scope scope = span.makeCurrent()) {
+      Response response = chain.proceed(request);
+      span.setAttribute(STATUS_CODE, (long) response.code());
+      String requestId = response.header(REQUEST_ID_HEADER);
+      if (requestId != null) {
+        span.setAttribute(REQUEST_ID, requestId);
+      }
+      if (response.code() >= 400) {
+        span.setStatus(StatusCode.ERROR);
+      }
+      return response;
+    } catch (IOException | RuntimeException e) {
+      span.recordException(e);
+      span.setStatus(StatusCode.ERROR, e.getClass().getSimpleName());
+      throw e;
+    } finally {
+      span.end();
+    }
+  }
+
+  private static long parseLong(String value) {
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,586 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph;
+
+import static com.exclamationlabs.connid.microsoft.graph.attribute.MicrosoftGraphUserAttribute.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.exclamationlabs.connid.base.connector.configuration.ConfigurationNameBuilder;
+import com.exclamationlabs.connid.base.connector.test.ApiIntegrationTest;
+import com.exclamationlabs.connid.base.microsoft.graph.configuration.MicrosoftGraphConfiguration;
+import com.exclamationlabs.connid.microsoft.graph.attribute.MicrosoftGraphGroupAttribute;
+import com.exclamationlabs.connid.microsoft.graph.attribute.MicrosoftGraphLicenseAttribute;
+import com.exclamationlabs.connid.microsoft.graph.authenticator.MicrosoftGraphAuthenticator;
+import com.exclamationlabs.connid.microsoft.graph.driver.sdk.MicrosoftGraphDriver;
+import com.exclamationlabs.connid.microsoft.graph.driver.sdk.MicrosoftGraphLicenseReassignment;
+import com.exclamationlabs.connid.microsoft.graph.metrics.MicrosoftGraphMetrics;
+import com.exclamationlabs.connid.microsoft.graph.standin.MicrosoftGraphStandIn;
+import com.exclamationlabs.connid.microsoft.graph.standin.MicrosoftGraphStandInDirectory;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.api.APIConfiguration;
+import org.identityconnectors.framework.common.objects.*;
+import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * End-to-end connector test against {@link MicrosoftGraphStandIn}, so it runs without an Azure
+ * tenant or credentials.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class MicrosoftGraphConnectorStandInTest
+    extends ApiIntegrationTest<MicrosoftGraphConfiguration, MicrosoftGraphConnector> {
+
+  private static final int USER_COUNT = 250;
+  private static final int GROUP_COUNT = 20;
+  private static final int LICENSE_COUNT = 3;
+
+  private static MicrosoftGraphStandIn standIn;
+
+  private static String generatedUserId;
+
+  @BeforeAll
+  public static void startStandIn() throws IOException {
+    standIn =
+        MicrosoftGraphStandIn.start(
+            MicrosoftGraphStandIn.options()
+                .users(USER_COUNT)
+                .groups(GROUP_COUNT)
+                .nestedGroups(1)
+                .licenses(LICENSE_COUNT));
+  }
+
+  @AfterAll
+  public static void stopStandIn() {
+    standIn.close();
+  }
+
+  @Override
+  protected MicrosoftGraphConfiguration getConfiguration() {
+    return new MicrosoftGraphConfiguration(
+        new ConfigurationNameBuilder().withConnector(() -> "MICROSOFT_GRAPH").build());
+  }
+
+  @Override
+  protected Class<MicrosoftGraphConnector> getConnectorClass() {
+    return MicrosoftGraphConnector.class;
+  }
+
+  @Override
+  protected void readConfiguration(MicrosoftGraphConfiguration configuration) {
+    standIn.applyTo(configuration);
+    // Fewer than USER_COUNT, so user listings are also read back from a spill file
+    configuration.setResultBufferMaxObjects(100);
+    configuration.setGroupDirectoryRefreshSeconds(900);
+    configuration.setEnableMetrics(true);
+  }
+
+  @Override
+  protected APIConfiguration apiConfig(MicrosoftGraphConfiguration configurationObject) {
+    APIConfiguration config = super.apiConfig(configurationObject);
+    config.getResultsHandlerConfiguration().setEnableFilteredResultsHandler(false);
+    config.getResultsHandlerConfiguration().setEnableNormalizingResultsHandler(false);
+    config.getResultsHandlerConfiguration().setEnableAttributesToGetSearchResultsHandler(false);
+    config.getResultsHandlerConfiguration().setFilteredResultsHandlerInValidationMode(false);
+    return config;
+  }
+
+  @BeforeEach
+  public void setup() {
+    super.setup();
+  }
+
+  @Test
+  @Order(100)
+  public void test100Test() {
+    getConnectorFacade().test();
+  }
+
+  @Test
+  @Order(110)
+  public void test110UsersGetAllPages() {
+    results = new ArrayList<>();
+    getConnectorFacade()
+        .search(new ObjectClass("user"), null, handler, new OperationOptionsBuilder().build());
+    assertEquals(USER_COUNT, results.size());
+  }
+
+  @Test
+  @Order(115)
+  public void test115UsersGetAllInheritedLicenses() {
+    results = new ArrayList<>();
+    getConnectorFacade()
+        .search(new ObjectClass("user"), null, handler, new OperationOptionsBuilder().build());
+    // User 0 is a member of group 0, which is assigned SKU 0
+    ConnectorObject user =
+        results.stream()
+            .filter(
+                result ->
+                    result.getUid().getUidValue().equals(MicrosoftGraphStandInDirectory.userId(0)))
+            .findFirst()
+            .orElseThrow(AssertionError::new);
+    assertEquals(
+        Collections.singletonList(
+            standIn.getDirectory().getTenantId() + "_" + MicrosoftGraphStandInDirectory.skuId(0)),
+        user.getAttributeByName(INHERITED_LICENSES.name()).getValue());
+    assertEquals(
+        Collections.singletonList(MicrosoftGraphStandInDirectory.groupId(0)),
+        user.getAttributeByName(INHERITED_LICENSE_GROUPS.name()).getValue());
+  }
+
+  @Test
+  @Order(120)
+  public void test120UserCreateWithAssociationsAndCheck() {
+    String groupId = MicrosoftGraphStandInDirectory.groupId(1);
+    String licenseId =
+        standIn.getDirectory().getTenantId() + "_" + MicrosoftGraphStandInDirectory.skuId(1);
+    Set<Attribute> attributes = new HashSet<>();
+    attributes.add(new AttributeBuilder().setName(Name.NAME).addValue("Stand In").build());
+    attributes.add(new AttributeBuilder().setName(GIVEN_NAME.name()).addValue("Stand").build());
+    attributes.add(new AttributeBuilder().setName(SURNAME.name()).addValue("In").build());
+    attributes.add(
+        new AttributeBuilder().setName(EMAIL_NICKNAME.name()).addValue("standin.new").build());
+    attributes.add(
+        new AttributeBuilder()
+            .setName(USER_PRINCIPAL_NAME.name())
+            .addValue("standin.new@standin.example.com")
+            .build());
+    attributes.add(new AttributeBuilder().setName(USAGE_LOCATION.name()).addValue("US").build());
+    attributes.add(
+        new AttributeBuilder()
+            .setName(PASSWORD.name())
+            .addValue(new GuardedString("D8weoIru#4".toCharArray()))
+            .build());
+    attributes.add(
+        new AttributeBuilder().setName(ASSIGNED_GROUPS.name()).addValue(groupId).build());
+    attributes.add(
+        new AttributeBuilder().setName(ASSIGNED_LICENSES.name()).addValue(licenseId).build());
+
+    Uid newId =
+        getConnectorFacade()
+            .create(new ObjectClass("user"), attributes, new OperationOptionsBuilder().build());
+    assertNotNull(newId);
+    generatedUserId = newId.getUidValue();
+
+    results = new ArrayList<>();
+    getConnectorFacade()
+        .search(
+            new ObjectClass("user"),
+            new EqualsFilter(
+                new AttributeBuilder().setName(Uid.NAME).addValue(generatedUserId).build()),
+            handler,
+            new OperationOptionsBuilder().build());
+    assertEquals(1, results.size());
+    assertEquals(
+        Collections.singletonList(groupId),
+        results.get(0).getAttributeByName(ASSIGNED_GROUPS.name()).getValue());
+    assertEquals(
+        Collections.singletonList(licenseId),
+        results.get(0).getAttributeByName(ASSIGNED_LICENSES.name()).getValue());
+  }
+
+  @Test
+  @Order(125)
+  public void test125UserTransitiveGroups() {
+    results = new ArrayList<>();
+    getConnectorFacade()
+        .search(
+            new ObjectClass("user"),
+            new EqualsFilter(
+                new AttributeBuilder().setName(Uid.NAME).addValue(generatedUserId).build()),
+            handler,
+            new OperationOptionsBuilder().build());
+    assertEquals(1, results.size());
+    // Not returned by default
+    assertNull(results.get(0).getAttributeByName(TRANSITIVE_GROUPS.name()));
+
+    results = new ArrayList<>();
+    getConnectorFacade()
+        .search(
+            new ObjectClass("user"),
+            new EqualsFilter(
+                new AttributeBuilder().setName(Uid.NAME).addValue(generatedUserId).build()),
+            handler,
+            new OperationOptionsBuilder()
+                .setAttributesToGet(Uid.NAME, TRANSITIVE_GROUPS.name())
+                .build());
+    assertEquals(1, results.size());
+    // Group 1 is nested in group 0
+    assertEquals(
+        new HashSet<>(
+            Arrays.asList(
+                MicrosoftGraphStandInDirectory.groupId(0),
+                MicrosoftGraphStandInDirectory.groupId(1))),
+        new HashSet<>(results.get(0).getAttributeByName(TRANSITIVE_GROUPS.name()).getValue()));
+  }
+
+  @Test
+  @Order(127)
+  public void test127UserAssignedGroupNames() {
+    results = new ArrayList<>();
+    getConnectorFacade()
+        .search(
+            new ObjectClass("user"),
+            new EqualsFilter(
+                new AttributeBuilder().setName(Uid.NAME).addValue(generatedUserId).build()),
+            handler,
+            new OperationOptionsBuilder().build());
+    assertEquals(1, results.size());
+    assertEquals(
+        Collections.singletonList("Stand-in Group 1"),
+        results.get(0).getAttributeByName(ASSIGNED_GROUP_NAMES.name()).getValue());
+  }
+
+  @Test
+  @Order(130)
+  public void test130UserModifyRemoveGroup() {
+    Set<AttributeDelta> deltas = new HashSet<>();
+    deltas.add(
+        new AttributeDeltaBuilder()
+            .setName(ASSIGNED_GROUPS.name())
+            .addValueToRemove(MicrosoftGraphStandInDirectory.groupId(1))
+            .build());
+    deltas.add(
+        new AttributeDeltaBuilder()
+            .setName(OFFICE_LOCATION.name())
+            .addValueToReplace("Stand-in Office")
+            .build());
+    getConnectorFacade()
+        .updateDelta(
+            new ObjectClass("user"),
+            new Uid(generatedUserId),
+            deltas,
+            new OperationOptionsBuilder().build());
+
+    assertTrue(standIn.getDirectory().memberOf(generatedUserId).isEmpty());
+    JsonObject user = standIn.getDirectory().user(generatedUserId);
+    assertEquals("Stand-in Office", user.get("officeLocation").getAsString());
+  }
+
+  @Test
+  @Order(140)
+  public void test140GroupsGet() {
+    results = new ArrayList<>();
+    getConnectorFacade()
+        .search(new ObjectClass("group"), null, handler, new OperationOptionsBuilder().build());
+    assertEquals(GROUP_COUNT, results.size());
+    long teams =
+        results.stream()
+            .filter(
+                group ->
+                    Boolean.TRUE.equals(
+                        group
+                            .getAttributeByName(MicrosoftGraphGroupAttribute.IS_MS_TEAM.name())
+                            .getValue()
+                            .get(0)))
+            .count();
+    assertEquals(GROUP_COUNT / 4, teams);
+  }
+
+  @Test
+  @Order(145)
+  public void test145GroupMembersGet() {
+    String groupId = MicrosoftGraphStandInDirectory.groupId(0);
+    results = new ArrayList<>();
+    getConnectorFacade()
+        .search(
+            new ObjectClass("group"),
+            new EqualsFilter(new AttributeBuilder().setName(Uid.NAME).addValue(groupId).build()),
+            handler,
+            new OperationOptionsBuilder().build());
+    assertEquals(1, results.size());
+    // Not returned by default
+    assertNull(results.get(0).getAttributeByName(MicrosoftGraphGroupAttribute.MEMBERS.name()));
+    assertNull(results.get(0).getAttributeByName(MicrosoftGraphGroupAttribute.OWNERS.name()));
+
+    results = new ArrayList<>();
+    getConnectorFacade()
+        .search(
+            new ObjectClass("group"),
+            new EqualsFilter(new AttributeBuilder().setName(Uid.NAME).addValue(groupId).build()),
+            handler,
+            new OperationOptionsBuilder()
+                .setAttributesToGet(
+                    Uid.NAME,
+                    MicrosoftGraphGroupAttribute.MEMBERS.name(),
+                    MicrosoftGraphGroupAttribute.OWNERS.name())
+                .build());
+    assertEquals(1, results.size());
+    Set<Object> expected = new HashSet<>();
+    standIn
+        .getDirectory()
+        .related(groupId, MicrosoftGraphStandInDirectory.MEMBERS)
+        .forEach(member -> expected.add(member.get("id").getAsString()));
+    assertTrue(expected.contains(MicrosoftGraphStandInDirectory.groupId(1)));
+    assertEquals(
+        expected,
+        new HashSet<>(
+            results
+                .get(0)
+                .getAttributeByName(MicrosoftGraphGroupAttribute.MEMBERS.name())
+                .getValue()));
+    assertEquals(
+        Collections.emptyList(),
+        results.get(0).getAttributeByName(MicrosoftGraphGroupAttribute.OWNERS.name()).getValue());
+  }
+
+  @Test
+  @Order(147)
+  public void test147GroupMembersReplace() {
+    String groupId = MicrosoftGraphStandInDirectory.groupId(2);
+    Set<String> desired =
+        new HashSet<>(
+            Arrays.asList(
+                MicrosoftGraphStandInDirectory.userId(0),
+                MicrosoftGraphStandInDirectory.userId(1)));
+    getConnectorFacade()
+        .update(
+            new ObjectClass("group"),
+            new Uid(groupId),
+            Collections.singleton(
+                AttributeBuilder.build(
+                    MicrosoftGraphGroupAttribute.MEMBERS.name(), new ArrayList<>(desired))),
+            new OperationOptionsBuilder().build());
+    Set<String> members = new HashSet<>();
+    standIn
+        .getDirectory()
+        .related(groupId, MicrosoftGraphStandInDirectory.MEMBERS)
+        .forEach(member -> members.add(member.get("id").getAsString()));
+    assertEquals(desired, members);
+  }
+
+  @Test
+  @Order(148)
+  public void test148GroupCreateWithMembersAndOwners() {
+    List<String> owners = Collections.singletonList(MicrosoftGraphStandInDirectory.userId(0));
+    List<String> members = new ArrayList<>();
+    for (int index = 0; index < 30; index++) {
+      members.add(MicrosoftGraphStandInDirectory.userId(index));
+    }
+    Set<Attribute> attributes = new HashSet<>();
+    attributes.add(new AttributeBuilder().setName(Name.NAME).addValue("Project Group").build());
+    attributes.add(
+        AttributeBuilder.build(MicrosoftGraphGroupAttribute.EMAIL_NICKNAME.name(), "project"));
+    attributes.add(
+        AttributeBuilder.build(MicrosoftGraphGroupAttribute.EMAIL_ENABLED.name(), false));
+    attributes.add(
+        AttributeBuilder.build(MicrosoftGraphGroupAttribute.SECURITY_ENABLED.name(), true));
+    attributes.add(AttributeBuilder.build(MicrosoftGraphGroupAttribute.OWNERS.name(), owners));
+    attributes.add(AttributeBuilder.build(MicrosoftGraphGroupAttribute.MEMBERS.name(), members));
+
+    standIn.resetCounters();
+    Uid groupId =
+        getConnectorFacade()
+            .create(new ObjectClass("group"), attributes, new OperationOptionsBuilder().build());
+    // The create request binds the owner and 19 members, one PATCH binds the other 11
+    assertEquals(2, standIn.getRequestCount());
+
+    Set<String> created = new HashSet<>();
+    standIn
+        .getDirectory()
+        .related(groupId.getUidValue(), MicrosoftGraphStandInDirectory.MEMBERS)
+        .forEach(member -> created.add(member.get("id").getAsString()));
+    assertEquals(new HashSet<>(members), created);
+    assertEquals(
+        owners.get(0),
+        standIn
+            .getDirectory()
+            .related(groupId.getUidValue(), MicrosoftGraphStandInDirectory.OWNERS)
+            .get(0)
+            .get("id")
+            .getAsString());
+  }
+
+  @Test
+  @Order(150)
+  public void test150LicensesGet() {
+    results = new ArrayList<>();
+    getConnectorFacade()
+        .search(new ObjectClass("license"), null, handler, new OperationOptionsBuilder().build());
+    assertEquals(LICENSE_COUNT, results.size());
+  }
+
+  @Test
+  @Order(155)
+  public void test155LicenseHolders() {
+    String licenseId =
+        standIn.getDirectory().getTenantId() + "_" + MicrosoftGraphStandInDirectory.skuId(2);
+    results = new ArrayList<>();
+    getConnectorFacade()
+        .search(
+            new ObjectClass("license"),
+            new EqualsFilter(new AttributeBuilder().setName(Uid.NAME).addValue(licenseId).build()),
+            handler,
+            new OperationOptionsBuilder().build());
+    assertEquals(1, results.size());
+    // Not returned by default
+    assertNull(results.get(0).getAttributeByName(MicrosoftGraphLicenseAttribute.HOLDERS.name()));
+
+    results = new ArrayList<>();
+    getConnectorFacade()
+        .search(
+            new ObjectClass("license"),
+            new EqualsFilter(new AttributeBuilder().setName(Uid.NAME).addValue(licenseId).build()),
+            handler,
+            new OperationOptionsBuilder()
+                .setAttributesToGet(Uid.NAME, MicrosoftGraphLicenseAttribute.HOLDERS.name())
+                .build());
+    assertEquals(1, results.size());
+    Set<Object> holders =
+        new HashSet<>(
+            results
+                .get(0)
+                .getAttributeByName(MicrosoftGraphLicenseAttribute.HOLDERS.name())
+                .getValue());
+    assertFalse(holders.isEmpty());
+
+    results = new ArrayList<>();
+    getConnectorFacade()
+        .search(
+            new ObjectClass("user"),
+            new EqualsFilter(
+                new AttributeBuilder()
+                    .setName(ASSIGNED_LICENSES.name())
+                    .addValue(licenseId)
+                    .build()),
+            handler,
+            new OperationOptionsBuilder().build());
+    Set<Object> users = new HashSet<>();
+    results.forEach(user -> users.add(user.getUid().getUidValue()));
+    assertEquals(holders, users);
+
+    // Only users assigned the license directly match, not those holding it through a group
+    String inheritedLicenseId =
+        standIn.getDirectory().getTenantId() + "_" + MicrosoftGraphStandInDirectory.skuId(0);
+    results = new ArrayList<>();
+    getConnectorFacade()
+        .search(
+            new ObjectClass("user"),
+            new EqualsFilter(
+                new AttributeBuilder()
+                    .setName(ASSIGNED_LICENSES.name())
+                    .addValue(inheritedLicenseId)
+                    .build()),
+            handler,
+            new OperationOptionsBuilder().build());
+    assertFalse(results.isEmpty());
+    results.forEach(
+        user ->
+            assertTrue(
+                user.getAttributeByName(ASSIGNED_LICENSES.name())
+                    .getValue()
+                    .contains(inheritedLicenseId)));
+  }
+
+  @Test
+  @Order(156)
+  public void test156LicenseReassignment(@TempDir Path directory) {
+    String tenantId = standIn.getDirectory().getTenantId();
+    List<String> userIds = new ArrayList<>();
+    for (int index = 200; index < 240; index++) {
+      userIds.add(MicrosoftGraphStandInDirectory.userId(index));
+    }
+    MicrosoftGraphConfiguration configuration = getConfiguration();
+    readConfiguration(configuration);
+    MicrosoftGraphDriver driver = new MicrosoftGraphDriver();
+    driver.initialize(configuration, new MicrosoftGraphAuthenticator());
+    try {
+      MicrosoftGraphLicenseReassignment reassignment =
+          new MicrosoftGraphLicenseReassignment(
+                  driver,
+                  List.of(tenantId + "_" + MicrosoftGraphStandInDirectory.skuId(1)),
+                  List.of(tenantId + "_" + MicrosoftGraphStandInDirectory.skuId(0)))
+              .checkpoint(directory.resolve("checkpoint"));
+      standIn.resetCounters();
+      Map<String, MicrosoftGraphLicenseReassignment.Outcome> outcomes =
+          reassignment.run(userIds.subList(0, 30));
+      assertEquals(30, outcomes.size());
+      assertTrue(
+          outcomes.values().stream()
+              .allMatch(MicrosoftGraphLicenseReassignment.Outcome.ASSIGNED::equals));
+      // Capacity check (subscribedSkus and holders) and two $batch requests
+      assertTrue(standIn.getRequestCount() <= 4);
+
+      // Resumes from the checkpoint
+      outcomes = reassignment.run(userIds);
+      assertEquals(
+          MicrosoftGraphLicenseReassignment.Outcome.CHECKPOINTED, outcomes.get(userIds.get(0)));
+      assertEquals(
+          MicrosoftGraphLicenseReassignment.Outcome.ASSIGNED, outcomes.get(userIds.get(39)));
+      for (String userId : userIds) {
+        Set<String> direct = new HashSet<>();
+        standIn
+            .getDirectory()
+            .user(userId)
+            .getAsJsonArray("licenseAssignmentStates")
+            .forEach(
+                state -> {
+                  if (state.getAsJsonObject().get("assignedByGroup").isJsonNull()) {
+                    direct.add(state.getAsJsonObject().get("skuId").getAsString());
+                  }
+                });
+        assertTrue(direct.contains(MicrosoftGraphStandInDirectory.skuId(1)));
+        assertFalse(direct.contains(MicrosoftGraphStandInDirectory.skuId(0)));
+      }
+    } finally {
+      driver.close();
+    }
+  }
+
+  @Test
+  @Order(160)
+  public void test160UsersGetAllWhileThrottled() {
+    MicrosoftGraphMetrics metrics =
+        MicrosoftGraphMetrics.forTenant(standIn.getDirectory().getTenantId());
+    standIn.resetCounters();
+    metrics.reset();
+    standIn.setThrottleEveryNthRequest(3);
+    try {
+      results = new ArrayList<>();
+      getConnectorFacade()
+          .search(new ObjectClass("user"), null, handler, new OperationOptionsBuilder().build());
+      assertEquals(USER_COUNT + 1, results.size());
+      assertTrue(standIn.getThrottledCount() > 0);
+
+      assertEquals(standIn.getThrottledCount(), metrics.getThrottledCount());
+      assertTrue(metrics.getRetryCount() > 0);
+      assertTrue(
+          metrics.getEndpoints().stream()
+              .anyMatch(
+                  endpoint ->
+                      "user".equals(endpoint.getObjectClass())
+                          && "search".equals(endpoint.getOperation())
+                          && "GET /users".equals(endpoint.getEndpoint())
+                          && endpoint.getThrottled() > 0));
+    } finally {
+      standIn.setThrottleEveryNthRequest(0);
+      MicrosoftGraphMetrics.release(standIn.getDirectory().getTenantId());
+    }
+  }
+
+  @Test
+  @Order(170)
+  public void test170UserDelete() {
+    getConnectorFacade()
+        .delete(
+            new ObjectClass("user"),
+            new Uid(generatedUserId),
+            new OperationOptionsBuilder().build());
+    assertNull(standIn.getDirectory().user(generatedUserId));
+  }
+}
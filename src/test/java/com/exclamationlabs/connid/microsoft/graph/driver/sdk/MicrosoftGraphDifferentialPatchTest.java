@@ -0,0 +1,107 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class MicrosoftGraphDifferentialPatchTest {
+
+  private static JsonObject json(String text) {
+    return JsonParser.parseString(text).getAsJsonObject();
+  }
+
+  @Test
+  public void unchangedPropertiesAreLeftOut() {
+    JsonObject changes =
+        MicrosoftGraphDifferentialPatch.difference(
+            json("{\"displayName\":\"Same\",\"jobTitle\":\"New\"}"),
+            json("{\"displayName\":\"Same\",\"jobTitle\":\"Old\"}"));
+    assertEquals(json("{\"jobTitle\":\"New\"}"), changes);
+  }
+
+  @Test
+  public void multiValuedPropertiesIgnoreOrder() {
+    assertEquals(
+        0,
+        MicrosoftGraphDifferentialPatch.difference(
+                json("{\"businessPhones\":[\"1\",\"2\"]}"),
+                json("{\"businessPhones\":[\"2\",\"1\"]}"))
+            .size());
+    assertEquals(
+        1,
+        MicrosoftGraphDifferentialPatch.difference(
+                json("{\"businessPhones\":[\"1\",\"1\"]}"), json("{\"businessPhones\":[\"1\"]}"))
+            .size());
+  }
+
+  @Test
+  public void emptyMatchesMissing() {
+    assertEquals(
+        0,
+        MicrosoftGraphDifferentialPatch.difference(
+                json("{\"businessPhones\":[],\"mobilePhone\":null}"), json("{}"))
+            .size());
+  }
+
+  @Test
+  public void datesCompareAsInstants() {
+    assertEquals(
+        0,
+        MicrosoftGraphDifferentialPatch.difference(
+                json("{\"employeeHireDate\":\"2020-01-01T01:00:00+01:00\"}"),
+                json("{\"employeeHireDate\":\"2020-01-01T00:00:00Z\"}"))
+            .size());
+  }
+
+  @Test
+  public void complexValuesAreSentWholeWhenAnyPartDiffers() {
+    JsonObject requested =
+        json("{\"onPremisesExtensionAttributes\":{\"extensionAttribute1\":\"a\"}}");
+    assertEquals(
+        0,
+        MicrosoftGraphDifferentialPatch.difference(
+                requested,
+                json(
+                    "{\"onPremisesExtensionAttributes\":"
+                        + "{\"extensionAttribute1\":\"a\",\"extensionAttribute2\":\"b\"}}"))
+            .size());
+    assertEquals(
+        requested,
+        MicrosoftGraphDifferentialPatch.difference(
+            requested,
+            json("{\"onPremisesExtensionAttributes\":{\"extensionAttribute1\":\"c\"}}")));
+  }
+
+  @Test
+  public void writeOnlyPropertiesAreAlwaysSentButNeverRead() {
+    JsonObject requested =
+        json("{\"passwordProfile\":{\"password\":\"p\"},\"displayName\":\"Same\"}");
+    assertEquals("displayName", MicrosoftGraphDifferentialPatch.selectFor(requested));
+    assertEquals(
+        Set.of("passwordProfile"),
+        MicrosoftGraphDifferentialPatch.difference(requested, json("{\"displayName\":\"Same\"}"))
+            .keySet());
+  }
+
+  @Test
+  public void everythingIsSentWithoutCurrentState() {
+    JsonObject requested = json("{\"displayName\":\"Name\"}");
+    assertEquals(requested, MicrosoftGraphDifferentialPatch.difference(requested, null));
+  }
+}
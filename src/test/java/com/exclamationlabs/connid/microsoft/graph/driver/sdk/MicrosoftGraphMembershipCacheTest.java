@@ -0,0 +1,121 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.microsoft.graph.http.GraphError;
+import com.microsoft.graph.http.GraphErrorResponse;
+import com.microsoft.graph.http.GraphServiceException;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class MicrosoftGraphMembershipCacheTest {
+
+  @Test
+  public void membershipIsKnownFromEitherListing() {
+    MicrosoftGraphMembershipCache cache = new MicrosoftGraphMembershipCache(60000);
+    assertNull(cache.isMember("u1", "g1"));
+
+    cache.recordMemberOf("u1", List.of("g1"));
+    assertTrue(cache.isMember("u1", "g1"));
+    assertFalse(cache.isMember("u1", "g2"));
+
+    cache.recordMembers("g3", List.of("u2"));
+    assertTrue(cache.isMember("u2", "g3"));
+    assertFalse(cache.isMember("u3", "g3"));
+    assertNull(cache.isMember("u3", "g4"));
+  }
+
+  @Test
+  public void changesAreRecorded() {
+    MicrosoftGraphMembershipCache cache = new MicrosoftGraphMembershipCache(60000);
+    cache.recordMemberOf("u1", Collections.emptyList());
+    cache.recordMembers("g1", Collections.emptyList());
+
+    cache.memberAdded("u1", "g1");
+    assertTrue(cache.isMember("u1", "g1"));
+    cache.invalidateUser("u1");
+    assertTrue(cache.isMember("u1", "g1"));
+
+    cache.memberRemoved("u1", "g1");
+    assertFalse(cache.isMember("u1", "g1"));
+    cache.invalidateGroup("g1");
+    assertNull(cache.isMember("u1", "g1"));
+  }
+
+  @Test
+  public void expiredListingsAreUnknown() throws InterruptedException {
+    MicrosoftGraphMembershipCache cache = new MicrosoftGraphMembershipCache(1);
+    cache.recordMemberOf("u1", List.of("g1"));
+    Thread.sleep(5);
+    assertNull(cache.isMember("u1", "g1"));
+  }
+
+  @Test
+  public void onlyAMissingMemberReferenceIsNotAMember() {
+    assertTrue(
+        MicrosoftGraphMemberChanges.isNotMember(
+            notFound("Resource 'u1' does not exist or one of its queried reference-property"),
+            "g1",
+            "u1"));
+    assertFalse(
+        MicrosoftGraphMemberChanges.isNotMember(
+            notFound("Resource 'g1' does not exist or one of its queried reference-property"),
+            "g1",
+            "u1"));
+    assertFalse(MicrosoftGraphMemberChanges.isNotMember(notFound(null), "g1", "u1"));
+  }
+
+  @Test
+  public void batchStepsNamingTheGroupAreNotANonMember() {
+    JsonElement memberMissing =
+        JsonParser.parseString(
+            "{\"error\":{\"code\":\"Request_ResourceNotFound\","
+                + "\"message\":\"Resource 'u1' does not exist.\"}}");
+    JsonElement groupMissing =
+        JsonParser.parseString(
+            "{\"error\":{\"code\":\"Request_ResourceNotFound\","
+                + "\"message\":\"Resource 'g1' does not exist.\"}}");
+    assertTrue(
+        MicrosoftGraphMemberChanges.isNotMember(
+            404, MicrosoftGraphMemberChanges.errorMessage(memberMissing), "g1", "u1"));
+    assertFalse(
+        MicrosoftGraphMemberChanges.isNotMember(
+            404, MicrosoftGraphMemberChanges.errorMessage(groupMissing), "g1", "u1"));
+    assertFalse(
+        MicrosoftGraphMemberChanges.isNotMember(
+            404, MicrosoftGraphMemberChanges.errorMessage(null), "g1", "u1"));
+  }
+
+  private static GraphServiceException notFound(String message) {
+    GraphErrorResponse response = new GraphErrorResponse();
+    response.error = new GraphError();
+    response.error.code = "Request_ResourceNotFound";
+    response.error.message = message;
+    return new GraphServiceException(
+        "DELETE",
+        "https://graph.microsoft.com/v1.0/groups/g1/members/u1/$ref",
+        Collections.emptyList(),
+        null,
+        404,
+        "Not Found",
+        Collections.emptyList(),
+        response,
+        false) {};
+  }
+}
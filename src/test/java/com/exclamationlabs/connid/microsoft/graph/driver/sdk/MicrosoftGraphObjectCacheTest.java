@@ -0,0 +1,74 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class MicrosoftGraphObjectCacheTest {
+
+  private static void read(MicrosoftGraphObjectCache<String> cache, String id, String value) {
+    cache.put(id, value, cache.startRead());
+  }
+
+  @Test
+  public void readsAreAnsweredUntilTheyExpire() throws InterruptedException {
+    MicrosoftGraphObjectCache<String> cache = new MicrosoftGraphObjectCache<>(100, 10);
+    read(cache, "a", "object a");
+    assertEquals("object a", cache.get("a").getValue());
+    Thread.sleep(200);
+    assertNull(cache.get("a"));
+  }
+
+  @Test
+  public void objectsNotFoundAreRecorded() {
+    MicrosoftGraphObjectCache<String> cache = new MicrosoftGraphObjectCache<>(60000, 10);
+    assertNull(cache.get("missing"));
+    read(cache, "missing", null);
+    assertNotNull(cache.get("missing"));
+    assertNull(cache.get("missing").getValue());
+  }
+
+  @Test
+  public void readsStartedBeforeAnInvalidationAreNotRecorded() {
+    MicrosoftGraphObjectCache<String> cache = new MicrosoftGraphObjectCache<>(60000, 10);
+    read(cache, "a", "object a");
+    long readToken = cache.startRead();
+    cache.invalidate("a");
+    assertNull(cache.get("a"));
+    cache.put("a", "object a before the update", readToken);
+    assertNull(cache.get("a"));
+
+    readToken = cache.startRead();
+    cache.clear();
+    cache.put("b", "object b before the clear", readToken);
+    assertNull(cache.get("b"));
+
+    read(cache, "a", "object a after the update");
+    assertEquals("object a after the update", cache.get("a").getValue());
+  }
+
+  @Test
+  public void leastRecentlyReadEntriesAreEvicted() {
+    MicrosoftGraphObjectCache<String> cache = new MicrosoftGraphObjectCache<>(60000, 2);
+    read(cache, "a", "object a");
+    read(cache, "b", "object b");
+    cache.get("a");
+    read(cache, "c", "object c");
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("c"));
+  }
+}
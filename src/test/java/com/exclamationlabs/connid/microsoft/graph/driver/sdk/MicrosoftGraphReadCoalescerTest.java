@@ -0,0 +1,111 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class MicrosoftGraphReadCoalescerTest {
+
+  private final ExecutorService callers = Executors.newFixedThreadPool(4);
+  private final List<Collection<String>> bulkReads = new ArrayList<>();
+
+  @AfterEach
+  public void shutdown() {
+    callers.shutdownNow();
+  }
+
+  private Function<Collection<String>, Map<String, String>> bulkRead() {
+    return ids -> {
+      synchronized (bulkReads) {
+        bulkReads.add(new ArrayList<>(ids));
+      }
+      Map<String, String> found = new HashMap<>();
+      ids.stream()
+          .filter(id -> !id.startsWith("missing"))
+          .forEach(id -> found.put(id, "read " + id));
+      return found;
+    };
+  }
+
+  private List<String> getAll(MicrosoftGraphReadCoalescer<String> coalescer, String... ids)
+      throws Exception {
+    List<Future<String>> futures = new ArrayList<>();
+    for (String id : ids) {
+      futures.add(callers.submit(() -> coalescer.get(id)));
+    }
+    List<String> objects = new ArrayList<>();
+    for (Future<String> future : futures) {
+      objects.add(future.get(10, TimeUnit.SECONDS));
+    }
+    return objects;
+  }
+
+  @Test
+  public void readsWithinTheWindowShareOneBulkRead() throws Exception {
+    MicrosoftGraphReadCoalescer<String> coalescer =
+        new MicrosoftGraphReadCoalescer<>("user", 500, 20, bulkRead());
+    assertEquals(List.of("read a", "read b", "read c"), getAll(coalescer, "a", "b", "c"));
+    assertEquals(1, bulkReads.size());
+    assertEquals(3, bulkReads.get(0).size());
+  }
+
+  @Test
+  public void fullBatchIsReadWithoutWaitingForTheWindow() throws Exception {
+    MicrosoftGraphReadCoalescer<String> coalescer =
+        new MicrosoftGraphReadCoalescer<>("user", 60000, 2, bulkRead());
+    long start = System.nanoTime();
+    assertEquals(List.of("read a", "read b"), getAll(coalescer, "a", "b"));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    assertEquals(1, bulkReads.size());
+  }
+
+  @Test
+  public void idsNotFoundAreAnsweredWithNull() throws Exception {
+    MicrosoftGraphReadCoalescer<String> coalescer =
+        new MicrosoftGraphReadCoalescer<>("user", 200, 20, bulkRead());
+    assertEquals(List.of("read a", "null"), stringify(getAll(coalescer, "a", "missing")));
+  }
+
+  @Test
+  public void failedBulkReadAnswersEveryIdWithNull() throws Exception {
+    MicrosoftGraphReadCoalescer<String> coalescer =
+        new MicrosoftGraphReadCoalescer<>(
+            "user",
+            200,
+            20,
+            ids -> {
+              throw new IllegalStateException("bulk read failed");
+            });
+    assertEquals(List.of("null", "null"), stringify(getAll(coalescer, "a", "b")));
+  }
+
+  private static List<String> stringify(List<String> objects) {
+    List<String> strings = new ArrayList<>();
+    objects.forEach(object -> strings.add(String.valueOf(object)));
+    return strings;
+  }
+}
@@ -0,0 +1,92 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.junit.jupiter.api.Test;
+
+public class MicrosoftGraphResultBufferTest {
+
+  private static final MicrosoftGraphResultBuffer.Codec<String> CODEC =
+      new MicrosoftGraphResultBuffer.Codec<>() {
+        @Override
+        public long estimatedSize(String model) {
+          return model.length();
+        }
+
+        @Override
+        public void write(String model, JsonWriter writer) throws IOException {
+          writer.value(model);
+        }
+
+        @Override
+        public String read(JsonReader reader) throws IOException {
+          return reader.nextString();
+        }
+      };
+
+  private static MicrosoftGraphResultBuffer<String> buffer(int count, int maxObjects) {
+    MicrosoftGraphResultBuffer<String> buffer =
+        new MicrosoftGraphResultBuffer<>(CODEC, maxObjects, 0);
+    for (int index = 0; index < count; index++) {
+      buffer.add("object " + index);
+    }
+    return buffer;
+  }
+
+  @Test
+  public void smallResultsStayInMemory() {
+    try (MicrosoftGraphResultBuffer<String> buffer = buffer(5, 10)) {
+      assertFalse(buffer.isSpilled());
+      assertEquals(
+          List.of("object 0", "object 1", "object 2", "object 3", "object 4"), list(buffer));
+    }
+  }
+
+  @Test
+  public void spilledResultsCanBeIteratedAgain() {
+    try (MicrosoftGraphResultBuffer<String> buffer = buffer(25, 10)) {
+      assertTrue(buffer.isSpilled());
+      List<String> first = list(buffer);
+      assertEquals(25, first.size());
+      assertEquals("object 24", first.get(24));
+      assertEquals(first, list(buffer));
+      assertTrue(buffer.contains("object 12"));
+      assertFalse(buffer.contains("object 25"));
+      assertEquals(Set.copyOf(first), buffer);
+    }
+  }
+
+  @Test
+  public void closedResultsCannotBeIterated() {
+    MicrosoftGraphResultBuffer<String> buffer = buffer(25, 10);
+    list(buffer);
+    buffer.close();
+    assertThrows(ConnectorException.class, buffer::iterator);
+  }
+
+  private static List<String> list(Iterable<String> buffer) {
+    List<String> objects = new ArrayList<>();
+    buffer.forEach(objects::add);
+    return objects;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.driver.sdk;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.exclamationlabs.connid.microsoft.graph.model.MicrosoftGraphUser;
+import com.microsoft.graph.models.PasswordProfile;
+import com.microsoft.graph.models.User;
+import java.util.ArrayList;
+import java.util.Set;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.junit.jupiter.api.Test;
+
+public class MicrosoftGraphWriteCoalescerTest {
+
+  @Test
+  public void mergeKeepsLaterProperties() {
+    User first = new User();
+    first.displayName = "First";
+    first.officeLocation = "Office";
+    first.passwordProfile = new PasswordProfile();
+    first.passwordProfile.password = "secret";
+    User second = new User();
+    second.displayName = "Second";
+    second.passwordProfile = new PasswordProfile();
+    second.passwordProfile.forceChangePasswordNextSignIn = true;
+
+    MicrosoftGraphUser target = new MicrosoftGraphUser(first);
+    MicrosoftGraphWriteCoalescer.merge(target, new MicrosoftGraphUser(second));
+
+    assertEquals("Second", target.getGraphUser().displayName);
+    assertEquals("Office", target.getGraphUser().officeLocation);
+    assertEquals("secret", target.getGraphUser().passwordProfile.password);
+    assertTrue(target.getGraphUser().passwordProfile.forceChangePasswordNextSignIn);
+  }
+
+  @Test
+  public void mergeKeepsLastGroupChange() {
+    MicrosoftGraphUser target = new MicrosoftGraphUser(new User());
+    target.getGroupIdsToRemove().add("g1");
+    target.getGroupIdsToAdd().add("g2");
+    MicrosoftGraphUser next = new MicrosoftGraphUser(new User());
+    next.getGroupIdsToAdd().add("g1");
+    next.getGroupIdsToRemove().add("g2");
+
+    MicrosoftGraphWriteCoalescer.merge(target, next);
+
+    assertEquals(Set.of("g1"), target.getGroupIdsToAdd());
+    assertEquals(Set.of("g2"), target.getGroupIdsToRemove());
+  }
+
+  @Test
+  public void mergeKeepsLastLicenseChange() {
+    MicrosoftGraphUser target = new MicrosoftGraphUser(new User());
+    target.getLicenseIdsToAdd().add("l1");
+    MicrosoftGraphUser removed = new MicrosoftGraphUser(new User());
+    removed.getLicenseIdsToRemove().add("l1");
+    MicrosoftGraphUser added = new MicrosoftGraphUser(new User());
+    added.getLicenseIdsToAdd().add("l1");
+
+    MicrosoftGraphWriteCoalescer.merge(target, removed);
+    assertEquals(Set.of(), target.getLicenseIdsToAdd());
+    assertEquals(Set.of("l1"), target.getLicenseIdsToRemove());
+
+    MicrosoftGraphWriteCoalescer.merge(target, added);
+    assertEquals(Set.of("l1"), target.getLicenseIdsToAdd());
+    assertEquals(Set.of(), target.getLicenseIdsToRemove());
+  }
+
+  @Test
+  public void deferredFailureIsThrownByNextFlush() {
+    ArrayList<String> applied = new ArrayList<>();
+    MicrosoftGraphUsersInvocator invocator =
+        new MicrosoftGraphUsersInvocator() {
+          @Override
+          void applyUpdate(MicrosoftGraphDriver driver, String id, MicrosoftGraphUser user) {
+            applied.add(id);
+            if ("broken".equals(id)) {
+              throw new ConnectorException("Rejected by Graph");
+            }
+          }
+        };
+    MicrosoftGraphWriteCoalescer coalescer =
+        new MicrosoftGraphWriteCoalescer(null, invocator, 60000);
+    try {
+      coalescer.submit("broken", new MicrosoftGraphUser(new User()));
+      coalescer.submit("fine", new MicrosoftGraphUser(new User()));
+      // As when the window ends
+      coalescer.flushAll();
+      assertEquals(2, applied.size());
+
+      coalescer.flush("fine");
+      ConnectorException failure =
+          assertThrows(ConnectorException.class, () -> coalescer.flush("broken"));
+      assertEquals("Rejected by Graph", failure.getCause().getMessage());
+      // Reported once
+      coalescer.flush("broken");
+
+      coalescer.submit("broken", new MicrosoftGraphUser(new User()));
+      coalescer.flushAll();
+      assertThrows(
+          ConnectorException.class,
+          () -> coalescer.submit("broken", new MicrosoftGraphUser(new User())));
+    } finally {
+      coalescer.close();
+    }
+  }
+}
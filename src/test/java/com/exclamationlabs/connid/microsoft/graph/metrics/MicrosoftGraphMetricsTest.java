@@ -0,0 +1,82 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.metrics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+
+public class MicrosoftGraphMetricsTest {
+
+  private static String scopeOf(MicrosoftGraphMetrics metrics, String endpoint) {
+    return metrics.getEndpoints().stream()
+        .filter(endpointMetrics -> endpoint.equals(endpointMetrics.getEndpoint()))
+        .map(
+            endpointMetrics ->
+                endpointMetrics.getObjectClass() + " " + endpointMetrics.getOperation())
+        .findFirst()
+        .orElse(null);
+  }
+
+  @Test
+  public void propagatedTasksKeepTheCallersScope() throws Exception {
+    MicrosoftGraphMetrics metrics = MicrosoftGraphMetrics.forTenant("metrics-test");
+    metrics.reset();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (MicrosoftGraphMetrics.Scope scope = MicrosoftGraphMetrics.enter("user", "get")) {
+      Callable<Void> propagated =
+          MicrosoftGraphMetrics.propagate(
+              () -> {
+                metrics.recordRequest("GET /propagated", 200, false, 1000);
+                return null;
+              });
+      Callable<Void> plain =
+          () -> {
+            metrics.recordRequest("GET /plain", 200, false, 1000);
+            return null;
+          };
+      executor.submit(propagated).get();
+      executor.submit(plain).get();
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals("user get", scopeOf(metrics, "GET /propagated"));
+    assertEquals(
+        MicrosoftGraphMetrics.UNSCOPED + " " + MicrosoftGraphMetrics.UNSCOPED,
+        scopeOf(metrics, "GET /plain"));
+    MicrosoftGraphMetrics.release("metrics-test");
+  }
+
+  @Test
+  public void beanIsUnregisteredWhenTheLastHolderReleases() throws Exception {
+    MicrosoftGraphMetrics first = MicrosoftGraphMetrics.forTenant("release-test");
+    MicrosoftGraphMetrics second = MicrosoftGraphMetrics.forTenant("release-test");
+    assertSame(first, second);
+    assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(first.objectName()));
+
+    MicrosoftGraphMetrics.release("release-test");
+    assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(first.objectName()));
+
+    MicrosoftGraphMetrics.release("release-test");
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(first.objectName()));
+    MicrosoftGraphMetrics third = MicrosoftGraphMetrics.forTenant("release-test");
+    assertNotSame(first, third);
+    assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(third.objectName()));
+    MicrosoftGraphMetrics.release("release-test");
+  }
+}
@@ -0,0 +1,49 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class MicrosoftGraphCanonicalValuesTest {
+
+  @Test
+  public void repeatedValuesShareOneInstance() {
+    String first = new String("Engineering");
+    String second = new String("Engineering");
+    assertSame(first, MicrosoftGraphCanonicalValues.canonical(first));
+    assertSame(first, MicrosoftGraphCanonicalValues.canonical(second));
+  }
+
+  @Test
+  public void longValuesAndNullAreReturnedAsIs() {
+    String longValue = "x".repeat(MicrosoftGraphCanonicalValues.MAX_LENGTH + 1);
+    MicrosoftGraphCanonicalValues.canonical(longValue);
+    String copy = new String(longValue);
+    assertSame(copy, MicrosoftGraphCanonicalValues.canonical(copy));
+    assertNull(MicrosoftGraphCanonicalValues.canonical(null));
+  }
+
+  @Test
+  public void valuesSharingASlotAreNeverMixedUp() {
+    // "Aa" and "BB" have the same hash code, so they compete for one slot
+    String first = MicrosoftGraphCanonicalValues.canonical(new String("Aa"));
+    assertEquals("BB", MicrosoftGraphCanonicalValues.canonical(new String("BB")));
+    // The slot was taken over, so a new instance of the first value is recorded in turn
+    String again = new String("Aa");
+    assertSame(again, MicrosoftGraphCanonicalValues.canonical(again));
+    assertNotSame(first, MicrosoftGraphCanonicalValues.canonical(new String("Aa")));
+  }
+}
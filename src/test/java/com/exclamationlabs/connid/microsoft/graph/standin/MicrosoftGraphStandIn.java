@@ -0,0 +1,945 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.standin;
+
+import com.exclamationlabs.connid.base.microsoft.graph.configuration.MicrosoftGraphConfiguration;
+import com.exclamationlabs.connid.microsoft.graph.standin.MicrosoftGraphStandInDirectory.GraphError;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.identityconnectors.common.security.GuardedString;
+
+/**
+ * Embeddable HTTP stand-in for the Microsoft Graph v1.0 endpoints used by this connector, so that
+ * end-to-end and throughput tests run without an Azure tenant. Point the connector at it with the
+ * graphServiceUrl configuration property set to {@link #getServiceUrl()}; the Graph SDK does not
+ * request tokens for hosts other than the official Graph hosts.
+ *
+ * <p>Implemented: /admin, /users, /users/{id}, /users/{id}/memberOf,
+ * /users/{id}/transitiveMemberOf, /users/{id}/assignLicense, /users/delta, /groups, /groups/{id}
+ * (including members@odata.bind and owners@odata.bind), /groups/{id}/members, /groups/{id}/owners,
+ * /groups/{id}/transitiveMembers, member and owner $ref add/remove, /groups/{id}/assignLicense,
+ * /groups/delta (with members@delta when members is selected), /teams/{id}, /subscribedSkus,
+ * /directoryObjects/getByIds and /$batch. Collections support $top, $skiptoken, $select, $count and
+ * simple $filter expressions (eq, startswith and assignedLicenses/any). As in Graph, $count is only
+ * accepted with the ConsistencyLevel: eventual header.
+ */
+public class MicrosoftGraphStandIn implements AutoCloseable {
+
+  public static final String API_VERSION = "v1.0";
+
+  static final int MAX_BATCH_REQUESTS = 20;
+
+  static final int MAX_BIND_REFERENCES = 20;
+
+  static final int MAX_GET_BY_IDS = 1000;
+
+  private static final String QUALIFIER = "microsoft.graph.";
+
+  private static final Set<String> CAST_TYPES =
+      new HashSet<>(Arrays.asList("user", "group", "directoryObject"));
+
+  private static final Pattern EQUALS_STRING = Pattern.compile("^(\\w+) eq '(.*)'$");
+  private static final Pattern EQUALS_LITERAL = Pattern.compile("^(\\w+) eq ([\\w.-]+)$");
+  private static final Pattern STARTS_WITH = Pattern.compile("^startswith\\((\\w+),\\s*'(.*)'\\)$");
+  private static final Pattern HAS_LICENSE =
+      Pattern.compile("^assignedLicenses/any\\((\\w+):\\1/skuId eq ([0-9a-fA-F-]+)\\)$");
+
+  private final Options options;
+  private final MicrosoftGraphStandInDirectory directory;
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final String serviceUrl;
+
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong batchStepCount = new AtomicLong();
+  private final AtomicLong throttledCount = new AtomicLong();
+  private final AtomicLong throttleSequence = new AtomicLong();
+
+  private volatile MicrosoftGraphStandInLatency readLatency;
+  private volatile MicrosoftGraphStandInLatency writeLatency;
+  private volatile int throttleEveryNthRequest;
+  private volatile int retryAfterSeconds;
+
+  private MicrosoftGraphStandIn(Options options) throws IOException {
+    this.options = options;
+    this.readLatency = options.readLatency;
+    this.writeLatency = options.writeLatency;
+    this.throttleEveryNthRequest = options.throttleEveryNthRequest;
+    this.retryAfterSeconds = options.retryAfterSeconds;
+    directory = new MicrosoftGraphStandInDirectory(options.tenantId);
+    directory.populate(options);
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    executor =
+        Executors.newFixedThreadPool(
+            options.threads,
+            runnable -> {
+              Thread thread = new Thread(runnable, "msgraph-standin");
+              thread.setDaemon(true);
+              return thread;
+            });
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+    serviceUrl =
+        "http://"
+            + server.getAddress().getHostString()
+            + ":"
+            + server.getAddress().getPort()
+            + "/"
+            + API_VERSION;
+  }
+
+  public static Options options() {
+    return new Options();
+  }
+
+  public static MicrosoftGraphStandIn start(Options options) throws IOException {
+    MicrosoftGraphStandIn standIn = new MicrosoftGraphStandIn(options);
+    standIn.server.start();
+    return standIn;
+  }
+
+  /** Value for the graphServiceUrl configuration property. */
+  public String getServiceUrl() {
+    return serviceUrl;
+  }
+
+  /**
+   * Points a connector configuration at this stand-in. The credentials are placeholders; they are
+   * never sent because the stand-in is not an official Graph host.
+   */
+  public void applyTo(MicrosoftGraphConfiguration configuration) {
+    configuration.setTenantId(directory.getTenantId());
+    configuration.setClientId("stand-in");
+    configuration.setClientSecret(new GuardedString("stand-in".toCharArray()));
+    configuration.setScope("https://graph.microsoft.com/.default");
+    configuration.setTokenUrl("unused");
+    configuration.setEnableDebugHttpLogging(false);
+    configuration.setGraphServiceUrl(serviceUrl);
+  }
+
+  public MicrosoftGraphStandInDirectory getDirectory() {
+    return directory;
+  }
+
+  /** HTTP requests received, a $batch counting once. */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  public long getBatchStepCount() {
+    return batchStepCount.get();
+  }
+
+  public long getThrottledCount() {
+    return throttledCount.get();
+  }
+
+  public void resetCounters() {
+    requestCount.set(0);
+    batchStepCount.set(0);
+    throttledCount.set(0);
+    throttleSequence.set(0);
+  }
+
+  public void setReadLatency(MicrosoftGraphStandInLatency readLatency) {
+    this.readLatency = readLatency;
+  }
+
+  public void setWriteLatency(MicrosoftGraphStandInLatency writeLatency) {
+    this.writeLatency = writeLatency;
+  }
+
+  /** Every nth request (or $batch step) is answered with 429; 0 disables throttling. */
+  public void setThrottleEveryNthRequest(int throttleEveryNthRequest) {
+    this.throttleEveryNthRequest = throttleEveryNthRequest;
+  }
+
+  public void setRetryAfterSeconds(int retryAfterSeconds) {
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  // --- HTTP
+
+  private void handle(HttpExchange exchange) throws IOException {
+    requestCount.incrementAndGet();
+    Response response;
+    try {
+      String prefix = "/" + API_VERSION;
+      String path = exchange.getRequestURI().getRawPath();
+      String query = exchange.getRequestURI().getQuery();
+      if (!path.startsWith(prefix + "/")) {
+        response = error(new GraphError(404, "BadRequest", "Invalid version: " + path));
+      } else if (query != null
+          && query.contains("$count=true")
+          && !"eventual".equals(exchange.getRequestHeaders().getFirst("ConsistencyLevel"))) {
+        // Like Graph, $count is an advanced query and needs the header on every page
+        response =
+            error(
+                new GraphError(
+                    400,
+                    "Request_UnsupportedQuery",
+                    "$count requires the ConsistencyLevel header set to eventual"));
+      } else {
+        String target = path.substring(prefix.length());
+        if (exchange.getRequestURI().getRawQuery() != null) {
+          target += "?" + exchange.getRequestURI().getRawQuery();
+        }
+        response = route(exchange.getRequestMethod(), target, readBody(exchange.getRequestBody()));
+      }
+    } catch (RuntimeException e) {
+      response = error(new GraphError(500, "generalException", String.valueOf(e.getMessage())));
+    }
+    MicrosoftGraphStandInLatency latency =
+        "GET".equals(exchange.getRequestMethod()) ? readLatency : writeLatency;
+    long delay = latency.nextMillis();
+    if (delay > 0) {
+      try {
+        TimeUnit.MILLISECONDS.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    String clientRequestId = exchange.getRequestHeaders().getFirst("client-request-id");
+    if (clientRequestId != null) {
+      response.headers.put("client-request-id", clientRequestId);
+    }
+    response.headers.put("request-id", UUID.randomUUID().toString());
+    response.headers.forEach((name, value) -> exchange.getResponseHeaders().set(name, value));
+    if (response.body == null) {
+      exchange.sendResponseHeaders(response.status, -1);
+    } else {
+      byte[] bytes = response.body.toString().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(response.status, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    }
+    exchange.close();
+  }
+
+  private static JsonObject readBody(InputStream in) throws IOException {
+    String text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    if (text.isBlank()) {
+      return null;
+    }
+    JsonElement parsed = JsonParser.parseString(text);
+    return parsed.isJsonObject() ? parsed.getAsJsonObject() : null;
+  }
+
+  // --- routing
+
+  /**
+   * @param target Path below the version segment, with the raw query string, e.g. /users?$top=50.
+   */
+  private Response route(String method, String target, JsonObject body) {
+    String rawPath = target;
+    Map<String, String> query = new LinkedHashMap<>();
+    int queryStart = target.indexOf('?');
+    if (queryStart >= 0) {
+      rawPath = target.substring(0, queryStart);
+      for (String pair : target.substring(queryStart + 1).split("&")) {
+        if (!pair.isEmpty()) {
+          int equals = pair.indexOf('=');
+          query.put(
+              decode(equals < 0 ? pair : pair.substring(0, equals)),
+              equals < 0 ? "" : decode(pair.substring(equals + 1)));
+        }
+      }
+    }
+    List<String> segments = new ArrayList<>();
+    for (String segment : rawPath.split("/")) {
+      if (!segment.isEmpty()) {
+        segments.add(decode(segment));
+      }
+    }
+    // The SDK addresses functions and actions by their qualified name, e.g.
+    // microsoft.graph.assignLicense; type casts such as microsoft.graph.group keep theirs.
+    for (int index = 1; index < segments.size(); index++) {
+      String segment = segments.get(index);
+      if (segment.startsWith(QUALIFIER)
+          && Character.isLowerCase(segment.charAt(QUALIFIER.length()))
+          && !CAST_TYPES.contains(segment.substring(QUALIFIER.length()))) {
+        segments.set(index, segment.substring(QUALIFIER.length()));
+      }
+    }
+    if (segments.isEmpty()) {
+      return error(new GraphError(400, "BadRequest", "Resource not found for the segment ''."));
+    }
+    if ("$batch".equals(segments.get(0))) {
+      return batch(method, body);
+    }
+    if (shouldThrottle()) {
+      Response throttled =
+          error(new GraphError(429, "TooManyRequests", "Too many requests, please retry later."));
+      throttled.headers.put("Retry-After", Integer.toString(retryAfterSeconds));
+      return throttled;
+    }
+    try {
+      return dispatch(method, segments, query, body, rawPath);
+    } catch (GraphError e) {
+      return error(e);
+    }
+  }
+
+  private boolean shouldThrottle() {
+    int every = throttleEveryNthRequest;
+    if (every > 0 && throttleSequence.incrementAndGet() % every == 0) {
+      throttledCount.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  private Response dispatch(
+      String method,
+      List<String> segments,
+      Map<String, String> query,
+      JsonObject body,
+      String path) {
+    String root = segments.get(0);
+    int depth = segments.size();
+    String id = depth > 1 ? segments.get(1) : null;
+    switch (root) {
+      case "admin":
+        requireMethod(method, "GET");
+        return Response.ok(new JsonObject());
+      case "users":
+        if (depth == 1) {
+          if ("POST".equals(method)) {
+            return Response.created(directory.createUser(requireBody(body)));
+          }
+          requireMethod(method, "GET");
+          return page(path, query, directory.users());
+        }
+        if ("delta".equals(id)) {
+          return delta(path, query, true);
+        }
+        if (depth == 2) {
+          return item(method, query, body, directory.user(id), true, id);
+        }
+        return userNavigation(method, segments, query, body, path);
+      case "groups":
+        if (depth == 1) {
+          if ("POST".equals(method)) {
+            return Response.created(directory.createGroup(requireBody(body)));
+          }
+          requireMethod(method, "GET");
+          return page(path, query, directory.groups());
+        }
+        if ("delta".equals(id)) {
+          return delta(path, query, false);
+        }
+        if (depth == 2) {
+          return item(method, query, body, directory.group(id), false, id);
+        }
+        return groupNavigation(method, segments, query, body, path);
+      case "teams":
+        requireMethod(method, "GET");
+        if (depth == 2 && directory.group(id) != null && directory.isTeam(id)) {
+          JsonObject team = new JsonObject();
+          team.addProperty("id", id);
+          team.addProperty("displayName", directory.group(id).get("displayName").getAsString());
+          team.addProperty("isArchived", false);
+          return Response.ok(team);
+        }
+        throw new GraphError(404, "NotFound", "No team found with Group Id " + id);
+      case "subscribedSkus":
+        requireMethod(method, "GET");
+        if (depth == 1) {
+          return page(path, query, directory.skus());
+        }
+        JsonObject sku = directory.sku(id);
+        if (sku == null) {
+          throw new GraphError(404, "Request_ResourceNotFound", "Resource not found: " + id);
+        }
+        return Response.ok(select(sku, query));
+      case "directoryObjects":
+        if (depth == 2 && "getByIds".equals(id)) {
+          requireMethod(method, "POST");
+          return getByIds(query, requireBody(body));
+        }
+        throw new GraphError(400, "BadRequest", "Resource not found for the segment '" + id + "'.");
+      default:
+        throw new GraphError(
+            400, "BadRequest", "Resource not found for the segment '" + root + "'.");
+    }
+  }
+
+  private Response item(
+      String method,
+      Map<String, String> query,
+      JsonObject body,
+      JsonObject current,
+      boolean isUser,
+      String id) {
+    if (current == null) {
+      throw new GraphError(
+          404,
+          "Request_ResourceNotFound",
+          "Resource '"
+              + id
+              + "' does not exist or one of its queried reference-property objects"
+              + " are not present.");
+    }
+    switch (method) {
+      case "GET":
+        return Response.ok(select(current, query));
+      case "PATCH":
+        if (isUser) {
+          directory.patchUser(id, requireBody(body));
+        } else {
+          directory.patchGroup(id, requireBody(body));
+        }
+        return Response.noContent();
+      case "DELETE":
+        if (isUser) {
+          directory.deleteUser(id);
+        } else {
+          directory.deleteGroup(id);
+        }
+        return Response.noContent();
+      default:
+        throw methodNotAllowed(method);
+    }
+  }
+
+  private Response userNavigation(
+      String method,
+      List<String> segments,
+      Map<String, String> query,
+      JsonObject body,
+      String path) {
+    String id = segments.get(1);
+    String navigation = segments.get(2);
+    if (directory.user(id) == null) {
+      throw new GraphError(404, "Request_ResourceNotFound", "Resource '" + id + "' not found.");
+    }
+    switch (navigation) {
+      case "memberOf":
+        requireMethod(method, "GET");
+        return page(path, query, cast(directory.memberOf(id), segments, 3));
+      case "transitiveMemberOf":
+        requireMethod(method, "GET");
+        return page(path, query, cast(directory.transitiveMemberOf(id), segments, 3));
+      case "assignLicense":
+        requireMethod(method, "POST");
+        return Response.ok(directory.assignLicense(id, requireBody(body)));
+      default:
+        throw new GraphError(
+            400, "BadRequest", "Resource not found for the segment '" + navigation + "'.");
+    }
+  }
+
+  private Response groupNavigation(
+      String method,
+      List<String> segments,
+      Map<String, String> query,
+      JsonObject body,
+      String path) {
+    String id = segments.get(1);
+    String navigation = segments.get(2);
+    if (directory.group(id) == null) {
+      throw new GraphError(404, "Request_ResourceNotFound", "Resource '" + id + "' not found.");
+    }
+    switch (navigation) {
+      case MicrosoftGraphStandInDirectory.MEMBERS:
+      case MicrosoftGraphStandInDirectory.OWNERS:
+        if (segments.size() == 4 && "$ref".equals(segments.get(3))) {
+          requireMethod(method, "POST");
+          String reference = requireBody(body).get("@odata.id").getAsString();
+          directory.addRelated(id, navigation, reference.substring(reference.lastIndexOf('/') + 1));
+          return Response.noContent();
+        }
+        if (segments.size() == 5 && "$ref".equals(segments.get(4))) {
+          requireMethod(method, "DELETE");
+          directory.removeRelated(id, navigation, segments.get(3));
+          return Response.noContent();
+        }
+        requireMethod(method, "GET");
+        return page(path, query, cast(directory.related(id, navigation), segments, 3));
+      case "transitiveMembers":
+        requireMethod(method, "GET");
+        return page(path, query, cast(directory.transitiveMembers(id), segments, 3));
+      case "assignLicense":
+        requireMethod(method, "POST");
+        return Response.ok(directory.assignLicense(id, requireBody(body)));
+      default:
+        throw new GraphError(
+            400, "BadRequest", "Resource not found for the segment '" + navigation + "'.");
+    }
+  }
+
+  private Response getByIds(Map<String, String> query, JsonObject body) {
+    List<String> ids = new ArrayList<>();
+    if (body.has("ids")) {
+      body.getAsJsonArray("ids").forEach(id -> ids.add(id.getAsString()));
+    }
+    if (ids.size() > MAX_GET_BY_IDS) {
+      throw new GraphError(
+          400, "Request_BadRequest", "Number of ids exceeds the limit of " + MAX_GET_BY_IDS + ".");
+    }
+    Set<String> types = new HashSet<>();
+    if (body.has("types")) {
+      body.getAsJsonArray("types")
+          .forEach(type -> types.add("#microsoft.graph." + type.getAsString()));
+    }
+    JsonArray value = new JsonArray();
+    for (JsonObject object : directory.objects(ids)) {
+      if (types.isEmpty() || types.contains(object.get("@odata.type").getAsString())) {
+        value.add(select(object, query));
+      }
+    }
+    JsonObject result = new JsonObject();
+    result.add("value", value);
+    return Response.ok(result);
+  }
+
+  /** Applies an OData type cast segment such as microsoft.graph.group, if present. */
+  private static List<JsonObject> cast(List<JsonObject> objects, List<String> segments, int index) {
+    if (segments.size() <= index) {
+      return objects;
+    }
+    String type = "#" + segments.get(index);
+    List<JsonObject> result = new ArrayList<>();
+    for (JsonObject object : objects) {
+      if (!object.has("@odata.type") || type.equals(object.get("@odata.type").getAsString())) {
+        result.add(object);
+      }
+    }
+    return result;
+  }
+
+  private Response batch(String method, JsonObject body) {
+    requireMethod(method, "POST");
+    JsonArray requests =
+        body == null || !body.has("requests") ? new JsonArray() : body.getAsJsonArray("requests");
+    if (requests.size() > MAX_BATCH_REQUESTS) {
+      return error(
+          new GraphError(
+              400,
+              "BadRequest",
+              "Number of requests in a batch exceeds the limit of " + MAX_BATCH_REQUESTS + "."));
+    }
+    JsonArray responses = new JsonArray();
+    for (JsonElement element : requests) {
+      batchStepCount.incrementAndGet();
+      JsonObject step = element.getAsJsonObject();
+      String url = step.get("url").getAsString();
+      int versionAt = url.indexOf("/" + API_VERSION + "/");
+      if (versionAt >= 0) {
+        url = url.substring(versionAt + API_VERSION.length() + 1);
+      } else if (!url.startsWith("/")) {
+        url = "/" + url;
+      }
+      JsonObject stepBody =
+          step.has("body") && step.get("body").isJsonObject() ? step.getAsJsonObject("body") : null;
+      Response stepResponse = route(step.get("method").getAsString(), url, stepBody);
+      JsonObject result = new JsonObject();
+      result.add("id", step.get("id"));
+      result.addProperty("status", stepResponse.status);
+      JsonObject headers = new JsonObject();
+      stepResponse.headers.forEach(headers::addProperty);
+      if (stepResponse.body != null) {
+        headers.addProperty("Content-Type", "application/json");
+        result.add("body", stepResponse.body);
+      }
+      result.add("headers", headers);
+      responses.add(result);
+    }
+    JsonObject result = new JsonObject();
+    result.add("responses", responses);
+    return Response.ok(result);
+  }
+
+  // --- collections
+
+  private Response page(String path, Map<String, String> query, List<JsonObject> items) {
+    List<JsonObject> matching = items;
+    if (query.containsKey("$filter")) {
+      Predicate<JsonObject> filter = filter(query.get("$filter"));
+      matching = new ArrayList<>();
+      for (JsonObject item : items) {
+        if (filter.test(item)) {
+          matching.add(item);
+        }
+      }
+    }
+    int offset = query.containsKey("$skiptoken") ? Integer.parseInt(query.get("$skiptoken")) : 0;
+    int size = pageSize(query);
+    JsonObject result = new JsonObject();
+    if ("true".equalsIgnoreCase(query.get("$count"))) {
+      result.addProperty("@odata.count", matching.size());
+    }
+    JsonArray value = new JsonArray();
+    for (int index = offset; index < Math.min(matching.size(), offset + size); index++) {
+      value.add(select(matching.get(index), query));
+    }
+    result.add("value", value);
+    if (offset + size < matching.size()) {
+      Map<String, String> next = new LinkedHashMap<>(query);
+      next.put("$skiptoken", Integer.toString(offset + size));
+      result.addProperty("@odata.nextLink", link(path, next));
+    }
+    return Response.ok(result);
+  }
+
+  /**
+   * Delta listing. The first round pages through every object; its last page carries a deltaLink
+   * whose token is the directory version when the round started. Later rounds return objects
+   * changed since that version and removal markers for deleted objects.
+   */
+  private Response delta(String path, Map<String, String> query, boolean ofUsers) {
+    long since;
+    long upTo;
+    int offset = 0;
+    if (query.containsKey("$skiptoken")) {
+      String[] token = query.get("$skiptoken").split(":");
+      since = Long.parseLong(token[0]);
+      upTo = Long.parseLong(token[1]);
+      offset = Integer.parseInt(token[2]);
+    } else {
+      since = query.containsKey("$deltatoken") ? Long.parseLong(query.get("$deltatoken")) : 0L;
+      upTo = directory.currentVersion();
+    }
+    List<JsonObject> changes = directory.changes(ofUsers, since, upTo);
+    int size = pageSize(query);
+    JsonArray value = new JsonArray();
+    for (int index = offset; index < Math.min(changes.size(), offset + size); index++) {
+      JsonObject change = changes.get(index);
+      if (change.has("@removed")) {
+        value.add(change);
+        continue;
+      }
+      JsonObject selected = select(change, query);
+      if (!ofUsers && selects(query, "members")) {
+        selected.add("members@delta", directory.memberReferences(change.get("id").getAsString()));
+      }
+      value.add(selected);
+    }
+    JsonObject result = new JsonObject();
+    result.add("value", value);
+    Map<String, String> next = new LinkedHashMap<>(query);
+    next.remove("$deltatoken");
+    next.remove("$skiptoken");
+    if (offset + size < changes.size()) {
+      next.put("$skiptoken", since + ":" + upTo + ":" + (offset + size));
+      result.addProperty("@odata.nextLink", link(path, next));
+    } else {
+      next.remove("$top");
+      next.put("$deltatoken", Long.toString(upTo));
+      result.addProperty("@odata.deltaLink", link(path, next));
+    }
+    return Response.ok(result);
+  }
+
+  private int pageSize(Map<String, String> query) {
+    int requested =
+        query.containsKey("$top") ? Integer.parseInt(query.get("$top")) : options.defaultPageSize;
+    return Math.max(1, Math.min(requested, options.maxPageSize));
+  }
+
+  private String link(String path, Map<String, String> query) {
+    StringJoiner joiner = new StringJoiner("&");
+    query.forEach((name, value) -> joiner.add(encode(name) + "=" + encode(value)));
+    return serviceUrl + path + "?" + joiner;
+  }
+
+  private static boolean selects(Map<String, String> query, String property) {
+    String select = query.get("$select");
+    return select != null && Arrays.asList(select.split("\\s*,\\s*")).contains(property);
+  }
+
+  private static JsonObject select(JsonObject object, Map<String, String> query) {
+    String select = query.get("$select");
+    if (select == null || select.isBlank()) {
+      return object;
+    }
+    JsonObject projected = new JsonObject();
+    projected.add("id", object.get("id"));
+    if (object.has("@odata.type")) {
+      projected.add("@odata.type", object.get("@odata.type"));
+    }
+    for (String field : select.split(",")) {
+      String property = field.trim();
+      int dot = property.indexOf('.');
+      if (dot > 0) {
+        property = property.substring(0, dot);
+      }
+      if (object.has(property)) {
+        projected.add(property, object.get(property));
+      }
+    }
+    return projected;
+  }
+
+  static Predicate<JsonObject> filter(String expression) {
+    Predicate<JsonObject> result = object -> true;
+    for (String clause : expression.split("(?i) and ")) {
+      result = result.and(clause(clause.trim()));
+    }
+    return result;
+  }
+
+  private static Predicate<JsonObject> clause(String clause) {
+    Matcher matcher = EQUALS_STRING.matcher(clause);
+    if (matcher.matches()) {
+      String property = matcher.group(1);
+      String value = matcher.group(2).replace("''", "'");
+      return object ->
+          object.has(property)
+              && object.get(property).isJsonPrimitive()
+              && value.equalsIgnoreCase(object.get(property).getAsString());
+    }
+    matcher = EQUALS_LITERAL.matcher(clause);
+    if (matcher.matches()) {
+      String property = matcher.group(1);
+      String value = matcher.group(2);
+      return object ->
+          object.has(property)
+              && object.get(property).isJsonPrimitive()
+              && value.equalsIgnoreCase(object.get(property).getAsString());
+    }
+    matcher = STARTS_WITH.matcher(clause);
+    if (matcher.matches()) {
+      String property = matcher.group(1);
+      String prefix = matcher.group(2).replace("''", "'").toLowerCase(Locale.ROOT);
+      return object ->
+          object.has(property)
+              && object.get(property).isJsonPrimitive()
+              && object.get(property).getAsString().toLowerCase(Locale.ROOT).startsWith(prefix);
+    }
+    matcher = HAS_LICENSE.matcher(clause);
+    if (matcher.matches()) {
+      String sku = matcher.group(2);
+      return object -> {
+        JsonElement licenses = object.get("assignedLicenses");
+        if (licenses == null || !licenses.isJsonArray()) {
+          return false;
+        }
+        for (JsonElement license : licenses.getAsJsonArray()) {
+          if (sku.equalsIgnoreCase(license.getAsJsonObject().get("skuId").getAsString())) {
+            return true;
+          }
+        }
+        return false;
+      };
+    }
+    throw new GraphError(400, "BadRequest", "Invalid filter clause: " + clause);
+  }
+
+  // --- helpers
+
+  private static void requireMethod(String method, String expected) {
+    if (!expected.equals(method)) {
+      throw methodNotAllowed(method);
+    }
+  }
+
+  private static GraphError methodNotAllowed(String method) {
+    return new GraphError(405, "Request_BadRequest", "Method " + method + " is not supported.");
+  }
+
+  private static JsonObject requireBody(JsonObject body) {
+    if (body == null) {
+      throw new GraphError(400, "BadRequest", "Empty Payload. JSON content expected.");
+    }
+    return body;
+  }
+
+  private static Response error(GraphError graphError) {
+    JsonObject inner = new JsonObject();
+    inner.addProperty("date", OffsetDateTime.now(ZoneOffset.UTC).toString());
+    JsonObject error = new JsonObject();
+    error.addProperty("code", graphError.code);
+    error.addProperty("message", graphError.getMessage());
+    error.add("innerError", inner);
+    JsonObject body = new JsonObject();
+    body.add("error", error);
+    return new Response(graphError.status, body);
+  }
+
+  private static String decode(String value) {
+    return URLDecoder.decode(value, StandardCharsets.UTF_8);
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+  }
+
+  private static class Response {
+    private final int status;
+    private final JsonObject body;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+
+    private Response(int status, JsonObject body) {
+      this.status = status;
+      this.body = body;
+    }
+
+    private static Response ok(JsonObject body) {
+      return new Response(200, body);
+    }
+
+    private static Response created(JsonObject body) {
+      return new Response(201, body);
+    }
+
+    private static Response noContent() {
+      return new Response(204, null);
+    }
+  }
+
+  /** Dataset and behaviour of a stand-in instance. */
+  public static class Options {
+    String tenantId = "5f0c2a71-0000-4000-8000-00000000c0de";
+    int users = 100;
+    int groups = 20;
+    int membershipsPerUser = 3;
+    int nestedGroups = 0;
+    int licenses = 3;
+    int prepaidUnits = 100000;
+    int directLicensesPerUser = 1;
+    int groupLicenseEveryNthGroup = 10;
+    int teamEveryNthGroup = 4;
+    int defaultPageSize = 100;
+    int maxPageSize = 999;
+    int throttleEveryNthRequest = 0;
+    int retryAfterSeconds = 0;
+    int threads = 32;
+    MicrosoftGraphStandInLatency readLatency = MicrosoftGraphStandInLatency.none();
+    MicrosoftGraphStandInLatency writeLatency = MicrosoftGraphStandInLatency.none();
+
+    private Options() {}
+
+    public Options tenantId(String tenantId) {
+      this.tenantId = tenantId;
+      return this;
+    }
+
+    public Options users(int users) {
+      this.users = users;
+      return this;
+    }
+
+    public Options groups(int groups) {
+      this.groups = groups;
+      return this;
+    }
+
+    public Options membershipsPerUser(int membershipsPerUser) {
+      this.membershipsPerUser = membershipsPerUser;
+      return this;
+    }
+
+    /** Groups 1 to n are each made a member of the previous group, forming one nesting chain. */
+    public Options nestedGroups(int nestedGroups) {
+      this.nestedGroups = nestedGroups;
+      return this;
+    }
+
+    public Options licenses(int licenses) {
+      this.licenses = licenses;
+      return this;
+    }
+
+    public Options prepaidUnits(int prepaidUnits) {
+      this.prepaidUnits = prepaidUnits;
+      return this;
+    }
+
+    public Options directLicensesPerUser(int directLicensesPerUser) {
+      this.directLicensesPerUser = directLicensesPerUser;
+      return this;
+    }
+
+    /** Every nth group carries the first SKU as a group-based license; 0 disables. */
+    public Options groupLicenseEveryNthGroup(int groupLicenseEveryNthGroup) {
+      this.groupLicenseEveryNthGroup = groupLicenseEveryNthGroup;
+      return this;
+    }
+
+    /** Every nth group is team-enabled; 0 disables. */
+    public Options teamEveryNthGroup(int teamEveryNthGroup) {
+      this.teamEveryNthGroup = teamEveryNthGroup;
+      return this;
+    }
+
+    /** Page size when the request has no $top; Graph uses 100 for directory objects. */
+    public Options defaultPageSize(int defaultPageSize) {
+      this.defaultPageSize = defaultPageSize;
+      return this;
+    }
+
+    /** Upper bound applied to $top; Graph allows 999 for users and groups. */
+    public Options maxPageSize(int maxPageSize) {
+      this.maxPageSize = maxPageSize;
+      return this;
+    }
+
+    public Options throttleEveryNthRequest(int throttleEveryNthRequest) {
+      this.throttleEveryNthRequest = throttleEveryNthRequest;
+      return this;
+    }
+
+    public Options retryAfterSeconds(int retryAfterSeconds) {
+      this.retryAfterSeconds = retryAfterSeconds;
+      return this;
+    }
+
+    /** Request handler threads, i.e. how many requests are served (and delayed) concurrently. */
+    public Options threads(int threads) {
+      this.threads = threads;
+      return this;
+    }
+
+    public Options readLatency(MicrosoftGraphStandInLatency readLatency) {
+      this.readLatency = readLatency;
+      return this;
+    }
+
+    public Options writeLatency(MicrosoftGraphStandInLatency writeLatency) {
+      this.writeLatency = writeLatency;
+      return this;
+    }
+  }
+}
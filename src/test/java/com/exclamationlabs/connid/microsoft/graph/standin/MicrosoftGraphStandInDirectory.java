@@ -0,0 +1,773 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.standin;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * In-memory tenant behind {@link MicrosoftGraphStandIn}: users, groups, memberships, owners, teams,
+ * subscribed SKUs and direct/group-based license assignments, plus a change version per object for
+ * delta queries. Objects are held as Graph JSON so whatever the connector PATCHes is returned
+ * unchanged on the next read. All access is synchronized; callers receive copies.
+ */
+public class MicrosoftGraphStandInDirectory {
+
+  public static final String MEMBERS = "members";
+  public static final String OWNERS = "owners";
+
+  private static final OffsetDateTime BASE_TIME =
+      OffsetDateTime.of(2022, 1, 3, 9, 0, 0, 0, ZoneOffset.UTC);
+
+  private static final String[] DEPARTMENTS = {"Finance", "Engineering", "Sales", "Support"};
+
+  private final String tenantId;
+
+  private final NavigableMap<String, JsonObject> users = new TreeMap<>();
+  private final NavigableMap<String, JsonObject> groups = new TreeMap<>();
+  private final Map<String, Map<String, Set<String>>> relations = new HashMap<>();
+  private final Map<String, Set<String>> memberOf = new HashMap<>();
+  private final Set<String> teams = new HashSet<>();
+  private final Map<String, JsonObject> skus = new LinkedHashMap<>();
+  private final Map<String, Set<String>> directLicenses = new HashMap<>();
+  private final Map<String, Integer> consumedUnits = new HashMap<>();
+
+  private final Map<String, Long> versions = new HashMap<>();
+  private final Map<String, Long> removedUsers = new HashMap<>();
+  private final Map<String, Long> removedGroups = new HashMap<>();
+  private long version;
+
+  public MicrosoftGraphStandInDirectory(String tenantId) {
+    this.tenantId = tenantId;
+    relations.put(MEMBERS, new HashMap<>());
+    relations.put(OWNERS, new HashMap<>());
+  }
+
+  public String getTenantId() {
+    return tenantId;
+  }
+
+  /** Deterministic ids, so the same dataset is generated on every run. */
+  public static String userId(int index) {
+    return nameId("user-" + index);
+  }
+
+  public static String groupId(int index) {
+    return nameId("group-" + index);
+  }
+
+  public static String skuId(int index) {
+    return nameId("sku-" + index);
+  }
+
+  private static String nameId(String name) {
+    return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString();
+  }
+
+  synchronized void populate(MicrosoftGraphStandIn.Options options) {
+    for (int index = 0; index < options.licenses; index++) {
+      JsonObject sku = new JsonObject();
+      sku.addProperty("id", tenantId + "_" + skuId(index));
+      sku.addProperty("skuId", skuId(index));
+      sku.addProperty("skuPartNumber", "STANDIN_SKU_" + index);
+      sku.addProperty("appliesTo", "User");
+      sku.addProperty("capabilityStatus", "Enabled");
+      JsonObject prepaid = new JsonObject();
+      prepaid.addProperty("enabled", options.prepaidUnits);
+      prepaid.addProperty("suspended", 0);
+      prepaid.addProperty("warning", 0);
+      sku.add("prepaidUnits", prepaid);
+      sku.add("servicePlans", new JsonArray());
+      skus.put(skuId(index), sku);
+    }
+    for (int index = 0; index < options.groups; index++) {
+      JsonObject group = new JsonObject();
+      group.addProperty("id", groupId(index));
+      group.addProperty("displayName", "Stand-in Group " + index);
+      group.addProperty("description", "Generated by the Microsoft Graph stand-in");
+      group.addProperty("mailNickname", "standin-group-" + index);
+      boolean unified = index % 2 == 0;
+      group.addProperty("mailEnabled", unified);
+      group.addProperty("securityEnabled", !unified);
+      if (unified) {
+        group.addProperty("mail", "standin-group-" + index + "@standin.example.com");
+        group.addProperty("visibility", "Private");
+      }
+      group.add("groupTypes", stringArray(unified ? Collections.singletonList("Unified") : null));
+      group.addProperty("createdDateTime", BASE_TIME.plusMinutes(index).toString());
+      group.addProperty("securityIdentifier", "S-1-12-1-" + index);
+      group.add("assignedLicenses", new JsonArray());
+      if (options.licenses > 0
+          && options.groupLicenseEveryNthGroup > 0
+          && index % options.groupLicenseEveryNthGroup == 0) {
+        group.add("assignedLicenses", assignedLicenses(Collections.singleton(skuId(0))));
+      }
+      boolean team = options.teamEveryNthGroup > 0 && index % options.teamEveryNthGroup == 0;
+      group.add(
+          "resourceProvisioningOptions",
+          stringArray(team ? Collections.singletonList("Team") : null));
+      groups.put(group.get("id").getAsString(), group);
+      touch(group.get("id").getAsString());
+      if (team) {
+        teams.add(groupId(index));
+      }
+    }
+    for (int index = 1; index <= Math.min(options.nestedGroups, options.groups - 1); index++) {
+      link(MEMBERS, groupId(index - 1), groupId(index));
+    }
+    for (int index = 0; index < options.users; index++) {
+      JsonObject user = new JsonObject();
+      String id = userId(index);
+      user.addProperty("id", id);
+      user.addProperty("displayName", "Stand-in User " + index);
+      user.addProperty("givenName", "Stand-in");
+      user.addProperty("surname", "User " + index);
+      user.addProperty("mail", "standin.user" + index + "@standin.example.com");
+      user.addProperty("mailNickname", "standin.user" + index);
+      user.addProperty("userPrincipalName", "standin.user" + index + "@standin.example.com");
+      user.addProperty("accountEnabled", true);
+      user.addProperty("userType", "Member");
+      user.addProperty("usageLocation", "US");
+      user.addProperty("preferredLanguage", "en-US");
+      user.addProperty("companyName", "Stand-in Inc.");
+      user.addProperty("department", DEPARTMENTS[index % DEPARTMENTS.length]);
+      user.addProperty("jobTitle", "Analyst");
+      user.addProperty("officeLocation", "Building " + (index % 7));
+      user.addProperty("employeeId", Integer.toString(100000 + index));
+      user.addProperty("createdDateTime", BASE_TIME.plusSeconds(index).toString());
+      user.add(
+          "businessPhones",
+          stringArray(Collections.singletonList("+1 317 555 " + (1000 + index % 9000))));
+      user.add(
+          "proxyAddresses",
+          stringArray(Collections.singletonList("SMTP:standin.user" + index + "@example.com")));
+      users.put(id, user);
+      touch(id);
+      if (options.licenses > 0 && options.directLicensesPerUser > 0) {
+        Set<String> direct = new HashSet<>();
+        for (int sku = 0; sku < Math.min(options.directLicensesPerUser, options.licenses); sku++) {
+          direct.add(skuId((index + sku) % options.licenses));
+        }
+        directLicenses.put(id, direct);
+      }
+      if (options.groups > 0) {
+        for (int membership = 0;
+            membership < Math.min(options.membershipsPerUser, options.groups);
+            membership++) {
+          link(MEMBERS, groupId((index + membership * 7) % options.groups), id);
+        }
+      }
+    }
+    users.keySet().forEach(this::refreshLicenses);
+  }
+
+  // --- users
+
+  public synchronized List<JsonObject> users() {
+    return copies(users.values());
+  }
+
+  public synchronized JsonObject user(String id) {
+    return users.containsKey(id) ? users.get(id).deepCopy() : null;
+  }
+
+  public synchronized int userCount() {
+    return users.size();
+  }
+
+  synchronized JsonObject createUser(JsonObject body) {
+    for (String required :
+        Arrays.asList("displayName", "mailNickname", "userPrincipalName", "passwordProfile")) {
+      if (!body.has(required) || body.get(required).isJsonNull()) {
+        throw new GraphError(
+            400,
+            "Request_BadRequest",
+            "Invalid value specified for property '" + required + "' of resource 'User'.");
+      }
+    }
+    String principalName = body.get("userPrincipalName").getAsString();
+    for (JsonObject existing : users.values()) {
+      if (existing.has("userPrincipalName")
+          && principalName.equalsIgnoreCase(existing.get("userPrincipalName").getAsString())) {
+        throw new GraphError(
+            400,
+            "Request_BadRequest",
+            "Another object with the same value for property userPrincipalName already exists.");
+      }
+    }
+    JsonObject user = writable(body);
+    String id = UUID.randomUUID().toString();
+    user.addProperty("id", id);
+    user.addProperty("createdDateTime", OffsetDateTime.now(ZoneOffset.UTC).toString());
+    users.put(id, user);
+    refreshLicenses(id);
+    touch(id);
+    return user.deepCopy();
+  }
+
+  synchronized void patchUser(String id, JsonObject body) {
+    JsonObject user = requireUser(id);
+    writable(body).entrySet().forEach(entry -> user.add(entry.getKey(), entry.getValue()));
+    touch(id);
+  }
+
+  synchronized void deleteUser(String id) {
+    requireUser(id);
+    unlinkAll(id);
+    users.remove(id);
+    Set<String> released = directLicenses.remove(id);
+    if (released != null) {
+      released.forEach(sku -> consumedUnits.merge(sku, -1, Integer::sum));
+    }
+    removedUsers.put(id, ++version);
+  }
+
+  /** Groups the object is a direct member of. */
+  public synchronized List<JsonObject> memberOf(String id) {
+    requireObject(id);
+    List<JsonObject> result = new ArrayList<>();
+    memberOf.getOrDefault(id, Collections.emptySet()).forEach(g -> result.add(groups.get(g)));
+    return copies(result);
+  }
+
+  public synchronized List<JsonObject> transitiveMemberOf(String id) {
+    requireObject(id);
+    Set<String> seen = new LinkedHashSet<>();
+    Deque<String> pending = new ArrayDeque<>(memberOf.getOrDefault(id, Collections.emptySet()));
+    while (!pending.isEmpty()) {
+      String groupId = pending.pop();
+      if (seen.add(groupId)) {
+        pending.addAll(memberOf.getOrDefault(groupId, Collections.emptySet()));
+      }
+    }
+    List<JsonObject> result = new ArrayList<>();
+    seen.forEach(g -> result.add(groups.get(g)));
+    return copies(result);
+  }
+
+  synchronized JsonObject assignLicense(String id, JsonObject body) {
+    boolean isUser = users.containsKey(id);
+    JsonObject target = isUser ? users.get(id) : requireGroup(id);
+    Set<String> assigned =
+        isUser ? directLicenses.computeIfAbsent(id, k -> new HashSet<>()) : licenseIds(target);
+    List<String> added = new ArrayList<>();
+    if (body.has("addLicenses") && body.get("addLicenses").isJsonArray()) {
+      for (JsonElement license : body.getAsJsonArray("addLicenses")) {
+        added.add(license.getAsJsonObject().get("skuId").getAsString());
+      }
+    }
+    List<String> removedSkus = new ArrayList<>();
+    if (body.has("removeLicenses") && body.get("removeLicenses").isJsonArray()) {
+      body.getAsJsonArray("removeLicenses").forEach(sku -> removedSkus.add(sku.getAsString()));
+    }
+    for (String sku : added) {
+      requireSku(sku);
+    }
+    for (String sku : removedSkus) {
+      requireSku(sku);
+    }
+    if (isUser) {
+      if (!target.has("usageLocation") || target.get("usageLocation").isJsonNull()) {
+        throw new GraphError(
+            400,
+            "Request_BadRequest",
+            "License assignment cannot be done for user with invalid usage location.");
+      }
+      for (String sku : added) {
+        if (!assigned.contains(sku) && available(sku) <= 0) {
+          throw new GraphError(
+              400,
+              "Request_BadRequest",
+              "Subscription with SKU " + sku + " does not have any available licenses.");
+        }
+      }
+    }
+    assigned.addAll(added);
+    assigned.removeAll(removedSkus);
+    if (isUser) {
+      refreshLicenses(id);
+    } else {
+      target.add("assignedLicenses", assignedLicenses(assigned));
+      touch(id);
+      relations.get(MEMBERS).getOrDefault(id, Collections.emptySet()).stream()
+          .filter(users::containsKey)
+          .forEach(this::refreshLicenses);
+    }
+    return target.deepCopy();
+  }
+
+  // --- groups
+
+  public synchronized List<JsonObject> groups() {
+    return copies(groups.values());
+  }
+
+  public synchronized JsonObject group(String id) {
+    return groups.containsKey(id) ? groups.get(id).deepCopy() : null;
+  }
+
+  public synchronized int groupCount() {
+    return groups.size();
+  }
+
+  public synchronized boolean isTeam(String groupId) {
+    requireGroup(groupId);
+    return teams.contains(groupId);
+  }
+
+  synchronized JsonObject createGroup(JsonObject body) {
+    if (!body.has("displayName") || body.get("displayName").isJsonNull()) {
+      throw new GraphError(
+          400,
+          "Request_BadRequest",
+          "Invalid value specified for property 'displayName' of resource 'Group'.");
+    }
+    Map<String, List<String>> binds = bindings(body);
+    JsonObject group = writable(body);
+    String id = UUID.randomUUID().toString();
+    group.addProperty("id", id);
+    group.addProperty("createdDateTime", OffsetDateTime.now(ZoneOffset.UTC).toString());
+    if (!group.has("assignedLicenses")) {
+      group.add("assignedLicenses", new JsonArray());
+    }
+    groups.put(id, group);
+    touch(id);
+    applyBindings(id, binds);
+    return group.deepCopy();
+  }
+
+  synchronized void patchGroup(String id, JsonObject body) {
+    JsonObject group = requireGroup(id);
+    Map<String, List<String>> binds = bindings(body);
+    for (Map.Entry<String, List<String>> bind : binds.entrySet()) {
+      Set<String> current = relations.get(bind.getKey()).getOrDefault(id, Collections.emptySet());
+      for (String memberId : bind.getValue()) {
+        if (current.contains(memberId)) {
+          throw alreadyExists(bind.getKey());
+        }
+      }
+    }
+    writable(body).entrySet().forEach(entry -> group.add(entry.getKey(), entry.getValue()));
+    touch(id);
+    applyBindings(id, binds);
+  }
+
+  synchronized void deleteGroup(String id) {
+    requireGroup(id);
+    Set<String> formerMembers =
+        new HashSet<>(relations.get(MEMBERS).getOrDefault(id, Collections.emptySet()));
+    unlinkAll(id);
+    relations.values().forEach(relation -> relation.remove(id));
+    formerMembers.forEach(memberId -> memberOf.getOrDefault(memberId, new HashSet<>()).remove(id));
+    groups.remove(id);
+    teams.remove(id);
+    formerMembers.stream().filter(users::containsKey).forEach(this::refreshLicenses);
+    removedGroups.put(id, ++version);
+  }
+
+  /** Users and groups with the given ids, in that order; unknown ids are skipped. */
+  public synchronized List<JsonObject> objects(List<String> ids) {
+    List<JsonObject> result = new ArrayList<>();
+    for (String id : ids) {
+      if (users.containsKey(id) || groups.containsKey(id)) {
+        result.add(object(id));
+      }
+    }
+    return result;
+  }
+
+  /** Direct members or owners of a group, users and groups alike. */
+  public synchronized List<JsonObject> related(String groupId, String relation) {
+    requireGroup(groupId);
+    List<JsonObject> result = new ArrayList<>();
+    relations.get(relation).getOrDefault(groupId, Collections.emptySet()).stream()
+        .sorted()
+        .forEach(id -> result.add(object(id)));
+    return copies(result);
+  }
+
+  /** Direct members of a group as the references listed in members@delta. */
+  synchronized JsonArray memberReferences(String groupId) {
+    JsonArray result = new JsonArray();
+    relations.get(MEMBERS).getOrDefault(groupId, Collections.emptySet()).stream()
+        .sorted()
+        .forEach(
+            id -> {
+              JsonObject reference = new JsonObject();
+              reference.addProperty(
+                  "@odata.type",
+                  users.containsKey(id) ? "#microsoft.graph.user" : "#microsoft.graph.group");
+              reference.addProperty("id", id);
+              result.add(reference);
+            });
+    return result;
+  }
+
+  public synchronized List<JsonObject> transitiveMembers(String groupId) {
+    requireGroup(groupId);
+    Set<String> seen = new LinkedHashSet<>();
+    Deque<String> pending = new ArrayDeque<>();
+    pending.push(groupId);
+    while (!pending.isEmpty()) {
+      for (String memberId :
+          relations.get(MEMBERS).getOrDefault(pending.pop(), Collections.emptySet())) {
+        if (seen.add(memberId) && groups.containsKey(memberId)) {
+          pending.push(memberId);
+        }
+      }
+    }
+    seen.remove(groupId);
+    List<JsonObject> result = new ArrayList<>();
+    seen.forEach(id -> result.add(object(id)));
+    return copies(result);
+  }
+
+  synchronized void addRelated(String groupId, String relation, String objectId) {
+    requireGroup(groupId);
+    requireObject(objectId);
+    if (relations.get(relation).getOrDefault(groupId, Collections.emptySet()).contains(objectId)) {
+      throw alreadyExists(relation);
+    }
+    link(relation, groupId, objectId);
+    touch(groupId);
+    if (MEMBERS.equals(relation) && users.containsKey(objectId)) {
+      refreshLicenses(objectId);
+    }
+  }
+
+  synchronized void removeRelated(String groupId, String relation, String objectId) {
+    requireGroup(groupId);
+    Set<String> current = relations.get(relation).get(groupId);
+    if (current == null || !current.remove(objectId)) {
+      throw new GraphError(
+          404,
+          "Request_ResourceNotFound",
+          "Resource '"
+              + objectId
+              + "' does not exist or one of its queried reference-property"
+              + " objects are not present.");
+    }
+    if (MEMBERS.equals(relation)) {
+      memberOf.getOrDefault(objectId, new HashSet<>()).remove(groupId);
+      if (users.containsKey(objectId)) {
+        refreshLicenses(objectId);
+      }
+    }
+    touch(groupId);
+  }
+
+  // --- licenses
+
+  public synchronized List<JsonObject> skus() {
+    List<JsonObject> result = new ArrayList<>();
+    skus.values().forEach(sku -> result.add(withConsumedUnits(sku)));
+    return result;
+  }
+
+  /** @param id tenant-prefixed subscribedSku id. */
+  public synchronized JsonObject sku(String id) {
+    for (JsonObject sku : skus.values()) {
+      if (sku.get("id").getAsString().equals(id)) {
+        return withConsumedUnits(sku);
+      }
+    }
+    return null;
+  }
+
+  // --- delta
+
+  public synchronized long currentVersion() {
+    return version;
+  }
+
+  /**
+   * Objects changed in (since, upTo] followed by removal markers for objects deleted in that range.
+   */
+  synchronized List<JsonObject> changes(boolean ofUsers, long since, long upTo) {
+    List<JsonObject> result = new ArrayList<>();
+    for (JsonObject object : (ofUsers ? users : groups).values()) {
+      long changed = versions.getOrDefault(object.get("id").getAsString(), 0L);
+      if (changed > since && changed <= upTo) {
+        result.add(object.deepCopy());
+      }
+    }
+    for (Map.Entry<String, Long> removal : (ofUsers ? removedUsers : removedGroups).entrySet()) {
+      if (since > 0 && removal.getValue() > since && removal.getValue() <= upTo) {
+        JsonObject marker = new JsonObject();
+        marker.addProperty("id", removal.getKey());
+        JsonObject reason = new JsonObject();
+        reason.addProperty("reason", "deleted");
+        marker.add("@removed", reason);
+        result.add(marker);
+      }
+    }
+    return result;
+  }
+
+  // --- internals
+
+  private void touch(String id) {
+    versions.put(id, ++version);
+  }
+
+  private void link(String relation, String groupId, String objectId) {
+    relations.get(relation).computeIfAbsent(groupId, k -> new HashSet<>()).add(objectId);
+    if (MEMBERS.equals(relation)) {
+      memberOf.computeIfAbsent(objectId, k -> new HashSet<>()).add(groupId);
+    }
+  }
+
+  private void unlinkAll(String objectId) {
+    Set<String> groupIds = memberOf.remove(objectId);
+    if (groupIds != null) {
+      groupIds.forEach(
+          groupId -> {
+            relations.get(MEMBERS).getOrDefault(groupId, new HashSet<>()).remove(objectId);
+            touch(groupId);
+          });
+    }
+    relations.get(OWNERS).values().forEach(owners -> owners.remove(objectId));
+  }
+
+  /** members@odata.bind / owners@odata.bind values, reduced to object ids. */
+  private Map<String, List<String>> bindings(JsonObject body) {
+    Map<String, List<String>> binds = new LinkedHashMap<>();
+    for (String relation : Arrays.asList(MEMBERS, OWNERS)) {
+      JsonElement bind = body.get(relation + "@odata.bind");
+      if (bind == null || !bind.isJsonArray()) {
+        continue;
+      }
+      if (bind.getAsJsonArray().size() > MicrosoftGraphStandIn.MAX_BIND_REFERENCES) {
+        throw new GraphError(
+            400,
+            "Request_BadRequest",
+            "The request exceeds the maximum of "
+                + MicrosoftGraphStandIn.MAX_BIND_REFERENCES
+                + " references for '"
+                + relation
+                + "'.");
+      }
+      List<String> ids = new ArrayList<>();
+      for (JsonElement reference : bind.getAsJsonArray()) {
+        String url = reference.getAsString();
+        String objectId = url.substring(url.lastIndexOf('/') + 1);
+        requireObject(objectId);
+        ids.add(objectId);
+      }
+      binds.put(relation, ids);
+    }
+    return binds;
+  }
+
+  private void applyBindings(String groupId, Map<String, List<String>> binds) {
+    binds.forEach(
+        (relation, ids) ->
+            ids.forEach(
+                objectId -> {
+                  link(relation, groupId, objectId);
+                  if (MEMBERS.equals(relation) && users.containsKey(objectId)) {
+                    refreshLicenses(objectId);
+                  }
+                }));
+  }
+
+  /**
+   * Rebuilds assignedLicenses and licenseAssignmentStates of a user from its direct licenses and
+   * the licenses of the groups it is a direct member of, and keeps SKU consumption in step.
+   */
+  private void refreshLicenses(String userId) {
+    JsonObject user = users.get(userId);
+    Set<String> before = licenseIds(user);
+    JsonArray states = new JsonArray();
+    Set<String> after = new LinkedHashSet<>();
+    for (String sku : directLicenses.getOrDefault(userId, Collections.emptySet())) {
+      states.add(licenseState(sku, null));
+      after.add(sku);
+    }
+    for (String groupId : new TreeSet<>(memberOf.getOrDefault(userId, Collections.emptySet()))) {
+      for (String sku : licenseIds(groups.get(groupId))) {
+        states.add(licenseState(sku, groupId));
+        after.add(sku);
+      }
+    }
+    user.add("assignedLicenses", assignedLicenses(after));
+    user.add("licenseAssignmentStates", states);
+    for (String sku : before) {
+      if (!after.contains(sku)) {
+        consumedUnits.merge(sku, -1, Integer::sum);
+      }
+    }
+    for (String sku : after) {
+      if (!before.contains(sku)) {
+        consumedUnits.merge(sku, 1, Integer::sum);
+      }
+    }
+    if (!before.equals(after)) {
+      touch(userId);
+    }
+  }
+
+  private static JsonObject licenseState(String sku, String groupId) {
+    JsonObject state = new JsonObject();
+    state.addProperty("skuId", sku);
+    if (groupId == null) {
+      state.add("assignedByGroup", null);
+    } else {
+      state.addProperty("assignedByGroup", groupId);
+    }
+    state.addProperty("state", "Active");
+    state.addProperty("error", "None");
+    state.add("disabledPlans", new JsonArray());
+    return state;
+  }
+
+  private static Set<String> licenseIds(JsonObject object) {
+    Set<String> ids = new LinkedHashSet<>();
+    JsonElement licenses = object.get("assignedLicenses");
+    if (licenses != null && licenses.isJsonArray()) {
+      licenses
+          .getAsJsonArray()
+          .forEach(l -> ids.add(l.getAsJsonObject().get("skuId").getAsString()));
+    }
+    return ids;
+  }
+
+  private static JsonArray assignedLicenses(Collection<String> skuIds) {
+    JsonArray licenses = new JsonArray();
+    for (String sku : skuIds) {
+      JsonObject license = new JsonObject();
+      license.addProperty("skuId", sku);
+      license.add("disabledPlans", new JsonArray());
+      licenses.add(license);
+    }
+    return licenses;
+  }
+
+  private int available(String sku) {
+    return skus.get(sku).getAsJsonObject("prepaidUnits").get("enabled").getAsInt()
+        - consumedUnits.getOrDefault(sku, 0);
+  }
+
+  private JsonObject withConsumedUnits(JsonObject sku) {
+    JsonObject copy = sku.deepCopy();
+    copy.addProperty(
+        "consumedUnits", consumedUnits.getOrDefault(sku.get("skuId").getAsString(), 0));
+    return copy;
+  }
+
+  private JsonObject object(String id) {
+    JsonObject object = users.get(id);
+    if (object != null) {
+      object = object.deepCopy();
+      object.addProperty("@odata.type", "#microsoft.graph.user");
+      return object;
+    }
+    object = groups.get(id).deepCopy();
+    object.addProperty("@odata.type", "#microsoft.graph.group");
+    return object;
+  }
+
+  private JsonObject requireUser(String id) {
+    JsonObject user = users.get(id);
+    if (user == null) {
+      throw notFound(id);
+    }
+    return user;
+  }
+
+  private JsonObject requireGroup(String id) {
+    JsonObject group = groups.get(id);
+    if (group == null) {
+      throw notFound(id);
+    }
+    return group;
+  }
+
+  private void requireObject(String id) {
+    if (!users.containsKey(id) && !groups.containsKey(id)) {
+      throw notFound(id);
+    }
+  }
+
+  private void requireSku(String sku) {
+    if (!skus.containsKey(sku)) {
+      throw new GraphError(
+          400,
+          "Request_BadRequest",
+          "License " + sku + " does not correspond to a valid company License.");
+    }
+  }
+
+  private static GraphError notFound(String id) {
+    return new GraphError(
+        404,
+        "Request_ResourceNotFound",
+        "Resource '"
+            + id
+            + "' does not exist or one of its queried reference-property objects"
+            + " are not present.");
+  }
+
+  private static GraphError alreadyExists(String relation) {
+    return new GraphError(
+        400,
+        "Request_BadRequest",
+        "One or more added object references already exist for the following modified"
+            + " properties: '"
+            + relation
+            + "'.");
+  }
+
+  /** Drops write-only and navigation properties, which Graph never stores on the object. */
+  private static JsonObject writable(JsonObject body) {
+    JsonObject copy = body.deepCopy();
+    copy.remove("id");
+    copy.remove("@odata.type");
+    copy.remove("passwordProfile");
+    copy.remove(MEMBERS + "@odata.bind");
+    copy.remove(OWNERS + "@odata.bind");
+    return copy;
+  }
+
+  private static JsonArray stringArray(List<String> values) {
+    JsonArray array = new JsonArray();
+    if (values != null) {
+      values.forEach(array::add);
+    }
+    return array;
+  }
+
+  private static List<JsonObject> copies(Collection<JsonObject> objects) {
+    List<JsonObject> result = new ArrayList<>(objects.size());
+    objects.forEach(object -> result.add(object.deepCopy()));
+    return result;
+  }
+
+  /** Error returned to the client in Graph's error body format. */
+  static class GraphError extends RuntimeException {
+    final int status;
+    final String code;
+
+    GraphError(int status, String code, String message) {
+      super(message);
+      this.status = status;
+      this.code = code;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+    Copyright 2020 Exclamation Labs
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.exclamationlabs.connid.microsoft.graph.standin;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Server-side delay added to each stand-in response, sampled per request. */
+@FunctionalInterface
+public interface MicrosoftGraphStandInLatency {
+
+  /** z-score of the 99th percentile of a standard normal distribution. */
+  double Z_99 = 2.326;
+
+  long nextMillis();
+
+  static MicrosoftGraphStandInLatency none() {
+    return () -> 0L;
+  }
+
+  static MicrosoftGraphStandInLatency fixed(long millis) {
+    return () -> millis;
+  }
+
+  static MicrosoftGraphStandInLatency uniform(long minMillis, long maxMillis) {
+    return () -> ThreadLocalRandom.current().nextLong(minMillis, maxMillis + 1);
+  }
+
+  /**
+   * Long-tailed latency as observed against Graph: most requests close to the median, a few far
+   * slower.
+   *
+   * @param medianMillis 50th percentile.
+   * @param p99Millis 99th percentile, must be greater than the median.
+   */
+  static MicrosoftGraphStandInLatency logNormal(long medianMillis, long p99Millis) {
+    double sigma = Math.log((double) p99Millis / medianMillis) / Z_99;
+    return () ->
+        Math.round(medianMillis * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+  }
+}